@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the results of a JMH run with a baseline and writes the comparison as a markdown
+ * table that can be pasted in a review. Both files are in the JSON format JMH writes with
+ * {@code -rf json}, so a run can become the baseline as it is.
+ *
+ * <p>A benchmark is reported as regressed or improved only if its score moved by more than the
+ * threshold and by more than the error margins of the two runs together. Throughput is better
+ * when higher, all the other modes measure time and are better when lower.
+ *
+ * <p>Usage: {@code BaselineReport <results.json> <baseline.json> <report.md> <threshold %>
+ * [--update-baseline]}. With --update-baseline the results are merged into the baseline, which
+ * keeps the baseline of the benchmarks that were not part of the run.
+ */
+public class BaselineReport {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String PACKAGE_PREFIX =
+      "com.amazon.opendistro.elasticsearch.performanceanalyzer.";
+
+  enum Status {
+    REGRESSED, IMPROVED, UNCHANGED, NEW
+  }
+
+  static class Score {
+    final String mode;
+    final double score;
+    final double error;
+    final String unit;
+
+    Score(String mode, double score, double error, String unit) {
+      this.mode = mode;
+      this.score = score;
+      this.error = Double.isNaN(error) ? 0 : error;
+      this.unit = unit;
+    }
+
+    boolean higherIsBetter() {
+      return "thrpt".equals(mode);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 4) {
+      System.err.println(
+          "Usage: BaselineReport <results.json> <baseline.json> <report.md> <threshold %> "
+              + "[--update-baseline]");
+      System.exit(1);
+    }
+    final Path resultsPath = Paths.get(args[0]);
+    final Path baselinePath = Paths.get(args[1]);
+    final Path reportPath = Paths.get(args[2]);
+    final double threshold = Double.parseDouble(args[3]);
+    final boolean updateBaseline = args.length > 4 && "--update-baseline".equals(args[4]);
+
+    if (!Files.exists(resultsPath)) {
+      System.err.println("No results at " + resultsPath + ", run the jmh task first.");
+      System.exit(1);
+    }
+    JsonNode results = MAPPER.readTree(resultsPath.toFile());
+    JsonNode baseline =
+        Files.exists(baselinePath)
+            ? MAPPER.readTree(baselinePath.toFile())
+            : MAPPER.createArrayNode();
+
+    String report = render(scores(results), scores(baseline), threshold, baselinePath);
+    if (reportPath.getParent() != null) {
+      Files.createDirectories(reportPath.getParent());
+    }
+    Files.write(reportPath, report.getBytes(StandardCharsets.UTF_8));
+    System.out.println(report);
+
+    if (updateBaseline) {
+      if (baselinePath.getParent() != null) {
+        Files.createDirectories(baselinePath.getParent());
+      }
+      MAPPER.writerWithDefaultPrettyPrinter()
+          .writeValue(baselinePath.toFile(), merge(baseline, results));
+      System.out.println("Updated the baseline at " + baselinePath);
+    }
+  }
+
+  /** Keys every result of a run by its benchmark and its parameters. */
+  static Map<String, Score> scores(JsonNode run) {
+    Map<String, Score> scores = new LinkedHashMap<>();
+    for (JsonNode result : run) {
+      JsonNode metric = result.path("primaryMetric");
+      scores.put(
+          key(result),
+          new Score(
+              result.path("mode").asText(),
+              metric.path("score").asDouble(),
+              metric.path("scoreError").asDouble(Double.NaN),
+              metric.path("scoreUnit").asText()));
+    }
+    return scores;
+  }
+
+  static String key(JsonNode result) {
+    String benchmark = result.path("benchmark").asText();
+    if (benchmark.startsWith(PACKAGE_PREFIX)) {
+      benchmark = benchmark.substring(PACKAGE_PREFIX.length());
+    }
+    Map<String, String> params = new TreeMap<>();
+    Iterator<Map.Entry<String, JsonNode>> fields = result.path("params").fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      params.put(field.getKey(), field.getValue().asText());
+    }
+    StringBuilder key = new StringBuilder(benchmark);
+    for (Map.Entry<String, String> param : params.entrySet()) {
+      key.append(key.length() == benchmark.length() ? " " : ",")
+          .append(param.getKey()).append('=').append(param.getValue());
+    }
+    return key.toString();
+  }
+
+  static Status compare(Score current, Score base, double threshold) {
+    if (base == null || base.score == 0 || !base.unit.equals(current.unit)) {
+      return Status.NEW;
+    }
+    double change = (current.score - base.score) / base.score * 100;
+    boolean significant =
+        Math.abs(change) > threshold
+            && Math.abs(current.score - base.score) > current.error + base.error;
+    if (!significant) {
+      return Status.UNCHANGED;
+    }
+    boolean better = current.higherIsBetter() ? change > 0 : change < 0;
+    return better ? Status.IMPROVED : Status.REGRESSED;
+  }
+
+  static String render(
+      Map<String, Score> current,
+      Map<String, Score> baseline,
+      double threshold,
+      Path baselinePath) {
+    List<String> rows = new ArrayList<>();
+    int[] counts = new int[Status.values().length];
+    for (Status status : Status.values()) {
+      for (Map.Entry<String, Score> entry : current.entrySet()) {
+        Score base = baseline.get(entry.getKey());
+        Score score = entry.getValue();
+        if (compare(score, base, threshold) != status) {
+          continue;
+        }
+        counts[status.ordinal()]++;
+        rows.add(String.format("| %s | %s | %s | %s | %s | %s |",
+            entry.getKey(),
+            score.mode + ", " + score.unit,
+            base == null ? "-" : format(base),
+            format(score),
+            status == Status.NEW ? "-" : String.format("%+.1f%%",
+                (score.score - base.score) / base.score * 100),
+            status.name().toLowerCase()));
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("## Benchmark report\n\n");
+    if (baseline.isEmpty()) {
+      sb.append("No baseline at ").append(baselinePath)
+          .append(", every benchmark is reported as new.\n\n");
+    }
+    sb.append(String.format(
+        "%d regressed, %d improved, %d unchanged and %d new, with a threshold of %.1f%%.%n%n",
+        counts[Status.REGRESSED.ordinal()], counts[Status.IMPROVED.ordinal()],
+        counts[Status.UNCHANGED.ordinal()], counts[Status.NEW.ordinal()], threshold));
+    sb.append("| Benchmark | Mode | Baseline | Current | Change | Status |\n");
+    sb.append("|---|---|---:|---:|---:|---|\n");
+    for (String row : rows) {
+      sb.append(row).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static String format(Score score) {
+    return String.format("%.3f +/- %.3f", score.score, score.error);
+  }
+
+  /** The baseline with the results of this run replacing the ones of the same benchmarks. */
+  static ArrayNode merge(JsonNode baseline, JsonNode results) {
+    Map<String, JsonNode> merged = new LinkedHashMap<>();
+    for (JsonNode result : baseline) {
+      merged.put(key(result), result);
+    }
+    for (JsonNode result : results) {
+      merged.put(key(result), result);
+    }
+    ArrayNode array = MAPPER.createArrayNode();
+    merged.values().forEach(array::add);
+    return array;
+  }
+}
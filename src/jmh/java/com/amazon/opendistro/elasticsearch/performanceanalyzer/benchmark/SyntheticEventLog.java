@@ -0,0 +1,211 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLog;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLogFileHandler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes the events the writer side of a node would purge into the file of one sampling window:
+ * the OS metrics of every thread, a search and a bulk request per thread spread over the shards,
+ * the stats of every shard and the heap and thread pool metrics of the node. The keys and values
+ * have the same layout as the ones in the reader test resources.
+ */
+public class SyntheticEventLog {
+  static final int REQUESTS_PER_THREAD = 2;
+  private static final String NEW_LINE = PerformanceAnalyzerMetrics.sMetricNewLineDelimitor;
+  private static final String DELIMITER = PerformanceAnalyzerMetrics.sKeyValueDelimitor;
+
+  private final int shards;
+  private final int threads;
+
+  public SyntheticEventLog(int shards, int threads) {
+    this.shards = shards;
+    this.threads = threads;
+  }
+
+  /**
+   * Creates the events of a window. The metrics location has to be set in the PluginSettings
+   * before, as the EventLog strips it from the keys.
+   *
+   * @param windowStartTime The start time of the window, in milliseconds.
+   * @return The events, in the order the writer would purge them.
+   */
+  public List<Event> generate(long windowStartTime) {
+    final String prefix =
+        Paths.get(PluginSettings.instance().getMetricsLocation()).toString()
+            + File.separator + windowStartTime + File.separator;
+    final long now = windowStartTime + 4000;
+    final Random random = new Random(shards * 31L + threads);
+    List<Event> events = new ArrayList<>(threads * (1 + 2 * REQUESTS_PER_THREAD) + shards + 2);
+
+    events.add(event(prefix + PerformanceAnalyzerMetrics.sHeapPath, heapMetrics(now), now));
+    events.add(
+        event(prefix + PerformanceAnalyzerMetrics.sThreadPoolPath, threadPoolMetrics(now), now));
+
+    for (int t = 0; t < threads; t++) {
+      final long tid = 10000 + t;
+      final String threadPrefix = prefix + PerformanceAnalyzerMetrics.sThreadsPath
+          + File.separator + tid + File.separator;
+      events.add(
+          event(threadPrefix + PerformanceAnalyzerMetrics.sOSPath, osMetrics(t, now, random), now));
+
+      for (int r = 0; r < REQUESTS_PER_THREAD; r++) {
+        final int request = t * REQUESTS_PER_THREAD + r;
+        final int shard = request % shards;
+        final boolean bulk = r % 2 == 1;
+        final String requestPrefix = threadPrefix
+            + (bulk ? PerformanceAnalyzerMetrics.sShardBulkPath
+                    : PerformanceAnalyzerMetrics.sShardQueryPath)
+            + File.separator + request + File.separator;
+        final long startTime = windowStartTime + 100 + (request % 3000);
+        final long finishTime = startTime + 1 + random.nextInt(500);
+
+        StringBuilder start = new StringBuilder(currentTime(startTime));
+        line(start, AllMetrics.CommonMetric.START_TIME.toString(), startTime);
+        line(start, AllMetrics.CommonDimension.INDEX_NAME.toString(),
+            SyntheticMetricsDB.indexName(shard));
+        line(start, AllMetrics.CommonDimension.SHARD_ID.toString(),
+            SyntheticMetricsDB.shardId(shard));
+        if (bulk) {
+          line(start, AllMetrics.ShardBulkMetric.ITEM_COUNT.toString(), 100);
+          line(start, AllMetrics.ShardBulkDimension.PRIMARY.toString(), true);
+        }
+        events.add(event(requestPrefix + PerformanceAnalyzerMetrics.START_FILE_NAME,
+            start.toString(), startTime));
+
+        StringBuilder finish = new StringBuilder(currentTime(finishTime));
+        line(finish, AllMetrics.CommonMetric.FINISH_TIME.toString(), finishTime);
+        line(finish, AllMetrics.CommonDimension.FAILED.toString(), false);
+        line(finish, AllMetrics.CommonDimension.INDEX_NAME.toString(),
+            SyntheticMetricsDB.indexName(shard));
+        line(finish, AllMetrics.CommonDimension.SHARD_ID.toString(),
+            SyntheticMetricsDB.shardId(shard));
+        events.add(event(requestPrefix + PerformanceAnalyzerMetrics.FINISH_FILE_NAME,
+            finish.toString(), finishTime));
+      }
+    }
+
+    for (int s = 0; s < shards; s++) {
+      final String key = prefix + PerformanceAnalyzerMetrics.sIndicesPath + File.separator
+          + SyntheticMetricsDB.indexName(s) + File.separator + SyntheticMetricsDB.shardId(s);
+      events.add(event(key, shardStats(now, random), now));
+    }
+    return events;
+  }
+
+  /**
+   * Writes the events of a window to its file in the metrics location, the way the purger does.
+   *
+   * @param eventLog The serializer, in the text or the binary framing.
+   * @param windowStartTime The start time of the window, which is also the name of the file.
+   * @return The path to the file.
+   * @throws IOException if the file cannot be written.
+   */
+  public Path write(EventLog eventLog, long windowStartTime) throws IOException {
+    final String metricsLocation = PluginSettings.instance().getMetricsLocation();
+    Files.createDirectories(Paths.get(metricsLocation));
+    EventLogFileHandler handler = new EventLogFileHandler(eventLog, metricsLocation);
+    handler.writeTmpFileWithPrivilege(generate(windowStartTime), windowStartTime);
+    handler.renameFromTmpWithPrivilege(windowStartTime);
+    return Paths.get(metricsLocation, String.valueOf(windowStartTime));
+  }
+
+  private static Event event(String key, String value, long epoch) {
+    return new Event(key, value, epoch);
+  }
+
+  private static String currentTime(long time) {
+    return PerformanceAnalyzerMetrics.METRIC_CURRENT_TIME + DELIMITER + time;
+  }
+
+  private static void line(StringBuilder sb, String key, Object value) {
+    sb.append(NEW_LINE).append(key).append(DELIMITER).append(value);
+  }
+
+  private static String osMetrics(int thread, long now, Random random) {
+    StringBuilder sb = new StringBuilder(currentTime(now));
+    line(sb, "CPU_Utilization", random.nextDouble());
+    line(sb, "Paging_MajfltRate", 0.0);
+    line(sb, "Paging_MinfltRate", random.nextDouble() * 10);
+    line(sb, "Paging_RSS", 4582198.0);
+    line(sb, "Sched_Runtime", random.nextDouble() / 100);
+    line(sb, "Sched_Waittime", random.nextDouble() / 1000);
+    line(sb, "Sched_CtxRate", random.nextDouble() * 10);
+    line(sb, "Heap_AllocRate", random.nextDouble() * 1e6);
+    line(sb, "threadName", "elasticsearch[node][pool][T#" + thread + "]");
+    line(sb, "Thread_Blocked_Time", 0.0);
+    line(sb, "Thread_Blocked_Event", 0);
+    line(sb, "IO_ReadThroughput", random.nextDouble() * 1e4);
+    line(sb, "IO_WriteThroughput", random.nextDouble() * 1e4);
+    line(sb, "IO_TotThroughput", random.nextDouble() * 2e4);
+    line(sb, "IO_ReadSyscallRate", random.nextDouble() * 10);
+    line(sb, "IO_WriteSyscallRate", random.nextDouble() * 10);
+    line(sb, "IO_TotalSyscallRate", random.nextDouble() * 20);
+    return sb.toString();
+  }
+
+  private static String shardStats(long now, Random random) {
+    return "{\"current_time\":" + now + "}" + NEW_LINE
+        + "{\"Indexing_ThrottleTime\":0,\"Cache_Query_Hit\":" + random.nextInt(100)
+        + ",\"Cache_Query_Miss\":" + random.nextInt(10)
+        + ",\"Cache_Query_Size\":" + random.nextInt(1 << 20)
+        + ",\"Cache_FieldData_Eviction\":0,\"Cache_FieldData_Size\":0,\"Cache_Request_Hit\":0"
+        + ",\"Cache_Request_Miss\":0,\"Cache_Request_Eviction\":0,\"Cache_Request_Size\":0"
+        + ",\"Refresh_Event\":0,\"Refresh_Time\":0,\"Flush_Event\":0,\"Flush_Time\":0"
+        + ",\"Merge_Event\":0,\"Merge_Time\":0,\"Merge_CurrentEvent\":0,\"Indexing_Buffer\":0"
+        + ",\"Segments_Total\":" + random.nextInt(50)
+        + ",\"Segments_Memory\":" + random.nextInt(1 << 20)
+        + ",\"Terms_Memory\":" + random.nextInt(1 << 19)
+        + ",\"StoredFields_Memory\":94400,\"TermVectors_Memory\":0,\"Norms_Memory\":0"
+        + ",\"Points_Memory\":242159,\"DocValues_Memory\":46908,\"IndexWriter_Memory\":0"
+        + ",\"VersionMap_Memory\":0,\"Bitset_Memory\":0}";
+  }
+
+  private static String heapMetrics(long now) {
+    StringBuilder sb = new StringBuilder("{\"current_time\":" + now + "}");
+    for (AllMetrics.GCType type : AllMetrics.GCType.values()) {
+      sb.append(NEW_LINE)
+          .append("{\"MemType\":\"").append(type).append("\",\"GC_Collection_Event\":0")
+          .append(",\"GC_Collection_Time\":0,\"Heap_Committed\":279183360,\"Heap_Init\":279183360")
+          .append(",\"Heap_Max\":279183360,\"Heap_Used\":113876304}");
+    }
+    return sb.toString();
+  }
+
+  private static String threadPoolMetrics(long now) {
+    StringBuilder sb = new StringBuilder("{\"current_time\":" + now + "}");
+    for (AllMetrics.ThreadPoolType type : AllMetrics.ThreadPoolType.values()) {
+      sb.append(NEW_LINE)
+          .append("{\"ThreadPoolType\":\"").append(type).append("\",\"ThreadPool_QueueSize\":0")
+          .append(",\"ThreadPool_RejectedReqs\":0,\"ThreadPool_TotalThreads\":4")
+          .append(",\"ThreadPool_ActiveThreads\":1}");
+    }
+    return sb.toString();
+  }
+}
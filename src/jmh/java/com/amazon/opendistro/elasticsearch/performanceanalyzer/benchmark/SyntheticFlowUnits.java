@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.Resources;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.contexts.ResourceContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotNodeSummary;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotResourceSummary;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotShardSummary;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.ResourceUtil;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the flow units the data nodes of a cluster send to the elected master in a tick: one
+ * unhealthy node summary per node with its hot resources and its hottest shards.
+ */
+public class SyntheticFlowUnits {
+  public static final int HOT_SHARDS_PER_NODE = 5;
+
+  private SyntheticFlowUnits() {}
+
+  public static InstanceDetails.Id nodeId(int node) {
+    return new InstanceDetails.Id("node-" + node);
+  }
+
+  /**
+   * Creates a flow unit per node.
+   *
+   * @param nodes The number of data nodes in the cluster.
+   * @param timeStamp The time stamp of the flow units.
+   * @return The flow units, the i-th one coming from the i-th node.
+   */
+  public static List<ResourceFlowUnit<HotNodeSummary>> hotNodes(int nodes, long timeStamp) {
+    Random random = new Random(nodes);
+    List<ResourceFlowUnit<HotNodeSummary>> flowUnits = new ArrayList<>(nodes);
+    for (int n = 0; n < nodes; n++) {
+      HotNodeSummary summary =
+          new HotNodeSummary(nodeId(n), new InstanceDetails.Ip("10.0." + n / 256 + "." + n % 256));
+      summary.appendNestedSummary(
+          new HotResourceSummary(ResourceUtil.CPU_USAGE, 0.8, 0.8 + random.nextDouble() / 5, 60));
+      summary.appendNestedSummary(new HotResourceSummary(
+          ResourceUtil.OLD_GEN_HEAP_USAGE, 0.65, 0.65 + random.nextDouble() / 3, 600));
+      for (int s = 0; s < HOT_SHARDS_PER_NODE; s++) {
+        HotShardSummary shard = new HotShardSummary(
+            SyntheticMetricsDB.indexName(s), SyntheticMetricsDB.shardId(s), "node-" + n, 60);
+        shard.setcpuUtilization(random.nextDouble());
+        shard.setCpuUtilizationThreshold(0.5);
+        shard.setIoThroughput(random.nextDouble() * 1e6);
+        shard.setIoThroughputThreshold(5e5);
+        shard.setIoSysCallrate(random.nextDouble() * 100);
+        shard.setIoSysCallrateThreshold(50);
+        summary.appendNestedSummary(shard);
+      }
+      flowUnits.add(new ResourceFlowUnit<>(
+          timeStamp, new ResourceContext(Resources.State.UNHEALTHY), summary, true));
+    }
+    return flowUnits;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.BatchPut;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.ColumnarMetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Metric;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricAttributes;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricsModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fills a MetricsDB window with every metric the reader emits, as if it came from a node hosting
+ * the given number of shards. Metrics broken down by shard get a row per shard and operation,
+ * metrics broken down by a type (heap region, thread pool, cache) get a row per type and the
+ * other metrics a single row. The values are random but the same for the same arguments.
+ */
+public class SyntheticMetricsDB {
+  public static final String[] OPERATIONS = {"shardquery", "shardbulk", "shardfetch"};
+  public static final int SHARDS_PER_INDEX = 10;
+
+  private static final String SHARD_ID = AllMetrics.CommonDimension.SHARD_ID.toString();
+  private static final String INDEX_NAME = AllMetrics.CommonDimension.INDEX_NAME.toString();
+  private static final String OPERATION = AllMetrics.CommonDimension.OPERATION.toString();
+  private static final String SHARD_ROLE = AllMetrics.CommonDimension.SHARD_ROLE.toString();
+
+  private SyntheticMetricsDB() {}
+
+  /**
+   * Creates a populated window.
+   *
+   * @param engine {@link MetricsDB#SQLITE_ENGINE} or {@link MetricsDB#COLUMNAR_ENGINE}.
+   * @param windowStartTime The start time of the window.
+   * @param shards The number of shards on the node.
+   * @return The window, committed and ready to be queried.
+   * @throws Exception if the database cannot be created.
+   */
+  public static MetricsDB create(String engine, long windowStartTime, int shards) throws Exception {
+    MetricsDB db =
+        MetricsDB.COLUMNAR_ENGINE.equals(engine)
+            ? new ColumnarMetricsDB(windowStartTime)
+            : new MetricsDB(windowStartTime);
+    populate(db, shards);
+    return db;
+  }
+
+  public static void populate(MetricsDB db, int shards) throws Exception {
+    Random random = new Random(shards);
+    for (Map.Entry<String, MetricAttributes> entry : MetricsModel.ALL_METRICS.entrySet()) {
+      List<String> dims = new ArrayList<>(entry.getValue().dimensionNames);
+      Collections.sort(dims);
+      Metric<Double> metric = new Metric<>(entry.getKey(), 0d);
+      db.createMetric(metric, dims);
+      BatchPut batch = db.startBatchPut(metric, dims);
+      for (Object[] row : rows(dims, shards, random)) {
+        batch.bind(row);
+      }
+      batch.execute();
+    }
+    db.commit();
+  }
+
+  /** Index name of the i-th shard on the node. */
+  public static String indexName(int shard) {
+    return "index-" + shard / SHARDS_PER_INDEX;
+  }
+
+  /** Shard id of the i-th shard on the node within its index. */
+  public static String shardId(int shard) {
+    return String.valueOf(shard % SHARDS_PER_INDEX);
+  }
+
+  private static List<Object[]> rows(List<String> dims, int shards, Random random) {
+    final int operations = dims.contains(OPERATION) ? OPERATIONS.length : 1;
+    List<String> types = Collections.emptyList();
+    for (String dim : dims) {
+      List<String> pool = typesOf(dim);
+      if (!pool.isEmpty()) {
+        types = pool;
+      }
+    }
+    final int rowCount;
+    if (dims.contains(SHARD_ID)) {
+      rowCount = shards * operations;
+    } else if (!types.isEmpty()) {
+      rowCount = types.size();
+    } else {
+      rowCount = operations;
+    }
+
+    List<Object[]> rows = new ArrayList<>(rowCount);
+    for (int r = 0; r < rowCount; r++) {
+      Object[] row = new Object[dims.size() + 4];
+      int shard = r / operations;
+      for (int d = 0; d < dims.size(); d++) {
+        String dim = dims.get(d);
+        if (dim.equals(SHARD_ID)) {
+          row[d] = shardId(shard);
+        } else if (dim.equals(INDEX_NAME)) {
+          row[d] = indexName(shard);
+        } else if (dim.equals(OPERATION)) {
+          row[d] = OPERATIONS[r % operations];
+        } else if (dim.equals(SHARD_ROLE)) {
+          row[d] = shard % 2 == 0 ? "primary" : "replica";
+        } else if (!typesOf(dim).isEmpty()) {
+          row[d] = types.get(r % types.size());
+        } else {
+          row[d] = dim + "-0";
+        }
+      }
+      double min = random.nextDouble() * 100;
+      double max = min + random.nextDouble() * 100;
+      double avg = (min + max) / 2;
+      int i = dims.size();
+      row[i] = avg * 5;
+      row[i + 1] = avg;
+      row[i + 2] = min;
+      row[i + 3] = max;
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static List<String> typesOf(String dim) {
+    if (dim.equals(AllMetrics.HeapDimension.MEM_TYPE.toString())) {
+      return names(AllMetrics.GCType.values());
+    } else if (dim.equals(AllMetrics.ThreadPoolDimension.THREAD_POOL_TYPE.toString())) {
+      return names(AllMetrics.ThreadPoolType.values());
+    } else if (dim.equals(AllMetrics.CacheConfigDimension.CACHE_TYPE.toString())) {
+      return names(AllMetrics.CacheType.values());
+    }
+    return Collections.emptyList();
+  }
+
+  private static List<String> names(Object[] values) {
+    String[] names = new String[values.length];
+    for (int i = 0; i < values.length; i++) {
+      names[i] = values[i].toString();
+    }
+    return Arrays.asList(names);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark.SyntheticMetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the queries the REST API and the RCA graph issue against a window holding the metrics of
+ * a node with the given number of shards, on both MetricsDB engines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetricsDBQueryBenchmark {
+  private static final List<String> SHARD_DIMENSIONS =
+      Arrays.asList(
+          AllMetrics.CommonDimension.INDEX_NAME.toString(),
+          AllMetrics.CommonDimension.SHARD_ID.toString(),
+          AllMetrics.CommonDimension.OPERATION.toString());
+  private static final List<String> METRICS =
+      Arrays.asList(
+          AllMetrics.OSMetrics.CPU_UTILIZATION.toString(),
+          AllMetrics.OSMetrics.IO_TOT_THROUGHPUT.toString(),
+          AllMetrics.OSMetrics.HEAP_ALLOC_RATE.toString());
+
+  @Param({"10", "100", "1000"})
+  public int shards;
+
+  @Param({MetricsDB.SQLITE_ENGINE, MetricsDB.COLUMNAR_ENGINE})
+  public String engine;
+
+  private MetricsDB db;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    db = SyntheticMetricsDB.create(engine, System.currentTimeMillis(), shards);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    db.remove();
+  }
+
+  /** The whole table of a metric, as read by the leaf nodes of the RCA graph. */
+  @Benchmark
+  public Result<Record> queryWholeMetric() {
+    return db.queryMetric(AllMetrics.OSMetrics.CPU_UTILIZATION.toString());
+  }
+
+  /** A single metric grouped by shard, as the hot shard RCA asks for it. */
+  @Benchmark
+  public Result<Record> queryGroupedByShard() throws Exception {
+    return db.queryMetric(
+        Collections.singletonList(AllMetrics.OSMetrics.CPU_UTILIZATION.toString()),
+        Collections.singletonList(MetricsDB.SUM),
+        SHARD_DIMENSIONS);
+  }
+
+  /** Several metrics joined on the shard dimensions, as in a REST API request. */
+  @Benchmark
+  public Result<Record> queryJoinedMetrics() throws Exception {
+    return db.queryMetric(
+        METRICS, Arrays.asList(MetricsDB.AVG, MetricsDB.AVG, MetricsDB.AVG), SHARD_DIMENSIONS);
+  }
+
+  /** The ten busiest shards, as in a REST API request with a limit. */
+  @Benchmark
+  public Result<Record> queryTopShards() throws Exception {
+    return db.queryMetric(
+        Collections.singletonList(AllMetrics.OSMetrics.CPU_UTILIZATION.toString()),
+        Collections.singletonList(MetricsDB.SUM),
+        SHARD_DIMENSIONS,
+        10);
+  }
+}
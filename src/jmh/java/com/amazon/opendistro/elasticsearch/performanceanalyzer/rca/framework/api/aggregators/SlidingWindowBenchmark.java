@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adds a sample to a full sliding window, so that one sample leaves it as well, and reads the
+ * aggregates back, the way an RCA does in every evaluation. The samples are five seconds apart.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SlidingWindowBenchmark {
+  private static final long SAMPLE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  @Param({"60", "600", "3600"})
+  public int windowSeconds;
+
+  private SlidingWindow<SlidingWindowData> window;
+  private PercentileSlidingWindow<SlidingWindowData> percentileWindow;
+  private SplittableRandom random;
+  private long timeStamp;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    window = new SlidingWindow<>(windowSeconds, TimeUnit.SECONDS);
+    percentileWindow = new PercentileSlidingWindow<>(windowSeconds, TimeUnit.SECONDS);
+    random = new SplittableRandom(windowSeconds);
+    long samples = TimeUnit.SECONDS.toMillis(windowSeconds) / SAMPLE_INTERVAL_MILLIS + 1;
+    for (long i = 0; i < samples; i++) {
+      next();
+    }
+  }
+
+  private void next() {
+    timeStamp += SAMPLE_INTERVAL_MILLIS;
+    double value = random.nextDouble() * 100;
+    window.next(timeStamp, value);
+    percentileWindow.next(timeStamp, value);
+  }
+
+  @Benchmark
+  public double nextAndReadAggregates() {
+    timeStamp += SAMPLE_INTERVAL_MILLIS;
+    window.next(timeStamp, random.nextDouble() * 100);
+    return window.readAvg() + window.readMin() + window.readMax();
+  }
+
+  @Benchmark
+  public double nextAndReadPercentile() {
+    timeStamp += SAMPLE_INTERVAL_MILLIS;
+    percentileWindow.next(timeStamp, random.nextDouble() * 100);
+    return percentileWindow.readPercentile(99);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark.SyntheticFlowUnits;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage.Compression;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotNodeSummary;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes the flow units the data nodes of a cluster send to the elected master in a
+ * tick: each one on its own, as the flow unit RPC does, and all of them in one batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FlowUnitWireBenchmark {
+  private static final String GRAPH_NODE = "HotNodeRca";
+
+  @Param({"3", "50", "200"})
+  public int nodes;
+
+  private List<ResourceFlowUnit<HotNodeSummary>> flowUnits;
+  private List<FlowUnitMessage> messages;
+  private List<byte[]> serialized;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    flowUnits = SyntheticFlowUnits.hotNodes(nodes, System.currentTimeMillis());
+    messages = buildMessages();
+    serialized = new ArrayList<>(nodes);
+    for (FlowUnitMessage message : messages) {
+      serialized.add(message.toByteArray());
+    }
+  }
+
+  @Benchmark
+  public List<FlowUnitMessage> buildMessages() {
+    List<FlowUnitMessage> built = new ArrayList<>(flowUnits.size());
+    for (int i = 0; i < flowUnits.size(); i++) {
+      built.add(
+          flowUnits.get(i).buildFlowUnitMessage(GRAPH_NODE, SyntheticFlowUnits.nodeId(i)));
+    }
+    return built;
+  }
+
+  /** What the master does with every flow unit it receives. */
+  @Benchmark
+  public List<ResourceFlowUnit<HotNodeSummary>> parseAndRebuild() throws Exception {
+    List<ResourceFlowUnit<HotNodeSummary>> rebuilt = new ArrayList<>(serialized.size());
+    for (byte[] bytes : serialized) {
+      rebuilt.add(ResourceFlowUnit.buildFlowUnitFromWrapper(FlowUnitMessage.parseFrom(bytes)));
+    }
+    return rebuilt;
+  }
+
+  /** Building, serializing, parsing and rebuilding every flow unit. */
+  @Benchmark
+  public List<ResourceFlowUnit<HotNodeSummary>> roundTrip() throws Exception {
+    List<ResourceFlowUnit<HotNodeSummary>> rebuilt = new ArrayList<>(flowUnits.size());
+    for (int i = 0; i < flowUnits.size(); i++) {
+      byte[] bytes = flowUnits.get(i)
+          .buildFlowUnitMessage(GRAPH_NODE, SyntheticFlowUnits.nodeId(i)).toByteArray();
+      rebuilt.add(ResourceFlowUnit.buildFlowUnitFromWrapper(FlowUnitMessage.parseFrom(bytes)));
+    }
+    return rebuilt;
+  }
+
+  @Benchmark
+  public byte[] encodeBatch(BatchState batch) {
+    return FlowUnitBatchCodec.encode(messages, batch.compression).toByteArray();
+  }
+
+  @Benchmark
+  public List<FlowUnitMessage> decodeBatch(BatchState batch) throws Exception {
+    return FlowUnitBatchCodec.decode(FlowUnitBatchMessage.parseFrom(batch.encoded));
+  }
+
+  @State(Scope.Benchmark)
+  public static class BatchState {
+    @Param({"NONE", "GZIP"})
+    public String compressionName;
+
+    Compression compression;
+    byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp(FlowUnitWireBenchmark benchmark) {
+      compression = Compression.valueOf(compressionName);
+      encoded = FlowUnitBatchCodec.encode(benchmark.messages, compression).toByteArray();
+    }
+  }
+}
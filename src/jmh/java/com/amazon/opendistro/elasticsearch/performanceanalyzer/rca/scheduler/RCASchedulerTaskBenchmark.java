@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark.SyntheticMetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.GRPCConnectionManager;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.RcaTestHelper;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.ConnectedComponent;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.MetricsDBProvider;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.RcaConf;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaConsts;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaUtil;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.NodeStateManager;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.ReceivedFlowUnitStore;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.SubscriptionManager;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.WireHopper;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.store.ElasticSearchAnalysisGraph;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a tick of the {@link ElasticSearchAnalysisGraph} on a data node, with every node evaluated
+ * in every tick. The metrics come from a synthetic window and nothing leaves the process: the
+ * flow units for the master are handed to a WireHopper without a network thread pool and nothing
+ * is persisted, so the measurement is the scheduling and the evaluation of the graph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RCASchedulerTaskBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int shards;
+
+  @Param({"1", "4"})
+  public int schedulerThreads;
+
+  private MetricsDB db;
+  private ExecutorService executor;
+  private GRPCConnectionManager connectionManager;
+  private RCASchedulerTask task;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    AppContext appContext = RcaTestHelper.setMyIp("127.0.0.1", AllMetrics.NodeRole.DATA);
+    db = SyntheticMetricsDB.create(MetricsDB.SQLITE_ENGINE, System.currentTimeMillis(), shards);
+
+    List<ConnectedComponent> components =
+        RcaUtil.getAnalysisGraphComponents(new ElasticSearchAnalysisGraph());
+    RcaTestHelper.setEvaluationTimeForAllNodes(components, 1);
+    RcaConf rcaConf = new RcaConf(Paths.get(RcaConsts.TEST_CONFIG_PATH, "rca.conf").toString());
+
+    connectionManager = new GRPCConnectionManager(false);
+    SubscriptionManager subscriptionManager = new SubscriptionManager(connectionManager);
+    subscriptionManager.setCurrentLocus(rcaConf.getTagMap().get("locus"));
+    WireHopper hopper =
+        new WireHopper(
+            new NodeStateManager(appContext),
+            new NetClient(connectionManager),
+            subscriptionManager,
+            new AtomicReference<>(),
+            new ReceivedFlowUnitStore(rcaConf.getPerVertexBufferLength()),
+            appContext);
+
+    executor = Executors.newFixedThreadPool(schedulerThreads);
+    task =
+        new RCASchedulerTask(
+            Integer.MAX_VALUE,
+            executor,
+            components,
+            new SyntheticMetricsDBProvider(db),
+            null,
+            rcaConf,
+            hopper,
+            appContext);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    connectionManager.shutdown();
+    db.remove();
+  }
+
+  @Benchmark
+  public RCASchedulerTask tick() {
+    task.run();
+    return task;
+  }
+
+  /** Serves the synthetic window instead of the latest window of the reader. */
+  private static class SyntheticMetricsDBProvider extends MetricsDBProvider {
+    private final MetricsDB db;
+
+    SyntheticMetricsDBProvider(MetricsDB db) {
+      this.db = db;
+    }
+
+    @Override
+    public MetricsDB getMetricsDB() {
+      return db;
+    }
+  }
+}
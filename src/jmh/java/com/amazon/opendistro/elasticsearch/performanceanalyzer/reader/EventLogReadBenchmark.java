@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark.SyntheticEventLog;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLog;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLogFileHandler;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads the file of a sampling window and hands every event to a processor that looks at its
+ * value, which is what the reader does before the events are turned into rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EventLogReadBenchmark {
+
+  @Param({"100", "1000"})
+  public int shards;
+
+  @Param({"100", "1000"})
+  public int threads;
+
+  @Param({"false", "true"})
+  public boolean binary;
+
+  @Param({"false", "true"})
+  public boolean mmap;
+
+  private Path metricsLocation;
+  private long windowStartTime;
+  private EventLog eventLog;
+  private EventDispatcher dispatcher;
+  private ValueConsumer consumer;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    metricsLocation = Files.createTempDirectory("pa-jmh-eventlog");
+    PluginSettings.instance().setMetricsLocation(metricsLocation.toString() + File.separator);
+    windowStartTime =
+        PerformanceAnalyzerMetrics.getTimeInterval(
+            System.currentTimeMillis(), MetricsConfiguration.SAMPLING_INTERVAL);
+    eventLog = new EventLog(binary);
+    new SyntheticEventLog(shards, threads).write(eventLog, windowStartTime);
+
+    consumer = new ValueConsumer();
+    dispatcher = new EventDispatcher();
+    dispatcher.registerEventProcessor(consumer);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(metricsLocation.toFile());
+  }
+
+  @Benchmark
+  public long read() {
+    // A handler skips the windows it has read already, so every read needs its own.
+    EventLogFileHandler handler =
+        new EventLogFileHandler(eventLog, metricsLocation.toString(), mmap);
+    consumer.chars = 0;
+    handler.read(windowStartTime, dispatcher);
+    return consumer.chars;
+  }
+
+  /** Takes every event and materializes its value, so that lazily decoded values are paid for. */
+  private static class ValueConsumer implements EventProcessor {
+    long chars;
+
+    @Override
+    public void initializeProcessing(long startTime, long endTime) {}
+
+    @Override
+    public void finalizeProcessing() {}
+
+    @Override
+    public void processEvent(Event event) {
+      chars += event.value.length();
+    }
+
+    @Override
+    public boolean shouldProcessEvent(Event event) {
+      return true;
+    }
+
+    @Override
+    public void commitBatchIfRequired() {}
+  }
+}
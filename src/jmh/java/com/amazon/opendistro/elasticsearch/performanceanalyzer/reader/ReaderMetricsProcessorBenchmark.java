@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.benchmark.SyntheticEventLog;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLog;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Processes one synthetic window end to end: the events are read, loaded into the in-memory
+ * snapshots, aligned and emitted into a new MetricsDB. Every invocation starts from a new
+ * processor, as a processor only reads a window once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+public class ReaderMetricsProcessorBenchmark {
+
+  @Param({"100", "1000"})
+  public int shards;
+
+  @Param({"100", "1000"})
+  public int threads;
+
+  @Param({MetricsDB.SQLITE_ENGINE, MetricsDB.COLUMNAR_ENGINE})
+  public String engine;
+
+  private Path metricsLocation;
+  private long windowStartTime;
+  private ReaderMetricsProcessor processor;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    metricsLocation = Files.createTempDirectory("pa-jmh-reader");
+    PluginSettings.instance().setMetricsLocation(metricsLocation.toString() + File.separator);
+    PluginSettings.instance().overrideProperty(MetricsDB.DB_ENGINE_CONF_NAME, engine);
+    windowStartTime =
+        PerformanceAnalyzerMetrics.getTimeInterval(
+            System.currentTimeMillis(), MetricsConfiguration.SAMPLING_INTERVAL);
+    new SyntheticEventLog(shards, threads).write(new EventLog(), windowStartTime);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(metricsLocation.toFile());
+  }
+
+  @Setup(Level.Invocation)
+  public void newProcessor() throws Exception {
+    processor = new ReaderMetricsProcessor(metricsLocation.toString(), true, new AppContext());
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeProcessor() throws Exception {
+    processor.deleteDBs();
+    processor.shutdown();
+  }
+
+  @Benchmark
+  public ReaderMetricsProcessor processMetrics() throws Exception {
+    // The processor reads the window three sampling intervals behind the current time.
+    processor.processMetrics(
+        metricsLocation.toString(),
+        windowStartTime + 3 * MetricsConfiguration.SAMPLING_INTERVAL);
+    return processor;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators.QuantileSketch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The scheduling state of one collector: its next deadline, and how well it kept up with its
+ * deadlines since the stats were last reported. Run times and lateness are recorded from the
+ * collector threads, so the sketches are only touched while holding the lock of the schedule.
+ */
+class CollectorSchedule implements Comparable<CollectorSchedule> {
+  // precise enough to tell a collector taking 20ms from one taking 2s
+  static final double RELATIVE_ACCURACY = 0.05;
+
+  private final PerformanceAnalyzerMetricsCollector collector;
+  private long deadline;
+  // intervals the collector did not run in, because it was still running or the scheduler fell
+  // more than an interval behind
+  private final AtomicLong skippedIntervals = new AtomicLong();
+  // runs that were still in progress when their next deadline came
+  private final AtomicLong overruns = new AtomicLong();
+  private QuantileSketch runTime = new QuantileSketch(RELATIVE_ACCURACY);
+  private QuantileSketch lateness = new QuantileSketch(RELATIVE_ACCURACY);
+
+  CollectorSchedule(PerformanceAnalyzerMetricsCollector collector, long firstDeadline) {
+    this.collector = collector;
+    this.deadline = firstDeadline;
+  }
+
+  PerformanceAnalyzerMetricsCollector getCollector() {
+    return collector;
+  }
+
+  long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Moves the deadline to the next interval after now, on the same grid as the first deadline so
+   * that a late run does not shift all the later ones.
+   *
+   * @return the number of intervals passed over without running.
+   */
+  long advance(long now) {
+    long interval = collector.getTimeInterval();
+    deadline += interval;
+    if (deadline > now) {
+      return 0;
+    }
+    long missed = (now - deadline) / interval + 1;
+    deadline += missed * interval;
+    return missed;
+  }
+
+  void recordSkipped(long intervals) {
+    skippedIntervals.addAndGet(intervals);
+  }
+
+  void recordOverrun() {
+    overruns.incrementAndGet();
+  }
+
+  synchronized void recordRunTime(long millis) {
+    runTime.add(millis);
+  }
+
+  synchronized void recordLateness(long millis) {
+    lateness.add(millis);
+  }
+
+  /** The run times since the last reset, to read while holding the lock of the schedule. */
+  QuantileSketch getRunTime() {
+    return runTime;
+  }
+
+  /** The lateness since the last reset, to read while holding the lock of the schedule. */
+  QuantileSketch getLateness() {
+    return lateness;
+  }
+
+  long getSkippedIntervals() {
+    return skippedIntervals.get();
+  }
+
+  long getOverruns() {
+    return overruns.get();
+  }
+
+  /**
+   * Starts recording the stats of the next report in new sketches, so that the ones handed out by
+   * the getters can be read without the lock once it is released.
+   */
+  synchronized void reset() {
+    skippedIntervals.set(0);
+    overruns.set(0);
+    runTime = new QuantileSketch(RELATIVE_ACCURACY);
+    lateness = new QuantileSketch(RELATIVE_ACCURACY);
+  }
+
+  @Override
+  public int compareTo(CollectorSchedule other) {
+    return Long.compare(deadline, other.deadline);
+  }
+}
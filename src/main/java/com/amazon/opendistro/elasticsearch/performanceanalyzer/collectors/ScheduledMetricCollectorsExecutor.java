@@ -15,31 +15,58 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators.QuantileSketch;
+import com.google.common.annotations.VisibleForTesting;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Runs each collector once per its time interval. The collectors are kept in a queue ordered by
+ * their next deadline and this thread sleeps until the earliest one. The first deadline of every
+ * collector is jittered by up to a tenth of its interval, so that collectors with the same interval
+ * do not all start in the same millisecond. A collector still running at its next deadline is not
+ * started again; the interval is counted as skipped and the run as an overrun. The skipped
+ * intervals, run times and lateness of each collector are written to the stats log every minute.
+ */
 public class ScheduledMetricCollectorsExecutor extends Thread {
   private static final Logger LOG = LogManager.getLogger(ScheduledMetricCollectorsExecutor.class);
   private final int collectorThreadCount;
   private static final int DEFAULT_COLLECTOR_THREAD_COUNT = 5;
   private static final int COLLECTOR_THREAD_KEEPALIVE_SECS = 1000;
+  private static final int JITTER_DIVISOR = 10;
+  private static final long STATS_REPORT_INTERVAL_MILLIS = 60 * 1000;
+  static final String SKIPPED_INTERVAL_METRIC = "CollectorSkippedInterval";
   private final boolean checkFeatureDisabledFlag;
   private boolean paEnabled = false;
-  private int minTimeIntervalToSleep = Integer.MAX_VALUE;
-  private Map<PerformanceAnalyzerMetricsCollector, Long> metricsCollectors;
+  private final PriorityQueue<CollectorSchedule> schedules;
+  private final List<CollectorSchedule> allSchedules;
+  private final long statsReportIntervalMillis;
   private ThreadPoolExecutor metricsCollectorsTP;
 
   public ScheduledMetricCollectorsExecutor(
       int collectorThreadCount, boolean checkFeatureDisabledFlag) {
-    metricsCollectors = new HashMap<>();
+    this(collectorThreadCount, checkFeatureDisabledFlag, STATS_REPORT_INTERVAL_MILLIS);
+  }
+
+  @VisibleForTesting
+  ScheduledMetricCollectorsExecutor(
+      int collectorThreadCount, boolean checkFeatureDisabledFlag, long statsReportIntervalMillis) {
+    schedules = new PriorityQueue<>();
+    allSchedules = new CopyOnWriteArrayList<>();
     metricsCollectorsTP = null;
     this.collectorThreadCount = collectorThreadCount;
     this.checkFeatureDisabledFlag = checkFeatureDisabledFlag;
+    this.statsReportIntervalMillis = statsReportIntervalMillis;
   }
 
   public ScheduledMetricCollectorsExecutor() {
@@ -55,57 +82,143 @@ public class ScheduledMetricCollectorsExecutor extends Thread {
   }
 
   public void addScheduledMetricCollector(PerformanceAnalyzerMetricsCollector task) {
-    metricsCollectors.put(task, System.currentTimeMillis() + task.getTimeInterval());
-    if (task.getTimeInterval() < minTimeIntervalToSleep) {
-      minTimeIntervalToSleep = task.getTimeInterval();
+    long interval = task.getTimeInterval();
+    long jitter = ThreadLocalRandom.current().nextLong(interval / JITTER_DIVISOR + 1);
+    CollectorSchedule schedule =
+        new CollectorSchedule(task, System.currentTimeMillis() + interval + jitter);
+    allSchedules.add(schedule);
+    synchronized (schedules) {
+      schedules.add(schedule);
+      schedules.notifyAll();
+    }
+  }
+
+  @VisibleForTesting
+  CollectorSchedule getSchedule(PerformanceAnalyzerMetricsCollector collector) {
+    for (CollectorSchedule schedule : allSchedules) {
+      if (schedule.getCollector() == collector) {
+        return schedule;
+      }
     }
+    return null;
   }
 
   public void run() {
     if (metricsCollectorsTP == null) {
+      // At most one run of each collector is queued or running at a time, so the queue stays
+      // bounded by the number of collectors even when collectors are added after start.
       metricsCollectorsTP =
           new ThreadPoolExecutor(
               collectorThreadCount,
               collectorThreadCount,
               COLLECTOR_THREAD_KEEPALIVE_SECS,
               TimeUnit.SECONDS,
-              new ArrayBlockingQueue<>(metricsCollectors.size()));
+              new LinkedBlockingQueue<>());
     }
 
-    long prevStartTimestamp = System.currentTimeMillis();
+    long nextStatsReport = System.currentTimeMillis() + statsReportIntervalMillis;
+    try {
+      while (!isInterrupted()) {
+        long currentTime = System.currentTimeMillis();
+        if (currentTime >= nextStatsReport) {
+          reportStats(nextStatsReport - statsReportIntervalMillis, currentTime);
+          nextStatsReport = currentTime + statsReportIntervalMillis;
+        }
 
-    while (true) {
-      try {
-        long millisToSleep =
-            minTimeIntervalToSleep - System.currentTimeMillis() + prevStartTimestamp;
-        if (millisToSleep > 0) {
-          Thread.sleep(millisToSleep);
+        synchronized (schedules) {
+          CollectorSchedule next = schedules.peek();
+          long millisToWait = nextStatsReport - currentTime;
+          if (next != null) {
+            millisToWait = Math.min(millisToWait, next.getDeadline() - currentTime);
+          }
+          if (millisToWait > 0) {
+            schedules.wait(millisToWait);
+            continue;
+          }
+          schedules.poll();
+          dispatch(next, currentTime);
+          schedules.add(next);
         }
-      } catch (Exception ex) {
-        LOG.error("Exception in Thread Sleep", ex);
       }
+    } catch (InterruptedException ex) {
+      LOG.info("Metric collectors executor interrupted, shutting down");
+    } finally {
+      metricsCollectorsTP.shutdown();
+    }
+  }
 
-      prevStartTimestamp = System.currentTimeMillis();
-
-      if (getEnabled()) {
-        long currentTime = System.currentTimeMillis();
+  private void dispatch(CollectorSchedule schedule, long currentTime) {
+    PerformanceAnalyzerMetricsCollector collector = schedule.getCollector();
+    long due = schedule.getDeadline();
+    long missed = schedule.advance(currentTime);
+    if (!getEnabled()) {
+      return;
+    }
 
-        for (Map.Entry<PerformanceAnalyzerMetricsCollector, Long> entry :
-            metricsCollectors.entrySet()) {
-          if (entry.getValue() <= currentTime) {
-            PerformanceAnalyzerMetricsCollector collector = entry.getKey();
-            metricsCollectors.put(collector, entry.getValue() + collector.getTimeInterval());
-            if (!collector.inProgress()) {
-              collector.setStartTime(currentTime);
-              metricsCollectorsTP.execute(collector);
-            } else {
-              LOG.info(
-                  "Collector {} is still in progress, so skipping this Interval",
-                  collector.getCollectorName());
+    if (collector.inProgress()) {
+      schedule.recordOverrun();
+      missed++;
+      LOG.debug(
+          "Collector {} is still in progress, so skipping this Interval",
+          collector.getCollectorName());
+    } else {
+      schedule.recordLateness(currentTime - due);
+      collector.setStartTime(currentTime);
+      metricsCollectorsTP.execute(
+          () -> {
+            long start = System.currentTimeMillis();
+            try {
+              collector.run();
+            } finally {
+              schedule.recordRunTime(System.currentTimeMillis() - start);
             }
-          }
+          });
+    }
+
+    if (missed > 0) {
+      schedule.recordSkipped(missed);
+      for (long i = 0; i < missed; i++) {
+        StatsCollector.instance().logMetric(SKIPPED_INTERVAL_METRIC);
+      }
+    }
+  }
+
+  private void reportStats(long startTime, long endTime) {
+    for (CollectorSchedule schedule : allSchedules) {
+      QuantileSketch runTime;
+      QuantileSketch lateness;
+      Map<String, AtomicInteger> counters = new HashMap<>();
+      synchronized (schedule) {
+        runTime = schedule.getRunTime();
+        if (runTime.getCount() == 0 && schedule.getSkippedIntervals() == 0) {
+          continue;
         }
+        lateness = schedule.getLateness();
+        counters.put("runs", new AtomicInteger((int) runTime.getCount()));
+        counters.put("skippedIntervals", new AtomicInteger((int) schedule.getSkippedIntervals()));
+        counters.put("overruns", new AtomicInteger((int) schedule.getOverruns()));
+        schedule.reset();
       }
+
+      Map<String, String> statsData = new HashMap<>();
+      statsData.put("collector", schedule.getCollector().getCollectorName());
+
+      Map<String, Double> latencies = new HashMap<>();
+      putQuantiles(latencies, "runTime", runTime);
+      putQuantiles(latencies, "lateness", lateness);
+
+      StatsCollector.instance().logStatsRecord(counters, statsData, latencies, startTime, endTime);
+    }
+  }
+
+  private static void putQuantiles(
+      Map<String, Double> latencies, String name, QuantileSketch sketch) {
+    // nothing to report for a collector that only skipped intervals
+    if (sketch.getCount() == 0) {
+      return;
     }
+    latencies.put(name + "P50", sketch.getQuantile(0.5));
+    latencies.put(name + "P99", sketch.getQuantile(0.99));
+    latencies.put(name + "Max", sketch.getMax());
   }
 }
@@ -28,9 +28,11 @@ public enum StatExceptionCode {
   NETWORK_COLLECTION_ERROR("NetworkCollectionError"),
   NODESTATS_COLLECTION_ERROR("NodeStatsCollectionError"),
   OTHER_COLLECTION_ERROR("OtherCollectionError"),
+  WRITER_QUEUE_FULL_ERROR("WriterQueueFullError"),
   REQUEST_ERROR("RequestError"),
   REQUEST_REMOTE_ERROR("RequestRemoteError"),
   READER_PARSER_ERROR("ReaderParserError"),
+  READER_FILE_READ_ERROR("ReaderFileReadError"),
   READER_RESTART_PROCESSING("ReaderRestartProcessing"),
   RCA_SCHEDULER_RESTART_PROCESSING("RCASchedulerRestartProcessing"),
   RCA_NETWORK_ERROR("RcaNetworkError"),
@@ -18,7 +18,9 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricEventQueue;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.Version;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.formatter.StatsCollectorFormatter;
 import com.google.common.annotations.VisibleForTesting;
@@ -26,6 +28,7 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -149,12 +152,42 @@ public class StatsCollector extends PerformanceAnalyzerMetricsCollector {
       currentCounters.putIfAbsent(statExceptionCode.toString(), new AtomicInteger(0));
     }
 
-    writeStats(
-        metadata, currentCounters, null, null, objectCreationTime.getTime(), new Date().getTime());
+    long endTime = new Date().getTime();
+    writeStats(metadata, currentCounters, null, null, objectCreationTime.getTime(), endTime);
+    writeWriterQueueStats(
+        PerformanceAnalyzerMetrics.metricQueue, objectCreationTime.getTime(), endTime);
     collectAndWriteRcaStats();
     objectCreationTime = new Date();
   }
 
+  /**
+   * Logs how deep the queue of the metrics writer got in the period and how many events it dropped,
+   * by the thread that offered them. Nothing is logged for a period the queue was not used in.
+   */
+  private void writeWriterQueueStats(MetricEventQueue queue, long startTime, long endTime) {
+    long highWatermark = queue.getAndResetHighWatermark();
+    Map<String, Long> drops = queue.getAndResetDropCounts();
+    if (highWatermark == 0 && drops.isEmpty()) {
+      return;
+    }
+
+    Map<String, AtomicInteger> counters = new HashMap<>();
+    long periodDrops = 0;
+    for (Map.Entry<String, Long> entry : drops.entrySet()) {
+      counters.put("drops:" + entry.getKey(), new AtomicInteger(entry.getValue().intValue()));
+      periodDrops += entry.getValue();
+    }
+    counters.put("drops", new AtomicInteger((int) periodDrops));
+
+    Map<String, String> statsData = new HashMap<>();
+    statsData.put("MethodName", "WriterQueue");
+    statsData.put("overflowPolicy", queue.getOverflowPolicy().toString());
+    statsData.put("capacity", String.valueOf(queue.capacity()));
+    statsData.put("highWatermark", String.valueOf(highWatermark));
+    statsData.put("totalDrops", String.valueOf(queue.getDropCount()));
+    logStatsRecord(counters, statsData, null, startTime, endTime);
+  }
+
   private void incCounter(String counterName) {
     AtomicInteger val = counters.putIfAbsent(counterName, new AtomicInteger(1));
     if (val != null) {
@@ -44,6 +44,8 @@ public class PluginSettings {
   private static final int DELETION_INTERVAL_MAX = 60;
   private static final String HTTPS_ENABLED = "https-enabled";
   private static final String WRITER_QUEUE_SIZE = "writer-queue-size";
+  private static final String EVENT_LOG_BINARY_FORMAT = "event-log-binary-format";
+  private static final String EVENT_LOG_MMAP_READ = "event-log-mmap-read";
 
   /** Determines whether the metricsdb files should be cleaned up. */
   public static final String DB_FILE_CLEANUP_CONF_NAME = "cleanup-metrics-db-files";
@@ -55,6 +57,16 @@ public class PluginSettings {
   /** If set to true, the metricsdb files are cleaned up, or else the on-disk files are left out. */
   private boolean shouldCleanupMetricsDBFiles;
 
+  /**
+   * If set to true, the writer serializes events in the length-prefixed binary framing. The reader
+   * understands both the binary and the legacy text framing irrespective of this setting. It is off
+   * by default, as the reader of an older node only understands the text framing.
+   */
+  private boolean eventLogBinaryFormat;
+
+  /** If set to true, the reader memory maps the shared metrics files instead of copying them. */
+  private boolean eventLogMmapRead;
+
   private boolean httpsEnabled;
   private Properties settings;
   private final String configFilePath;
@@ -124,10 +136,25 @@ public class PluginSettings {
     return shouldCleanupMetricsDBFiles;
   }
 
+  public boolean shouldWriteBinaryEventLog() {
+    return eventLogBinaryFormat;
+  }
+
+  @VisibleForTesting
+  public void setEventLogBinaryFormat(boolean eventLogBinaryFormat) {
+    this.eventLogBinaryFormat = eventLogBinaryFormat;
+  }
+
+  public boolean shouldMmapEventLog() {
+    return eventLogMmapRead;
+  }
+
   private PluginSettings(String cfPath) {
     metricsLocation = METRICS_LOCATION_DEFAULT;
     metricsDeletionInterval = DELETION_INTERVAL_DEFAULT;
     writerQueueSize = WRITER_QUEUE_SIZE_DEFAULT;
+    eventLogBinaryFormat = false;
+    eventLogMmapRead = true;
     if (cfPath == null || cfPath.isEmpty()) {
       this.configFilePath = DEFAULT_CONFIG_FILE_PATH;
     } else {
@@ -142,6 +169,8 @@ public class PluginSettings {
       loadWriterQueueSizeFromConfig();
       loadHttpsEnabled();
       loadMetricsDBFilesCleanupEnabled();
+      loadEventLogBinaryFormat();
+      loadEventLogMmapRead();
     } catch (ConfigFileException e) {
       LOG.error(
           "Loading config file {} failed with error: {}. Disabling plugin.",
@@ -157,11 +186,14 @@ public class PluginSettings {
     }
     LOG.info(
         "Config: metricsLocation: {}, metricsDeletionInterval: {}, httpsEnabled: {},"
-            + " cleanup-metrics-db-files: {}",
+            + " cleanup-metrics-db-files: {}, event-log-binary-format: {},"
+            + " event-log-mmap-read: {}",
         metricsLocation,
         metricsDeletionInterval,
         httpsEnabled,
-        shouldCleanupMetricsDBFiles);
+        shouldCleanupMetricsDBFiles,
+        eventLogBinaryFormat,
+        eventLogMmapRead);
   }
 
   public static PluginSettings instance() {
@@ -272,4 +304,30 @@ public class PluginSettings {
       shouldCleanupMetricsDBFiles = true;
     }
   }
+
+  private void loadEventLogBinaryFormat() {
+    String binaryFormatString = settings.getProperty(EVENT_LOG_BINARY_FORMAT, "False");
+    try {
+      eventLogBinaryFormat = Boolean.parseBoolean(binaryFormatString);
+    } catch (Exception ex) {
+      LOG.error(
+          "Unable to parse {} property with value {}. Only true/false expected.",
+          EVENT_LOG_BINARY_FORMAT,
+          binaryFormatString);
+      eventLogBinaryFormat = false;
+    }
+  }
+
+  private void loadEventLogMmapRead() {
+    String mmapReadString = settings.getProperty(EVENT_LOG_MMAP_READ, "True");
+    try {
+      eventLogMmapRead = Boolean.parseBoolean(mmapReadString);
+    } catch (Exception ex) {
+      LOG.error(
+          "Unable to parse {} property with value {}. Only true/false expected.",
+          EVENT_LOG_MMAP_READ,
+          mmapReadString);
+      eventLogMmapRead = true;
+    }
+  }
 }
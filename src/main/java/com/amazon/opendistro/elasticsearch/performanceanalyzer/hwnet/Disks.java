@@ -16,22 +16,23 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.hwnet;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.DiskMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.DiskMetricsGenerator;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.linux.LinuxDiskMetricsGenerator;
-import com.amazon.opendistro.elasticsearch.performanceanalyzer.os.SchemaFileParser;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.os.ProcFileParser;
 import java.io.File;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class Disks {
-  private static Map<String, Map<String, Object>> diskKVMap = new HashMap<>();
-  private static Map<String, Map<String, Object>> olddiskKVMap = new HashMap<>();
+  private static Map<String, long[]> diskKVMap = new HashMap<>();
+  private static Map<String, long[]> olddiskKVMap = new HashMap<>();
   private static long kvTimestamp = 0;
   private static long oldkvTimestamp = 0;
   private static Set<String> diskList = new HashSet<>();
@@ -39,39 +40,18 @@ public class Disks {
   private static LinuxDiskMetricsGenerator linuxDiskMetricsHandler =
       new LinuxDiskMetricsGenerator();
 
-  private static String statKeys[] = {
-    "majno", // 1
-    "minno",
-    "name",
-    "rdone",
-    "rmerged",
-    "rsectors",
-    "rtime",
-    "wdone",
-    "wmerged",
-    "wsectors", // 10
-    "wtime",
-    "inprogressIO",
-    "IOtime",
-    "weightedIOtime"
-  };
-
-  private static SchemaFileParser.FieldTypes statTypes[] = {
-    SchemaFileParser.FieldTypes.INT, // 1
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.STRING,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG, // 10
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG
-  };
+  // ordinals of the fields of /proc/diskstats we use
+  private static final int NAME = 2;
+  private static final int RDONE = 3;
+  private static final int RSECTORS = 5;
+  private static final int RTIME = 6;
+  private static final int WDONE = 7;
+  private static final int WSECTORS = 9;
+  private static final int WTIME = 10;
+  // fields up to weightedIOtime, newer kernels have more that we ignore
+  private static final int STAT_FIELDS = 14;
+
+  private static final ProcFileParser parser = new ProcFileParser();
 
   static {
     Util.invokePrivileged(() -> listDisks());
@@ -102,18 +82,23 @@ public class Disks {
   }
 
   public static void addSample() {
-    olddiskKVMap.clear();
-    olddiskKVMap.putAll(diskKVMap);
+    Map<String, long[]> recycled = olddiskKVMap;
+    olddiskKVMap = diskKVMap;
+    diskKVMap = recycled;
     diskKVMap.clear();
 
-    SchemaFileParser parser = new SchemaFileParser("/proc/diskstats", statKeys, statTypes);
-    List<Map<String, Object>> sampleList = parser.parseMultiple();
-
-    for (Map<String, Object> sample : sampleList) {
-      String diskname = (String) (sample.get("name"));
-      if (!diskList.contains(diskname)) {
-        diskKVMap.put(diskname, sample);
+    try {
+      if (parser.load("/proc/diskstats")) {
+        while (parser.nextLine()) {
+          addSampleLine();
+        }
       }
+    } catch (Exception e) {
+      LOG.debug(
+          "Error in parsing /proc/diskstats with exception: {} with ExceptionCode: {}",
+          () -> e.toString(),
+          () -> StatExceptionCode.SCHEMA_PARSER_ERROR.toString());
+      StatsCollector.instance().logException(StatExceptionCode.SCHEMA_PARSER_ERROR);
     }
 
     oldkvTimestamp = kvTimestamp;
@@ -122,6 +107,24 @@ public class Disks {
     calculateDiskMetrics();
   }
 
+  private static void addSampleLine() {
+    if (parser.getTokenCount() < STAT_FIELDS) {
+      LOG.debug(
+          "/proc/diskstats has a line of {} tokens, less than {} with ExceptionCode: {}",
+          parser::getTokenCount,
+          () -> STAT_FIELDS,
+          () -> StatExceptionCode.SCHEMA_PARSER_ERROR.toString());
+      StatsCollector.instance().logException(StatExceptionCode.SCHEMA_PARSER_ERROR);
+      return;
+    }
+    String diskname = parser.getString(NAME);
+    if (!diskList.contains(diskname)) {
+      long[] sample = new long[STAT_FIELDS];
+      parser.parseLongs(sample);
+      diskKVMap.put(diskname, sample);
+    }
+  }
+
   private static void calculateDiskMetrics() {
 
     linuxDiskMetricsHandler.setDiskMetricsMap(getMetricsMap());
@@ -130,31 +133,17 @@ public class Disks {
   public static Map<String, DiskMetrics> getMetricsMap() {
     Map<String, DiskMetrics> map = new HashMap<>();
     if (kvTimestamp > oldkvTimestamp) {
-      for (Map.Entry<String, Map<String, Object>> entry: diskKVMap.entrySet()) {
+      for (Map.Entry<String, long[]> entry: diskKVMap.entrySet()) {
         String disk = entry.getKey();
-        Map<String, Object> m = entry.getValue();
-        Map<String, Object> mold = olddiskKVMap.get(disk);
+        long[] m = entry.getValue();
+        long[] mold = olddiskKVMap.get(disk);
         if (mold != null) {
           DiskMetrics dm = new DiskMetrics();
-          dm.name = (String) m.get("name");
-          double rwdeltatime =
-              1.0
-                  * ((long) m.get("rtime")
-                      + (long) m.get("wtime")
-                      - (long) mold.get("rtime")
-                      - (long) mold.get("wtime"));
-          double rwdeltaiops =
-              1.0
-                  * ((long) m.get("rdone")
-                      + (long) m.get("wdone")
-                      - (long) mold.get("rdone")
-                      - (long) mold.get("wdone"));
+          dm.name = disk;
+          double rwdeltatime = 1.0 * (m[RTIME] + m[WTIME] - mold[RTIME] - mold[WTIME]);
+          double rwdeltaiops = 1.0 * (m[RDONE] + m[WDONE] - mold[RDONE] - mold[WDONE]);
           double rwdeltasectors =
-              1.0
-                  * ((long) m.get("rsectors")
-                      + (long) m.get("wsectors")
-                      - (long) mold.get("rsectors")
-                      - (long) mold.get("wsectors"));
+              1.0 * (m[RSECTORS] + m[WSECTORS] - mold[RSECTORS] - mold[WSECTORS]);
 
           dm.utilization = rwdeltatime / (kvTimestamp - oldkvTimestamp);
           dm.await = (rwdeltaiops > 0) ? rwdeltatime / rwdeltaiops : 0;
@@ -19,10 +19,9 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.NetInt
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.linux.LinuxIPMetricsGenerator;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.os.ProcFileParser;
 import com.google.common.annotations.VisibleForTesting;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
@@ -84,6 +83,20 @@ public class NetworkInterface {
   //    static private String[] UDPkeys = null;
   //    static private String[] ICMPkeys = null;
 
+  // the keys of /proc/net/snmp6 we use, in the order of their slots in a sample
+  private static final String[] IP6_KEYS = {
+    "Ip6InReceives",
+    "Ip6OutRequests",
+    "Ip6InDelivers",
+    "Ip6OutDiscards",
+    "Ip6OutNoRoutes"
+  };
+  private static final long[] ip6Values = new long[IP6_KEYS.length];
+
+  private static final ProcFileParser parser = new ProcFileParser();
+  // /proc/net/dev has no space between the name of an interface and its received bytes
+  private static final ProcFileParser devParser = new ProcFileParser(false, true);
+
   private static LinuxIPMetricsGenerator linuxIPMetricsGenerator = new LinuxIPMetricsGenerator();
 
   static {
@@ -158,50 +171,27 @@ public class NetworkInterface {
     linuxIPMetricsGenerator.setOutNetworkInterfaceSummary(outNetwork);
   }
 
-  private static void getKeys(String line) {
+  private static void getKeys() {
     if (IPkeys != null) {
-      // { && TCPkeys != null &&
-      // UDPkeys != null && ICMPkeys != null) {
       return;
     }
-    if (line.startsWith("Ip:")) {
-      IPkeys = line.split("\\s+");
-    } /*else if (line.startsWith("Icmp:")) {
-          ICMPkeys = line.split("\\s+");
-      } else if (line.startsWith("Tcp:")) {
-          TCPkeys = line.split("\\s+");
-      } else if (line.startsWith("Udp:")) {
-          UDPkeys = line.split("\\s+");
-      }*/
-  }
-
-  private static void generateMap(String line) {
-    Map<String, Long> map = null;
-    String[] keys = null;
-    if (line.startsWith("Ip:")) {
-      map = currentMetrics.IPmetrics;
-      keys = IPkeys;
-    } /*else if (line.startsWith("Icmp:")) {
-          map = currentMetrics.ICMPmetrics;
-          keys = ICMPkeys;
-      } else if (line.startsWith("Tcp:")) {
-          map = currentMetrics.TCPmetrics;
-          keys = TCPkeys;
-      } else if (line.startsWith("Udp:")) {
-          map = currentMetrics.UDPmetrics;
-          keys = UDPkeys;
-      }*/
-    if (keys != null) {
-      generateMap(line, keys, map);
+    if (parser.tokenEquals(0, "Ip:")) {
+      String[] keys = new String[parser.getTokenCount()];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = parser.getString(i);
+      }
+      IPkeys = keys;
     }
   }
 
-  private static void generateMap(String line, String[] keys, Map<String, Long> map) {
-    String[] values = line.split("\\s+");
-    int count = values.length;
-    map.put(keys[0], 0L);
-    for (int i = 1; i < count; i++) {
-      map.put(keys[i], Long.parseLong(values[i]));
+  private static void generateMap() {
+    if (IPkeys != null && parser.tokenEquals(0, "Ip:")) {
+      Map<String, Long> map = currentMetrics.IPmetrics;
+      int count = Math.min(parser.getTokenCount(), IPkeys.length);
+      map.put(IPkeys[0], 0L);
+      for (int i = 1; i < count; i++) {
+        map.put(IPkeys[i], parser.getLong(i));
+      }
     }
   }
 
@@ -214,16 +204,16 @@ public class NetworkInterface {
     oldkvTimestamp = kvTimestamp;
     kvTimestamp = System.currentTimeMillis();
 
-    try (FileReader fileReader = new FileReader(new File("/proc/net/snmp"));
-        BufferedReader bufferedReader = new BufferedReader(fileReader); ) {
-      String line = null;
-      while ((line = bufferedReader.readLine()) != null) {
-        if (ln % 2 == 0) { // keys
-          getKeys(line);
-        } else {
-          generateMap(line);
+    try {
+      if (parser.load("/proc/net/snmp")) {
+        while (parser.nextLine()) {
+          if (ln % 2 == 0) { // keys
+            getKeys();
+          } else {
+            generateMap();
+          }
+          ln++;
         }
-        ln++;
       }
     } catch (Exception e) {
       LOG.debug(
@@ -239,13 +229,12 @@ public class NetworkInterface {
     oldMetrics6.putAll(currentMetrics6);
     currentMetrics6.clear();
 
-    try (FileReader fileReader = new FileReader(new File("/proc/net/snmp6"));
-        BufferedReader bufferedReader = new BufferedReader(fileReader); ) {
-      String line = null;
-      while ((line = bufferedReader.readLine()) != null) {
-        String[] toks = line.split("[ \\t]+");
-        if (toks.length > 1) {
-          currentMetrics6.put(toks[0], Long.parseLong(toks[1]));
+    try {
+      if (parser.load("/proc/net/snmp6")) {
+        Arrays.fill(ip6Values, 0L);
+        parser.parseKeyValues(IP6_KEYS, ip6Values);
+        for (int i = 0; i < IP6_KEYS.length; i++) {
+          currentMetrics6.put(IP6_KEYS[i], ip6Values[i]);
         }
       }
     } catch (Exception e) {
@@ -259,22 +248,24 @@ public class NetworkInterface {
 
   // this assumes that addSample4() is called
   private static void addDeviceStats() {
-    try (FileReader fileReader = new FileReader(new File("/proc/net/dev"));
-        BufferedReader bufferedReader = new BufferedReader(fileReader); ) {
-      String line = null;
+    try {
+      if (!devParser.load("/proc/net/dev")) {
+        return;
+      }
+      int ln = 0;
       long intotbytes = 0;
       long outtotbytes = 0;
       long intotpackets = 0;
       long outtotpackets = 0;
-      while ((line = bufferedReader.readLine()) != null) {
-        if (line.contains("Receive") || line.contains("packets")) {
+      while (devParser.nextLine()) {
+        // the first two lines are the headers of the columns
+        if (ln++ < 2 || devParser.getTokenCount() < 11) {
           continue;
         }
-        String[] toks = line.trim().split(" +");
-        intotbytes += Long.parseLong(toks[1]);
-        intotpackets += Long.parseLong(toks[2]);
-        outtotbytes += Long.parseLong(toks[9]);
-        outtotpackets += Long.parseLong(toks[10]);
+        intotbytes += devParser.getLong(1);
+        intotpackets += devParser.getLong(2);
+        outtotbytes += devParser.getLong(9);
+        outtotpackets += devParser.getLong(10);
       }
       currentMetrics.PHYmetrics.put("inbytes", intotbytes);
       currentMetrics.PHYmetrics.put("inpackets", intotpackets);
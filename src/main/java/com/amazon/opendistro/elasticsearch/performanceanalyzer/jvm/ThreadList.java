@@ -18,20 +18,30 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.jvm;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.OSMetricsGeneratorFactory;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
 import com.sun.tools.attach.VirtualMachine;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
@@ -39,7 +49,19 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import sun.tools.attach.HotSpotVirtualMachine;
 
-/** Traverses and prints the stack traces for all Java threads in the remote VM */
+/**
+ * Keeps the java threads of this VM mapped to their native tids. The map is kept from one sample to
+ * the next and only the threads started since are resolved. A thread asking for its own state is
+ * mapped exactly, through /proc/thread-self. The others are mapped when the comm of a native thread
+ * not mapped yet is unique to them.
+ *
+ * <p>Linux keeps only the first 15 characters of a thread name as its comm, and the Elasticsearch
+ * pool threads all share the "elasticsearch[n" prefix, so the comm resolves little more than the
+ * threads of the VM with short names. The pool threads that have not asked for their own state are
+ * left to a full thread dump through the attach API. The dump runs at a safepoint of the VM, so it
+ * is only run from the periodic refresh and rate limited; until it is due those threads are not
+ * mapped.
+ */
 public class ThreadList {
   private static final Map<Long, String> jTidNameMap = new ConcurrentHashMap<>();
   private static final Map<Long, ThreadState> nativeTidMap = new ConcurrentHashMap<>();
@@ -55,6 +77,22 @@ public class ThreadList {
   private static final Pattern linePattern = Pattern.compile("\"([^\"]*)\"");
   private static long lastRunTime = 0;
 
+  public static final String FULL_DUMP_INTERVAL_CONF_NAME = "thread-dump-min-interval-millis";
+  public static final String JVM_ATTACH_METRIC = "JvmAttach";
+  private static final long DEFAULT_FULL_DUMP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+  private static final long fullDumpInterval = getFullDumpInterval();
+  private static long lastFullDumpTime = 0;
+  // Linux keeps the first 15 characters of the name of a thread as its comm
+  private static final int COMM_LENGTH = 15;
+  private static final AtomicLong attachCount = new AtomicLong();
+  private static final AtomicLong threadDumpNanos = new AtomicLong();
+  private static final Map<String, String> STATS_DATA = new HashMap<>();
+  private static final Map<String, Double> TIMING_STATS = new HashMap<>();
+
+  static {
+    STATS_DATA.put("MethodName", "ThreadDump");
+  }
+
   public static class ThreadState {
     public long javaTid;
     public long nativeTid;
@@ -68,6 +106,9 @@ public class ThreadList {
     public double heapAllocRate;
     public double avgBlockedTime;
 
+    // false for the threads of the VM itself, which only show up in thread dumps
+    boolean javaThread;
+
     ThreadState() {
       javaTid = -1;
       nativeTid = -1;
@@ -104,12 +145,28 @@ public class ThreadList {
     }
   }
 
+  private static long getFullDumpInterval() {
+    try {
+      return Long.parseLong(
+          PluginSettings.instance()
+              .getSettingValue(
+                  FULL_DUMP_INTERVAL_CONF_NAME, String.valueOf(DEFAULT_FULL_DUMP_INTERVAL_MS))
+              .trim());
+    } catch (Exception ex) {
+      LOGGER.error(
+          "Invalid value for {}, using {}",
+          FULL_DUMP_INTERVAL_CONF_NAME,
+          DEFAULT_FULL_DUMP_INTERVAL_MS);
+      return DEFAULT_FULL_DUMP_INTERVAL_MS;
+    }
+  }
+
   public static Map<Long, ThreadState> getNativeTidMap() {
     synchronized (ThreadList.class) {
       if (System.currentTimeMillis() > lastRunTime + minRunInterval) {
-        runThreadDump(pid, new String[0]);
+        refreshThreads();
       }
-      // - sending a copy so that if runThreadDump next iteration clears it; caller still has the
+      // - sending a copy so that if the next refresh forgets threads; caller still has the
       // state at the call time
       // - not too expensive as this is only being called from Scheduled Collectors (only once in
       // few seconds)
@@ -131,15 +188,26 @@ public class ThreadList {
         return retVal;
       }
 
-      runThreadDump(pid, new String[0]);
+      if (threadId == Thread.currentThread().getId()) {
+        retVal = resolveCurrentThread();
+        if (retVal != null) {
+          return retVal;
+        }
+      }
+
+      // Threads the comm does not tell apart wait for the next full dump of the periodic refresh,
+      // rather than stopping the VM from the thread that asked.
+      resolveNewThreads(getAllThreadInfos());
     }
 
     return jTidMap.get(threadId);
   }
 
   // Attach to pid and perform a thread dump
-  private static void runAttachDump(String pid, String[] args) {
+  private static boolean runAttachDump(String pid, String[] args) {
     VirtualMachine vm = null;
+    attachCount.incrementAndGet();
+    StatsCollector.instance().logMetric(JVM_ATTACH_METRIC);
     try {
       vm = VirtualMachine.attach(pid);
     } catch (Exception ex) {
@@ -148,11 +216,14 @@ public class ThreadList {
           () -> ex.toString(),
           () -> StatExceptionCode.JVM_ATTACH_ERROR.toString());
       StatsCollector.instance().logException(StatExceptionCode.JVM_ATTACH_ERROR);
-      return;
+      return false;
     }
 
+    boolean dumped = false;
+    long start = System.nanoTime();
     try (InputStream in = ((HotSpotVirtualMachine) vm).remoteDataDump(args); ) {
       createMap(in);
+      dumped = true;
     } catch (Exception ex) {
       LOGGER.debug(
           "Cannot list threads with exception: {} with ExceptionCode: {}",
@@ -160,6 +231,8 @@ public class ThreadList {
           () -> StatExceptionCode.JVM_ATTACH_ERROR.toString());
       StatsCollector.instance().logException(StatExceptionCode.JVM_ATTACH_ERROR);
     }
+    long dumpNanos = System.nanoTime() - start;
+    threadDumpNanos.addAndGet(dumpNanos);
 
     try {
       vm.detach();
@@ -170,6 +243,16 @@ public class ThreadList {
           () -> StatExceptionCode.JVM_ATTACH_ERROR.toString());
       StatsCollector.instance().logException(StatExceptionCode.JVM_ATTACH_ERROR);
     }
+
+    TIMING_STATS.put("threadDump", (double) TimeUnit.NANOSECONDS.toMillis(dumpNanos));
+    // The dump runs at a safepoint, so the total is the time the application threads were stopped
+    // on our account.
+    TIMING_STATS.put(
+        "threadDumpTotal", (double) TimeUnit.NANOSECONDS.toMillis(threadDumpNanos.get()));
+    TIMING_STATS.put("jvmAttachTotal", (double) attachCount.get());
+    StatsCollector.instance()
+        .logStatsRecord(null, STATS_DATA, TIMING_STATS, start, System.currentTimeMillis());
+    return dumped;
   }
 
   public static void parseAllThreadInfos(ThreadInfo[] infos) {
@@ -191,8 +274,7 @@ public class ThreadList {
   }
 
   // ThreadMXBean-based info for tid, name and allocs
-  private static void runMXDump() {
-    ThreadInfo[] infos = getAllThreadInfos();
+  private static void runMXDump(ThreadInfo[] infos) {
     parseAllThreadInfos(infos);
     ThreadHistory.cleanup();
   }
@@ -210,6 +292,11 @@ public class ThreadList {
     if (t == null) {
       return;
     }
+    // the state of a thread is kept from one sample to the next, the rates are computed against
+    // what it was at the last sample
+    long oldHeapUsage = t.heapUsage;
+    long oldBlockedCount = t.blockedCount;
+    long oldBlockedTime = t.blockedTime;
     t.heapUsage = mem;
     t.state = state;
     t.blockedCount = info.getBlockedCount();
@@ -217,13 +304,12 @@ public class ThreadList {
     ThreadHistory.add(t.nativeTid, (state == Thread.State.BLOCKED) ? samplingInterval : 0);
 
     long curRunTime = System.currentTimeMillis();
-    ThreadState oldt = oldNativeTidMap.get(t.nativeTid);
-    if (curRunTime > lastRunTime && oldt != null) {
+    if (curRunTime > lastRunTime && oldHeapUsage != -1) {
       t.heapAllocRate =
-              Math.max(t.heapUsage - oldt.heapUsage, 0) * 1.0e3 / (curRunTime - lastRunTime);
-      if (t.blockedTime != -1 && t.blockedCount > oldt.blockedCount) {
+              Math.max(t.heapUsage - oldHeapUsage, 0) * 1.0e3 / (curRunTime - lastRunTime);
+      if (t.blockedTime != -1 && t.blockedCount > oldBlockedCount) {
         t.avgBlockedTime =
-                1.0e-3 * (t.blockedTime - oldt.blockedTime) / (t.blockedCount - oldt.blockedCount);
+                1.0e-3 * (t.blockedTime - oldBlockedTime) / (t.blockedCount - oldBlockedCount);
       } else {
         CircularLongArray arr = ThreadHistory.tidHistoryMap.get(t.nativeTid);
         // NOTE: this is an upper bound
@@ -235,18 +321,170 @@ public class ThreadList {
     jTidNameMap.put(id, name);
   }
 
+  private static void refreshThreads() {
+    ThreadInfo[] infos = getAllThreadInfos();
+    if (!resolveNewThreads(infos)) {
+      runFullDumpIfDue();
+    }
+    runMXDump(infos);
+    lastRunTime = System.currentTimeMillis();
+  }
+
+  private static void runFullDumpIfDue() {
+    long now = System.currentTimeMillis();
+    if (lastFullDumpTime == 0 || now - lastFullDumpTime >= fullDumpInterval) {
+      dumpThreads(pid, new String[0]);
+    }
+  }
+
   static void runThreadDump(String pid, String[] args) {
+    dumpThreads(pid, args);
+    runMXDump(getAllThreadInfos());
+
+    lastRunTime = System.currentTimeMillis();
+  }
+
+  // Rebuilds the map from a full thread dump, keeping the state of the threads already mapped.
+  private static void dumpThreads(String pid, String[] args) {
     jTidNameMap.clear();
+    oldNativeTidMap.clear();
     oldNativeTidMap.putAll(nativeTidMap);
     nativeTidMap.clear();
     jTidMap.clear();
     nameMap.clear();
 
     // TODO: make this map update atomic
-    Util.invokePrivileged(() -> runAttachDump(pid, args));
-    runMXDump();
+    boolean[] dumped = new boolean[1];
+    Util.invokePrivileged(() -> dumped[0] = runAttachDump(pid, args));
+    if (!dumped[0]) {
+      // keep the threads we knew of rather than forgetting all of them
+      for (ThreadState t : oldNativeTidMap.values()) {
+        addThread(t);
+      }
+    }
+    lastFullDumpTime = System.currentTimeMillis();
+  }
 
-    lastRunTime = System.currentTimeMillis();
+  private static void addThread(ThreadState t) {
+    nativeTidMap.put(t.nativeTid, t);
+    jTidMap.put(t.javaTid, t);
+    nameMap.put(t.threadName, t); // XXX: we assume no collisions
+  }
+
+  /**
+   * Forgets the threads that exited and maps the java threads started since the last sample to
+   * their native tids, by matching the comm of the native threads not mapped yet against the first
+   * characters of their names.
+   *
+   * @param infos The java threads alive.
+   * @return false if some java threads could not be mapped.
+   */
+  private static boolean resolveNewThreads(ThreadInfo[] infos) {
+    Set<Long> alive = new HashSet<>();
+    List<ThreadInfo> unresolved = new ArrayList<>();
+    for (ThreadInfo info : infos) {
+      if (info == null) {
+        continue;
+      }
+      alive.add(info.getThreadId());
+      if (!jTidMap.containsKey(info.getThreadId())) {
+        unresolved.add(info);
+      }
+    }
+    for (Iterator<ThreadState> it = nativeTidMap.values().iterator(); it.hasNext(); ) {
+      ThreadState t = it.next();
+      if (t.javaThread ? !alive.contains(t.javaTid) : !taskExists(t.nativeTid)) {
+        it.remove();
+        jTidMap.remove(t.javaTid, t);
+        nameMap.remove(t.threadName, t);
+      }
+    }
+    if (unresolved.isEmpty()) {
+      return true;
+    }
+
+    Map<String, List<Long>> unmappedTasks = new HashMap<>();
+    Util.invokePrivileged(() -> listUnmappedTasks(unmappedTasks));
+    Map<String, Integer> unresolvedPerComm = new HashMap<>();
+    for (ThreadInfo info : unresolved) {
+      unresolvedPerComm.merge(toComm(info.getThreadName()), 1, Integer::sum);
+    }
+    int resolved = 0;
+    for (ThreadInfo info : unresolved) {
+      String comm = toComm(info.getThreadName());
+      List<Long> tasks = unmappedTasks.get(comm);
+      // a comm shared by several threads tells nothing about which is which
+      if (tasks != null && tasks.size() == 1 && unresolvedPerComm.get(comm) == 1) {
+        addThread(newJavaThread(info.getThreadId(), tasks.get(0), info.getThreadName()));
+        resolved++;
+      }
+    }
+    LOGGER.debug("Mapped {} of {} new threads by name", resolved, unresolved.size());
+    return resolved == unresolved.size();
+  }
+
+  private static void listUnmappedTasks(Map<String, List<Long>> unmappedTasks) {
+    File[] tasks = new File("/proc/" + pid + "/task").listFiles();
+    if (tasks == null) {
+      return;
+    }
+    for (File task : tasks) {
+      try {
+        long nativeTid = Long.parseLong(task.getName());
+        if (nativeTidMap.containsKey(nativeTid)) {
+          continue;
+        }
+        String comm =
+            new String(
+                Files.readAllBytes(Paths.get(task.getPath(), "comm")), StandardCharsets.UTF_8);
+        unmappedTasks.computeIfAbsent(comm.trim(), c -> new ArrayList<>(1)).add(nativeTid);
+      } catch (Exception ex) {
+        // the thread exited while we were listing the others
+        LOGGER.debug("Cannot read comm of {} with exception: {}", task, ex.toString());
+      }
+    }
+  }
+
+  private static boolean taskExists(long nativeTid) {
+    boolean[] exists = new boolean[1];
+    Util.invokePrivileged(
+        () -> exists[0] = new File("/proc/" + pid + "/task/" + nativeTid).exists());
+    return exists[0];
+  }
+
+  // The native tid of the calling thread is the name of the task /proc/thread-self points to.
+  @Nullable
+  private static ThreadState resolveCurrentThread() {
+    long[] nativeTid = {-1};
+    Util.invokePrivileged(
+        () -> {
+          try {
+            nativeTid[0] =
+                Long.parseLong(new File("/proc/thread-self").getCanonicalFile().getName());
+          } catch (Exception ex) {
+            LOGGER.debug("Cannot resolve /proc/thread-self with exception: {}", ex.toString());
+          }
+        });
+    if (nativeTid[0] == -1) {
+      return null;
+    }
+    Thread current = Thread.currentThread();
+    ThreadState t = newJavaThread(current.getId(), nativeTid[0], current.getName());
+    addThread(t);
+    return t;
+  }
+
+  private static ThreadState newJavaThread(long javaTid, long nativeTid, String name) {
+    ThreadState t = new ThreadState();
+    t.javaTid = javaTid;
+    t.nativeTid = nativeTid;
+    t.threadName = name;
+    t.javaThread = true;
+    return t;
+  }
+
+  private static String toComm(String threadName) {
+    return threadName.length() > COMM_LENGTH ? threadName.substring(0, COMM_LENGTH) : threadName;
   }
 
   private static void parseLine(String line) {
@@ -266,6 +504,7 @@ public class ThreadList {
                     .split(Pattern.quote("\"" + t.threadName + "\" "))[1]
                     .split(" ")[0]
                     .split("#")[1]);
+        t.javaThread = true;
       }
     }
 
@@ -283,9 +522,16 @@ public class ThreadList {
       }
     }
     t.tState = tokens[2]; // TODO: stuff like "in Object.wait()"
-    nativeTidMap.put(t.nativeTid, t);
-    jTidMap.put(t.javaTid, t);
-    nameMap.put(t.threadName, t); // XXX: we assume no collisions
+    ThreadState oldt = oldNativeTidMap.get(t.nativeTid);
+    if (oldt != null && oldt.javaTid == t.javaTid) {
+      // same thread as before the dump, carry over what the rates are computed against
+      t.heapUsage = oldt.heapUsage;
+      t.blockedCount = oldt.blockedCount;
+      t.blockedTime = oldt.blockedTime;
+      t.heapAllocRate = oldt.heapAllocRate;
+      t.avgBlockedTime = oldt.avgBlockedTime;
+    }
+    addThread(t);
   }
 
   private static void createMap(InputStream in) throws Exception {
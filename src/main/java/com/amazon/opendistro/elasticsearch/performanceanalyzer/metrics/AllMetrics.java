@@ -914,7 +914,10 @@ public class AllMetrics {
   }
 
   public enum ShardOperationMetric implements MetricValue {
-    SHARD_OP_COUNT(Constants.SHARD_OP_COUNT_VALUE);
+    SHARD_OP_COUNT(Constants.SHARD_OP_COUNT_VALUE),
+    LATENCY_P50(Constants.LATENCY_P50_VALUE),
+    LATENCY_P90(Constants.LATENCY_P90_VALUE),
+    LATENCY_P99(Constants.LATENCY_P99_VALUE);
 
     private final String value;
 
@@ -929,6 +932,9 @@ public class AllMetrics {
 
     public static class Constants {
       public static final String SHARD_OP_COUNT_VALUE = "ShardEvents";
+      public static final String LATENCY_P50_VALUE = "ShardLatencyP50";
+      public static final String LATENCY_P90_VALUE = "ShardLatencyP90";
+      public static final String LATENCY_P99_VALUE = "ShardLatencyP99";
     }
   }
 
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLogFileHandler;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The bounded queue the collectors hand their events to and the writer purges into the shared
+ * metrics files. Any number of threads can offer events without taking a lock: a producer claims a
+ * slot of a ring with a CAS on the tail and publishes the event through the sequence number of the
+ * slot. There must be a single consumer at a time; the drain methods are synchronized so that two
+ * purges never interleave, which costs the producers nothing.
+ *
+ * <p>When the ring is full the event is dropped and counted against the thread that offered it.
+ * With {@link OverflowPolicy#KEEP_NEWEST}, the queue instead keeps the newest event of every key
+ * that did not fit, up to the capacity of the ring, and a drain hands them out after the events of
+ * the ring. While such events are waiting, the producers add to them rather than to the ring so
+ * that the newest event of a key is always the last one drained. The producers are only sent back
+ * to the ring once the kept events are all drained and no producer is in the middle of adding one,
+ * which the consumer checks with a CAS on a sequence every producer bumps when it starts adding.
+ */
+public class MetricEventQueue {
+  public enum OverflowPolicy {
+    /** Drop the events that do not fit. */
+    DROP,
+    /** Keep the newest event of every key that does not fit, replacing the older one. */
+    KEEP_NEWEST;
+
+    /** Parses a setting value such as "drop" or "keep-newest". */
+    public static OverflowPolicy fromString(String value) {
+      return valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  private final int capacity;
+  private final int mask;
+  private final OverflowPolicy overflowPolicy;
+  private final AtomicReferenceArray<Event> slots;
+  // The position a slot is ready to be written at, or that position + 1 once it can be read.
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  // Only moved by the consumer; volatile so that the producers can see how deep the queue is.
+  private volatile long head;
+
+  private final AtomicLong highWatermark = new AtomicLong();
+  private final Map<String, LongAdder> drops = new ConcurrentHashMap<>();
+  private final LongAdder totalDrops = new LongAdder();
+
+  private final Map<String, Event> overflow = new ConcurrentHashMap<>();
+  // Whether the producers add to the overflow rather than to the ring, how many of them are adding
+  // to it right now and a sequence bumped by every producer that starts to.
+  private static final long OVERFLOWING = 1L << 62;
+  private static final long WRITER = 1L << 32;
+  private static final long WRITERS = OVERFLOWING - WRITER;
+  private static final long SEQUENCE = WRITER - 1;
+  private final AtomicLong overflowState = new AtomicLong();
+
+  /**
+   * @param capacity The number of events the ring holds, rounded up to a power of two.
+   * @param overflowPolicy What to do with the events offered while the ring is full.
+   */
+  public MetricEventQueue(int capacity, OverflowPolicy overflowPolicy) {
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    this.capacity =
+        Integer.highestOneBit(capacity) == capacity
+            ? capacity
+            : Integer.highestOneBit(capacity) << 1;
+    this.mask = this.capacity - 1;
+    this.overflowPolicy = overflowPolicy;
+    this.slots = new AtomicReferenceArray<>(this.capacity);
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds an event to the queue.
+   *
+   * @return false if the event was dropped. With {@link OverflowPolicy#KEEP_NEWEST} an event that
+   *     did not fit in the ring but was kept as the newest of its key counts as added.
+   */
+  public boolean offer(Event event) {
+    if ((overflowState.get() & OVERFLOWING) != 0 && startKeepingNewest(false)) {
+      return keepNewest(event);
+    }
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long available = sequences.get(index) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = tail.get();
+      } else if (available < 0) {
+        // The slot still holds the event of the previous lap: the ring is full.
+        if (overflowPolicy == OverflowPolicy.KEEP_NEWEST) {
+          startKeepingNewest(true);
+          return keepNewest(event);
+        }
+        recordDrop();
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+    int index = (int) position & mask;
+    slots.lazySet(index, event);
+    sequences.set(index, position + 1);
+
+    // The consumer publishes its head once per drain, so the depth is over-estimated during one.
+    long depth = Math.min(position + 1 - head, capacity);
+    if (depth > highWatermark.get()) {
+      highWatermark.accumulateAndGet(depth, Math::max);
+    }
+    return true;
+  }
+
+  /**
+   * Registers the producer as adding to the overflow.
+   *
+   * @param start Whether to start overflowing if the queue does not already.
+   * @return false if the queue does not overflow any more and start is not set.
+   */
+  private boolean startKeepingNewest(boolean start) {
+    long state = overflowState.get();
+    while ((state & OVERFLOWING) != 0 || start) {
+      long next = ((state | OVERFLOWING) + WRITER) & ~SEQUENCE | ((state + 1) & SEQUENCE);
+      if (overflowState.compareAndSet(state, next)) {
+        return true;
+      }
+      state = overflowState.get();
+    }
+    return false;
+  }
+
+  /**
+   * Keeps the event as the newest of its key, unless as many keys as the ring holds are kept, and
+   * unregisters the producer.
+   */
+  private boolean keepNewest(Event event) {
+    try {
+      if (overflow.size() >= capacity && !overflow.containsKey(event.key)) {
+        recordDrop();
+        return false;
+      }
+      if (overflow.put(event.key, event) != null) {
+        // The older event of the key is lost.
+        recordDrop();
+      }
+      return true;
+    } finally {
+      overflowState.addAndGet(-WRITER);
+    }
+  }
+
+  private void recordDrop() {
+    totalDrops.increment();
+    drops.computeIfAbsent(Thread.currentThread().getName(), k -> new LongAdder()).increment();
+  }
+
+  /** Moves every event of the queue to the collection, oldest first. */
+  public int drainTo(Collection<? super Event> events) {
+    return drainTo(events, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Moves at most maxEvents events of the queue to the collection, oldest first.
+   *
+   * @return The number of events moved.
+   */
+  public synchronized int drainTo(Collection<? super Event> events, int maxEvents) {
+    int drained = 0;
+    long position = head;
+    while (drained < maxEvents) {
+      int index = (int) position & mask;
+      if (sequences.get(index) != position + 1) {
+        // Empty, or the producer that claimed the slot has not published its event yet.
+        break;
+      }
+      events.add(slots.get(index));
+      slots.lazySet(index, null);
+      sequences.set(index, position + capacity);
+      position++;
+      drained++;
+    }
+    head = position;
+
+    long state = overflowState.get();
+    if ((state & OVERFLOWING) != 0 && drained < maxEvents && position == tail.get()) {
+      // The ring is empty, so the events kept while it was full are the newest ones.
+      Iterator<Map.Entry<String, Event>> it = overflow.entrySet().iterator();
+      while (it.hasNext() && drained < maxEvents) {
+        Map.Entry<String, Event> entry = it.next();
+        if (overflow.remove(entry.getKey(), entry.getValue())) {
+          events.add(entry.getValue());
+          drained++;
+        }
+      }
+      // Every producer that started adding to the overflow before the state was read is done,
+      // so its event is visible here. If one started since, the sequence moved and the CAS fails:
+      // the producers keep adding to the overflow until a later drain takes its events out, and
+      // none of them is left behind the events the producers put in the ring after the switch.
+      if ((state & WRITERS) == 0 && overflow.isEmpty()) {
+        overflowState.compareAndSet(state, state & ~OVERFLOWING);
+      }
+    }
+    return drained;
+  }
+
+  /**
+   * Drains at most maxEvents events and appends them to the temporary files of their epochs. The
+   * caller renames the files once an epoch is over, as for {@link
+   * EventLogFileHandler#writeTmpFile}.
+   *
+   * @return The epochs written to, in the order they were first seen.
+   */
+  public List<Long> drainTo(EventLogFileHandler handler, int maxEvents) {
+    List<Event> events = new ArrayList<>(Math.min(maxEvents, capacity));
+    drainTo(events, maxEvents);
+    Map<Long, List<Event>> byEpoch = new LinkedHashMap<>();
+    for (Event event : events) {
+      byEpoch.computeIfAbsent(event.epoch, k -> new ArrayList<>()).add(event);
+    }
+    for (Map.Entry<Long, List<Event>> entry : byEpoch.entrySet()) {
+      handler.writeTmpFile(entry.getValue(), entry.getKey());
+    }
+    return new ArrayList<>(byEpoch.keySet());
+  }
+
+  /** The number of events waiting in the ring and, while it overflows, the events kept aside. */
+  public int size() {
+    return (int) Math.max(0, tail.get() - head) + overflow.size();
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /** The number of events dropped since the queue was created. */
+  public long getDropCount() {
+    return totalDrops.sum();
+  }
+
+  /**
+   * The number of events dropped since the last call, by the name of the producer, so that every
+   * stats period reports its own drops. Producers without any drop are left out.
+   */
+  public Map<String, Long> getAndResetDropCounts() {
+    Map<String, Long> counts = new HashMap<>();
+    drops.forEach((producer, count) -> {
+      long sum = count.sumThenReset();
+      if (sum > 0) {
+        counts.put(producer, sum);
+      }
+    });
+    return counts;
+  }
+
+  /**
+   * The deepest the ring has been since the last call, so that every stats period reports its own
+   * peak. The gauge starts again from the current depth.
+   */
+  public long getAndResetHighWatermark() {
+    return highWatermark.getAndSet(Math.min(Math.max(0, tail.get() - head), capacity));
+  }
+}
@@ -18,10 +18,16 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
 
 public class MetricsRestUtil {
 
@@ -60,4 +66,60 @@ public class MetricsRestUtil {
     }
     return new ArrayList<>();
   }
+
+  /**
+   * Parses a parameter of the form "key1:value1,key2:value2".
+   *
+   * @return the pairs in the order they are given, or an empty map if the parameter is not set.
+   */
+  public Map<String, String> parseMapParam(Map<String, String> params, String name)
+      throws InvalidParameterException {
+    Map<String, String> ret = new LinkedHashMap<>();
+    for (String entry : parseArrayParam(params, name, true)) {
+      int separator = entry.indexOf(':');
+      if (separator <= 0) {
+        throw new InvalidParameterException(
+            String.format("%s parameter entries need to be of the form key:value", name));
+      }
+      ret.put(entry.substring(0, separator), entry.substring(separator + 1));
+    }
+    return ret;
+  }
+
+  /**
+   * Keeps only the rows of a result whose dimensions have the given values. Queries on the current
+   * window are filtered by MetricsDB itself; this is for the results read from the metrics
+   * history.
+   *
+   * @param result The result of a query.
+   * @param dimFilters The value each row must have for each of these dimensions.
+   * @return A new result with the selected rows, or the same result if nothing is filtered.
+   */
+  public Result<Record> filterRows(Result<Record> result, Map<String, String> dimFilters) {
+    if (result == null || dimFilters.isEmpty()) {
+      return result;
+    }
+
+    List<Record> rows = new ArrayList<>();
+    for (Record record : result) {
+      if (matches(result, record, dimFilters)) {
+        rows.add(record);
+      }
+    }
+
+    Result<Record> filtered = DSL.using(SQLDialect.SQLITE).newResult(result.fields());
+    filtered.addAll(rows);
+    return filtered;
+  }
+
+  private static boolean matches(
+      Result<Record> result, Record record, Map<String, String> dimFilters) {
+    for (Map.Entry<String, String> filter : dimFilters.entrySet()) {
+      Field<?> field = result.field(filter.getKey());
+      if (field == null || !filter.getValue().equals(String.valueOf(record.get(field)))) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
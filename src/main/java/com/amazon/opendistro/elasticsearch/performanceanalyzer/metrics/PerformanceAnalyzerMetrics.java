@@ -23,8 +23,6 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.ParameterizedMessage;
@@ -60,8 +58,11 @@ public class PerformanceAnalyzerMetrics {
   public static final String METRIC_CURRENT_TIME = "current_time";
   public static final int QUEUE_SIZE = PluginSettings.instance().getWriterQueueSize();
 
+  public static final String QUEUE_OVERFLOW_POLICY_CONF_NAME = "writer-queue-overflow-policy";
+
   // TODO: Comeup with a more sensible number.
-  public static final BlockingQueue<Event> metricQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  public static final MetricEventQueue metricQueue =
+      new MetricEventQueue(QUEUE_SIZE, getQueueOverflowPolicy());
 
   private static final int NUM_RETRIES_FOR_TMP_FILE = 10;
 
@@ -112,9 +113,24 @@ public class PerformanceAnalyzerMetrics {
         .append(metricValue);
   }
 
-  private static void emitMetric(BlockingQueue<Event> q, Event entry) {
+  private static MetricEventQueue.OverflowPolicy getQueueOverflowPolicy() {
+    String policy =
+        PluginSettings.instance().getSettingValue(QUEUE_OVERFLOW_POLICY_CONF_NAME, "drop");
+    try {
+      return MetricEventQueue.OverflowPolicy.fromString(policy);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      LOG.error(
+          "Invalid {}: {}. Dropping the events that do not fit.",
+          QUEUE_OVERFLOW_POLICY_CONF_NAME,
+          policy);
+      return MetricEventQueue.OverflowPolicy.DROP;
+    }
+  }
+
+  private static void emitMetric(MetricEventQueue q, Event entry) {
     if (!q.offer(entry)) {
-      // TODO: Emit a metric here.
+      // The queue counts the drops by producer; the stats log gets the total per period.
+      StatsCollector.instance().logException(StatExceptionCode.WRITER_QUEUE_FULL_ERROR);
       LOG.debug("Could not enter metric {}", entry);
     }
   }
@@ -17,9 +17,11 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.handler;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsRestUtil;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.ReaderMetricsProcessor;
 import io.grpc.stub.StreamObserver;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
@@ -30,6 +32,8 @@ import org.jooq.Result;
 public class MetricsServerHandler {
   private static final Logger LOG = LogManager.getLogger(MetricsServerHandler.class);
 
+  private final MetricsRestUtil metricsRestUtil = new MetricsRestUtil();
+
   public MetricsServerHandler() {}
 
   public void collectAPIData(
@@ -45,7 +49,16 @@ public class MetricsServerHandler {
       List<String> aggList = request.getAggListList();
       List<String> dimList = request.getDimListList();
 
-      collectStats(db, dbTimestamp, metricList, aggList, dimList, responseObserver);
+      collectStats(
+          db,
+          dbTimestamp,
+          metricList,
+          aggList,
+          dimList,
+          request.getDimFiltersMap(),
+          request.getSortMetric(),
+          request.getTopK(),
+          responseObserver);
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -59,9 +72,37 @@ public class MetricsServerHandler {
       List<String> dimList,
       StreamObserver<MetricsResponse> responseObserver)
       throws Exception {
+    collectStats(
+        db,
+        dbTimestamp,
+        metricList,
+        aggList,
+        dimList,
+        Collections.emptyMap(),
+        "",
+        0,
+        responseObserver);
+  }
+
+  /**
+   * Queries the local MetricsDB and sends back only the rows that match the dimension filters,
+   * limited to the topK rows with the highest sortMetric if topK is positive.
+   */
+  public void collectStats(
+      MetricsDB db,
+      Long dbTimestamp,
+      List<String> metricList,
+      List<String> aggList,
+      List<String> dimList,
+      Map<String, String> dimFilters,
+      String sortMetric,
+      int topK,
+      StreamObserver<MetricsResponse> responseObserver)
+      throws Exception {
     String localResponse;
     if (db != null) {
-      Result<Record> metricResult = db.queryMetric(metricList, aggList, dimList);
+      Result<Record> metricResult =
+          db.queryMetric(metricList, aggList, dimList, dimFilters, sortMetric, topK);
       if (metricResult == null) {
         localResponse = "{}";
       } else {
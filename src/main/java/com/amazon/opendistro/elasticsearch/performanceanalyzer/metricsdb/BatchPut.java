@@ -0,0 +1,29 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+/**
+ * A handle to insert many rows into a metric table of a {@link MetricsDB}. The values are bound
+ * positionally in the order of the table columns, which is the dimensions followed by sum, avg, min
+ * and max. The rows are written when {@link #execute()} is called.
+ */
+public interface BatchPut {
+  BatchPut bind(Object... values);
+
+  int size();
+
+  void execute();
+}
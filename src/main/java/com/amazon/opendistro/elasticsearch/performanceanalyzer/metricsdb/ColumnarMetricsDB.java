@@ -0,0 +1,701 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.DBUtils;
+import com.google.common.annotations.VisibleForTesting;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.BatchBindStep;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.TableLike;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+/**
+ * In-memory MetricsDB that keeps every metric table as a set of columns instead of an SQLite file.
+ * Dimension columns are dictionary encoded and the four aggregations are kept in primitive double
+ * arrays, so writing a window does not allocate a row object per bind and the structured queries
+ * made by the REST handlers and the RCA framework are answered with a single scan per table.
+ *
+ * <p>Callers that need to run arbitrary SQL against the window go through {@link
+ * #getDSLContext(Collection)}, which copies the tables they name into an in-memory SQLite database
+ * the first time they are asked for after a write.
+ */
+public class ColumnarMetricsDB extends MetricsDB {
+
+  private static final Logger LOG = LogManager.getLogger(ColumnarMetricsDB.class);
+
+  private static final String IN_MEMORY_DB_URL = "jdbc:sqlite::memory:";
+  private static final int INITIAL_CAPACITY = 64;
+
+  private static final Comparator<String> NULLS_FIRST =
+      Comparator.nullsFirst(Comparator.<String>naturalOrder());
+
+  private final Map<String, ColumnTable> tables = new ConcurrentHashMap<>();
+
+  private Connection materializedConn;
+  private DSLContext materialized;
+  // The tables copied into the materialized database since the last write.
+  private final Set<String> materializedMetrics = new HashSet<>();
+
+  public ColumnarMetricsDB(long windowStartTime) {
+    super(windowStartTime, COLUMNAR_ENGINE);
+  }
+
+  @Override
+  public String getDBFilePath() {
+    return COLUMNAR_ENGINE + ":" + getWindowStartTime();
+  }
+
+  @Override
+  public void createMetric(Metric<?> metric, List<String> dimensions) {
+    if (tables.putIfAbsent(metric.getName(), new ColumnTable(dimensions)) == null) {
+      invalidate();
+    }
+  }
+
+  @Override
+  public BatchPut startBatchPut(Metric<?> metric, List<String> dimensions) {
+    ColumnTable table = tables.get(metric.getName());
+    if (table == null) {
+      throw new DataAccessException("no such table: " + metric.getName());
+    }
+    return new ColumnBatchPut(table, dimensions.size() + 4);
+  }
+
+  @Override
+  public BatchPut startBatchPut(String tableName, int dimNum) {
+    ColumnTable table = tables.get(tableName);
+    if (dimNum < 1 || table == null) {
+      throw new IllegalArgumentException(
+          String.format("Incorrect arguments %s, %d", tableName, dimNum));
+    }
+    return new ColumnBatchPut(table, dimNum);
+  }
+
+  @Override
+  public void putMetric(Metric<Double> metric, Dimensions dimensions, long windowStartTime) {
+    ColumnTable table = tables.get(metric.getName());
+    if (table == null) {
+      throw new DataAccessException("no such table: " + metric.getName());
+    }
+    Object[] row = new Object[table.dimensionCount() + 4];
+    for (String dim : dimensions.getDimensionNames()) {
+      int idx = table.dimensionIndex(dim);
+      if (idx < 0) {
+        throw new DataAccessException(
+            String.format("table %s has no column named %s", metric.getName(), dim));
+      }
+      row[idx] = dimensions.get(dim);
+    }
+    int base = table.dimensionCount();
+    row[base] = metric.getSum();
+    row[base + 1] = metric.getAvg();
+    row[base + 2] = metric.getMin();
+    row[base + 3] = metric.getMax();
+    synchronized (this) {
+      table.append(row);
+      invalidate();
+    }
+  }
+
+  @Override
+  public List<TableLike<Record>> getAggregatedMetricTables(
+      List<String> metrics, List<String> aggregations, List<String> dimensions) throws Exception {
+    // Composing the per metric tables into bigger SQL statements needs a real database.
+    return aggregatedMetricTables(getDSLContext(metrics), metrics, aggregations, dimensions);
+  }
+
+  /**
+   * Same result as {@link MetricsDB#queryMetric(List, List, List, Map, String, int)}: every metric
+   * table is grouped by the requested dimensions with the requested aggregation, and the per metric
+   * results are merged into one row per distinct combination of dimension values. As the filtered
+   * dimensions are among the grouped ones, filtering the groups is the same as filtering the rows.
+   */
+  @Override
+  public synchronized Result<Record> queryMetric(
+      List<String> metrics,
+      List<String> aggregations,
+      List<String> dimensions,
+      Map<String, String> dimFilters,
+      String sortMetric,
+      int limit)
+      throws Exception {
+    int[] aggColumns = new int[metrics.size()];
+    for (int i = 0; i < metrics.size(); i++) {
+      aggColumns[i] = aggColumn(aggregations.get(i));
+    }
+    int sortColumn = sortColumn(metrics, sortMetric, limit);
+    int[] filterColumns = filterColumns(dimensions, dimFilters);
+    String[] filterValues = dimFilters.values().toArray(new String[0]);
+
+    TreeMap<List<String>, double[]> merged = new TreeMap<>(ColumnarMetricsDB::compareKeys);
+    boolean anyTable = false;
+    for (int i = 0; i < metrics.size(); i++) {
+      ColumnTable table = tables.get(metrics.get(i));
+      if (table == null) {
+        LOG.info(
+            String.format(
+                "%s metric table does not exist. " + "Returning null for the metric/dimension.",
+                metrics.get(i)));
+        continue;
+      }
+      anyTable = true;
+      Map<List<String>, Accumulator> groups =
+          table.aggregate(dimensions, aggColumns[i], aggregations.get(i));
+      for (Map.Entry<List<String>, Accumulator> group : groups.entrySet()) {
+        if (!matches(group.getKey(), filterColumns, filterValues)) {
+          continue;
+        }
+        double[] row = merged.get(group.getKey());
+        if (row == null) {
+          row = new double[metrics.size()];
+          Arrays.fill(row, Double.NaN);
+          merged.put(group.getKey(), row);
+        }
+        double value = group.getValue().result();
+        if (!Double.isNaN(value) && (Double.isNaN(row[i]) || value > row[i])) {
+          row[i] = value;
+        }
+      }
+    }
+    if (!anyTable) {
+      return null;
+    }
+    if (dimensions.isEmpty() && merged.isEmpty()) {
+      // An aggregate without a group by always yields a row in SQL.
+      double[] row = new double[metrics.size()];
+      Arrays.fill(row, Double.NaN);
+      merged.put(new ArrayList<>(), row);
+    }
+
+    List<Field<?>> fieldList = DBUtils.getFieldsFromList(dimensions);
+    fieldList.addAll(DBUtils.getDoubleFieldsFromList(metrics));
+    Field<?>[] fields = fieldList.toArray(new Field<?>[0]);
+    List<Map.Entry<List<String>, double[]>> rows = new ArrayList<>(merged.entrySet());
+    if (limit > 0) {
+      // Largest value of the sort metric first, nulls last; the sort is stable so ties keep the
+      // dimension order.
+      rows.sort(
+          (left, right) ->
+              compareDescNullsLast(left.getValue()[sortColumn], right.getValue()[sortColumn]));
+      if (rows.size() > limit) {
+        rows = rows.subList(0, limit);
+      }
+    }
+    Result<Record> result = getDSLContextForResults().newResult(fields);
+    for (Map.Entry<List<String>, double[]> entry : rows) {
+      Object[] values = new Object[fields.length];
+      int col = 0;
+      for (String dimValue : entry.getKey()) {
+        values[col++] = dimValue;
+      }
+      for (double value : entry.getValue()) {
+        values[col++] = Double.isNaN(value) ? null : value;
+      }
+      Record record = getDSLContextForResults().newRecord(fields);
+      record.fromArray(values);
+      result.add(record);
+    }
+    return result;
+  }
+
+  /**
+   * Same result as {@link MetricsDB#groupMetric(String, String, String, List)}, from a single scan
+   * of the table. Groups whose aggregate is null come last, as they do in a descending SQL sort.
+   */
+  @Override
+  public synchronized Result<Record> groupMetric(
+      String metric, String aggColumn, String aggType, List<String> dimensions) throws Exception {
+    Field<?> aggField = aggregateField(aggColumn, aggType);
+    ColumnTable table = tables.get(metric);
+    if (table == null) {
+      throw new DataAccessException("no such table: " + metric);
+    }
+    List<Map.Entry<List<String>, Accumulator>> groups =
+        new ArrayList<>(table.aggregate(dimensions, aggColumn(aggColumn), aggType).entrySet());
+    if (dimensions.isEmpty() && groups.isEmpty()) {
+      // An aggregate without a group by always yields a row in SQL.
+      groups.add(new SimpleImmutableEntry<>(new ArrayList<>(), new Accumulator(aggType)));
+    }
+    groups.sort(
+        (left, right) ->
+            compareDescNullsLast(left.getValue().result(), right.getValue().result()));
+
+    List<Field<?>> fieldList = DBUtils.getFieldsFromList(dimensions);
+    fieldList.add(aggField);
+    Field<?>[] fields = fieldList.toArray(new Field<?>[0]);
+    Result<Record> result = getDSLContextForResults().newResult(fields);
+    for (Map.Entry<List<String>, Accumulator> group : groups) {
+      Object[] values = group.getKey().toArray(new Object[fields.length]);
+      double value = group.getValue().result();
+      values[fields.length - 1] = Double.isNaN(value) ? null : value;
+      Record record = getDSLContextForResults().newRecord(fields);
+      record.fromArray(values);
+      result.add(record);
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized QueryPlan explainQuery(
+      List<String> metrics,
+      List<String> aggregations,
+      List<String> dimensions,
+      Map<String, String> dimFilters,
+      String sortMetric,
+      int limit)
+      throws Exception {
+    for (String aggType : aggregations) {
+      aggColumn(aggType);
+    }
+    sortColumn(metrics, sortMetric, limit);
+    filterColumns(dimensions, dimFilters);
+    List<String> missing = new ArrayList<>();
+    for (String metric : metrics) {
+      if (!tables.containsKey(metric)) {
+        missing.add(metric);
+      }
+    }
+    QueryPlan.Shape shape =
+        missing.size() == metrics.size() ? QueryPlan.Shape.EMPTY : QueryPlan.Shape.COLUMNAR_SCAN;
+    return new QueryPlan(shape, limit, sortMetric, missing, null);
+  }
+
+  @Override
+  public synchronized Result<Record> queryMetric(String metric) {
+    ColumnTable table = tables.get(metric);
+    if (table == null) {
+      throw new DataAccessException("no such table: " + metric);
+    }
+    return table.toResult(getDSLContextForResults());
+  }
+
+  @Override
+  public synchronized void readMetric(String metric, MetricRowVisitor visitor) {
+    ColumnTable table = tables.get(metric);
+    if (table == null) {
+      throw new DataAccessException("no such table: " + metric);
+    }
+    table.readRows(visitor);
+  }
+
+  @Override
+  public void commit() throws Exception {
+    // Writes are visible as soon as a batch is executed.
+  }
+
+  @Override
+  public void close() throws Exception {
+    synchronized (this) {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void remove() throws Exception {
+    synchronized (this) {
+      invalidate();
+      tables.clear();
+    }
+  }
+
+  @Override
+  public void deleteOnDiskFile() {
+    // Nothing is kept on disk.
+  }
+
+  @Override
+  public boolean metricExists(String metric) {
+    return tables.containsKey(metric);
+  }
+
+  @Override
+  public Set<String> getCreatedMetrics() {
+    return Collections.unmodifiableSet(tables.keySet());
+  }
+
+  /** Returns a context attached to an in-memory SQLite copy of every table of this window. */
+  @Override
+  public synchronized DSLContext getDSLContext() {
+    return getDSLContext(tables.keySet());
+  }
+
+  /**
+   * Returns a context attached to an in-memory SQLite copy of the given tables. A table is copied
+   * the first time it is asked for and the copy is dropped on the next write, so consumers that
+   * only use the structured queries never pay for it, and the others only for what they read.
+   */
+  @Override
+  public synchronized DSLContext getDSLContext(Collection<String> metrics) {
+    try {
+      if (materialized == null) {
+        materializedConn = DriverManager.getConnection(IN_MEMORY_DB_URL);
+        materialized = DSL.using(materializedConn, SQLDialect.SQLITE);
+      }
+      for (String metric : metrics) {
+        ColumnTable table = tables.get(metric);
+        if (table != null && materializedMetrics.add(metric)) {
+          table.copyTo(materialized, metric);
+        }
+      }
+    } catch (Exception e) {
+      LOG.error("Unable to materialize window {} into SQLite", getWindowStartTime(), e);
+      invalidate();
+      throw new DataAccessException("Unable to materialize columnar MetricsDB", e);
+    }
+    return materialized;
+  }
+
+  @VisibleForTesting
+  synchronized Set<String> getMaterializedMetrics() {
+    return new HashSet<>(materializedMetrics);
+  }
+
+  private DSLContext getDSLContextForResults() {
+    return super.getDSLContext();
+  }
+
+  private void invalidate() {
+    if (materializedConn != null) {
+      try {
+        materializedConn.close();
+      } catch (Exception e) {
+        LOG.debug("Failed to close the materialized SQLite copy", e);
+      }
+    }
+    materializedConn = null;
+    materialized = null;
+    materializedMetrics.clear();
+  }
+
+  private static int aggColumn(String aggType) throws Exception {
+    switch (aggType) {
+      case SUM:
+        return 0;
+      case AVG:
+        return 1;
+      case MIN:
+        return 2;
+      case MAX:
+        return 3;
+      default:
+        throw new Exception("Unknown agg type");
+    }
+  }
+
+  private static int compareKeys(List<String> left, List<String> right) {
+    for (int i = 0; i < left.size(); i++) {
+      int cmp = NULLS_FIRST.compare(left.get(i), right.get(i));
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  /** The position of the sort metric in the queried metrics, 0 when the rows are not sorted. */
+  private static int sortColumn(List<String> metrics, String sortMetric, int limit)
+      throws Exception {
+    if (limit <= 0) {
+      return 0;
+    }
+    int column = metrics.indexOf(sortMetric);
+    if (column < 0) {
+      throw new Exception("The sort metric needs to be one of the queried metrics");
+    }
+    return column;
+  }
+
+  /** The position of each filtered dimension in the queried dimensions, in the filter order. */
+  private static int[] filterColumns(List<String> dimensions, Map<String, String> dimFilters)
+      throws Exception {
+    int[] columns = new int[dimFilters.size()];
+    int i = 0;
+    for (String dim : dimFilters.keySet()) {
+      columns[i] = dimensions.indexOf(dim);
+      if (columns[i++] < 0) {
+        throw new Exception("The filter dimensions need to be among the queried dimensions");
+      }
+    }
+    return columns;
+  }
+
+  private static boolean matches(List<String> key, int[] filterColumns, String[] filterValues) {
+    for (int i = 0; i < filterColumns.length; i++) {
+      if (!filterValues[i].equals(key.get(filterColumns[i]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int compareDescNullsLast(double left, double right) {
+    if (Double.isNaN(left) || Double.isNaN(right)) {
+      return Boolean.compare(Double.isNaN(left), Double.isNaN(right));
+    }
+    return Double.compare(right, left);
+  }
+
+  private static double toDouble(Object value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    return Double.parseDouble(value.toString());
+  }
+
+  private final class ColumnBatchPut implements BatchPut {
+    private final ColumnTable table;
+    private final int width;
+    private final List<Object[]> pending = new ArrayList<>();
+
+    ColumnBatchPut(ColumnTable table, int width) {
+      this.table = table;
+      this.width = width;
+    }
+
+    @Override
+    public BatchPut bind(Object... values) {
+      if (values.length > width) {
+        throw new DataAccessException(
+            String.format("Expected %d bind values, got %d", width, values.length));
+      }
+      pending.add(values);
+      return this;
+    }
+
+    @Override
+    public int size() {
+      return pending.size();
+    }
+
+    @Override
+    public void execute() {
+      synchronized (ColumnarMetricsDB.this) {
+        for (Object[] row : pending) {
+          table.append(row);
+        }
+        invalidate();
+      }
+      pending.clear();
+    }
+  }
+
+  /** Running aggregation over one group, NULLs are skipped like SQL aggregates do. */
+  private static final class Accumulator {
+    private final String aggType;
+    private double value = Double.NaN;
+    private long count;
+
+    Accumulator(String aggType) {
+      this.aggType = aggType;
+    }
+
+    void add(double v) {
+      if (Double.isNaN(v)) {
+        return;
+      }
+      if (count == 0) {
+        value = v;
+      } else if (aggType.equals(MIN)) {
+        value = Math.min(value, v);
+      } else if (aggType.equals(MAX)) {
+        value = Math.max(value, v);
+      } else {
+        value += v;
+      }
+      count++;
+    }
+
+    double result() {
+      if (count == 0) {
+        return Double.NaN;
+      }
+      return aggType.equals(AVG) ? value / count : value;
+    }
+  }
+
+  private static final class ColumnTable {
+    private final List<String> dimensionNames;
+    private final List<Map<String, Integer>> dictionaries;
+    private final List<List<String>> dictionaryValues;
+    private int[][] codes;
+    private double[][] aggs;
+    private int size;
+
+    ColumnTable(List<String> dimensions) {
+      this.dimensionNames = new ArrayList<>(dimensions);
+      this.dictionaries = new ArrayList<>(dimensions.size());
+      this.dictionaryValues = new ArrayList<>(dimensions.size());
+      for (int i = 0; i < dimensions.size(); i++) {
+        dictionaries.add(new HashMap<>());
+        dictionaryValues.add(new ArrayList<>());
+      }
+      this.codes = new int[dimensions.size()][INITIAL_CAPACITY];
+      this.aggs = new double[4][INITIAL_CAPACITY];
+    }
+
+    int dimensionCount() {
+      return dimensionNames.size();
+    }
+
+    int dimensionIndex(String name) {
+      return dimensionNames.indexOf(name);
+    }
+
+    void append(Object[] row) {
+      if (size == aggs[0].length) {
+        int capacity = size * 2;
+        for (int d = 0; d < codes.length; d++) {
+          codes[d] = Arrays.copyOf(codes[d], capacity);
+        }
+        for (int a = 0; a < aggs.length; a++) {
+          aggs[a] = Arrays.copyOf(aggs[a], capacity);
+        }
+      }
+      int dims = dimensionNames.size();
+      for (int d = 0; d < dims; d++) {
+        codes[d][size] = encode(d, d < row.length ? row[d] : null);
+      }
+      // Rows bound with fewer values than columns leave the trailing aggregations NULL.
+      for (int a = 0; a < aggs.length; a++) {
+        int col = dims + a;
+        aggs[a][size] = col < row.length ? toDouble(row[col]) : Double.NaN;
+      }
+      size++;
+    }
+
+    private int encode(int dim, Object value) {
+      if (value == null) {
+        return -1;
+      }
+      String str = value.toString();
+      Integer code = dictionaries.get(dim).get(str);
+      if (code == null) {
+        code = dictionaryValues.get(dim).size();
+        dictionaries.get(dim).put(str, code);
+        dictionaryValues.get(dim).add(str);
+      }
+      return code;
+    }
+
+    private String decode(int dim, int code) {
+      return code < 0 ? null : dictionaryValues.get(dim).get(code);
+    }
+
+    Map<List<String>, Accumulator> aggregate(
+        List<String> groupBy, int aggColumn, String aggType) {
+      int[] groupCols = new int[groupBy.size()];
+      for (int g = 0; g < groupCols.length; g++) {
+        groupCols[g] = dimensionNames.indexOf(groupBy.get(g));
+        if (groupCols[g] < 0) {
+          throw new IllegalArgumentException("no such column: " + groupBy.get(g));
+        }
+      }
+      Map<List<String>, Accumulator> groups = new LinkedHashMap<>();
+      double[] values = aggs[aggColumn];
+      for (int row = 0; row < size; row++) {
+        List<String> key = new ArrayList<>(groupCols.length);
+        for (int groupCol : groupCols) {
+          key.add(decode(groupCol, codes[groupCol][row]));
+        }
+        groups.computeIfAbsent(key, k -> new Accumulator(aggType)).add(values[row]);
+      }
+      return groups;
+    }
+
+    private List<Field<?>> fields() {
+      List<Field<?>> fields = DBUtils.getFieldsFromList(dimensionNames);
+      fields.addAll(DBUtils.getDoubleFieldsFromList(Arrays.asList(SUM, AVG, MIN, MAX)));
+      return fields;
+    }
+
+    private Object[] row(int row) {
+      int dims = dimensionNames.size();
+      Object[] values = new Object[dims + aggs.length];
+      for (int d = 0; d < dims; d++) {
+        values[d] = decode(d, codes[d][row]);
+      }
+      for (int a = 0; a < aggs.length; a++) {
+        double v = aggs[a][row];
+        values[dims + a] = Double.isNaN(v) ? null : v;
+      }
+      return values;
+    }
+
+    void readRows(MetricRowVisitor visitor) {
+      visitor.start(Collections.unmodifiableList(dimensionNames));
+      String[] values = new String[dimensionNames.size()];
+      for (int row = 0; row < size; row++) {
+        for (int d = 0; d < values.length; d++) {
+          values[d] = decode(d, codes[d][row]);
+        }
+        visitor.row(values, aggs[0][row], aggs[1][row], aggs[2][row], aggs[3][row]);
+      }
+    }
+
+    Result<Record> toResult(DSLContext create) {
+      List<Field<?>> fields = fields();
+      Field<?>[] fieldArray = fields.toArray(new Field<?>[0]);
+      Result<Record> result = create.newResult(fieldArray);
+      for (int i = 0; i < size; i++) {
+        Record record = create.newRecord(fieldArray);
+        record.fromArray(row(i));
+        result.add(record);
+      }
+      return result;
+    }
+
+    void copyTo(DSLContext create, String tableName) {
+      List<Field<?>> fields = fields();
+      create.createTable(tableName).columns(fields).execute();
+      if (size == 0) {
+        return;
+      }
+      Object[] dummyValues = new Object[fields.size()];
+      BatchBindStep batch =
+          create.batch(create.insertInto(DSL.table(tableName)).values(dummyValues));
+      for (int i = 0; i < size; i++) {
+        batch.bind(row(i));
+      }
+      batch.execute();
+    }
+  }
+}
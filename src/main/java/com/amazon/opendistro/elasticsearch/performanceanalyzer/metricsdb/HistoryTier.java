@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * One resolution of the {@link MetricsHistory}. The raw tier keeps every window as it was
+ * emitted. A rollup tier folds the points it is given into buckets of its resolution and, once a
+ * bucket is over, stores one point per series for it and hands that point to the next, coarser
+ * tier; so the 10 minute tier is fed by the 1 minute tier rather than by every window.
+ *
+ * <p>A point of a rollup tier has five columns: the sum of the window sums, the sum of the window
+ * averages, the min, the max and the number of windows. Averages stay weighted by the number of
+ * windows however many times they are rolled up. A tier with a retention of 0 does not store its
+ * points but still rolls them up for the next tier.
+ *
+ * <p>Not thread safe; {@link MetricsHistory} guards the tiers with its lock.
+ */
+class HistoryTier {
+  static final int SUM = 0;
+  static final int AVG = 1;
+  static final int MIN = 2;
+  static final int MAX = 3;
+  static final int WINDOWS = 4;
+  static final int ROLLUP_COLUMNS = 5;
+
+  private final String name;
+  private final long resolutionMillis;
+  private final long retentionMillis;
+  private final int chunkCapacity;
+  private final boolean raw;
+  private final HistoryTier next;
+  // Whether this tier or a coarser one keeps anything; otherwise there is nothing to roll up.
+  private final boolean feedsStoredTier;
+  private final Map<String, MetricSeries> metrics = new HashMap<>();
+
+  // The bucket being rolled up, stored once a point of a later bucket arrives.
+  private long pendingBucket = Long.MIN_VALUE;
+  private final Map<String, PendingMetric> pending = new HashMap<>();
+
+  private HistoryTier(
+      String name, long resolutionMillis, long retentionMillis, int chunkCapacity, boolean raw,
+      HistoryTier next) {
+    this.name = name;
+    this.resolutionMillis = resolutionMillis;
+    this.retentionMillis = retentionMillis;
+    this.chunkCapacity = chunkCapacity;
+    this.raw = raw;
+    this.next = next;
+    this.feedsStoredTier = retentionMillis > 0 || (next != null && next.feedsStoredTier);
+  }
+
+  static HistoryTier raw(long resolutionMillis, long retentionMillis, int chunkCapacity) {
+    return new HistoryTier("raw", resolutionMillis, retentionMillis, chunkCapacity, true, null);
+  }
+
+  static HistoryTier rollup(
+      String name, long resolutionMillis, long retentionMillis, int chunkCapacity,
+      HistoryTier next) {
+    return new HistoryTier(name, resolutionMillis, retentionMillis, chunkCapacity, false, next);
+  }
+
+  String getName() {
+    return name;
+  }
+
+  long getResolutionMillis() {
+    return resolutionMillis;
+  }
+
+  long getRetentionMillis() {
+    return retentionMillis;
+  }
+
+  boolean isStored() {
+    return retentionMillis > 0;
+  }
+
+  /**
+   * Adds a point of a series to the tier.
+   *
+   * @param timestamp The start of the window or of the bucket of the finer tier.
+   * @param metric The metric of the series.
+   * @param dimensions The dimension names of the metric, in the order of the values of the key.
+   * @param key The dimension values of the series.
+   * @param values sum, avg, min and max for the raw tier, the five rollup columns otherwise.
+   */
+  void add(long timestamp, String metric, List<String> dimensions, List<String> key,
+      double[] values) {
+    if (raw) {
+      if (isStored()) {
+        series(metric, dimensions).computeIfAbsent(key, k -> newSeries(k))
+            .append(timestamp, values);
+      }
+      return;
+    }
+    if (!feedsStoredTier) {
+      return;
+    }
+    long bucket = timestamp - Math.floorMod(timestamp, resolutionMillis);
+    if (bucket > pendingBucket) {
+      flush();
+      pendingBucket = bucket;
+    } else if (bucket < pendingBucket) {
+      return;
+    }
+    PendingMetric pendingMetric = pending.get(metric);
+    if (pendingMetric == null || !pendingMetric.dimensions.equals(dimensions)) {
+      pendingMetric = new PendingMetric(dimensions);
+      pending.put(metric, pendingMetric);
+    }
+    double[] acc = pendingMetric.rows.get(key);
+    if (acc == null) {
+      pendingMetric.rows.put(key, values.clone());
+    } else {
+      merge(acc, values);
+    }
+  }
+
+  /** Stores the pending bucket and rolls it up into the next tier. */
+  private void flush() {
+    for (Map.Entry<String, PendingMetric> entry : pending.entrySet()) {
+      PendingMetric pendingMetric = entry.getValue();
+      Map<List<String>, TimeSeries> series =
+          isStored() ? series(entry.getKey(), pendingMetric.dimensions) : null;
+      for (Map.Entry<List<String>, double[]> row : pendingMetric.rows.entrySet()) {
+        if (series != null) {
+          series.computeIfAbsent(row.getKey(), k -> newSeries(k))
+              .append(pendingBucket, row.getValue());
+        }
+        if (next != null) {
+          next.add(pendingBucket, entry.getKey(), pendingMetric.dimensions, row.getKey(),
+              row.getValue());
+        }
+      }
+    }
+    pending.clear();
+  }
+
+  private TimeSeries newSeries(List<String> key) {
+    return new TimeSeries(key, chunkCapacity, raw ? TimeSeriesChunk.COLUMNS : ROLLUP_COLUMNS);
+  }
+
+  private Map<List<String>, TimeSeries> series(String metric, List<String> dimensions) {
+    MetricSeries metricSeries = metrics.get(metric);
+    if (metricSeries == null || !metricSeries.dimensions.equals(dimensions)) {
+      metricSeries = new MetricSeries(dimensions);
+      metrics.put(metric, metricSeries);
+    }
+    return metricSeries.series;
+  }
+
+  /** The rollup of a raw point that was emitted in one window. */
+  static double[] toRollup(double[] rawValues, double[] rollup) {
+    System.arraycopy(rawValues, 0, rollup, 0, TimeSeriesChunk.COLUMNS);
+    rollup[WINDOWS] = 1;
+    return rollup;
+  }
+
+  static void merge(double[] acc, double[] values) {
+    acc[SUM] = combine(acc[SUM], values[SUM], Double::sum);
+    acc[AVG] = combine(acc[AVG], values[AVG], Double::sum);
+    acc[MIN] = combine(acc[MIN], values[MIN], Math::min);
+    acc[MAX] = combine(acc[MAX], values[MAX], Math::max);
+    acc[WINDOWS] += values[WINDOWS];
+  }
+
+  /** Combines two values, a missing value being the identity. */
+  static double combine(double left, double right, DoubleBinaryOperator operator) {
+    if (Double.isNaN(left)) {
+      return right;
+    }
+    return Double.isNaN(right) ? left : operator.applyAsDouble(left, right);
+  }
+
+  /** Drops the chunks older than the cutoff and the series left empty. */
+  void evictBefore(long cutoff) {
+    for (MetricSeries metric : metrics.values()) {
+      metric.series.values().removeIf(series -> {
+        series.evictBefore(cutoff);
+        return series.isEmpty();
+      });
+    }
+    metrics.values().removeIf(metric -> metric.series.isEmpty());
+  }
+
+  /**
+   * Drops the oldest sealed chunk of the tier and the chunks of the same age, which takes along
+   * the series that got no point since. Before the tier has sealed any chunk, the chunks are
+   * trimmed to the newer half of the time they span instead, so that one eviction never empties
+   * the tier.
+   *
+   * @return false if every series is down to the points of its latest timestamp.
+   */
+  boolean evictOldestChunk() {
+    long oldestSealedEnd = Long.MAX_VALUE;
+    long first = Long.MAX_VALUE;
+    long last = Long.MIN_VALUE;
+    for (MetricSeries metric : metrics.values()) {
+      for (TimeSeries series : metric.series.values()) {
+        oldestSealedEnd = Math.min(oldestSealedEnd, series.getOldestSealedChunkEnd());
+        first = Math.min(first, series.getFirstTimestamp());
+        last = Math.max(last, series.getLastTimestamp());
+      }
+    }
+    if (oldestSealedEnd != Long.MAX_VALUE) {
+      evictBefore(oldestSealedEnd + 1);
+      return true;
+    }
+    if (first >= last) {
+      return false;
+    }
+    long cutoff = first + (last - first) / 2 + 1;
+    for (MetricSeries metric : metrics.values()) {
+      metric.series.values().removeIf(series -> {
+        series.trimBefore(cutoff);
+        return series.isEmpty();
+      });
+    }
+    metrics.values().removeIf(metric -> metric.series.isEmpty());
+    return true;
+  }
+
+  /** The oldest timestamp the tier can answer for, stored or pending. */
+  long getFirstTimestamp() {
+    long first = pending.isEmpty() ? Long.MAX_VALUE : pendingBucket;
+    for (MetricSeries metric : metrics.values()) {
+      for (TimeSeries series : metric.series.values()) {
+        first = Math.min(first, series.getFirstTimestamp());
+      }
+    }
+    return first;
+  }
+
+  long sizeInBytes() {
+    long size = 0;
+    for (MetricSeries metric : metrics.values()) {
+      for (TimeSeries series : metric.series.values()) {
+        size += series.sizeInBytes();
+      }
+    }
+    for (PendingMetric pendingMetric : pending.values()) {
+      size += pendingMetric.rows.size() * (64L + 8 * ROLLUP_COLUMNS);
+    }
+    return size;
+  }
+
+  /**
+   * Hands the stored points of a metric in [start, end) to the visitor, as rollup points so that
+   * the points of every tier can be aggregated the same way.
+   */
+  void scanStored(
+      String metric, List<String> dimensions, long start, long end, PointVisitor visitor) {
+    MetricSeries metricSeries = metrics.get(metric);
+    if (metricSeries == null) {
+      return;
+    }
+    int[] projection = projection(metricSeries.dimensions, dimensions);
+    double[] point = new double[ROLLUP_COLUMNS];
+    for (TimeSeries series : metricSeries.series.values()) {
+      List<String> group = project(series.getDimensionValues(), projection);
+      series.scan(start, end, (timestamp, cursor) -> {
+        if (raw) {
+          for (int col = 0; col < TimeSeriesChunk.COLUMNS; col++) {
+            point[col] = cursor.value(col);
+          }
+          point[WINDOWS] = 1;
+        } else {
+          for (int col = 0; col < ROLLUP_COLUMNS; col++) {
+            point[col] = cursor.value(col);
+          }
+        }
+        visitor.visit(group, timestamp, point);
+      });
+    }
+  }
+
+  /** Hands the bucket the tier is still rolling up to the visitor, if it is in [start, end). */
+  void scanPending(
+      String metric, List<String> dimensions, long start, long end, PointVisitor visitor) {
+    PendingMetric pendingMetric = pending.get(metric);
+    if (pendingMetric == null || pendingBucket < start || pendingBucket >= end) {
+      return;
+    }
+    int[] projection = projection(pendingMetric.dimensions, dimensions);
+    for (Map.Entry<List<String>, double[]> row : pendingMetric.rows.entrySet()) {
+      visitor.visit(project(row.getKey(), projection), pendingBucket, row.getValue());
+    }
+  }
+
+  private static int[] projection(List<String> seriesDimensions, List<String> dimensions) {
+    int[] projection = new int[dimensions.size()];
+    for (int i = 0; i < projection.length; i++) {
+      projection[i] = seriesDimensions.indexOf(dimensions.get(i));
+    }
+    return projection;
+  }
+
+  private static List<String> project(List<String> values, int[] projection) {
+    List<String> key = new ArrayList<>(projection.length);
+    for (int index : projection) {
+      key.add(index < 0 ? null : values.get(index));
+    }
+    return key;
+  }
+
+  interface PointVisitor {
+    /** The point is only valid during the call. */
+    void visit(List<String> group, long timestamp, double[] point);
+  }
+
+  /** The series of a metric, keyed by their dimension values in the order of the table. */
+  private static class MetricSeries {
+    private final List<String> dimensions;
+    private final Map<List<String>, TimeSeries> series = new HashMap<>();
+
+    MetricSeries(List<String> dimensions) {
+      this.dimensions = dimensions;
+    }
+  }
+
+  /** The rows of a metric in the bucket being rolled up. */
+  private static class PendingMetric {
+    private final List<String> dimensions;
+    private final Map<List<String>, double[]> rows = new HashMap<>();
+
+    PendingMetric(List<String> dimensions) {
+      this.dimensions = dimensions;
+    }
+  }
+}
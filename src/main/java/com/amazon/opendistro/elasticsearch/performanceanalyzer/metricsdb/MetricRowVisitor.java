@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.util.List;
+
+/**
+ * Receives the rows of a metric table from {@link MetricsDB#readMetric(String, MetricRowVisitor)},
+ * one at a time and without a jOOQ record per row.
+ */
+public interface MetricRowVisitor {
+
+  /**
+   * Called once, before the rows.
+   *
+   * @param dimensionNames The dimension columns of the table, in table order.
+   */
+  void start(List<String> dimensionNames);
+
+  /**
+   * Called for every row of the table.
+   *
+   * @param dimensionValues The value of every dimension, null if the row has none. The array is
+   *     reused for the next row.
+   * @param sum The sum column, NaN if it is NULL; likewise for the other aggregations.
+   */
+  void row(String[] dimensionValues, double sum, double avg, double min, double max);
+}
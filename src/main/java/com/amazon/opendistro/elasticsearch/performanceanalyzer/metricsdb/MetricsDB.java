@@ -20,15 +20,22 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatEx
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.Removable;
+import com.google.common.annotations.VisibleForTesting;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jooq.BatchBindStep;
@@ -39,6 +46,7 @@ import org.jooq.Result;
 import org.jooq.SQLDialect;
 import org.jooq.Select;
 import org.jooq.TableLike;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
 
 /**
@@ -58,6 +66,12 @@ public class MetricsDB implements Removable {
 
   private static final String DB_FILE_PREFIX_PATH_DEFAULT = "/tmp/metricsdb_";
   private static final String DB_FILE_PREFIX_PATH_CONF_NAME = "metrics-db-file-prefix-path";
+
+  /** Selects the engine that backs the MetricsDB windows created by the reader. */
+  public static final String DB_ENGINE_CONF_NAME = "metrics-db-engine";
+
+  public static final String SQLITE_ENGINE = "sqlite";
+  public static final String COLUMNAR_ENGINE = "columnar";
   private static final String DB_URL = "jdbc:sqlite:";
   private final Connection conn;
   private final DSLContext create;
@@ -67,8 +81,12 @@ public class MetricsDB implements Removable {
   public static final String MAX = "max";
   public static final Set<String> AGG_VALUES =
       Collections.unmodifiableSet(new HashSet<>(Arrays.asList(SUM, AVG, MIN, MAX)));
+  // The aggregation columns in the order MetricRowVisitor receives them.
+  private static final List<String> AGG_COLUMNS = Arrays.asList(SUM, AVG, MIN, MAX);
 
   private long windowStartTime;
+  // The metric tables created through this instance, which is what the emitters wrote this window.
+  private final Set<String> createdMetrics = ConcurrentHashMap.newKeySet();
 
   public String getDBFilePath() {
     return PluginSettings.instance()
@@ -84,11 +102,47 @@ public class MetricsDB implements Removable {
     create = DSL.using(conn, SQLDialect.SQLITE);
   }
 
+  /**
+   * Used by engines that do not keep the window in an SQLite file. The DSLContext is not attached
+   * to any connection, so such engines have to override every method that touches the database.
+   *
+   * @param windowStartTime The start time of the window this database holds the metrics for.
+   * @param engine The name of the engine, only used to tell the engines apart.
+   */
+  protected MetricsDB(long windowStartTime, String engine) {
+    this.windowStartTime = windowStartTime;
+    this.conn = null;
+    this.create = DSL.using(SQLDialect.SQLITE);
+    LOG.debug("Created {} MetricsDB for window {}", engine, windowStartTime);
+  }
+
+  /**
+   * Creates the database for a window using the engine configured by {@link #DB_ENGINE_CONF_NAME}.
+   * The on-disk SQLite engine is used unless the columnar engine is asked for.
+   *
+   * @param windowStartTime The start time of the window.
+   * @return An empty database for the window.
+   * @throws Exception if the database cannot be created.
+   */
+  public static MetricsDB createForWindow(long windowStartTime) throws Exception {
+    String engine =
+        PluginSettings.instance().getSettingValue(DB_ENGINE_CONF_NAME, SQLITE_ENGINE);
+    if (COLUMNAR_ENGINE.equalsIgnoreCase(engine.trim())) {
+      return new ColumnarMetricsDB(windowStartTime);
+    }
+    return new MetricsDB(windowStartTime);
+  }
+
+  public long getWindowStartTime() {
+    return windowStartTime;
+  }
+
   public void close() throws Exception {
     conn.close();
   }
 
   public void createMetric(Metric<?> metric, List<String> dimensions) {
+    createdMetrics.add(metric.getName());
     if (DBUtils.checkIfTableExists(create, metric.getName())) {
       return;
     }
@@ -101,7 +155,7 @@ public class MetricsDB implements Removable {
     create.createTable(metric.getName()).columns(fields).execute();
   }
 
-  public BatchBindStep startBatchPut(Metric<?> metric, List<String> dimensions) {
+  public BatchPut startBatchPut(Metric<?> metric, List<String> dimensions) {
     List<?> dummyValues = new ArrayList<>();
     for (String dim : dimensions) {
       dummyValues.add(null);
@@ -111,10 +165,11 @@ public class MetricsDB implements Removable {
     dummyValues.add(null);
     dummyValues.add(null);
     dummyValues.add(null);
-    return create.batch(create.insertInto(DSL.table(metric.getName())).values(dummyValues));
+    return new SQLiteBatchPut(
+        create.batch(create.insertInto(DSL.table(metric.getName())).values(dummyValues)));
   }
 
-  public BatchBindStep startBatchPut(String tableName, int dimNum) {
+  public BatchPut startBatchPut(String tableName, int dimNum) {
     if (dimNum < 1 || !DBUtils.checkIfTableExists(create, tableName)) {
       throw new IllegalArgumentException(
           String.format("Incorrect arguments %s, %d", tableName, dimNum));
@@ -124,7 +179,32 @@ public class MetricsDB implements Removable {
       dummyValues.add(null);
     }
 
-    return create.batch(create.insertInto(DSL.table(tableName)).values(dummyValues));
+    return new SQLiteBatchPut(
+        create.batch(create.insertInto(DSL.table(tableName)).values(dummyValues)));
+  }
+
+  private static class SQLiteBatchPut implements BatchPut {
+    private final BatchBindStep batch;
+
+    SQLiteBatchPut(BatchBindStep batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public BatchPut bind(Object... values) {
+      batch.bind(values);
+      return this;
+    }
+
+    @Override
+    public int size() {
+      return batch.size();
+    }
+
+    @Override
+    public void execute() {
+      batch.execute();
+    }
   }
 
   public void putMetric(Metric<Double> metric, Dimensions dimensions, long windowStartTime) {
@@ -142,6 +222,12 @@ public class MetricsDB implements Removable {
   // every dimension and return all the metric tables.
   public List<TableLike<Record>> getAggregatedMetricTables(
       List<String> metrics, List<String> aggregations, List<String> dimensions) throws Exception {
+    return aggregatedMetricTables(create, metrics, aggregations, dimensions);
+  }
+
+  static List<TableLike<Record>> aggregatedMetricTables(
+      DSLContext create, List<String> metrics, List<String> aggregations, List<String> dimensions)
+      throws Exception {
     List<TableLike<Record>> tList = new ArrayList<>();
     List<Field<?>> groupByFields = DBUtils.getFieldsFromList(dimensions);
 
@@ -191,6 +277,9 @@ public class MetricsDB implements Removable {
    * |shard|indexName| cpu| rss| +-----+---------+-----+-----+ |0 |sonested | 10| 54| |1 |sonested |
    * 20| null| |2 |sonested | null| 47|
    *
+   * <p>The statement that is actually run is built by {@link QueryPlanner}, which returns the same
+   * rows without materialising the union; this method describes the result.
+   *
    * @param metrics a list of metrics we want to query
    * @param aggregations aggregation we want to use for each metric
    * @param dimensions dimension we want to use for each metric
@@ -200,6 +289,102 @@ public class MetricsDB implements Removable {
    */
   public Result<Record> queryMetric(
       List<String> metrics, List<String> aggregations, List<String> dimensions) throws Exception {
+    return queryMetric(metrics, aggregations, dimensions, Collections.emptyMap(), null, 0);
+  }
+
+  /**
+   * Same as {@link #queryMetric(List, List, List)}, but only aggregates the rows whose dimensions
+   * have the given values, and only returns the {@code limit} rows with the largest value of
+   * sortMetric. Rows where that metric is null come last.
+   *
+   * @param metrics a list of metrics we want to query
+   * @param aggregations aggregation we want to use for each metric
+   * @param dimensions dimension we want to use for each metric
+   * @param dimFilters the value each row must have for some of the dimensions
+   * @param sortMetric the metric the rows are ranked by, one of metrics
+   * @param limit the number of rows to return, 0 to return every row unsorted
+   * @return result of query
+   * @throws Exception if one of the aggregations is unknown, sortMetric is not queried or a filter
+   *     is on a dimension that is not queried.
+   */
+  public Result<Record> queryMetric(
+      List<String> metrics,
+      List<String> aggregations,
+      List<String> dimensions,
+      Map<String, String> dimFilters,
+      String sortMetric,
+      int limit)
+      throws Exception {
+    QueryPlanner.Planned planned =
+        QueryPlanner.plan(
+            create,
+            metrics,
+            aggregations,
+            dimensions,
+            dimFilters,
+            sortMetric,
+            limit,
+            this::metricExists);
+    for (String metric : planned.plan.getMissingMetrics()) {
+      LOG.info(
+          String.format(
+              "%s metric table does not exist. " + "Returning null for the metric/dimension.",
+              metric));
+    }
+    if (planned.select == null) {
+      return null;
+    }
+    return create.fetch(planned.select);
+  }
+
+  /**
+   * Returns how {@link #queryMetric(List, List, List, Map, String, int)} would run the query,
+   * including the plan SQLite picks for the statement.
+   *
+   * @param metrics a list of metrics we want to query
+   * @param aggregations aggregation we want to use for each metric
+   * @param dimensions dimension we want to use for each metric
+   * @param dimFilters the value each row must have for some of the dimensions
+   * @param sortMetric the metric the rows are ranked by, one of metrics
+   * @param limit the number of rows to return, 0 for every row
+   * @return the query plan
+   * @throws Exception if the query is invalid.
+   */
+  public QueryPlan explainQuery(
+      List<String> metrics,
+      List<String> aggregations,
+      List<String> dimensions,
+      Map<String, String> dimFilters,
+      String sortMetric,
+      int limit)
+      throws Exception {
+    QueryPlanner.Planned planned =
+        QueryPlanner.plan(
+            create,
+            metrics,
+            aggregations,
+            dimensions,
+            dimFilters,
+            sortMetric,
+            limit,
+            this::metricExists);
+    if (planned.select != null) {
+      List<String> steps = new ArrayList<>();
+      for (Record step : create.fetch("EXPLAIN QUERY PLAN " + planned.plan.getSql())) {
+        steps.add(String.valueOf(step.get("detail")));
+      }
+      planned.plan.setSqlitePlan(steps);
+    }
+    return planned.plan;
+  }
+
+  /**
+   * The plan queryMetric used before the query planner existed: aggregate every table, UNION the
+   * results and group them again. Kept to check the planner against.
+   */
+  @VisibleForTesting
+  Result<Record> queryMetricWithUnion(
+      List<String> metrics, List<String> aggregations, List<String> dimensions) throws Exception {
     List<TableLike<Record>> tList = getAggregatedMetricTables(metrics, aggregations, dimensions);
 
     // Join all the individual metric tables to generate the final table.
@@ -239,6 +424,101 @@ public class MetricsDB implements Removable {
     return create.select().from(DSL.table(metric)).fetch();
   }
 
+  /**
+   * Groups the rows of a metric table by the given dimensions and aggregates one of its columns in
+   * every group, largest first. This is {@code select dimensions, aggType(aggColumn) from metric
+   * group by dimensions order by aggType(aggColumn) desc}, which the RCA graph asks every window.
+   *
+   * @param metric The metric table to read.
+   * @param aggColumn The column to aggregate: sum, avg, min or max.
+   * @param aggType The aggregation over the rows of a group: sum, avg, min or max.
+   * @param dimensions The dimensions to group the rows by, none for a single group.
+   * @return A row per group, with the dimensions followed by the aggregate.
+   * @throws Exception if the column or the aggregation is not one of sum, avg, min and max.
+   */
+  public Result<Record> groupMetric(
+      String metric, String aggColumn, String aggType, List<String> dimensions) throws Exception {
+    List<Field<?>> groupByFields = DBUtils.getFieldsFromList(dimensions);
+    Field<?> aggField = aggregateField(aggColumn, aggType);
+    List<Field<?>> selectFields = new ArrayList<>(groupByFields);
+    selectFields.add(aggField);
+    return create
+        .select(selectFields)
+        .from(metric)
+        .groupBy(groupByFields)
+        .orderBy(aggField.desc())
+        .fetch();
+  }
+
+  static Field<?> aggregateField(String aggColumn, String aggType) throws Exception {
+    if (!AGG_COLUMNS.contains(aggColumn)) {
+      throw new Exception("Unknown agg column");
+    }
+    Field<Double> field = DSL.field(DSL.name(aggColumn), Double.class);
+    switch (aggType) {
+      case SUM:
+        return DSL.sum(field);
+      case AVG:
+        return DSL.avg(field);
+      case MIN:
+        return DSL.min(field);
+      case MAX:
+        return DSL.max(field);
+      default:
+        throw new Exception("Unknown agg type");
+    }
+  }
+
+  /**
+   * Reads every row of a metric table, like {@link #queryMetric(String)}, but hands the rows to
+   * the visitor straight from the JDBC result set instead of materializing a jOOQ result.
+   *
+   * @param metric The metric table to read.
+   * @param visitor Receives the rows.
+   * @throws DataAccessException if the table does not exist or cannot be read.
+   */
+  public void readMetric(String metric, MetricRowVisitor visitor) {
+    try (ResultSet rs = create.select().from(DSL.table(metric)).fetchResultSet()) {
+      ResultSetMetaData meta = rs.getMetaData();
+      List<String> dimensions = new ArrayList<>();
+      List<Integer> dimensionColumns = new ArrayList<>();
+      int[] aggColumns = {-1, -1, -1, -1};
+      for (int col = 1; col <= meta.getColumnCount(); col++) {
+        String name = meta.getColumnName(col);
+        int agg = AGG_COLUMNS.indexOf(name);
+        if (agg >= 0) {
+          aggColumns[agg] = col;
+        } else {
+          dimensions.add(name);
+          dimensionColumns.add(col);
+        }
+      }
+      visitor.start(dimensions);
+      String[] values = new String[dimensions.size()];
+      while (rs.next()) {
+        for (int d = 0; d < values.length; d++) {
+          values[d] = rs.getString(dimensionColumns.get(d));
+        }
+        visitor.row(
+            values,
+            readDouble(rs, aggColumns[0]),
+            readDouble(rs, aggColumns[1]),
+            readDouble(rs, aggColumns[2]),
+            readDouble(rs, aggColumns[3]));
+      }
+    } catch (SQLException e) {
+      throw new DataAccessException("Unable to read metric table " + metric, e);
+    }
+  }
+
+  private static double readDouble(ResultSet rs, int column) throws SQLException {
+    if (column < 0) {
+      return Double.NaN;
+    }
+    double value = rs.getDouble(column);
+    return rs.wasNull() ? Double.NaN : value;
+  }
+
   public void commit() throws Exception {
     conn.commit();
   }
@@ -263,7 +543,23 @@ public class MetricsDB implements Removable {
     return create;
   }
 
+  /**
+   * A context to run SQL against the given metric tables only. This database holds every table, so
+   * it is the same as {@link #getDSLContext()}.
+   */
+  public DSLContext getDSLContext(Collection<String> metrics) {
+    return create;
+  }
+
   public boolean metricExists(String metric) {
     return DBUtils.checkIfTableExists(create, metric);
   }
+
+  /**
+   * The metric tables created through {@link #createMetric(Metric, List)}, so the tables of a
+   * window can be listed without asking the database about every metric there is.
+   */
+  public Set<String> getCreatedMetrics() {
+    return Collections.unmodifiableSet(createdMetrics);
+  }
 }
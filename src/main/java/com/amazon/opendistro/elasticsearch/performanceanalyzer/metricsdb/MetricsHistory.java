@@ -0,0 +1,535 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.DBUtils;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricsModel;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+/**
+ * Keeps the rows of the MetricsDB windows after the reader deletes the windows themselves, so the
+ * REST API and the RCAs can look further back than the two windows the reader keeps around.
+ *
+ * <p>Every row of a metric table, that is every combination of dimension values, is a series of
+ * compressed points (see {@link TimeSeriesChunk}); a window of a thousand rows that did not change
+ * much since the previous one costs a few bytes per row. The windows are kept as they are for
+ * {@link #RETENTION_CONF_NAME} and rolled up into 1 minute, 10 minute and 1 hour tiers (see {@link
+ * HistoryTier}), each with its own retention, so that hours of history do not cost hours of
+ * windows. A retention of 0 turns the history off, or a single rollup tier.
+ *
+ * <p>The history is also bounded in memory by {@link #MAX_BYTES_CONF_NAME}: past the budget the
+ * oldest chunks of the tier that uses the most memory are dropped first.
+ *
+ * <p>The reader ingests every window after it is committed and the readers of the history query
+ * it concurrently.
+ */
+public class MetricsHistory {
+  private static final Logger LOG = LogManager.getLogger(MetricsHistory.class);
+
+  public static final String RETENTION_CONF_NAME = "metrics-history-retention-minutes";
+  public static final String MAX_BYTES_CONF_NAME = "metrics-history-max-bytes";
+  public static final String ROLLUP_1M_RETENTION_CONF_NAME =
+      "metrics-history-1m-retention-minutes";
+  public static final String ROLLUP_10M_RETENTION_CONF_NAME =
+      "metrics-history-10m-retention-minutes";
+  public static final String ROLLUP_1H_RETENTION_CONF_NAME =
+      "metrics-history-1h-retention-minutes";
+  static final long DEFAULT_RETENTION_MINUTES = 30;
+  static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+  static final long DEFAULT_1M_RETENTION_MINUTES = TimeUnit.HOURS.toMinutes(6);
+  static final long DEFAULT_10M_RETENTION_MINUTES = TimeUnit.DAYS.toMinutes(1);
+  static final long DEFAULT_1H_RETENTION_MINUTES = TimeUnit.DAYS.toMinutes(7);
+
+  /** The resolutions of the rollup tiers, from the finest to the coarsest. */
+  public static final long[] ROLLUP_RESOLUTIONS_MILLIS = {
+    TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(10), TimeUnit.HOURS.toMillis(1)
+  };
+  private static final String[] ROLLUP_NAMES = {"1m", "10m", "1h"};
+  // An hour of points per chunk of the 1 minute tier, 6 hours for 10 minutes and a day for 1 hour.
+  private static final int[] ROLLUP_CHUNK_CAPACITIES = {60, 36, 24};
+
+  /** The column holding the start of each step in the result of a range query. */
+  public static final String TIMESTAMP = "timestamp";
+
+  // Five minutes of windows per chunk.
+  private static final int CHUNK_CAPACITY = 60;
+  // The most steps a range query may ask for.
+  static final int MAX_STEPS = 2000;
+  private static final List<String> AGGREGATIONS =
+      Arrays.asList(MetricsDB.SUM, MetricsDB.AVG, MetricsDB.MIN, MetricsDB.MAX);
+
+  private final long maxBytes;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // The raw tier first, then the rollups from the finest to the coarsest.
+  private final List<HistoryTier> tiers;
+  private long latestWindowStartTime = -1;
+
+  public MetricsHistory() {
+    this(
+        TimeUnit.MINUTES.toMillis(readSetting(RETENTION_CONF_NAME, DEFAULT_RETENTION_MINUTES)),
+        readSetting(MAX_BYTES_CONF_NAME, DEFAULT_MAX_BYTES),
+        new long[] {
+          TimeUnit.MINUTES.toMillis(
+              readSetting(ROLLUP_1M_RETENTION_CONF_NAME, DEFAULT_1M_RETENTION_MINUTES)),
+          TimeUnit.MINUTES.toMillis(
+              readSetting(ROLLUP_10M_RETENTION_CONF_NAME, DEFAULT_10M_RETENTION_MINUTES)),
+          TimeUnit.MINUTES.toMillis(
+              readSetting(ROLLUP_1H_RETENTION_CONF_NAME, DEFAULT_1H_RETENTION_MINUTES))
+        });
+  }
+
+  /** A history of the raw windows only. */
+  @VisibleForTesting
+  public MetricsHistory(long retentionMillis, long maxBytes) {
+    this(retentionMillis, maxBytes, new long[ROLLUP_RESOLUTIONS_MILLIS.length]);
+  }
+
+  /**
+   * @param retentionMillis How long the raw windows are kept, 0 to turn the history off.
+   * @param maxBytes The memory budget of the history.
+   * @param rollupRetentionMillis How long each of the {@link #ROLLUP_RESOLUTIONS_MILLIS} tiers is
+   *     kept, 0 to not keep a tier.
+   */
+  @VisibleForTesting
+  public MetricsHistory(long retentionMillis, long maxBytes, long[] rollupRetentionMillis) {
+    this.maxBytes = maxBytes;
+    HistoryTier[] rollups = new HistoryTier[ROLLUP_RESOLUTIONS_MILLIS.length];
+    for (int i = rollups.length - 1; i >= 0; i--) {
+      rollups[i] =
+          HistoryTier.rollup(
+              ROLLUP_NAMES[i],
+              ROLLUP_RESOLUTIONS_MILLIS[i],
+              rollupRetentionMillis[i],
+              ROLLUP_CHUNK_CAPACITIES[i],
+              i + 1 < rollups.length ? rollups[i + 1] : null);
+    }
+    List<HistoryTier> allTiers = new ArrayList<>();
+    allTiers.add(
+        HistoryTier.raw(MetricsConfiguration.SAMPLING_INTERVAL, retentionMillis, CHUNK_CAPACITY));
+    allTiers.addAll(Arrays.asList(rollups));
+    this.tiers = Collections.unmodifiableList(allTiers);
+  }
+
+  private static long readSetting(String name, long defaultValue) {
+    String value = PluginSettings.instance().getSettingValue(name, String.valueOf(defaultValue));
+    try {
+      long setting = Long.parseLong(value.trim());
+      if (setting >= 0) {
+        return setting;
+      }
+    } catch (NumberFormatException ignored) {
+      // fall through to the default.
+    }
+    LOG.error("Invalid value for {}: {}, using the default.", name, value);
+    return defaultValue;
+  }
+
+  public boolean isEnabled() {
+    return tiers.get(0).isStored() && maxBytes > 0;
+  }
+
+  /**
+   * Appends every row of every metric of a window to the history, rolls it up and drops what is
+   * now past the retention of each tier or the memory budget. Windows older than the latest
+   * ingested one are ignored.
+   *
+   * @param windowStartTime The start time of the window.
+   * @param db The committed window.
+   */
+  public void ingest(long windowStartTime, MetricsDB db) {
+    if (!isEnabled()) {
+      return;
+    }
+    // Read the window before taking the lock, so queries only wait for the appends. Only the
+    // tables the emitters wrote are read, straight into the rows without a jOOQ result.
+    Map<String, WindowRows> window = new HashMap<>();
+    for (String metric : db.getCreatedMetrics()) {
+      if (MetricsModel.ALL_METRICS.containsKey(metric)) {
+        WindowRows rows = new WindowRows();
+        db.readMetric(metric, rows);
+        window.put(metric, rows);
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (windowStartTime <= latestWindowStartTime) {
+        LOG.debug("Window {} is already in the history.", windowStartTime);
+        return;
+      }
+      latestWindowStartTime = windowStartTime;
+      HistoryTier raw = tiers.get(0);
+      HistoryTier firstRollup = tiers.get(1);
+      double[] rollup = new double[HistoryTier.ROLLUP_COLUMNS];
+      for (Map.Entry<String, WindowRows> entry : window.entrySet()) {
+        WindowRows rows = entry.getValue();
+        for (Map.Entry<List<String>, double[]> row : rows.rows.entrySet()) {
+          raw.add(windowStartTime, entry.getKey(), rows.dimensions, row.getKey(), row.getValue());
+          firstRollup.add(windowStartTime, entry.getKey(), rows.dimensions, row.getKey(),
+              HistoryTier.toRollup(row.getValue(), rollup));
+        }
+      }
+      evict();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void evict() {
+    long size = 0;
+    for (HistoryTier tier : tiers) {
+      if (tier.isStored()) {
+        tier.evictBefore(latestWindowStartTime - tier.getRetentionMillis());
+      }
+      size += tier.sizeInBytes();
+    }
+    // Tiers with nothing left to evict are skipped for the ones after them in size.
+    boolean[] exhausted = new boolean[tiers.size()];
+    while (size > maxBytes) {
+      int largest = -1;
+      long largestSize = 0;
+      for (int i = 0; i < tiers.size(); i++) {
+        long tierSize = tiers.get(i).sizeInBytes();
+        if (!exhausted[i] && tierSize > largestSize) {
+          largest = i;
+          largestSize = tierSize;
+        }
+      }
+      if (largest < 0) {
+        break;
+      }
+      if (!tiers.get(largest).evictOldestChunk()) {
+        exhausted[largest] = true;
+        continue;
+      }
+      size += tiers.get(largest).sizeInBytes() - largestSize;
+    }
+  }
+
+  /** The start time of the latest window in the history, -1 if there is none. */
+  public long getLatestWindowStartTime() {
+    lock.readLock().lock();
+    try {
+      return latestWindowStartTime;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** An estimate of the heap used by the history. */
+  public long sizeInBytes() {
+    lock.readLock().lock();
+    try {
+      long size = 0;
+      for (HistoryTier tier : tiers) {
+        size += tier.sizeInBytes();
+      }
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The resolution of the data a range query starting at {@code start} with this step is
+   * answered from.
+   */
+  public long getResolutionMillis(long start, long step) {
+    lock.readLock().lock();
+    try {
+      return tiers.get(pickTier(start, step <= 0 ? MetricsConfiguration.SAMPLING_INTERVAL : step))
+          .getResolutionMillis();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Picks the coarsest stored tier that is not coarser than the step and goes back to the start
+   * of the range. If none goes back that far, the one that goes back the furthest.
+   */
+  private int pickTier(long start, long step) {
+    int furthest = 0;
+    long furthestFirst = Long.MAX_VALUE;
+    for (int i = tiers.size() - 1; i >= 0; i--) {
+      HistoryTier tier = tiers.get(i);
+      if (!tier.isStored() || (i > 0 && tier.getResolutionMillis() > step)) {
+        continue;
+      }
+      long first = tier.getFirstTimestamp();
+      if (first <= start) {
+        return i;
+      }
+      if (first < furthestFirst) {
+        furthest = i;
+        furthestFirst = first;
+      }
+    }
+    return furthest;
+  }
+
+  /**
+   * Queries the history in [start, end), one row per combination of the requested dimensions and
+   * step. The data comes from the coarsest tier that is not coarser than the step and covers the
+   * range; a point of a tier belongs to the step its start falls in.
+   *
+   * <p>Within a window the rows are aggregated the way {@link MetricsDB#queryMetric(List, List,
+   * List)} does it. Across the windows of a step, sum is the average sum of a window, avg the
+   * average of the rows weighted by the number of windows they were in, and min and max the
+   * minimum and the maximum. The steps without any window are left out.
+   *
+   * @param metrics the metrics to query
+   * @param aggregations the aggregation of each metric
+   * @param dimensions the dimensions to group by
+   * @param start the start of the range, inclusive, in milliseconds since the epoch
+   * @param end the end of the range, exclusive, in milliseconds since the epoch
+   * @param step the length of a step in milliseconds, the sampling interval when not positive
+   * @return the dimensions, the {@link #TIMESTAMP} of the step and a column per metric
+   * @throws IllegalArgumentException if an aggregation is unknown or the range has too many steps
+   */
+  public Result<Record> query(
+      List<String> metrics,
+      List<String> aggregations,
+      List<String> dimensions,
+      long start,
+      long end,
+      long step) {
+    if (metrics.size() != aggregations.size()) {
+      throw new IllegalArgumentException("metrics and aggregations should have the same size");
+    }
+    for (String aggregation : aggregations) {
+      if (!AGGREGATIONS.contains(aggregation)) {
+        throw new IllegalArgumentException(aggregation + " is an invalid aggregation type");
+      }
+    }
+    if (step <= 0) {
+      step = MetricsConfiguration.SAMPLING_INTERVAL;
+    }
+    if (end > start && (end - start) / step >= MAX_STEPS) {
+      throw new IllegalArgumentException(
+          "The range covers more than " + MAX_STEPS + " steps, use a larger step");
+    }
+
+    // Group values -> step start -> one value per metric.
+    Map<List<String>, TreeMap<Long, double[]>> rows = new TreeMap<>(MetricsHistory::compareKeys);
+    lock.readLock().lock();
+    try {
+      if (end > start) {
+        int tier = pickTier(start, step);
+        for (int i = 0; i < metrics.size(); i++) {
+          Map<List<String>, Map<Long, Bucket>> steps =
+              querySteps(tier, metrics.get(i), dimensions, start, end, step);
+          for (Map.Entry<List<String>, Map<Long, Bucket>> group : steps.entrySet()) {
+            TreeMap<Long, double[]> groupRows =
+                rows.computeIfAbsent(group.getKey(), k -> new TreeMap<>());
+            for (Map.Entry<Long, Bucket> stepEntry : group.getValue().entrySet()) {
+              groupRows.computeIfAbsent(stepEntry.getKey(), t -> nanRow(metrics.size()))[i] =
+                  stepEntry.getValue().value(aggregations.get(i));
+            }
+          }
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    Result<Record> result = emptyResult(metrics, dimensions);
+    Field<?>[] fields = result.fields();
+    DSLContext create = DSL.using(SQLDialect.SQLITE);
+    for (Map.Entry<List<String>, TreeMap<Long, double[]>> group : rows.entrySet()) {
+      for (Map.Entry<Long, double[]> row : group.getValue().entrySet()) {
+        Object[] values = new Object[fields.length];
+        int col = 0;
+        for (String dimValue : group.getKey()) {
+          values[col++] = dimValue;
+        }
+        values[col++] = row.getKey();
+        for (double value : row.getValue()) {
+          values[col++] = Double.isNaN(value) ? null : value;
+        }
+        Record record = create.newRecord(fields);
+        record.fromArray(values);
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * A range query result without any row: the dimensions, the {@link #TIMESTAMP} of the step and
+   * a column per metric.
+   */
+  public static Result<Record> emptyResult(List<String> metrics, List<String> dimensions) {
+    List<Field<?>> fieldList = DBUtils.getFieldsFromList(dimensions);
+    fieldList.add(DSL.field(TIMESTAMP, Long.class));
+    fieldList.addAll(DBUtils.getDoubleFieldsFromList(metrics));
+    return DSL.using(SQLDialect.SQLITE).newResult(fieldList.toArray(new Field<?>[0]));
+  }
+
+  /** Aggregates the points of a metric in a tier by group and step. */
+  private Map<List<String>, Map<Long, Bucket>> querySteps(
+      int tierIndex, String metric, List<String> dimensions, long start, long end, long step) {
+    // First aggregate the series of every point in time by the requested dimensions.
+    Map<List<String>, Map<Long, Bucket>> points = new HashMap<>();
+    HistoryTier.PointVisitor visitor =
+        (group, timestamp, point) ->
+            points
+                .computeIfAbsent(group, k -> new HashMap<>())
+                .computeIfAbsent(timestamp, t -> new Bucket())
+                .addSeries(point);
+    tiers.get(tierIndex).scanStored(metric, dimensions, start, end, visitor);
+    // The buckets the rollup tiers have not stored yet are the most recent part of the range.
+    for (int i = 1; i <= tierIndex; i++) {
+      tiers.get(i).scanPending(metric, dimensions, start, end, visitor);
+    }
+
+    // Then the points of every step.
+    Map<List<String>, Map<Long, Bucket>> steps = new HashMap<>();
+    for (Map.Entry<List<String>, Map<Long, Bucket>> group : points.entrySet()) {
+      Map<Long, Bucket> groupSteps = steps.computeIfAbsent(group.getKey(), k -> new HashMap<>());
+      for (Map.Entry<Long, Bucket> point : group.getValue().entrySet()) {
+        long stepStart = start + (point.getKey() - start) / step * step;
+        groupSteps.computeIfAbsent(stepStart, t -> new Bucket()).addPoint(point.getValue());
+      }
+    }
+    return steps;
+  }
+
+  private static double[] nanRow(int size) {
+    double[] row = new double[size];
+    Arrays.fill(row, Double.NaN);
+    return row;
+  }
+
+  private static int compareKeys(List<String> left, List<String> right) {
+    for (int i = 0; i < left.size(); i++) {
+      String l = left.get(i);
+      String r = right.get(i);
+      if (l == null || r == null) {
+        if (l != r) {
+          return l == null ? -1 : 1;
+        }
+        continue;
+      }
+      int cmp = l.compareTo(r);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * The aggregations of a group, first over the series at a point in time and then over the
+   * points of a step.
+   */
+  private static class Bucket {
+    private double sum;
+    private double windows;
+    private double avgTotal;
+    private double avgWindows;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /** Adds the rollup point of a series; the series of a point share its windows. */
+    void addSeries(double[] point) {
+      double pointWindows = point[HistoryTier.WINDOWS];
+      if (!Double.isNaN(point[HistoryTier.SUM])) {
+        sum += point[HistoryTier.SUM];
+        windows = Math.max(windows, pointWindows);
+      }
+      if (!Double.isNaN(point[HistoryTier.AVG])) {
+        avgTotal += point[HistoryTier.AVG];
+        avgWindows += pointWindows;
+      }
+      min = HistoryTier.combine(min, point[HistoryTier.MIN], Math::min);
+      max = HistoryTier.combine(max, point[HistoryTier.MAX], Math::max);
+    }
+
+    /** Adds the aggregate of the series at another point in time. */
+    void addPoint(Bucket point) {
+      sum += point.sum;
+      windows += point.windows;
+      avgTotal += point.avgTotal;
+      avgWindows += point.avgWindows;
+      min = HistoryTier.combine(min, point.min, Math::min);
+      max = HistoryTier.combine(max, point.max, Math::max);
+    }
+
+    double value(String aggregation) {
+      switch (aggregation) {
+        case MetricsDB.SUM:
+          return windows == 0 ? Double.NaN : sum / windows;
+        case MetricsDB.AVG:
+          return avgWindows == 0 ? Double.NaN : avgTotal / avgWindows;
+        case MetricsDB.MIN:
+          return min;
+        default:
+          return max;
+      }
+    }
+  }
+
+  /** The rows of a metric table in a window, with the rows of the same dimensions merged. */
+  private static class WindowRows implements MetricRowVisitor {
+    private List<String> dimensions = Collections.emptyList();
+    private final Map<List<String>, double[]> rows = new LinkedHashMap<>();
+
+    @Override
+    public void start(List<String> dimensionNames) {
+      dimensions = new ArrayList<>(dimensionNames);
+    }
+
+    @Override
+    public void row(String[] dimensionValues, double sum, double avg, double min, double max) {
+      double[] values = {sum, avg, min, max};
+      double[] existing = rows.putIfAbsent(Arrays.asList(dimensionValues.clone()), values);
+      if (existing != null) {
+        mergeRow(existing, values);
+      }
+    }
+
+    // A table should only have one row per combination of dimensions, but if it has more they
+    // are folded together the way the query of the window would.
+    private void mergeRow(double[] existing, double[] values) {
+      existing[0] = HistoryTier.combine(existing[0], values[0], Double::sum);
+      existing[1] = HistoryTier.combine(existing[1], values[1], (l, r) -> (l + r) / 2);
+      existing[2] = HistoryTier.combine(existing[2], values[2], Math::min);
+      existing[3] = HistoryTier.combine(existing[3], values[3], Math::max);
+    }
+  }
+}
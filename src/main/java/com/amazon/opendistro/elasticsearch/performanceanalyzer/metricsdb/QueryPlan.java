@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes how a MetricsDB query is executed. It is returned by {@link
+ * MetricsDB#explainQuery(List, List, List, Map, String, int)} and serialized as is by the EXPLAIN
+ * debug endpoint.
+ */
+public class QueryPlan {
+
+  /** The query shapes the planner recognises. */
+  public enum Shape {
+    /** None of the requested metric tables exist, the query returns no result. */
+    EMPTY,
+    /** Only one metric table exists, it is aggregated by the requested dimensions directly. */
+    SINGLE_METRIC,
+    /**
+     * Several metric tables exist. Their rows are concatenated with UNION ALL, each table filling
+     * its own column, and aggregated by a single GROUP BY.
+     */
+    SHARED_SCAN,
+    /** The window is held by the columnar engine and aggregated in memory. */
+    COLUMNAR_SCAN
+  }
+
+  private final Shape shape;
+  private final int limit;
+  private final String sortMetric;
+  private final List<String> missingMetrics;
+  private final String sql;
+  private List<String> sqlitePlan = Collections.emptyList();
+
+  QueryPlan(Shape shape, int limit, String sortMetric, List<String> missingMetrics, String sql) {
+    this.shape = shape;
+    this.limit = limit;
+    this.sortMetric = limit > 0 ? sortMetric : null;
+    this.missingMetrics = Collections.unmodifiableList(new ArrayList<>(missingMetrics));
+    this.sql = sql;
+  }
+
+  public Shape getShape() {
+    return shape;
+  }
+
+  /** The number of rows kept after sorting by the sort metric, 0 when every row is returned. */
+  public int getLimit() {
+    return limit;
+  }
+
+  /** The metric the rows are sorted by, largest first, null when every row is returned. */
+  public String getSortMetric() {
+    return sortMetric;
+  }
+
+  public boolean isTopK() {
+    return limit > 0;
+  }
+
+  /** Requested metrics that have no table in the window and come back as null columns. */
+  public List<String> getMissingMetrics() {
+    return missingMetrics;
+  }
+
+  /** The SQL statement sent to SQLite, null if the query is not answered by SQLite. */
+  public String getSql() {
+    return sql;
+  }
+
+  /** The output of SQLite's EXPLAIN QUERY PLAN for {@link #getSql()}, one entry per step. */
+  public List<String> getSqlitePlan() {
+    return sqlitePlan;
+  }
+
+  void setSqlitePlan(List<String> sqlitePlan) {
+    this.sqlitePlan = Collections.unmodifiableList(new ArrayList<>(sqlitePlan));
+  }
+
+  @Override
+  public String toString() {
+    return "QueryPlan{"
+        + "shape=" + shape
+        + ", limit=" + limit
+        + ", sortMetric=" + sortMetric
+        + ", missingMetrics=" + missingMetrics
+        + ", sql='" + sql + '\''
+        + '}';
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.DBUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Select;
+import org.jooq.SelectHavingStep;
+import org.jooq.SelectLimitStep;
+import org.jooq.impl.DSL;
+
+/**
+ * Builds the SQL for {@link MetricsDB#queryMetric(List, List, List)}.
+ *
+ * <p>The original plan aggregates every metric table on its own, UNIONs the results and groups the
+ * union again with max() to merge the rows that share dimension values. The UNION and the second
+ * GROUP BY each force SQLite to materialise a temporary b-tree as large as the result, which is
+ * expensive for high cardinality dimensions such as shard and index.
+ *
+ * <p>As SQL aggregates skip NULLs, the same result can be computed in one pass: every table
+ * contributes its raw rows with the requested aggregation column in its own output column and
+ * NULL in all the others, and a single GROUP BY applies each metric's aggregation to its column.
+ * When only one table exists there is nothing to merge and the table is aggregated directly.
+ *
+ * <p>Dimension filters are applied to the rows of every table before they are grouped, and a top-K
+ * query orders the groups by the sort metric and keeps the first rows, so only the rows the caller
+ * asked for are ever built into the result.
+ */
+final class QueryPlanner {
+
+  private QueryPlanner() {}
+
+  static Planned plan(
+      DSLContext create,
+      List<String> metrics,
+      List<String> aggregations,
+      List<String> dimensions,
+      Map<String, String> dimFilters,
+      String sortMetric,
+      int limit,
+      Predicate<String> tableExists)
+      throws Exception {
+    for (String aggType : aggregations) {
+      aggColumn(aggType);
+    }
+    if (limit > 0 && !metrics.contains(sortMetric)) {
+      throw new Exception("The sort metric needs to be one of the queried metrics");
+    }
+    List<Condition> conditions = new ArrayList<>();
+    for (Map.Entry<String, String> filter : dimFilters.entrySet()) {
+      if (!dimensions.contains(filter.getKey())) {
+        throw new Exception("The filter dimensions need to be among the queried dimensions");
+      }
+      conditions.add(DSL.field(DSL.name(filter.getKey()), String.class).eq(filter.getValue()));
+    }
+    List<Integer> present = new ArrayList<>();
+    List<String> missing = new ArrayList<>();
+    for (int i = 0; i < metrics.size(); i++) {
+      if (tableExists.test(metrics.get(i))) {
+        present.add(i);
+      } else {
+        missing.add(metrics.get(i));
+      }
+    }
+    if (present.isEmpty()) {
+      return new Planned(
+          new QueryPlan(QueryPlan.Shape.EMPTY, limit, sortMetric, missing, null), null);
+    }
+
+    List<Field<?>> groupByFields = DBUtils.getFieldsFromList(dimensions);
+    QueryPlan.Shape shape;
+    SelectHavingStep<Record> grouped;
+    if (present.size() == 1) {
+      shape = QueryPlan.Shape.SINGLE_METRIC;
+      int only = present.get(0);
+      List<Field<?>> selectFields = DBUtils.getFieldsFromList(dimensions);
+      for (int i = 0; i < metrics.size(); i++) {
+        if (i == only) {
+          String aggregation = aggregations.get(i);
+          selectFields.add(
+              aggregate(aggregation, DSL.field(aggColumn(aggregation), Double.class))
+                  .as(metrics.get(i)));
+        } else {
+          selectFields.add(DSL.val(null, Double.class).as(metrics.get(i)));
+        }
+      }
+      grouped =
+          create
+              .select(selectFields)
+              .from(DSL.table(metrics.get(only)))
+              .where(conditions)
+              .groupBy(groupByFields);
+    } else {
+      shape = QueryPlan.Shape.SHARED_SCAN;
+      Select<Record> rows = null;
+      for (int idx : present) {
+        List<Field<?>> rowFields = DBUtils.getFieldsFromList(dimensions);
+        for (int i = 0; i < metrics.size(); i++) {
+          if (i == idx) {
+            rowFields.add(
+                DSL.field(aggColumn(aggregations.get(i)), Double.class).as(metrics.get(i)));
+          } else {
+            rowFields.add(DSL.val(null, Double.class).as(metrics.get(i)));
+          }
+        }
+        Select<Record> tableRows =
+            create.select(rowFields).from(DSL.table(metrics.get(idx))).where(conditions);
+        rows = rows == null ? tableRows : rows.unionAll(tableRows);
+      }
+      List<Field<?>> selectFields = DBUtils.getFieldsFromList(dimensions);
+      for (int i = 0; i < metrics.size(); i++) {
+        selectFields.add(
+            aggregate(aggregations.get(i), DSL.field(DSL.name(metrics.get(i)), Double.class))
+                .as(metrics.get(i)));
+      }
+      grouped = create.select(selectFields).from(rows).groupBy(groupByFields);
+    }
+
+    Select<Record> select = grouped;
+    if (limit > 0) {
+      SelectLimitStep<Record> ordered =
+          grouped.orderBy(DSL.field(DSL.name(sortMetric), Double.class).desc().nullsLast());
+      select = ordered.limit(limit);
+    }
+    return new Planned(
+        new QueryPlan(shape, limit, sortMetric, missing, create.renderInlined(select)), select);
+  }
+
+  static String aggColumn(String aggType) throws Exception {
+    if (MetricsDB.AGG_VALUES.contains(aggType)) {
+      return aggType;
+    }
+    throw new Exception("Unknown agg type");
+  }
+
+  private static Field<Double> aggregate(String aggType, Field<Double> field) {
+    switch (aggType) {
+      case MetricsDB.SUM:
+        return DSL.sum(field).coerce(Double.class);
+      case MetricsDB.AVG:
+        return DSL.avg(field).coerce(Double.class);
+      case MetricsDB.MIN:
+        return DSL.min(field);
+      default:
+        return DSL.max(field);
+    }
+  }
+
+  /** A plan together with the statement that executes it, null for an empty plan. */
+  static final class Planned {
+    final QueryPlan plan;
+    final Select<Record> select;
+
+    Planned(QueryPlan plan, Select<Record> select) {
+      this.plan = plan;
+      this.select = select;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The history of one row of a metric table, that is one combination of dimension values, as a
+ * queue of compressed chunks from the oldest to the newest. Only the newest chunk grows; the
+ * others are sealed and are dropped whole once they are older than the retention.
+ */
+class TimeSeries {
+  private final List<String> dimensionValues;
+  private final int chunkCapacity;
+  private final int columns;
+  private final Deque<TimeSeriesChunk> chunks = new ArrayDeque<>();
+  private long sizeInBytes;
+
+  TimeSeries(List<String> dimensionValues, int chunkCapacity) {
+    this(dimensionValues, chunkCapacity, TimeSeriesChunk.COLUMNS);
+  }
+
+  TimeSeries(List<String> dimensionValues, int chunkCapacity, int columns) {
+    this.dimensionValues = dimensionValues;
+    this.chunkCapacity = chunkCapacity;
+    this.columns = columns;
+  }
+
+  List<String> getDimensionValues() {
+    return dimensionValues;
+  }
+
+  /**
+   * Appends a point, unless the series already has one at or after that time.
+   *
+   * @return false if the point was older than the newest point of the series.
+   */
+  boolean append(long timestamp, double[] values) {
+    TimeSeriesChunk last = chunks.peekLast();
+    if (last != null && timestamp <= last.getLastTimestamp()) {
+      return false;
+    }
+    if (last == null || last.isFull()) {
+      if (last != null) {
+        sizeInBytes -= last.sizeInBytes();
+        last.seal();
+        sizeInBytes += last.sizeInBytes();
+      }
+      last = new TimeSeriesChunk(chunkCapacity, columns);
+      chunks.addLast(last);
+      sizeInBytes += last.sizeInBytes();
+    }
+    sizeInBytes -= last.sizeInBytes();
+    last.append(timestamp, values);
+    sizeInBytes += last.sizeInBytes();
+    return true;
+  }
+
+  /** Drops the chunks whose every point is older than the cutoff. */
+  void evictBefore(long cutoff) {
+    while (!chunks.isEmpty() && chunks.peekFirst().getLastTimestamp() < cutoff) {
+      sizeInBytes -= chunks.pollFirst().sizeInBytes();
+    }
+  }
+
+  /**
+   * Drops the points older than the cutoff. Unlike {@link #evictBefore(long)}, the chunk the cutoff
+   * falls in is encoded again with the points it keeps.
+   */
+  void trimBefore(long cutoff) {
+    evictBefore(cutoff);
+    TimeSeriesChunk first = chunks.peekFirst();
+    if (first == null || first.getFirstTimestamp() >= cutoff) {
+      return;
+    }
+    TimeSeriesChunk trimmed = new TimeSeriesChunk(chunkCapacity, columns);
+    double[] values = new double[columns];
+    TimeSeriesChunk.Cursor cursor = first.cursor();
+    while (cursor.next()) {
+      if (cursor.timestamp() >= cutoff) {
+        for (int col = 0; col < columns; col++) {
+          values[col] = cursor.value(col);
+        }
+        trimmed.append(cursor.timestamp(), values);
+      }
+    }
+    if (chunks.size() > 1) {
+      trimmed.seal();
+    }
+    sizeInBytes -= chunks.pollFirst().sizeInBytes();
+    chunks.addFirst(trimmed);
+    sizeInBytes += trimmed.sizeInBytes();
+  }
+
+  boolean isEmpty() {
+    return chunks.isEmpty();
+  }
+
+  /** The oldest timestamp of the series. */
+  long getFirstTimestamp() {
+    return chunks.isEmpty() ? Long.MAX_VALUE : chunks.peekFirst().getFirstTimestamp();
+  }
+
+  /** The newest timestamp of the series. */
+  long getLastTimestamp() {
+    return chunks.isEmpty() ? Long.MIN_VALUE : chunks.peekLast().getLastTimestamp();
+  }
+
+  /**
+   * The newest timestamp of the oldest sealed chunk, the cutoff that would evict that chunk.
+   * Long.MAX_VALUE while the series only has the chunk it appends to.
+   */
+  long getOldestSealedChunkEnd() {
+    return chunks.size() < 2 ? Long.MAX_VALUE : chunks.peekFirst().getLastTimestamp();
+  }
+
+  long sizeInBytes() {
+    return 64 + 8L * dimensionValues.size() + sizeInBytes;
+  }
+
+  /** Hands every point in [start, end) to the visitor, oldest first. */
+  void scan(long start, long end, PointVisitor visitor) {
+    for (TimeSeriesChunk chunk : chunks) {
+      if (chunk.getLastTimestamp() < start) {
+        continue;
+      }
+      if (chunk.getFirstTimestamp() >= end) {
+        break;
+      }
+      TimeSeriesChunk.Cursor cursor = chunk.cursor();
+      while (cursor.next()) {
+        long timestamp = cursor.timestamp();
+        if (timestamp >= end) {
+          break;
+        }
+        if (timestamp >= start) {
+          visitor.visit(timestamp, cursor);
+        }
+      }
+    }
+  }
+
+  interface PointVisitor {
+    void visit(long timestamp, TimeSeriesChunk.Cursor point);
+  }
+}
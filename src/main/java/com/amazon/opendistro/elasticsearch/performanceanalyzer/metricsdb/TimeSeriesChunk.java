@@ -0,0 +1,276 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import java.util.Arrays;
+
+/**
+ * An append-only block of points of one series, compressed the way Gorilla does it. Every point
+ * is a timestamp and a fixed number of values, by default the four aggregations of a MetricsDB
+ * row in the order sum, avg, min, max.
+ *
+ * <p>The first point is stored as is. After it, timestamps are written as the difference between
+ * two consecutive deltas, which is 0 for windows emitted on time and costs a single bit, and every
+ * value is XOR-ed with the previous value of its column so that only the bits that changed are
+ * written. Missing values are stored as NaN.
+ *
+ * <p>A chunk is not thread safe; {@link MetricsHistory} guards all of them with its lock.
+ */
+class TimeSeriesChunk {
+  static final int COLUMNS = 4;
+
+  private static final int INITIAL_WORDS = 8;
+  // Sizes of the delta-of-delta buckets after the '0', '10', '110' and '1110' prefixes.
+  private static final int[] DOD_BITS = {7, 9, 16};
+
+  private long[] words = new long[INITIAL_WORDS];
+  private int bitCount;
+  private int count;
+  private boolean sealed;
+
+  private long firstTimestamp;
+  private long lastTimestamp;
+  private long lastDelta;
+  private final long[] lastValues;
+  private final int[] lastLeading;
+  private final int[] lastTrailing;
+
+  private final int capacity;
+  private final int columns;
+
+  TimeSeriesChunk(int capacity) {
+    this(capacity, COLUMNS);
+  }
+
+  TimeSeriesChunk(int capacity, int columns) {
+    this.capacity = capacity;
+    this.columns = columns;
+    this.lastValues = new long[columns];
+    this.lastLeading = new int[columns];
+    this.lastTrailing = new int[columns];
+  }
+
+  /**
+   * Appends a point. The caller makes sure that timestamps only grow.
+   *
+   * @param timestamp The start time of the window.
+   * @param values One value per column, NaN when missing.
+   */
+  void append(long timestamp, double[] values) {
+    if (sealed) {
+      throw new IllegalStateException("The chunk is sealed");
+    }
+    if (count == 0) {
+      writeBits(timestamp, 64);
+      for (int col = 0; col < columns; col++) {
+        long bits = Double.doubleToRawLongBits(values[col]);
+        writeBits(bits, 64);
+        lastValues[col] = bits;
+        lastLeading[col] = -1;
+      }
+      firstTimestamp = timestamp;
+    } else {
+      long delta = timestamp - lastTimestamp;
+      writeDeltaOfDelta(delta - lastDelta);
+      lastDelta = delta;
+      for (int col = 0; col < columns; col++) {
+        writeValue(col, Double.doubleToRawLongBits(values[col]));
+      }
+    }
+    lastTimestamp = timestamp;
+    count++;
+  }
+
+  private void writeDeltaOfDelta(long dod) {
+    if (dod == 0) {
+      writeBits(0, 1);
+      return;
+    }
+    for (int i = 0; i < DOD_BITS.length; i++) {
+      int bits = DOD_BITS[i];
+      if (dod >= -(1L << (bits - 1)) && dod < (1L << (bits - 1))) {
+        // i + 1 ones followed by a zero.
+        writeBits(((1L << (i + 1)) - 1) << 1, i + 2);
+        writeBits(dod, bits);
+        return;
+      }
+    }
+    writeBits(0b1111, 4);
+    writeBits(dod, 64);
+  }
+
+  private void writeValue(int col, long bits) {
+    long xor = bits ^ lastValues[col];
+    lastValues[col] = bits;
+    if (xor == 0) {
+      writeBits(0, 1);
+      return;
+    }
+    writeBits(1, 1);
+    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+    int trailing = Long.numberOfTrailingZeros(xor);
+    if (lastLeading[col] >= 0 && leading >= lastLeading[col] && trailing >= lastTrailing[col]) {
+      // The changed bits fit in the window of the previous value.
+      writeBits(0, 1);
+      writeBits(xor >>> lastTrailing[col], 64 - lastLeading[col] - lastTrailing[col]);
+    } else {
+      int significant = 64 - leading - trailing;
+      writeBits(1, 1);
+      writeBits(leading, 5);
+      writeBits(significant - 1, 6);
+      writeBits(xor >>> trailing, significant);
+      lastLeading[col] = leading;
+      lastTrailing[col] = trailing;
+    }
+  }
+
+  private void writeBits(long value, int bits) {
+    if (bits < 64) {
+      value &= (1L << bits) - 1;
+    }
+    int needed = (bitCount + bits + 63) >>> 6;
+    if (needed > words.length) {
+      words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+    }
+    int offset = bitCount & 63;
+    int word = bitCount >>> 6;
+    int free = 64 - offset;
+    if (bits <= free) {
+      words[word] |= value << (free - bits);
+    } else {
+      words[word] |= value >>> (bits - free);
+      words[word + 1] |= value << (64 - (bits - free));
+    }
+    bitCount += bits;
+  }
+
+  boolean isFull() {
+    return count >= capacity;
+  }
+
+  /** Stops the chunk from growing and gives back the space it reserved for more points. */
+  void seal() {
+    if (!sealed) {
+      words = Arrays.copyOf(words, (bitCount + 63) >>> 6);
+      sealed = true;
+    }
+  }
+
+  int size() {
+    return count;
+  }
+
+  long getFirstTimestamp() {
+    return firstTimestamp;
+  }
+
+  long getLastTimestamp() {
+    return lastTimestamp;
+  }
+
+  /** An estimate of the heap the chunk uses, the encoded points and the encoder state. */
+  long sizeInBytes() {
+    return 16 + 8L * words.length + 3 * (16 + 8L * columns) + 64;
+  }
+
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  /** Decodes the points of the chunk in the order they were appended. */
+  class Cursor {
+    private int position;
+    private int read;
+    private long timestamp;
+    private long delta;
+    private final long[] values = new long[columns];
+    private final int[] leading = new int[columns];
+    private final int[] trailing = new int[columns];
+    // The cursor only reads the points that were appended when it was created.
+    private final int limit = count;
+
+    boolean next() {
+      if (read >= limit) {
+        return false;
+      }
+      if (read == 0) {
+        timestamp = readBits(64);
+        for (int col = 0; col < columns; col++) {
+          values[col] = readBits(64);
+        }
+      } else {
+        delta += readDeltaOfDelta();
+        timestamp += delta;
+        for (int col = 0; col < columns; col++) {
+          readValue(col);
+        }
+      }
+      read++;
+      return true;
+    }
+
+    long timestamp() {
+      return timestamp;
+    }
+
+    double value(int col) {
+      return Double.longBitsToDouble(values[col]);
+    }
+
+    private long readDeltaOfDelta() {
+      int ones = 0;
+      while (ones < 4 && readBits(1) == 1) {
+        ones++;
+      }
+      if (ones == 0) {
+        return 0;
+      }
+      int bits = ones == 4 ? 64 : DOD_BITS[ones - 1];
+      long value = readBits(bits);
+      // Sign extend.
+      return bits == 64 ? value : (value << (64 - bits)) >> (64 - bits);
+    }
+
+    private void readValue(int col) {
+      if (readBits(1) == 0) {
+        return;
+      }
+      if (readBits(1) == 1) {
+        leading[col] = (int) readBits(5);
+        trailing[col] = 64 - leading[col] - ((int) readBits(6) + 1);
+      }
+      int significant = 64 - leading[col] - trailing[col];
+      values[col] ^= readBits(significant) << trailing[col];
+    }
+
+    private long readBits(int bits) {
+      int offset = position & 63;
+      int word = position >>> 6;
+      int available = 64 - offset;
+      long value;
+      if (bits <= available) {
+        value = words[word] << offset;
+        value = bits == 64 ? value : value >>> (64 - bits);
+      } else {
+        long high = (words[word] << offset) >>> (64 - bits);
+        long low = words[word + 1] >>> (64 - (bits - available));
+        value = high | low;
+      }
+      position += bits;
+      return value;
+    }
+  }
+}
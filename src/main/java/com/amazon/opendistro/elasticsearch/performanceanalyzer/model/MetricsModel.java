@@ -116,6 +116,15 @@ public class MetricsModel {
     allMetricsInitializer.put(
         ShardBulkMetric.DOC_COUNT.toString(),
         new MetricAttributes(MetricUnits.COUNT.toString(), AggregatedOSDimension.values()));
+    allMetricsInitializer.put(
+        ShardOperationMetric.LATENCY_P50.toString(),
+        new MetricAttributes(MetricUnits.MILLISECOND.toString(), AggregatedOSDimension.values()));
+    allMetricsInitializer.put(
+        ShardOperationMetric.LATENCY_P90.toString(),
+        new MetricAttributes(MetricUnits.MILLISECOND.toString(), AggregatedOSDimension.values()));
+    allMetricsInitializer.put(
+        ShardOperationMetric.LATENCY_P99.toString(),
+        new MetricAttributes(MetricUnits.MILLISECOND.toString(), AggregatedOSDimension.values()));
 
     // HTTP Metrics
     allMetricsInitializer.put(
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Health of the connection to one remote host. It follows the connectivity state of the channel
+ * the {@link GRPCConnectionManager} keeps for the host, measures the calls made on it and decides
+ * how long to wait before a new channel is built for a host we failed to connect to.
+ *
+ * <p>The health outlives the channels of the host, so that the backoff grows across the channels
+ * that were torn down without ever connecting.
+ */
+public class ChannelHealth {
+  private static final Logger LOG = LogManager.getLogger(ChannelHealth.class);
+
+  static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final double BACKOFF_JITTER = 0.2;
+
+  private final String hostKey;
+  private final AtomicInteger inFlightCalls = new AtomicInteger();
+  private final AtomicLong reconnects = new AtomicLong();
+  private volatile long lastResponseLatencyMicros = -1;
+  private volatile ConnectivityState state = ConnectivityState.IDLE;
+  private volatile String target;
+
+  // The fields below are guarded by this.
+  /** Bumped for every new channel, so that late callbacks from an evicted channel are ignored. */
+  private int generation;
+  private boolean everReady;
+  private boolean readySinceBuilt;
+  private boolean failedSinceBuilt;
+  private int consecutiveFailures;
+  private long retryAtMillis;
+
+  ChannelHealth(final String hostKey) {
+    this.hostKey = hostKey;
+  }
+
+  /**
+   * Starts following a newly built channel for the host.
+   *
+   * @param channel The channel that replaces the previous one, if any.
+   * @param target The address the channel connects to.
+   */
+  void track(final ManagedChannel channel, final String target) {
+    final int channelGeneration;
+    synchronized (this) {
+      this.target = target;
+      channelGeneration = ++generation;
+      readySinceBuilt = false;
+      failedSinceBuilt = false;
+    }
+    watch(channel, channelGeneration);
+  }
+
+  private void watch(final ManagedChannel channel, final int channelGeneration) {
+    final ConnectivityState current = channel.getState(false);
+    if (!onStateChange(current, channelGeneration) || current == ConnectivityState.SHUTDOWN) {
+      return;
+    }
+    channel.notifyWhenStateChanged(current, () -> watch(channel, channelGeneration));
+  }
+
+  /**
+   * Records a state of the channel. A channel that becomes READY again after the host was reachable
+   * before counts as a reconnect.
+   *
+   * @return false if the channel is no longer the current one for the host.
+   */
+  @VisibleForTesting
+  synchronized boolean onStateChange(
+      final ConnectivityState newState, final int channelGeneration) {
+    if (channelGeneration != generation) {
+      return false;
+    }
+    if (newState == ConnectivityState.READY && state != ConnectivityState.READY) {
+      if (everReady) {
+        reconnects.incrementAndGet();
+        PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+            RcaGraphMetrics.NET_RECONNECTS, hostKey, 1);
+      }
+      everReady = true;
+      readySinceBuilt = true;
+      consecutiveFailures = 0;
+      retryAtMillis = 0;
+    } else if (newState == ConnectivityState.TRANSIENT_FAILURE) {
+      failedSinceBuilt = true;
+    }
+    state = newState;
+    return true;
+  }
+
+  /**
+   * Called when the current channel of the host is evicted. If it failed to connect and never got
+   * to READY, a new channel is only built for the host once the backoff has elapsed.
+   */
+  synchronized void onEvicted(final long nowMillis) {
+    generation++;
+    if (failedSinceBuilt && !readySinceBuilt) {
+      consecutiveFailures++;
+      long backoff = Math.min(MAX_BACKOFF_MILLIS,
+          INITIAL_BACKOFF_MILLIS << Math.min(consecutiveFailures - 1, 16));
+      double jitter = 1 + BACKOFF_JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+      retryAtMillis = nowMillis + (long) (backoff * jitter);
+      LOG.debug("Failed {} times to connect to {}, backing off until {}",
+          consecutiveFailures, hostKey, retryAtMillis);
+    }
+    state = ConnectivityState.SHUTDOWN;
+  }
+
+  synchronized boolean isBackingOff(final long nowMillis) {
+    return nowMillis < retryAtMillis;
+  }
+
+  /**
+   * An interceptor that counts the calls in flight to the host and measures the time it takes the
+   * host to send back the response headers of a call.
+   */
+  ClientInterceptor interceptor() {
+    return new ClientInterceptor() {
+      @Override
+      public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+          final MethodDescriptor<ReqT, RespT> method, final CallOptions callOptions,
+          final Channel next) {
+        return new SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+          @Override
+          public void start(final Listener<RespT> responseListener, final Metadata headers) {
+            final long startNanos = System.nanoTime();
+            onCallStarted();
+            try {
+              super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+                @Override
+                public void onHeaders(final Metadata responseHeaders) {
+                  onResponseHeaders(System.nanoTime() - startNanos);
+                  super.onHeaders(responseHeaders);
+                }
+
+                @Override
+                public void onClose(final Status status, final Metadata trailers) {
+                  onCallEnded();
+                  super.onClose(status, trailers);
+                }
+              }, headers);
+            } catch (RuntimeException e) {
+              onCallEnded();
+              throw e;
+            }
+          }
+        };
+      }
+    };
+  }
+
+  private void onCallStarted() {
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.NET_IN_FLIGHT_CALLS, hostKey, inFlightCalls.incrementAndGet());
+  }
+
+  private void onCallEnded() {
+    inFlightCalls.decrementAndGet();
+  }
+
+  private void onResponseHeaders(final long elapsedNanos) {
+    final long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+    lastResponseLatencyMicros = micros;
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.NET_RESPONSE_LATENCY, hostKey, micros);
+  }
+
+  /** The address of the current channel, used to tell whether the host has moved. */
+  String getTarget() {
+    return target;
+  }
+
+  public ConnectivityState getState() {
+    return state;
+  }
+
+  public int getInFlightCalls() {
+    return inFlightCalls.get();
+  }
+
+  public long getReconnects() {
+    return reconnects.get();
+  }
+
+  /** Time the host took to answer the latest call, or -1 if it has not answered any yet. */
+  public long getLastResponseLatencyMicros() {
+    return lastResponseLatencyMicros;
+  }
+
+  @VisibleForTesting
+  synchronized int getGeneration() {
+    return generation;
+  }
+}
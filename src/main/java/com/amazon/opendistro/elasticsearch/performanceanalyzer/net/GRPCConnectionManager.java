@@ -16,19 +16,27 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.CertificateUtils;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.InterNodeRpcServiceGrpc;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.InterNodeRpcServiceGrpc.InterNodeRpcServiceStub;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
 import com.google.common.annotations.VisibleForTesting;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
 import io.grpc.netty.shaded.io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.handler.ssl.SslContext;
 import io.grpc.netty.shaded.io.netty.handler.ssl.SslContextBuilder;
 
 import java.io.File;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
@@ -44,16 +52,50 @@ import org.apache.logging.log4j.Logger;
  *
  * <p>It also listens to cluster state changes and manages handling connections to the changed
  * hosts.
+ *
+ * <p>One channel is kept per host and reused by all the calls to it for as long as the channel is
+ * up and the host keeps its address. Once {@link #CLIENT_KEEPALIVE_CONF_NAME} is set, keepalive
+ * pings find dead connections that nobody is calling on. A channel that has been idle for a while
+ * releases its connection until the next call.
+ * When a channel is evicted after it failed to ever connect, the next one is built only after an
+ * exponential backoff, so that a host that is down is not dialed on every tick.
  */
 public class GRPCConnectionManager {
 
   private static final Logger LOG = LogManager.getLogger(GRPCConnectionManager.class);
+
+  /**
+   * When set, the client pings the connections it has no traffic on. Servers that predate
+   * {@link #PERMIT_KEEPALIVE_TIME_SECONDS} keep the gRPC default of one ping every 5 minutes, and
+   * only with calls in flight, and close the connection of a client that pings more often. So this
+   * is only set once every node of the cluster runs a server that permits the pings.
+   */
+  public static final String CLIENT_KEEPALIVE_CONF_NAME = "grpc-client-keepalive";
+
+  /** How often the server lets a client ping, with or without calls on the connection. */
+  static final long PERMIT_KEEPALIVE_TIME_SECONDS = 60;
+  /**
+   * How often the client pings a connection with no traffic. It is kept well above what the servers
+   * permit, as a ping that arrives early by any jitter counts as a strike against the client.
+   */
+  static final long KEEPALIVE_TIME_SECONDS = 2 * PERMIT_KEEPALIVE_TIME_SECONDS;
+  static final long KEEPALIVE_TIMEOUT_SECONDS = 20;
+  static final long IDLE_TIMEOUT_MINUTES = 10;
+  private static final int FLOW_CONTROL_WINDOW_BYTES = 1024 * 1024;
+  private static final int MAX_INBOUND_MESSAGE_BYTES = 16 * 1024 * 1024;
+
   private final int port;
   // TLS certificate, private key, and trusted root CA files
   private File certFile;
   private File pkeyFile;
   private File trustedCasFile;
 
+  /**
+   * The client TLS context. It is built from the files above on the first secure channel and shared
+   * by all the channels after that.
+   */
+  private SslContext sslContext;
+
   /**
    * Map of remote hostId to a Netty channel to that host.
    */
@@ -65,14 +107,23 @@ public class GRPCConnectionManager {
    */
   private ConcurrentMap<InstanceDetails.Id, AtomicReference<InterNodeRpcServiceStub>> perHostClientStubMap = new ConcurrentHashMap<>();
 
+  /**
+   * Map of remote hostId to the health of the connection to that host. Unlike the maps above, the
+   * entries survive the termination of a connection.
+   */
+  private ConcurrentMap<InstanceDetails.Id, ChannelHealth> perHostHealthMap = new ConcurrentHashMap<>();
+
   /**
    * Flag that controls if we need to use a secure or an insecure channel.
    */
   private final boolean shouldUseHttps;
 
+  private final boolean keepAlive;
+
   public GRPCConnectionManager(final boolean shouldUseHttps) {
     this.shouldUseHttps = shouldUseHttps;
     this.port = 0;
+    this.keepAlive = isKeepAliveEnabled();
     if (shouldUseHttps) {
       this.certFile = CertificateUtils.getClientCertificateFile();
       this.pkeyFile = CertificateUtils.getClientPrivateKeyFile();
@@ -88,6 +139,7 @@ public class GRPCConnectionManager {
   public GRPCConnectionManager(final boolean shouldUseHttps, int port) {
     this.shouldUseHttps = shouldUseHttps;
     this.port = port;
+    this.keepAlive = isKeepAliveEnabled();
     if (shouldUseHttps) {
       this.certFile = CertificateUtils.getClientCertificateFile();
       this.pkeyFile = CertificateUtils.getClientPrivateKeyFile();
@@ -95,6 +147,11 @@ public class GRPCConnectionManager {
     }
   }
 
+  private static boolean isKeepAliveEnabled() {
+    return Boolean.parseBoolean(
+        PluginSettings.instance().getSettingValue(CLIENT_KEEPALIVE_CONF_NAME, "false").trim());
+  }
+
   @VisibleForTesting
   public ConcurrentMap<InstanceDetails.Id, AtomicReference<ManagedChannel>> getPerHostChannelMap() {
     return perHostChannelMap;
@@ -105,6 +162,16 @@ public class GRPCConnectionManager {
     return perHostClientStubMap;
   }
 
+  /**
+   * Gets the health of the connection to a host.
+   *
+   * @param remoteHost The host.
+   * @return The health, or null if we never connected to the host.
+   */
+  public ChannelHealth getChannelHealth(final InstanceDetails.Id remoteHost) {
+    return perHostHealthMap.get(remoteHost);
+  }
+
   /**
    * Gets the client stub(on which the rpcs can be initiated) for a host.
    *
@@ -114,7 +181,7 @@ public class GRPCConnectionManager {
   public InterNodeRpcServiceStub getClientStubForHost(
       final InstanceDetails remoteHost) {
     final AtomicReference<InterNodeRpcServiceStub> stubAtomicReference = perHostClientStubMap.get(remoteHost.getInstanceId());
-    if (stubAtomicReference != null) {
+    if (stubAtomicReference != null && isChannelReusable(remoteHost)) {
       return stubAtomicReference.get();
     }
     return addOrUpdateClientStubForHost(remoteHost);
@@ -137,11 +204,29 @@ public class GRPCConnectionManager {
   public void shutdown() {
     removeAllStubs();
     terminateAllConnections();
+    perHostHealthMap.clear();
+  }
+
+  /**
+   * A channel is reused as long as it is up and still points at the address the host has now.
+   * A stub that was handed out while the host was backing off is only reused until the backoff
+   * is over.
+   */
+  private boolean isChannelReusable(final InstanceDetails remoteHost) {
+    final AtomicReference<ManagedChannel> channelAtomicReference = perHostChannelMap.get(remoteHost.getInstanceId());
+    if (channelAtomicReference == null) {
+      final ChannelHealth health = perHostHealthMap.get(remoteHost.getInstanceId());
+      return health != null && health.isBackingOff(System.currentTimeMillis());
+    }
+    final ChannelHealth health = perHostHealthMap.get(remoteHost.getInstanceId());
+    return !channelAtomicReference.get().isShutdown()
+        && health != null
+        && getTarget(remoteHost).equals(health.getTarget());
   }
 
   private ManagedChannel getChannelForHost(final InstanceDetails remoteHost) {
     final AtomicReference<ManagedChannel> managedChannelAtomicReference = perHostChannelMap.get(remoteHost.getInstanceId());
-    if (managedChannelAtomicReference != null) {
+    if (managedChannelAtomicReference != null && isChannelReusable(remoteHost)) {
       return managedChannelAtomicReference.get();
     }
 
@@ -156,14 +241,38 @@ public class GRPCConnectionManager {
    * @return a Managed channel object.
    */
   private synchronized ManagedChannel addOrUpdateChannelForHost(final InstanceDetails remoteHost) {
-    final ManagedChannel channel = buildChannelForHost(remoteHost);
+    final ChannelHealth health = perHostHealthMap.computeIfAbsent(
+        remoteHost.getInstanceId(), id -> new ChannelHealth(id.toString()));
+    final ManagedChannel channel = buildChannelForHost(remoteHost, health);
     perHostChannelMap.computeIfAbsent(remoteHost.getInstanceId(), s -> new AtomicReference<>());
-    perHostChannelMap.get(remoteHost.getInstanceId()).set(channel);
+    final ManagedChannel evicted = perHostChannelMap.get(remoteHost.getInstanceId()).getAndSet(channel);
+    if (evicted != null && evicted != channel) {
+      LOG.debug("Replacing the channel to host: {}", remoteHost.getInstanceId());
+      evicted.shutdown();
+    }
+    health.track(channel, getTarget(remoteHost));
     return channel;
   }
 
-  private ManagedChannel buildChannelForHost(final InstanceDetails remoteHost) {
-    return shouldUseHttps ? buildSecureChannel(remoteHost) : buildInsecureChannel(remoteHost);
+  private ManagedChannel buildChannelForHost(final InstanceDetails remoteHost, final ChannelHealth health) {
+    NettyChannelBuilder builder = NettyChannelBuilder.forAddress(
+            remoteHost.getInstanceIp().toString(),
+            getPortFromHost(remoteHost))
+            .idleTimeout(IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+            .flowControlWindow(FLOW_CONTROL_WINDOW_BYTES)
+            .maxInboundMessageSize(MAX_INBOUND_MESSAGE_BYTES)
+            .intercept(health.interceptor());
+    if (keepAlive) {
+      builder.keepAliveTime(KEEPALIVE_TIME_SECONDS, TimeUnit.SECONDS)
+          .keepAliveTimeout(KEEPALIVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+          .keepAliveWithoutCalls(true);
+    }
+    if (shouldUseHttps) {
+      builder.sslContext(getSslContext());
+    } else {
+      builder.usePlaintext();
+    }
+    return builder.build();
   }
 
   private int getPortFromHost(final InstanceDetails remoteHost) {
@@ -174,24 +283,21 @@ public class GRPCConnectionManager {
     return port;
   }
 
-  private ManagedChannel buildInsecureChannel(final InstanceDetails remoteHost) {
-    return ManagedChannelBuilder.forAddress(
-            remoteHost.getInstanceIp().toString(),
-            getPortFromHost(remoteHost)
-    ).usePlaintext().build();
+  private String getTarget(final InstanceDetails remoteHost) {
+    return remoteHost.getInstanceIp().toString() + ":" + getPortFromHost(remoteHost);
   }
 
-  private ManagedChannel buildSecureChannel(final InstanceDetails remoteHost) {
+  private synchronized SslContext getSslContext() {
+    if (sslContext != null) {
+      return sslContext;
+    }
     try {
       SslContextBuilder sslContextBuilder = GrpcSslContexts.forClient().keyManager(certFile, pkeyFile);
       if (trustedCasFile != null) {
         sslContextBuilder.trustManager(trustedCasFile);
       }
-      return NettyChannelBuilder.forAddress(
-              remoteHost.getInstanceIp().toString(),
-              getPortFromHost(remoteHost))
-              .sslContext(sslContextBuilder.build())
-              .build();
+      sslContext = sslContextBuilder.build();
+      return sslContext;
     } catch (SSLException e) {
       LOG.error("Unable to build an SSL gRPC client. Exception: {}", e.getMessage());
       e.printStackTrace();
@@ -202,6 +308,11 @@ public class GRPCConnectionManager {
   }
 
   private InterNodeRpcServiceStub buildStubForHost(final InstanceDetails remoteHost) {
+    final ChannelHealth health = perHostHealthMap.get(remoteHost.getInstanceId());
+    if (health != null && health.isBackingOff(System.currentTimeMillis())) {
+      LOG.debug("Not connecting to host {} while backing off", remoteHost.getInstanceId());
+      return InterNodeRpcServiceGrpc.newStub(new BackoffChannel(getTarget(remoteHost)));
+    }
     return InterNodeRpcServiceGrpc.newStub(getChannelForHost(remoteHost));
   }
 
@@ -230,12 +341,67 @@ public class GRPCConnectionManager {
   }
 
   /**
-   * Removes the stub and the channel object for the host.
+   * Removes the stub and the channel object for the host. The channel is shut down, letting the
+   * calls already made on it finish.
    *
    * @param remoteHost the host to which we want to terminate connection from.
    */
   public void terminateConnection(InstanceDetails.Id remoteHost) {
     perHostClientStubMap.remove(remoteHost);
-    perHostChannelMap.remove(remoteHost);
+    final AtomicReference<ManagedChannel> channelAtomicReference = perHostChannelMap.remove(remoteHost);
+    if (channelAtomicReference == null) {
+      return;
+    }
+    final ChannelHealth health = perHostHealthMap.get(remoteHost);
+    if (health != null) {
+      health.onEvicted(System.currentTimeMillis());
+    }
+    channelAtomicReference.get().shutdown();
+  }
+
+  /**
+   * Stands in for the channel of a host that we are backing off from. The calls made on it fail
+   * with UNAVAILABLE, asynchronously, the same way they would on a channel that could not connect.
+   */
+  private static class BackoffChannel extends Channel {
+    private static final Status BACKING_OFF =
+        Status.UNAVAILABLE.withDescription("Backing off from reconnecting to the host");
+    private final String authority;
+
+    BackoffChannel(final String authority) {
+      this.authority = authority;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+        final MethodDescriptor<ReqT, RespT> methodDescriptor, final CallOptions callOptions) {
+      return new ClientCall<ReqT, RespT>() {
+        @Override
+        public void start(final Listener<RespT> responseListener, final Metadata headers) {
+          CompletableFuture.runAsync(() -> responseListener.onClose(BACKING_OFF, new Metadata()));
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+        }
+
+        @Override
+        public void halfClose() {
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+        }
+      };
+    }
+
+    @Override
+    public String authority() {
+      return authority;
+    }
   }
 }
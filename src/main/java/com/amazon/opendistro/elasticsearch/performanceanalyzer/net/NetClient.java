@@ -18,6 +18,9 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage.Compression;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.InterNodeRpcServiceGrpc;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
@@ -27,12 +30,17 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.SubscribeMes
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.SubscribeResponse;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.FlowUnitBatchCodec;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -49,8 +57,23 @@ public class NetClient {
    */
   private final GRPCConnectionManager connectionManager;
 
+  /**
+   * When set, this node tells the hosts it publishes to that it takes credits, and holds flow units
+   * back when a host runs out of them.
+   */
+  public static final String ACCEPT_CREDITS_CONF_NAME = "rca-flow-unit-credits";
+
+  private final boolean acceptCredits;
+
+  /**
+   * The credits the hosts granted to this node, and the flow units held back for lack of them.
+   */
+  private final PublishCredits credits = new PublishCredits();
+
   public NetClient(final GRPCConnectionManager connectionManager) {
     this.connectionManager = connectionManager;
+    this.acceptCredits = Boolean.parseBoolean(
+        PluginSettings.instance().getSettingValue(ACCEPT_CREDITS_CONF_NAME, "false").trim());
   }
 
   public GRPCConnectionManager getConnectionManager() {
@@ -60,6 +83,15 @@ public class NetClient {
   private ConcurrentMap<InstanceDetails.Id, AtomicReference<StreamObserver<FlowUnitMessage>>> perHostOpenDataStreamMap =
       new ConcurrentHashMap<>();
 
+  private ConcurrentMap<InstanceDetails.Id, AtomicReference<StreamObserver<FlowUnitBatchMessage>>>
+      perHostOpenBatchStreamMap = new ConcurrentHashMap<>();
+
+  /**
+   * The key under which the bytes and messages sent as flow unit batches are accounted, as a batch
+   * carries flow units of many graph nodes.
+   */
+  public static final String FLOW_UNIT_BATCH_STAT_KEY = "FlowUnitBatch";
+
   /**
    * Sends a subscribe request to a remote host. If the subscribe request fails because the remote
    * host is not ready/encountered an exception, we still retry subscribing when we try reading from
@@ -89,7 +121,8 @@ public class NetClient {
   /**
    * Gets a stream from the remote host to write flow units to. If there are failures while writing
    * to the stream, the subscribers will fail and trigger a new subscription which re-establishes
-   * the stream.
+   * the stream. If the host ran out of credits for the vertex, the flow unit is held back until it
+   * grants new ones.
    *
    * @param remoteHost           The remote host to which we need to send flow units to.
    * @param flowUnitMessage      The flow unit to send to the remote host.
@@ -100,13 +133,15 @@ public class NetClient {
       final FlowUnitMessage flowUnitMessage,
       final StreamObserver<PublishResponse> serverResponseStream) {
     LOG.debug("Publishing {} data to {}", flowUnitMessage.getGraphNode(), remoteHost);
+    if (acceptCredits && !credits.acquireOrHold(remoteHost.getInstanceId(), flowUnitMessage)) {
+      LOG.debug("Holding back {} data as {} has no credits left", flowUnitMessage.getGraphNode(),
+          remoteHost);
+      return;
+    }
     try {
       final StreamObserver<FlowUnitMessage> stream =
           getDataStreamForHost(remoteHost, serverResponseStream);
-      stream.onNext(flowUnitMessage);
-      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
-          .updateStat(RcaGraphMetrics.NET_BYTES_OUT, flowUnitMessage.getGraphNode(),
-              flowUnitMessage.getSerializedSize());
+      sendOnDataStream(stream, flowUnitMessage);
     } catch (StatusRuntimeException sre) {
       LOG.error("rca: Encountered an error trying to publish a flow unit. Status: {}",
           sre.getStatus(), sre);
@@ -114,6 +149,81 @@ public class NetClient {
     }
   }
 
+  /**
+   * Sends all the flow units produced for a remote host in a tick as one message, on a stream of
+   * its own. The flow units of vertices the host ran out of credits for are held back.
+   *
+   * @param remoteHost           The remote host to which we need to send flow units to.
+   * @param flowUnitMessages     The flow units to send to the remote host.
+   * @param compression          The compression of the batch.
+   * @param serverResponseStream The stream for the server to communicate back on.
+   */
+  public void publishBatch(
+      final InstanceDetails remoteHost,
+      final List<FlowUnitMessage> flowUnitMessages,
+      final Compression compression,
+      final StreamObserver<PublishResponse> serverResponseStream) {
+    final List<FlowUnitMessage> sendable;
+    if (acceptCredits) {
+      sendable = new ArrayList<>(flowUnitMessages.size());
+      for (final FlowUnitMessage flowUnitMessage : flowUnitMessages) {
+        if (credits.acquireOrHold(remoteHost.getInstanceId(), flowUnitMessage)) {
+          sendable.add(flowUnitMessage);
+        }
+      }
+    } else {
+      sendable = flowUnitMessages;
+    }
+    if (sendable.isEmpty()) {
+      return;
+    }
+    LOG.debug("Publishing a batch of {} flow units to {}", sendable.size(), remoteHost);
+    try {
+      final StreamObserver<FlowUnitBatchMessage> stream =
+          getBatchStreamForHost(remoteHost, compression, serverResponseStream);
+      sendOnBatchStream(stream, sendable, compression);
+    } catch (StatusRuntimeException sre) {
+      LOG.error("rca: Encountered an error trying to publish a flow unit batch. Status: {}",
+          sre.getStatus(), sre);
+      StatsCollector.instance().logException(StatExceptionCode.RCA_NETWORK_ERROR);
+    }
+  }
+
+  private void sendOnDataStream(
+      final StreamObserver<FlowUnitMessage> stream, final FlowUnitMessage flowUnitMessage) {
+    final FlowUnitMessage toSend = acceptCredits
+        ? flowUnitMessage.toBuilder().setAcceptsCredits(true).build() : flowUnitMessage;
+    // The stream is shared by the threads publishing and the one delivering credits.
+    synchronized (stream) {
+      stream.onNext(toSend);
+    }
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+        .updateStat(RcaGraphMetrics.NET_BYTES_OUT, toSend.getGraphNode(),
+            toSend.getSerializedSize());
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+        .updateStat(RcaGraphMetrics.NET_MESSAGES_OUT, toSend.getGraphNode(), 1);
+  }
+
+  private void sendOnBatchStream(
+      final StreamObserver<FlowUnitBatchMessage> stream,
+      final List<FlowUnitMessage> flowUnitMessages,
+      final Compression compression) {
+    FlowUnitBatchMessage batchMessage = FlowUnitBatchCodec.encode(flowUnitMessages, compression);
+    if (acceptCredits) {
+      batchMessage = batchMessage.toBuilder().setAcceptsCredits(true).build();
+    }
+    synchronized (stream) {
+      stream.onNext(batchMessage);
+    }
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+        .updateStat(RcaGraphMetrics.NET_BYTES_OUT, FLOW_UNIT_BATCH_STAT_KEY,
+            batchMessage.getSerializedSize());
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+        .updateStat(RcaGraphMetrics.NET_MESSAGES_OUT, FLOW_UNIT_BATCH_STAT_KEY, 1);
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+        .updateStat(RcaGraphMetrics.FLOW_UNITS_PER_BATCH, "", batchMessage.getCount());
+  }
+
   public void getMetrics(
       InstanceDetails remoteNodeIP,
       MetricsRequest request,
@@ -123,6 +233,21 @@ public class NetClient {
     stub.getMetrics(request, responseObserver);
   }
 
+  /**
+   * Same as {@link #getMetrics(InstanceDetails, MetricsRequest, StreamObserver)}, but the call
+   * fails with DEADLINE_EXCEEDED if the remote node does not answer in time.
+   */
+  public void getMetrics(
+      InstanceDetails remoteNodeIP,
+      MetricsRequest request,
+      StreamObserver<MetricsResponse> responseObserver,
+      long deadline,
+      TimeUnit deadlineUnit) {
+    InterNodeRpcServiceGrpc.InterNodeRpcServiceStub stub =
+        connectionManager.getClientStubForHost(remoteNodeIP);
+    stub.withDeadlineAfter(deadline, deadlineUnit).getMetrics(request, responseObserver);
+  }
+
   public void stop() {
     LOG.debug("Shutting down client streaming connections..");
     closeAllDataStreams();
@@ -131,6 +256,8 @@ public class NetClient {
   public void flushStream(final InstanceDetails.Id remoteHost) {
     LOG.debug("removing data streams for {} as we are no publishing to it.", remoteHost);
     perHostOpenDataStreamMap.remove(remoteHost);
+    perHostOpenBatchStreamMap.remove(remoteHost);
+    credits.reset(remoteHost);
   }
 
   private void closeAllDataStreams() {
@@ -142,6 +269,12 @@ public class NetClient {
       entry.getValue().get().onCompleted();
       perHostOpenDataStreamMap.remove(entry.getKey());
     }
+    for (Map.Entry<InstanceDetails.Id, AtomicReference<StreamObserver<FlowUnitBatchMessage>>>
+        entry : perHostOpenBatchStreamMap.entrySet()) {
+      LOG.debug("Closing batch stream for host: {}", entry.getKey());
+      entry.getValue().get().onCompleted();
+      perHostOpenBatchStreamMap.remove(entry.getKey());
+    }
   }
 
   private StreamObserver<FlowUnitMessage> getDataStreamForHost(
@@ -164,9 +297,118 @@ public class NetClient {
   private synchronized StreamObserver<FlowUnitMessage> addOrUpdateDataStreamForHost(
       final InstanceDetails remoteHost, final StreamObserver<PublishResponse> serverResponseStream) {
     InterNodeRpcServiceGrpc.InterNodeRpcServiceStub stub = connectionManager.getClientStubForHost(remoteHost);
-    final StreamObserver<FlowUnitMessage> dataStream = stub.publish(serverResponseStream);
+    final InstanceDetails.Id hostId = remoteHost.getInstanceId();
+    final StreamObserver<FlowUnitMessage> dataStream = stub.publish(
+        receiveCredits(hostId, serverResponseStream,
+            released -> resendOnDataStream(hostId, released)));
     perHostOpenDataStreamMap.computeIfAbsent(remoteHost.getInstanceId(), s -> new AtomicReference<>());
     perHostOpenDataStreamMap.get(remoteHost.getInstanceId()).set(dataStream);
     return dataStream;
   }
+
+  private StreamObserver<FlowUnitBatchMessage> getBatchStreamForHost(
+      final InstanceDetails remoteHost,
+      final Compression compression,
+      final StreamObserver<PublishResponse> serverResponseStream) {
+    final AtomicReference<StreamObserver<FlowUnitBatchMessage>> streamObserverAtomicReference =
+        perHostOpenBatchStreamMap.get(remoteHost.getInstanceId());
+    if (streamObserverAtomicReference != null) {
+      return streamObserverAtomicReference.get();
+    }
+    return addOrUpdateBatchStreamForHost(remoteHost, compression, serverResponseStream);
+  }
+
+  private synchronized StreamObserver<FlowUnitBatchMessage> addOrUpdateBatchStreamForHost(
+      final InstanceDetails remoteHost,
+      final Compression compression,
+      final StreamObserver<PublishResponse> serverResponseStream) {
+    InterNodeRpcServiceGrpc.InterNodeRpcServiceStub stub = connectionManager.getClientStubForHost(remoteHost);
+    final InstanceDetails.Id hostId = remoteHost.getInstanceId();
+    final StreamObserver<FlowUnitBatchMessage> batchStream = stub.publishBatch(
+        receiveCredits(hostId, serverResponseStream,
+            released -> resendOnBatchStream(hostId, released, compression)));
+    perHostOpenBatchStreamMap.computeIfAbsent(remoteHost.getInstanceId(), s -> new AtomicReference<>());
+    perHostOpenBatchStreamMap.get(remoteHost.getInstanceId()).set(batchStream);
+    return batchStream;
+  }
+
+  private StreamObserver<PublishResponse> receiveCredits(
+      final InstanceDetails.Id hostId,
+      final StreamObserver<PublishResponse> serverResponseStream,
+      final Consumer<List<FlowUnitMessage>> resend) {
+    if (!acceptCredits) {
+      return serverResponseStream;
+    }
+    return new CreditReceivingObserver(hostId, serverResponseStream, resend);
+  }
+
+  private void resendOnDataStream(
+      final InstanceDetails.Id hostId, final List<FlowUnitMessage> flowUnitMessages) {
+    final AtomicReference<StreamObserver<FlowUnitMessage>> streamReference =
+        perHostOpenDataStreamMap.get(hostId);
+    if (streamReference != null) {
+      for (final FlowUnitMessage flowUnitMessage : flowUnitMessages) {
+        sendOnDataStream(streamReference.get(), flowUnitMessage);
+      }
+    }
+  }
+
+  private void resendOnBatchStream(
+      final InstanceDetails.Id hostId,
+      final List<FlowUnitMessage> flowUnitMessages,
+      final Compression compression) {
+    final AtomicReference<StreamObserver<FlowUnitBatchMessage>> streamReference =
+        perHostOpenBatchStreamMap.get(hostId);
+    if (streamReference != null) {
+      sendOnBatchStream(streamReference.get(), flowUnitMessages, compression);
+    }
+  }
+
+  /**
+   * Takes the credits out of the responses of a host before passing them on, and sends the flow
+   * units that were held back for lack of credits once the host grants new ones.
+   */
+  private class CreditReceivingObserver implements StreamObserver<PublishResponse> {
+
+    private final InstanceDetails.Id host;
+    private final StreamObserver<PublishResponse> delegate;
+    private final Consumer<List<FlowUnitMessage>> resend;
+
+    CreditReceivingObserver(
+        final InstanceDetails.Id host,
+        final StreamObserver<PublishResponse> delegate,
+        final Consumer<List<FlowUnitMessage>> resend) {
+      this.host = host;
+      this.delegate = delegate;
+      this.resend = resend;
+    }
+
+    @Override
+    public void onNext(final PublishResponse value) {
+      if (value.getVertexCreditsCount() > 0) {
+        final List<FlowUnitMessage> released = credits.grant(host, value.getVertexCreditsMap());
+        if (!released.isEmpty()) {
+          try {
+            resend.accept(released);
+          } catch (StatusRuntimeException sre) {
+            LOG.error("rca: Encountered an error trying to send held back flow units. Status: {}",
+                sre.getStatus(), sre);
+            StatsCollector.instance().logException(StatExceptionCode.RCA_NETWORK_ERROR);
+          }
+        }
+      }
+      delegate.onNext(value);
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+      credits.reset(host);
+      delegate.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      delegate.onCompleted();
+    }
+  }
 }
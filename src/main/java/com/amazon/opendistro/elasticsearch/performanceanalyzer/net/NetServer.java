@@ -16,6 +16,7 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.CertificateUtils;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.InterNodeRpcServiceGrpc;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
@@ -148,7 +149,11 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
             .addService(this)
             .bossEventLoopGroup(new NioEventLoopGroup(numServerThreads))
             .workerEventLoopGroup(new NioEventLoopGroup(numServerThreads))
-            .channelType(NioServerSocketChannel.class);
+            .channelType(NioServerSocketChannel.class)
+            // Let the clients ping idle connections, at most as often as this.
+            .permitKeepAliveTime(
+                GRPCConnectionManager.PERMIT_KEEPALIVE_TIME_SECONDS, TimeUnit.SECONDS)
+            .permitKeepAliveWithoutCalls(true);
   }
 
   private Server buildHttpServer() {
@@ -184,6 +189,24 @@ public class NetServer extends InterNodeRpcServiceGrpc.InterNodeRpcServiceImplBa
     throw new UnsupportedOperationException("No rpc handler found for publish/");
   }
 
+  /**
+   * <pre>
+   * Sends all the flowunits produced for a host in one tick as a single message.
+   * </pre>
+   *
+   * @param responseObserver The response stream.
+   */
+  @Override
+  public StreamObserver<FlowUnitBatchMessage> publishBatch(
+      final StreamObserver<PublishResponse> responseObserver) {
+    LOG.debug("publishBatch received");
+    if (sendDataHandler != null) {
+      return sendDataHandler.getClientBatchStream(responseObserver);
+    }
+
+    throw new UnsupportedOperationException("No rpc handler found for publishBatch/");
+  }
+
   /**
    * <pre>
    * Sends a subscription request to a node for a particular metric.
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of the credits the remote hosts granted to this node, per vertex. A flow unit is sent
+ * only if there is a credit left for its vertex. If not, it is held back until the host grants new
+ * credits; only the newest flow unit of a vertex is held, as it supersedes the older ones. Vertices
+ * for which a host never granted credits are not limited.
+ */
+class PublishCredits {
+
+  private static class HostCredits {
+    final Map<String, Integer> credits = new HashMap<>();
+    final Map<String, FlowUnitMessage> heldBack = new LinkedHashMap<>();
+  }
+
+  private final ConcurrentMap<InstanceDetails.Id, HostCredits> perHostCredits =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Takes a credit to send a flow unit to a host, or holds the flow unit back if there is none.
+   *
+   * @param host The host the flow unit goes to.
+   * @param flowUnitMessage The flow unit.
+   * @return true if the flow unit can be sent now.
+   */
+  boolean acquireOrHold(final InstanceDetails.Id host, final FlowUnitMessage flowUnitMessage) {
+    final String vertex = flowUnitMessage.getGraphNode();
+    final HostCredits hostCredits = perHostCredits.computeIfAbsent(host, h -> new HostCredits());
+    final FlowUnitMessage superseded;
+    synchronized (hostCredits) {
+      final Integer credit = hostCredits.credits.get(vertex);
+      if (credit == null) {
+        return true;
+      }
+      if (credit > 0) {
+        hostCredits.credits.put(vertex, credit - 1);
+        return true;
+      }
+      superseded = hostCredits.heldBack.put(vertex, flowUnitMessage);
+    }
+    if (superseded != null) {
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+          .updateStat(RcaGraphMetrics.RCA_FLOW_UNITS_SUPERSEDED, vertex, 1);
+    }
+    return false;
+  }
+
+  /**
+   * Records the credits a host granted and takes the flow units held back that can now be sent.
+   *
+   * @param host The host that granted the credits.
+   * @param credits The number of flow units the host accepts per vertex.
+   * @return The flow units to send to the host now, their credit already taken.
+   */
+  List<FlowUnitMessage> grant(final InstanceDetails.Id host, final Map<String, Integer> credits) {
+    final List<FlowUnitMessage> released = new ArrayList<>();
+    if (credits.isEmpty()) {
+      return released;
+    }
+    final HostCredits hostCredits = perHostCredits.computeIfAbsent(host, h -> new HostCredits());
+    synchronized (hostCredits) {
+      for (final Map.Entry<String, Integer> entry : credits.entrySet()) {
+        int credit = Math.max(0, entry.getValue());
+        if (credit > 0) {
+          final FlowUnitMessage heldBack = hostCredits.heldBack.remove(entry.getKey());
+          if (heldBack != null) {
+            released.add(heldBack);
+            credit--;
+          }
+        }
+        hostCredits.credits.put(entry.getKey(), credit);
+      }
+    }
+    return released;
+  }
+
+  /** Forgets the credits of a host, along with the flow units held back for it. */
+  void reset(final InstanceDetails.Id host) {
+    perHostCredits.remove(host);
+  }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Parses the files under /proc without going through Strings. A file is read into a direct buffer
+ * that is reused from one file to the next, and each line is split into tokens whose bounds are
+ * kept in place; numeric fields are then parsed straight from the buffer into long slots indexed
+ * by field ordinal. A parser is meant to be owned by a single collector, it is not thread safe.
+ */
+public final class ProcFileParser {
+  private static final Logger LOGGER = LogManager.getLogger(ProcFileParser.class);
+
+  private static final int DEFAULT_CAPACITY = 4096;
+  private static final int DEFAULT_MAX_TOKENS = 64;
+
+  private final boolean groupParentheses;
+  private final boolean colonSeparates;
+
+  private ByteBuffer buffer;
+  private int limit;
+  private int nextLineStart;
+
+  private int[] tokenStarts = new int[DEFAULT_MAX_TOKENS];
+  private int[] tokenEnds = new int[DEFAULT_MAX_TOKENS];
+  private int tokenCount;
+
+  public ProcFileParser() {
+    this(false, false);
+  }
+
+  /**
+   * Creates a parser.
+   *
+   * @param groupParentheses Whether a field in parentheses is one token even if it has spaces in
+   *     it, as the thread name in /proc/pid/task/tid/stat does from java 11 onwards.
+   * @param colonSeparates Whether ':' separates tokens, as in /proc/pid/io or /proc/net/dev.
+   */
+  public ProcFileParser(boolean groupParentheses, boolean colonSeparates) {
+    this.groupParentheses = groupParentheses;
+    this.colonSeparates = colonSeparates;
+    this.buffer = ByteBuffer.allocateDirect(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Reads a whole file into the buffer, growing it if the file does not fit.
+   *
+   * @param path The file to read.
+   * @return false if the file does not exist, e.g. because the thread it describes has exited.
+   * @throws IOException If the file could not be read.
+   */
+  public boolean load(String path) throws IOException {
+    buffer.clear();
+    limit = 0;
+    nextLineStart = 0;
+    tokenCount = 0;
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      while (true) {
+        if (!buffer.hasRemaining()) {
+          grow();
+        }
+        if (channel.read(buffer) < 0) {
+          break;
+        }
+      }
+    } catch (NoSuchFileException e) {
+      LOGGER.debug("FileNotFound in parse with exception: {}", () -> e.toString());
+      return false;
+    }
+    limit = buffer.position();
+    return true;
+  }
+
+  private void grow() {
+    ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+    buffer.flip();
+    larger.put(buffer);
+    buffer = larger;
+  }
+
+  /**
+   * Moves to the next line of the file read last and splits it into tokens.
+   *
+   * @return false if there are no more lines.
+   */
+  public boolean nextLine() {
+    if (nextLineStart >= limit) {
+      return false;
+    }
+    int lineStart = nextLineStart;
+    int lineEnd = lineStart;
+    while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+      lineEnd++;
+    }
+    nextLineStart = lineEnd + 1;
+    tokenize(lineStart, lineEnd);
+    return true;
+  }
+
+  private boolean isSeparator(byte b) {
+    return b == ' ' || b == '\t' || (colonSeparates && b == ':');
+  }
+
+  private void tokenize(int lineStart, int lineEnd) {
+    tokenCount = 0;
+    int pos = lineStart;
+    while (pos < lineEnd) {
+      while (pos < lineEnd && isSeparator(buffer.get(pos))) {
+        pos++;
+      }
+      if (pos == lineEnd) {
+        break;
+      }
+      int start = pos;
+      if (groupParentheses && buffer.get(pos) == '(') {
+        // The name can have ')' in it too, so the field ends at the last one on the line.
+        int close = lineEnd - 1;
+        while (close > pos && buffer.get(close) != ')') {
+          close--;
+        }
+        pos = close > pos ? close + 1 : lineEnd;
+      } else {
+        while (pos < lineEnd && !isSeparator(buffer.get(pos))) {
+          pos++;
+        }
+      }
+      if (tokenCount == tokenStarts.length) {
+        tokenStarts = Arrays.copyOf(tokenStarts, tokenCount * 2);
+        tokenEnds = Arrays.copyOf(tokenEnds, tokenCount * 2);
+      }
+      tokenStarts[tokenCount] = start;
+      tokenEnds[tokenCount] = pos;
+      tokenCount++;
+    }
+  }
+
+  public int getTokenCount() {
+    return tokenCount;
+  }
+
+  /**
+   * Parses a token of the current line as a number. Fields the kernel prints as unsigned 64 bit
+   * values keep their bits, as {@link Long#parseUnsignedLong} would. A token that is not a number
+   * is 0.
+   *
+   * @param ordinal The index of the token on the line.
+   * @return The value of the token.
+   */
+  public long getLong(int ordinal) {
+    int pos = tokenStarts[ordinal];
+    int end = tokenEnds[ordinal];
+    boolean negative = pos < end && buffer.get(pos) == '-';
+    if (negative) {
+      pos++;
+    }
+    long value = 0;
+    for (; pos < end; pos++) {
+      int digit = buffer.get(pos) - '0';
+      if (digit < 0 || digit > 9) {
+        break;
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  /** Gets a token of the current line as a String. This allocates, keep it off per-thread paths. */
+  public String getString(int ordinal) {
+    byte[] bytes = new byte[tokenEnds[ordinal] - tokenStarts[ordinal]];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(tokenStarts[ordinal] + i);
+    }
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  /** Checks whether a token of the current line is the given ASCII string. */
+  public boolean tokenEquals(int ordinal, String value) {
+    int start = tokenStarts[ordinal];
+    if (tokenEnds[ordinal] - start != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (buffer.get(start + i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the tokens of the current line into the slots of the same ordinal.
+   *
+   * @param values The slots, as many as there are fields in the schema of the line.
+   * @return The number of tokens on the line, which may be more or less than the slots.
+   */
+  public int parseLongs(long[] values) {
+    int lim = Math.min(tokenCount, values.length);
+    for (int i = 0; i < lim; i++) {
+      values[i] = getLong(i);
+    }
+    return tokenCount;
+  }
+
+  /**
+   * Parses the remaining lines of a file made of "key value" lines, such as /proc/pid/io.
+   *
+   * @param keys The keys of interest.
+   * @param values The slots the values of the keys go to, in the order of the keys.
+   * @return The number of keys found.
+   */
+  public int parseKeyValues(String[] keys, long[] values) {
+    int found = 0;
+    while (nextLine()) {
+      if (tokenCount < 2) {
+        continue;
+      }
+      for (int k = 0; k < keys.length; k++) {
+        if (tokenEquals(0, keys[k])) {
+          values[k] = getLong(1);
+          found++;
+          break;
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * To be used for files that contain a single line of values, such as /proc/pid/task/tid/stat.
+   *
+   * @param path The file to read.
+   * @param values The slots of the fields of the schema of the line.
+   * @return true if the file had a value for every slot.
+   */
+  public boolean parseLine(String path, long[] values) {
+    try {
+      if (!load(path) || !nextLine()) {
+        return false;
+      }
+    } catch (Exception e) {
+      LOGGER.debug(
+          "Error in parse with exception: {} with ExceptionCode: {}",
+          () -> e.toString(),
+          () -> StatExceptionCode.SCHEMA_PARSER_ERROR.toString());
+      StatsCollector.instance().logException(StatExceptionCode.SCHEMA_PARSER_ERROR);
+      return false;
+    }
+    if (parseLongs(values) < values.length) {
+      LOGGER.debug(
+          "Content of {} has {} tokens, less than the {} of the schema with ExceptionCode: {}",
+          () -> path,
+          () -> tokenCount,
+          () -> values.length,
+          () -> StatExceptionCode.SCHEMA_PARSER_ERROR.toString());
+      StatsCollector.instance().logException(StatExceptionCode.SCHEMA_PARSER_ERROR);
+      return false;
+    }
+    return true;
+  }
+}
@@ -16,8 +16,7 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.linux.LinuxCPUPagingActivityGenerator;
-import java.util.HashMap;
-import java.util.List;
+import com.google.common.annotations.VisibleForTesting;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -26,118 +25,29 @@ import org.apache.logging.log4j.util.Supplier;
 
 public final class ThreadCPU {
   private static final Logger LOGGER = LogManager.getLogger(ThreadCPU.class);
-  public static final ThreadCPU INSTANCE = new ThreadCPU();
+  public static final ThreadCPU INSTANCE = new ThreadCPU(ThreadSampler.INSTANCE);
+  private final ThreadSampler sampler;
   private long scClkTck = 0;
   private String pid = null;
-  private List<String> tids = null;
-  private Map<String, Map<String, Object>> tidKVMap = new HashMap<>();
-  private Map<String, Map<String, Object>> oldtidKVMap = new HashMap<>();
   private long kvTimestamp = 0;
   private long oldkvTimestamp = 0;
+  private boolean partial = false;
   private LinuxCPUPagingActivityGenerator cpuPagingActivityMap =
       new LinuxCPUPagingActivityGenerator();
 
-  // these two arrays map 1-1
-  private static String[] statKeys = {
-    "pid",
-    "comm",
-    "state",
-    "ppid",
-    "pgrp",
-    "session",
-    "ttynr",
-    "tpgid",
-    "flags",
-    "minflt",
-    "cminflt",
-    "majflt",
-    "cmajflt",
-    "utime",
-    "stime",
-    "cutime",
-    "cstime",
-    "prio",
-    "nice",
-    "nthreads",
-    "itrealvalue",
-    "starttime",
-    "vsize",
-    "rss",
-    "rsslim",
-    "startcode",
-    "endcode",
-    "startstack",
-    "kstkesp",
-    "kstkeip",
-    "signal",
-    "blocked",
-    "sigignore",
-    "sigcatch",
-    "wchan",
-    "nswap",
-    "cnswap",
-    "exitsig",
-    "cpu",
-    "rtprio",
-    "schedpolicy",
-    "bio_ticks",
-    "vmtime",
-    "cvmtime"
-    // more that we ignore
-  };
+  // ordinals of the fields of /proc/pid/task/tid/stat we use, see proc(5)
+  private static final int MINFLT = 9;
+  private static final int MAJFLT = 11;
+  private static final int UTIME = 13;
+  private static final int STIME = 14;
+  private static final int RSS = 23;
 
-  private static SchemaFileParser.FieldTypes[] statTypes = {
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.STRING,
-    SchemaFileParser.FieldTypes.CHAR,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.ULONG, // 10
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG, // 20
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG, // 30
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT, // 40
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT,
-    SchemaFileParser.FieldTypes.INT
-  };
-
-  private ThreadCPU() {
+  @VisibleForTesting
+  ThreadCPU(ThreadSampler sampler) {
+    this.sampler = sampler;
     try {
       pid = OSGlobals.getPid();
       scClkTck = OSGlobals.getScClkTck();
-      tids = OSGlobals.getTids();
     } catch (Exception e) {
       LOGGER.error(
           (Supplier<?>)
@@ -147,42 +57,26 @@ public final class ThreadCPU {
   }
 
   public synchronized void addSample() {
-    tids = OSGlobals.getTids();
-
-    oldtidKVMap.clear();
-    oldtidKVMap.putAll(tidKVMap);
-
-    tidKVMap.clear();
-    oldkvTimestamp = kvTimestamp;
-    kvTimestamp = System.currentTimeMillis();
-    for (String tid : tids) {
-      Map<String, Object> sample =
-          // (new SchemaFileParser("/proc/"+tid+"/stat",
-          (new SchemaFileParser(
-                  "/proc/" + pid + "/task/" + tid + "/stat", statKeys, statTypes, true))
-              .parse();
-      tidKVMap.put(tid, sample);
-    }
+    sampler.sample();
+    oldkvTimestamp = sampler.getOldkvTimestamp();
+    kvTimestamp = sampler.getKvTimestamp();
+    partial = sampler.isPartial();
 
     calculateCPUDetails();
     calculatePagingActivity();
   }
 
   private void calculateCPUDetails() {
-    if (oldkvTimestamp == kvTimestamp) {
+    if (partial || oldkvTimestamp == kvTimestamp) {
       return;
     }
 
-    for (Map.Entry<String, Map<String, Object>> entry : tidKVMap.entrySet()) {
-      Map<String, Object> v = entry.getValue();
-      Map<String, Object> oldv = oldtidKVMap.get(entry.getKey());
-      if (v != null && oldv != null) {
-        if (!v.containsKey("utime") || !oldv.containsKey("utime")) {
-          continue;
-        }
-        long diff =
-            ((long) (v.getOrDefault("utime", 0L)) - (long) (oldv.getOrDefault("utime", 0L)))
-                + ((long) (v.getOrDefault("stime", 0L)) - (long) (oldv.getOrDefault("stime", 0L)));
+    Map<String, long[]> oldSamples = sampler.getOldStatSamples();
+    for (Map.Entry<String, long[]> entry : sampler.getStatSamples().entrySet()) {
+      long[] v = entry.getValue();
+      long[] oldv = oldSamples.get(entry.getKey());
+      if (oldv != null) {
+        long diff = (v[UTIME] - oldv[UTIME]) + (v[STIME] - oldv[STIME]);
         double util = (1.0e3 * diff / scClkTck) / (kvTimestamp - oldkvTimestamp);
         cpuPagingActivityMap.setCPUUtilization(entry.getKey(), util);
       }
@@ -191,25 +85,21 @@ public final class ThreadCPU {
 
   /** Note: major faults include mmap()'ed accesses */
   private void calculatePagingActivity() {
-    if (oldkvTimestamp == kvTimestamp) {
+    if (partial || oldkvTimestamp == kvTimestamp) {
       return;
     }
 
-    for (Map.Entry<String, Map<String, Object>> entry : tidKVMap.entrySet()) {
-      Map<String, Object> v = entry.getValue();
-      Map<String, Object> oldv = oldtidKVMap.get(entry.getKey());
-      if (v != null && oldv != null) {
-        if (!v.containsKey("majflt") || !oldv.containsKey("majflt")) {
-          continue;
-        }
-        double majdiff =
-            ((long) (v.getOrDefault("majflt", 0L)) - (long) (oldv.getOrDefault("majflt", 0L)));
+    Map<String, long[]> oldSamples = sampler.getOldStatSamples();
+    for (Map.Entry<String, long[]> entry : sampler.getStatSamples().entrySet()) {
+      long[] v = entry.getValue();
+      long[] oldv = oldSamples.get(entry.getKey());
+      if (oldv != null) {
+        double majdiff = v[MAJFLT] - oldv[MAJFLT];
         majdiff /= 1.0e-3 * (kvTimestamp - oldkvTimestamp);
-        double mindiff =
-            ((long) (v.getOrDefault("minflt", 0L)) - (long) (oldv.getOrDefault("minflt", 0L)));
+        double mindiff = v[MINFLT] - oldv[MINFLT];
         mindiff /= 1.0e-3 * (kvTimestamp - oldkvTimestamp);
 
-        Double[] fltarr = {majdiff, mindiff, (double) ((long) v.getOrDefault("rss", 0L))};
+        Double[] fltarr = {majdiff, mindiff, (double) v[RSS]};
         cpuPagingActivityMap.setPagingActivities(entry.getKey(), fltarr);
       }
     }
@@ -15,28 +15,23 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
 
-import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
-import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.linux.LinuxDiskIOMetricsGenerator;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.HashMap;
-import java.util.List;
+import com.google.common.annotations.VisibleForTesting;
 import java.util.Map;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 
 public class ThreadDiskIO {
-  private static String pid = OSGlobals.getPid();
-  private static List<String> tids = null;
-  private static final Logger LOGGER = LogManager.getLogger(ThreadDiskIO.class);
-
-  private static Map<String, Map<String, Long>> tidKVMap = new HashMap<>();
-  private static Map<String, Map<String, Long>> oldtidKVMap = new HashMap<>();
+  private static ThreadSampler sampler = ThreadSampler.INSTANCE;
   private static long kvTimestamp = 0;
   private static long oldkvTimestamp = 0;
+  private static boolean partial = false;
+
+  // slots of ThreadSampler.IO_KEYS
+  private static final int RCHAR = 0;
+  private static final int WCHAR = 1;
+  private static final int SYSCR = 2;
+  private static final int SYSCW = 3;
+  private static final int READ_BYTES = 4;
+  private static final int WRITE_BYTES = 5;
 
   public static class IOMetrics {
     public double avgReadThroughputBps;
@@ -97,61 +92,39 @@ public class ThreadDiskIO {
     }
   }
 
-  private static void addSampleTid(String tid) {
-    try (FileReader fileReader = new FileReader(new File("/proc/" + pid + "/task/" + tid + "/io"));
-        BufferedReader bufferedReader = new BufferedReader(fileReader); ) {
-      String line = null;
-      Map<String, Long> kvmap = new HashMap<>();
-      while ((line = bufferedReader.readLine()) != null) {
-        String[] toks = line.split("[: ]+");
-        String key = toks[0];
-        long val = Long.parseLong(toks[1]);
-        kvmap.put(key, val);
-      }
-      tidKVMap.put(tid, kvmap);
-    } catch (FileNotFoundException e) {
-      LOGGER.debug("FileNotFound in parse with exception: {}", () -> e.toString());
-    } catch (Exception e) {
-      LOGGER.debug(
-          "Error In addSample Tid for: {}  with error: {} with ExceptionCode: {}",
-          () -> tid,
-          () -> e.toString(),
-          () -> StatExceptionCode.THREAD_IO_ERROR.toString());
-      StatsCollector.instance().logException(StatExceptionCode.THREAD_IO_ERROR);
-    }
+  public static void addSample() {
+    addSample(ThreadSampler.INSTANCE);
   }
 
-  public static synchronized void addSample() {
-    tids = OSGlobals.getTids();
-    oldtidKVMap.clear();
-    oldtidKVMap.putAll(tidKVMap);
-
-    tidKVMap.clear();
-    oldkvTimestamp = kvTimestamp;
-    kvTimestamp = System.currentTimeMillis();
-    for (String tid : tids) {
-      addSampleTid(tid);
-    }
+  /** Samples through the given sampler, which the rates are then computed from. */
+  @VisibleForTesting
+  static synchronized void addSample(ThreadSampler threadSampler) {
+    sampler = threadSampler;
+    sampler.sample();
+    oldkvTimestamp = sampler.getOldkvTimestamp();
+    kvTimestamp = sampler.getKvTimestamp();
+    partial = sampler.isPartial();
   }
 
   public static synchronized LinuxDiskIOMetricsGenerator getIOUtilization() {
 
     LinuxDiskIOMetricsGenerator linuxDiskIOMetricsHandler = new LinuxDiskIOMetricsGenerator();
-    if (oldkvTimestamp == kvTimestamp) {
+    if (partial || oldkvTimestamp == kvTimestamp) {
       return linuxDiskIOMetricsHandler;
     }
 
-    for (Map.Entry<String, Map<String, Long>> entry : tidKVMap.entrySet()) {
-      Map<String, Long> v = entry.getValue();
-      Map<String, Long> oldv = oldtidKVMap.get(entry.getKey());
-      if (v != null && oldv != null) {
+    Map<String, long[]> oldSamples = sampler.getOldIOSamples();
+    for (Map.Entry<String, long[]> entry : sampler.getIOSamples().entrySet()) {
+      long[] v = entry.getValue();
+      long[] oldv = oldSamples.get(entry.getKey());
+      if (oldv != null) {
         double duration = 1.0e-3 * (kvTimestamp - oldkvTimestamp);
-        double readBytes = v.get("read_bytes") - oldv.get("read_bytes");
-        double writeBytes = v.get("write_bytes") - oldv.get("write_bytes");
-        double readSyscalls = v.get("syscr") - oldv.get("syscr");
-        double writeSyscalls = v.get("syscw") - oldv.get("syscw");
-        double readPcBytes = v.get("rchar") - oldv.get("rchar") - readBytes;
-        double writePcBytes = v.get("wchar") - oldv.get("wchar") - writeBytes;
+        double readBytes = v[READ_BYTES] - oldv[READ_BYTES];
+        double writeBytes = v[WRITE_BYTES] - oldv[WRITE_BYTES];
+        double readSyscalls = v[SYSCR] - oldv[SYSCR];
+        double writeSyscalls = v[SYSCW] - oldv[SYSCW];
+        double readPcBytes = v[RCHAR] - oldv[RCHAR] - readBytes;
+        double writePcBytes = v[WCHAR] - oldv[WCHAR] - writeBytes;
         readBytes /= duration;
         readSyscalls /= duration;
         writeBytes /= duration;
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Samples stat, schedstat and io of every thread of this process in a single pass, shared by
+ * ThreadCPU, ThreadSched and ThreadDiskIO. The threads are listed once per pass and split across a
+ * small pool of workers, which stop when the time budget of the pass runs out. A pass that did not
+ * get to every thread is flagged as partial, and the collectors emit no rates for it.
+ */
+public final class ThreadSampler {
+  private static final Logger LOGGER = LogManager.getLogger(ThreadSampler.class);
+
+  public static final String WORKERS_CONF_NAME = "os-thread-sampler-workers";
+  public static final String BUDGET_CONF_NAME = "os-thread-sampler-budget-millis";
+  public static final String PARTIAL_SAMPLE_METRIC = "ThreadSamplingPartial";
+
+  private static final int DEFAULT_WORKERS = 2;
+  private static final int MAX_WORKERS = 8;
+  private static final int SAMPLING_INTERVAL =
+      MetricsConfiguration.CONFIG_MAP.get(ThreadCPU.class).samplingInterval;
+  private static final long DEFAULT_BUDGET_MS = SAMPLING_INTERVAL / 2;
+  // a slice smaller than this is not worth handing to another worker
+  private static final int MIN_TIDS_PER_WORKER = 64;
+
+  // fields of stat up to cvmtime, there are more that we ignore
+  static final int STAT_FIELDS = 44;
+  static final int SCHED_FIELDS = 3;
+  // the keys of io we use, in the order of their slots in a sample
+  static final String[] IO_KEYS = {"rchar", "wchar", "syscr", "syscw", "read_bytes", "write_bytes"};
+
+  public static final ThreadSampler INSTANCE = new ThreadSampler();
+
+  private final String taskDir = "/proc/" + OSGlobals.getPid() + "/task/";
+  private final Worker[] workers;
+  private final ExecutorService pool;
+  private final long budgetMillis;
+  private Clock clock = Clock.systemUTC();
+
+  private final ThreadSamples statSamples = new ThreadSamples(STAT_FIELDS);
+  private final ThreadSamples schedSamples = new ThreadSamples(SCHED_FIELDS);
+  private final ThreadSamples ioSamples = new ThreadSamples(IO_KEYS.length);
+
+  private long kvTimestamp = 0;
+  private long oldkvTimestamp = 0;
+  private boolean partial = false;
+  private CountDownLatch inFlight = new CountDownLatch(0);
+
+  private final Map<String, String> statsData = new HashMap<>();
+  private final Map<String, Double> timingStats = new HashMap<>();
+
+  private ThreadSampler() {
+    this(
+        readSetting(WORKERS_CONF_NAME, DEFAULT_WORKERS),
+        readSetting(BUDGET_CONF_NAME, DEFAULT_BUDGET_MS));
+  }
+
+  @VisibleForTesting
+  ThreadSampler(long workerCount, long budgetMillis) {
+    int count = (int) Math.max(1, Math.min(MAX_WORKERS, workerCount));
+    this.workers = new Worker[count];
+    for (int i = 0; i < count; i++) {
+      workers[i] = new Worker();
+    }
+    // the thread collecting OS metrics works on a slice itself, the pool takes the others
+    this.pool =
+        count == 1
+            ? null
+            : Executors.newFixedThreadPool(
+                count - 1,
+                new ThreadFactoryBuilder()
+                    .setNameFormat("pa-thread-sampler-%d")
+                    .setDaemon(true)
+                    .build());
+    this.budgetMillis = Math.max(1, budgetMillis);
+    statsData.put("MethodName", "SampleThreads");
+  }
+
+  @VisibleForTesting
+  synchronized void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  private static long readSetting(String name, long defaultValue) {
+    try {
+      return Long.parseLong(
+          PluginSettings.instance().getSettingValue(name, String.valueOf(defaultValue)).trim());
+    } catch (Exception e) {
+      LOGGER.error("Invalid value for {}, using {}", name, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Samples every thread, unless a pass already did within the last half sampling interval, as the
+   * collectors sharing the pass ask for it one after the other in the same collection cycle.
+   */
+  public synchronized void sample() {
+    long now = clock.millis();
+    if (now - kvTimestamp < SAMPLING_INTERVAL / 2) {
+      return;
+    }
+    if (inFlight.getCount() > 0) {
+      // The workers of the previous pass are still stuck on a read. Keep the samples as they are
+      // rather than stacking another pass behind them. The timestamps stay those of that pass, but
+      // its late workers are still putting newer samples, so the collectors compute no rates until
+      // a pass completes again.
+      partial = true;
+      StatsCollector.instance().logMetric(PARTIAL_SAMPLE_METRIC);
+      return;
+    }
+    List<String> tids = OSGlobals.getTids();
+    statSamples.rotate();
+    schedSamples.rotate();
+    ioSamples.rotate();
+    oldkvTimestamp = kvTimestamp;
+    kvTimestamp = now;
+
+    long start = System.nanoTime();
+    long deadline = now + budgetMillis;
+    int slices = Math.max(1, Math.min(workers.length, tids.size() / MIN_TIDS_PER_WORKER));
+    CountDownLatch done = new CountDownLatch(slices);
+    AtomicInteger sampled = new AtomicInteger();
+    inFlight = done;
+    for (int i = slices - 1; i >= 0; i--) {
+      int from = i * tids.size() / slices;
+      int to = (i + 1) * tids.size() / slices;
+      Worker worker = workers[i];
+      Runnable slice =
+          () -> {
+            try {
+              Util.invokePrivileged(
+                  () -> sampled.addAndGet(worker.sample(tids, from, to, deadline)));
+            } finally {
+              done.countDown();
+            }
+          };
+      if (i == 0) {
+        slice.run();
+      } else {
+        try {
+          pool.execute(slice);
+        } catch (RejectedExecutionException e) {
+          slice.run();
+        }
+      }
+    }
+    try {
+      done.await(Math.max(0, deadline - clock.millis()), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    partial = sampled.get() < tids.size();
+    if (partial) {
+      LOGGER.debug(
+          "Sampled {} of {} threads within {} ms", sampled.get(), tids.size(), budgetMillis);
+      StatsCollector.instance().logMetric(PARTIAL_SAMPLE_METRIC);
+    }
+    timingStats.put("sampleThreads", (double) (System.nanoTime() - start) / 1_000_000);
+    timingStats.put("threadsListed", (double) tids.size());
+    timingStats.put("threadsSampled", (double) sampled.get());
+    timingStats.put("samplingWorkers", (double) slices);
+    StatsCollector.instance()
+        .logStatsRecord(null, statsData, timingStats, now, System.currentTimeMillis());
+  }
+
+  Map<String, long[]> getStatSamples() {
+    return statSamples.getCurrent();
+  }
+
+  Map<String, long[]> getOldStatSamples() {
+    return statSamples.getPrevious();
+  }
+
+  Map<String, long[]> getSchedSamples() {
+    return schedSamples.getCurrent();
+  }
+
+  Map<String, long[]> getOldSchedSamples() {
+    return schedSamples.getPrevious();
+  }
+
+  Map<String, long[]> getIOSamples() {
+    return ioSamples.getCurrent();
+  }
+
+  Map<String, long[]> getOldIOSamples() {
+    return ioSamples.getPrevious();
+  }
+
+  synchronized long getKvTimestamp() {
+    return kvTimestamp;
+  }
+
+  synchronized long getOldkvTimestamp() {
+    return oldkvTimestamp;
+  }
+
+  /**
+   * Whether the last pass ran out of time before it got to every thread, or did not run at all as
+   * the previous one was still in flight. Either way the samples do not all match the timestamps
+   * of the pass, so the collectors skip computing rates for the cycle.
+   */
+  public synchronized boolean isPartial() {
+    return partial;
+  }
+
+  /** Samples a slice of the threads, with parsers of its own so that slices run in parallel. */
+  private final class Worker {
+    // - from java 11 onwards, there is thread name in stat, which has spaces in it
+    private final ProcFileParser statParser = new ProcFileParser(true, false);
+    private final ProcFileParser schedParser = new ProcFileParser();
+    private final ProcFileParser ioParser = new ProcFileParser(false, true);
+
+    int sample(List<String> tids, int from, int to, long deadline) {
+      int count = 0;
+      for (int i = from; i < to && clock.millis() < deadline; i++) {
+        String tid = tids.get(i);
+        String dir = taskDir + tid;
+        sampleLine(statSamples, tid, dir + "/stat", statParser);
+        sampleLine(schedSamples, tid, dir + "/schedstat", schedParser);
+        sampleIO(tid, dir + "/io");
+        count++;
+      }
+      return count;
+    }
+
+    private void sampleLine(ThreadSamples samples, String tid, String path, ProcFileParser parser) {
+      long[] sample = samples.acquire();
+      if (parser.parseLine(path, sample)) {
+        samples.put(tid, sample);
+      } else {
+        samples.release(sample);
+      }
+    }
+
+    private void sampleIO(String tid, String path) {
+      long[] sample = ioSamples.acquire();
+      try {
+        if (ioParser.load(path) && ioParser.parseKeyValues(IO_KEYS, sample) == IO_KEYS.length) {
+          ioSamples.put(tid, sample);
+          return;
+        }
+      } catch (Exception e) {
+        LOGGER.debug(
+            "Error In addSample Tid for: {}  with error: {} with ExceptionCode: {}",
+            () -> tid,
+            () -> e.toString(),
+            () -> StatExceptionCode.THREAD_IO_ERROR.toString());
+        StatsCollector.instance().logException(StatExceptionCode.THREAD_IO_ERROR);
+      }
+      ioSamples.release(sample);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The samples of the last two collection cycles, per thread. The arrays the samples are parsed into
+ * are recycled from one cycle to the next, so sampling a thousand threads does not allocate a
+ * thousand arrays every cycle. The workers of a cycle can fill the samples concurrently, but
+ * rotating has to wait for all of them to be done.
+ */
+final class ThreadSamples {
+  private final int width;
+  private Map<String, long[]> current = new ConcurrentHashMap<>();
+  private Map<String, long[]> previous = new ConcurrentHashMap<>();
+  private final ArrayDeque<long[]> spare = new ArrayDeque<>();
+
+  ThreadSamples(int width) {
+    this.width = width;
+  }
+
+  /** Makes the current samples the previous ones, and recycles the samples before those. */
+  synchronized void rotate() {
+    for (long[] sample : previous.values()) {
+      spare.push(sample);
+    }
+    previous.clear();
+    Map<String, long[]> tmp = previous;
+    previous = current;
+    current = tmp;
+  }
+
+  /** Gets an array to parse a sample into, one recycled if there is one. */
+  synchronized long[] acquire() {
+    return spare.isEmpty() ? new long[width] : spare.pop();
+  }
+
+  void put(String tid, long[] sample) {
+    current.put(tid, sample);
+  }
+
+  /** Gives back an array that was acquired, but that no sample could be parsed into. */
+  synchronized void release(long[] sample) {
+    spare.push(sample);
+  }
+
+  Map<String, long[]> getCurrent() {
+    return current;
+  }
+
+  Map<String, long[]> getPrevious() {
+    return previous;
+  }
+}
@@ -17,8 +17,7 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.SchedMetricsGenerator;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics_generator.linux.LinuxSchedMetricsGenerator;
-import java.util.HashMap;
-import java.util.List;
+import com.google.common.annotations.VisibleForTesting;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,13 +26,12 @@ import org.apache.logging.log4j.util.Supplier;
 
 public final class ThreadSched {
   private static final Logger LOGGER = LogManager.getLogger(ThreadSched.class);
-  public static final ThreadSched INSTANCE = new ThreadSched();
+  public static final ThreadSched INSTANCE = new ThreadSched(ThreadSampler.INSTANCE);
+  private final ThreadSampler sampler;
   private String pid = null;
-  private List<String> tids = null;
-  private Map<String, Map<String, Object>> tidKVMap = new HashMap<>();
-  private Map<String, Map<String, Object>> oldtidKVMap = new HashMap<>();
   private long kvTimestamp = 0;
   private long oldkvTimestamp = 0;
+  private boolean partial = false;
 
   public static class SchedMetrics {
     public final double avgRuntime;
@@ -61,18 +59,16 @@ public final class ThreadSched {
 
   private LinuxSchedMetricsGenerator schedLatencyMap = new LinuxSchedMetricsGenerator();
 
-  private static String[] schedKeys = {"runticks", "waitticks", "totctxsws"};
+  // ordinals of the fields of /proc/pid/task/tid/schedstat
+  private static final int RUNTICKS = 0;
+  private static final int WAITTICKS = 1;
+  private static final int TOTCTXSWS = 2;
 
-  private static SchemaFileParser.FieldTypes[] schedTypes = {
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG,
-    SchemaFileParser.FieldTypes.ULONG
-  };
-
-  private ThreadSched() {
+  @VisibleForTesting
+  ThreadSched(ThreadSampler sampler) {
+    this.sampler = sampler;
     try {
       pid = OSGlobals.getPid();
-      tids = OSGlobals.getTids();
     } catch (Exception e) {
       LOGGER.error(
           (Supplier<?>)
@@ -82,47 +78,27 @@ public final class ThreadSched {
   }
 
   public synchronized void addSample() {
-    tids = OSGlobals.getTids();
-
-    oldtidKVMap.clear();
-    oldtidKVMap.putAll(tidKVMap);
-
-    tidKVMap.clear();
-    oldkvTimestamp = kvTimestamp;
-    kvTimestamp = System.currentTimeMillis();
-    for (String tid : tids) {
-      Map<String, Object> sample =
-          (new SchemaFileParser(
-                  "/proc/" + pid + "/task/" + tid + "/schedstat", schedKeys, schedTypes))
-              .parse();
-      tidKVMap.put(tid, sample);
-    }
+    sampler.sample();
+    oldkvTimestamp = sampler.getOldkvTimestamp();
+    kvTimestamp = sampler.getKvTimestamp();
+    partial = sampler.isPartial();
 
     calculateSchedLatency();
   }
 
   private void calculateSchedLatency() {
-    if (oldkvTimestamp == kvTimestamp) {
+    if (partial || oldkvTimestamp == kvTimestamp) {
       return;
     }
 
-    for (Map.Entry<String, Map<String,Object>> entry : tidKVMap.entrySet()) {
-      Map<String, Object> v = entry.getValue();
-      Map<String, Object> oldv = oldtidKVMap.get(entry.getKey());
-      if (v != null && oldv != null) {
-        if (!v.containsKey("totctxsws") || !oldv.containsKey("totctxsws")) {
-          continue;
-        }
-        long ctxdiff =
-            (long) v.getOrDefault("totctxsws", 0L) - (long) oldv.getOrDefault("totctxsws", 0L);
-        double avgRuntime =
-            1.0e-9
-                * ((long) v.getOrDefault("runticks", 0L)
-                    - (long) oldv.getOrDefault("runticks", 0L));
-        double avgWaittime =
-            1.0e-9
-                * ((long) v.getOrDefault("waitticks", 0L)
-                    - (long) oldv.getOrDefault("waitticks", 0L));
+    Map<String, long[]> oldSamples = sampler.getOldSchedSamples();
+    for (Map.Entry<String, long[]> entry : sampler.getSchedSamples().entrySet()) {
+      long[] v = entry.getValue();
+      long[] oldv = oldSamples.get(entry.getKey());
+      if (oldv != null) {
+        long ctxdiff = v[TOTCTXSWS] - oldv[TOTCTXSWS];
+        double avgRuntime = 1.0e-9 * (v[RUNTICKS] - oldv[RUNTICKS]);
+        double avgWaittime = 1.0e-9 * (v[WAITTICKS] - oldv[WAITTICKS]);
         if (ctxdiff == 0) {
           avgRuntime = 0;
           avgWaittime = 0;
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators;
+
+/**
+ * Keeps the candidates for the minimum (or the maximum) of a sliding window in a ring of
+ * primitives. A new sample drops every candidate it beats from the back, so the values are
+ * monotonic from the front to the back and the front is the answer. Samples are identified by an
+ * increasing sequence number, and the ones that left the window are dropped from the front.
+ */
+class MonotonicQueue {
+  private static final int INITIAL_CAPACITY = 8;
+
+  private final boolean trackMin;
+  private long[] seqs;
+  private double[] values;
+  private int head;
+  private int size;
+
+  MonotonicQueue(boolean trackMin) {
+    this.trackMin = trackMin;
+    this.seqs = new long[INITIAL_CAPACITY];
+    this.values = new double[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Adds a sample.
+   *
+   * @param seq The sequence number of the sample.
+   * @param value The value of the sample.
+   * @param oldestSeq The sequence number of the oldest sample still in the window.
+   */
+  void offer(long seq, double value, long oldestSeq) {
+    final int mask = seqs.length - 1;
+    while (size > 0 && isBeatenBy(values[(head + size - 1) & mask], value)) {
+      size--;
+    }
+    if (size == seqs.length) {
+      grow();
+    }
+    final int tail = (head + size) & (seqs.length - 1);
+    seqs[tail] = seq;
+    values[tail] = value;
+    size++;
+    while (size > 0 && seqs[head] < oldestSeq) {
+      head = (head + 1) & (seqs.length - 1);
+      size--;
+    }
+  }
+
+  private boolean isBeatenBy(double candidate, double value) {
+    return trackMin ? candidate >= value : candidate <= value;
+  }
+
+  double peek() {
+    return size == 0 ? Double.NaN : values[head];
+  }
+
+  private void grow() {
+    final int capacity = seqs.length;
+    final long[] newSeqs = new long[capacity << 1];
+    final double[] newValues = new double[capacity << 1];
+    final int firstPart = capacity - head;
+    System.arraycopy(seqs, head, newSeqs, 0, firstPart);
+    System.arraycopy(seqs, 0, newSeqs, firstPart, head);
+    System.arraycopy(values, head, newValues, 0, firstPart);
+    System.arraycopy(values, 0, newValues, firstPart, head);
+    seqs = newSeqs;
+    values = newValues;
+    head = 0;
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sliding window that can also tell the approximate percentiles of the values in it. The values
+ * are counted in a {@link QuantileSketch} as they enter and leave the window.
+ */
+public class PercentileSlidingWindow<E extends SlidingWindowData> extends SlidingWindow<E> {
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+  private final QuantileSketch sketch;
+
+  public PercentileSlidingWindow(int SLIDING_WINDOW_SIZE_IN_TIMESTAMP, TimeUnit timeUnit) {
+    this(SLIDING_WINDOW_SIZE_IN_TIMESTAMP, timeUnit, DEFAULT_RELATIVE_ACCURACY);
+  }
+
+  public PercentileSlidingWindow(int SLIDING_WINDOW_SIZE_IN_TIMESTAMP, TimeUnit timeUnit,
+      double relativeAccuracy) {
+    super(SLIDING_WINDOW_SIZE_IN_TIMESTAMP, timeUnit);
+    this.sketch = new QuantileSketch(relativeAccuracy);
+  }
+
+  @Override
+  protected void add(long timeStamp, double value) {
+    super.add(timeStamp, value);
+    sketch.add(value);
+  }
+
+  @Override
+  protected void remove(long timeStamp, double value) {
+    super.remove(timeStamp, value);
+    sketch.remove(value);
+  }
+
+  /**
+   * read the approximate percentile of the values in the sliding window
+   *
+   * @param percentile the percentile, in [0, 100]
+   * @return the percentile, or NaN if the window is empty
+   */
+  public double readPercentile(double percentile) {
+    return sketch.getQuantile(percentile / 100);
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators;
+
+/**
+ * Approximate quantiles of a multiset of values that supports removals, which is what a sliding
+ * window needs. Values are counted in logarithmic buckets, so that every quantile it answers is
+ * within the given relative accuracy of an actual value of the multiset. Adding and removing a
+ * value is O(1) and a query walks the buckets, whose number only depends on the range of the
+ * values and the accuracy, not on how many values were added.
+ *
+ * <p>Values whose magnitude is below {@link #MIN_INDEXABLE_VALUE} are counted as zero. NaN and
+ * infinite values are ignored.
+ *
+ * <p>The sum of the values is kept exactly, and so are the min and max until a removal takes one
+ * of them out; from then on they are read from the buckets, within the relative accuracy, until
+ * the sketch is empty again. Sketches of the same accuracy can be merged, e.g. to combine the
+ * latencies recorded by several threads or windows.
+ */
+public class QuantileSketch {
+  static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+  private final double gamma;
+  private final double logGamma;
+  private final BucketCounts positives = new BucketCounts();
+  private final BucketCounts negatives = new BucketCounts();
+  private long zeroCount;
+  private long count;
+  private double sum;
+  private double min = Double.NaN;
+  private double max = Double.NaN;
+  // Whether min and max are still the exact extremes of the values in the sketch.
+  private boolean extremesExact = true;
+
+  /**
+   * @param relativeAccuracy how far, relatively, a quantile may be from an actual value, in (0, 1)
+   */
+  public QuantileSketch(double relativeAccuracy) {
+    if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+      throw new IllegalArgumentException(
+          "Relative accuracy must be in (0, 1): " + relativeAccuracy);
+    }
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.logGamma = Math.log(gamma);
+  }
+
+  public void add(double value) {
+    update(value, 1);
+  }
+
+  public void remove(double value) {
+    update(value, -1);
+  }
+
+  /**
+   * Adds the values of another sketch to this one, as if they had been added one by one.
+   *
+   * @throws IllegalArgumentException if the sketches do not have the same relative accuracy
+   */
+  public void merge(QuantileSketch other) {
+    if (other.gamma != gamma) {
+      throw new IllegalArgumentException("Cannot merge sketches of different relative accuracy");
+    }
+    if (other.count <= 0) {
+      return;
+    }
+    if (count <= 0) {
+      min = other.min;
+      max = other.max;
+      extremesExact = other.extremesExact;
+    } else {
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+      extremesExact &= other.extremesExact;
+    }
+    positives.merge(other.positives);
+    negatives.merge(other.negatives);
+    zeroCount += other.zeroCount;
+    count += other.count;
+    sum += other.sum;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getSum() {
+    return sum;
+  }
+
+  /** @return the smallest value, or NaN if the sketch is empty */
+  public double getMin() {
+    if (count <= 0) {
+      return Double.NaN;
+    }
+    return extremesExact ? min : getQuantile(0);
+  }
+
+  /** @return the largest value, or NaN if the sketch is empty */
+  public double getMax() {
+    if (count <= 0) {
+      return Double.NaN;
+    }
+    return extremesExact ? max : getQuantile(1);
+  }
+
+  /** @return the average of the values, or NaN if the sketch is empty */
+  public double getAverage() {
+    return count <= 0 ? Double.NaN : sum / count;
+  }
+
+  private void update(double value, int delta) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return;
+    }
+    if (value > MIN_INDEXABLE_VALUE) {
+      positives.update(index(value), delta);
+    } else if (value < -MIN_INDEXABLE_VALUE) {
+      negatives.update(index(-value), delta);
+    } else {
+      zeroCount += delta;
+    }
+    if (delta > 0) {
+      min = count <= 0 ? value : Math.min(min, value);
+      max = count <= 0 ? value : Math.max(max, value);
+    } else if (value <= min || value >= max) {
+      extremesExact = false;
+    }
+    count += delta;
+    sum += delta * value;
+    if (count <= 0) {
+      // Start over exactly, rather than carry the rounding errors of the sum.
+      sum = 0;
+      min = Double.NaN;
+      max = Double.NaN;
+      extremesExact = true;
+    }
+  }
+
+  private int index(double value) {
+    return (int) Math.ceil(Math.log(value) / logGamma);
+  }
+
+  private double valueOf(int index) {
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  /**
+   * @param quantile the quantile to read, in [0, 1]
+   * @return the approximate quantile, or NaN if the sketch is empty. While the min and max are
+   *     exact, the quantile is never outside of them, so a sketch of one value answers that value.
+   */
+  public double getQuantile(double quantile) {
+    if (count <= 0) {
+      return Double.NaN;
+    }
+    final double value = bucketValueOfQuantile(quantile);
+    return extremesExact ? Math.max(min, Math.min(max, value)) : value;
+  }
+
+  private double bucketValueOfQuantile(double quantile) {
+    final double clamped = Math.max(0, Math.min(1, quantile));
+    long rank = (long) (clamped * (count - 1));
+    if (rank < negatives.total) {
+      // The negative value with the largest magnitude is the smallest one.
+      return -valueOf(negatives.indexOfRankFromTop(rank));
+    }
+    rank -= negatives.total;
+    if (rank < zeroCount) {
+      return 0;
+    }
+    rank -= zeroCount;
+    return valueOf(positives.indexOfRank(rank));
+  }
+
+  /** Counts per bucket index, in an array that grows to cover the indices in use. */
+  private static class BucketCounts {
+    private static final int INITIAL_LENGTH = 64;
+
+    private long[] counts;
+    // Bucket index of counts[0].
+    private int offset;
+    private long total;
+
+    void update(int index, long delta) {
+      ensureCovers(index);
+      counts[index - offset] += delta;
+      total += delta;
+    }
+
+    void merge(BucketCounts other) {
+      if (other.counts == null) {
+        return;
+      }
+      for (int i = 0; i < other.counts.length; i++) {
+        if (other.counts[i] != 0) {
+          update(i + other.offset, other.counts[i]);
+        }
+      }
+    }
+
+    private void ensureCovers(int index) {
+      if (counts == null) {
+        counts = new long[INITIAL_LENGTH];
+        offset = index - INITIAL_LENGTH / 2;
+        return;
+      }
+      if (index >= offset && index < offset + counts.length) {
+        return;
+      }
+      final int newOffset = Math.min(offset, index);
+      final int newEnd = Math.max(offset + counts.length, index + 1);
+      final int newLength = Math.max(newEnd - newOffset, counts.length * 2);
+      final long[] newCounts = new long[newLength];
+      // Keep the spare room on the side that had to grow.
+      final int shift = index < offset ? newLength - (offset + counts.length - newOffset) : 0;
+      System.arraycopy(counts, 0, newCounts, offset - newOffset + shift, counts.length);
+      counts = newCounts;
+      offset = newOffset - shift;
+    }
+
+    int indexOfRank(long rank) {
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen > rank) {
+          return i + offset;
+        }
+      }
+      return counts.length - 1 + offset;
+    }
+
+    int indexOfRankFromTop(long rank) {
+      long seen = 0;
+      for (int i = counts.length - 1; i >= 0; i--) {
+        seen += counts[i];
+        if (seen > rank) {
+          return i + offset;
+        }
+      }
+      return offset;
+    }
+  }
+}
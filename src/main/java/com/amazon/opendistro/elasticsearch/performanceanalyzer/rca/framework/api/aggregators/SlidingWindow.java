@@ -15,60 +15,139 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators;
 
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
 
 /**
  * This is a generic sliding window for RCA sampling. The default behavior is to store the
  * {timestap, value} pair and maintain the sum of all data entries within this sliding window.
+ *
+ * <p>The samples are kept in a ring buffer of primitive timestamps and values that doubles in
+ * size when a sample does not fit, so adding a sample does not allocate in the steady state. The
+ * minimum and the maximum of the window are tracked with monotonic queues, which makes them O(1)
+ * to read and amortised O(1) to maintain.
  */
 public class SlidingWindow<E extends SlidingWindowData> {
+  private static final int INITIAL_CAPACITY = 16;
 
-  protected final Deque<E> windowDeque;
   protected final long SLIDING_WINDOW_SIZE;
   protected double sum;
 
+  private long[] timeStamps;
+  private double[] values;
+  // Index of the oldest sample in the ring.
+  private int head;
+  private int size;
+
+  private final MonotonicQueue minQueue = new MonotonicQueue(true);
+  private final MonotonicQueue maxQueue = new MonotonicQueue(false);
+  // Sequence number the next sample gets. The oldest sample in the window is nextSeq - size.
+  private long nextSeq;
+
   public SlidingWindow(int SLIDING_WINDOW_SIZE_IN_TIMESTAMP, TimeUnit timeUnit) {
-    this.windowDeque = new LinkedList<>();
     this.SLIDING_WINDOW_SIZE = timeUnit.toSeconds(SLIDING_WINDOW_SIZE_IN_TIMESTAMP);
     this.sum = 0.0;
+    this.timeStamps = new long[INITIAL_CAPACITY];
+    this.values = new double[INITIAL_CAPACITY];
   }
 
   /**
-   * callback function when adding a data to the sliding window
+   * callback function when adding a data to the sliding window. It is called before the data is
+   * inserted, so {@link #peekNewestValue()} still returns the previous data.
    */
-  protected void add(E e) {
-    sum += e.getValue();
+  protected void add(long timeStamp, double value) {
+    sum += value;
   }
 
   /**
-   * callback function when removing a data from the sliding window
+   * callback function when removing a data from the sliding window. It is called after the data
+   * is removed, so {@link #peekOldestValue()} returns the data that follows it.
    */
-  protected void remove(E e) {
-    sum -= e.getValue();
+  protected void remove(long timeStamp, double value) {
+    sum -= value;
   }
 
   /**
    * insert data into the sliding window
    */
   public void next(E e) {
-    while (!windowDeque.isEmpty()
-        && TimeUnit.MILLISECONDS.toSeconds(e.getTimeStamp() - windowDeque.peekLast().getTimeStamp())
-        > SLIDING_WINDOW_SIZE) {
-      E lastData = windowDeque.pollLast();
-      remove(lastData);
+    next(e.getTimeStamp(), e.getValue());
+  }
+
+  /**
+   * insert data into the sliding window without wrapping it in a {@link SlidingWindowData}
+   */
+  public void next(long timeStamp, double value) {
+    while (size > 0
+        && TimeUnit.MILLISECONDS.toSeconds(timeStamp - timeStamps[head]) > SLIDING_WINDOW_SIZE) {
+      final long oldestTimeStamp = timeStamps[head];
+      final double oldestValue = values[head];
+      head = (head + 1) & (timeStamps.length - 1);
+      size--;
+      remove(oldestTimeStamp, oldestValue);
     }
-    add(e);
-    windowDeque.addFirst(e);
+    add(timeStamp, value);
+    if (size == timeStamps.length) {
+      grow();
+    }
+    final int tail = (head + size) & (timeStamps.length - 1);
+    timeStamps[tail] = timeStamp;
+    values[tail] = value;
+    size++;
+
+    final long seq = nextSeq++;
+    final long oldestSeq = nextSeq - size;
+    minQueue.offer(seq, value, oldestSeq);
+    maxQueue.offer(seq, value, oldestSeq);
+  }
+
+  private void grow() {
+    final int capacity = timeStamps.length;
+    final long[] newTimeStamps = new long[capacity << 1];
+    final double[] newValues = new double[capacity << 1];
+    final int firstPart = capacity - head;
+    System.arraycopy(timeStamps, head, newTimeStamps, 0, firstPart);
+    System.arraycopy(timeStamps, 0, newTimeStamps, firstPart, head);
+    System.arraycopy(values, head, newValues, 0, firstPart);
+    System.arraycopy(values, 0, newValues, firstPart, head);
+    timeStamps = newTimeStamps;
+    values = newValues;
+    head = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * read the value of the latest data, or NaN if the window is empty
+   */
+  protected double peekNewestValue() {
+    if (size == 0) {
+      return Double.NaN;
+    }
+    return values[(head + size - 1) & (timeStamps.length - 1)];
+  }
+
+  /**
+   * read the value of the earliest data still in the window, or NaN if the window is empty
+   */
+  protected double peekOldestValue() {
+    if (size == 0) {
+      return Double.NaN;
+    }
+    return values[head];
   }
 
   /**
    * read the sliding window average based on sliding window size
    */
   public double readAvg() {
-    if (!windowDeque.isEmpty()) {
-      return sum / (double) windowDeque.size();
+    if (size > 0) {
+      return sum / (double) size;
     }
     return Double.NaN;
   }
@@ -77,10 +156,11 @@ public class SlidingWindow<E extends SlidingWindowData> {
    * read the sliding window average based on timestamp
    */
   public double readAvg(TimeUnit timeUnit) {
-    if (windowDeque.isEmpty()) {
+    if (size == 0) {
       return Double.NaN;
     }
-    long timeStampDiff = windowDeque.peekFirst().getTimeStamp() - windowDeque.peekLast().getTimeStamp();
+    long timeStampDiff =
+        timeStamps[(head + size - 1) & (timeStamps.length - 1)] - timeStamps[head];
     if (timeStampDiff > 0) {
       return sum / ((double) timeStampDiff / (double) timeUnit.toMillis(1));
     }
@@ -93,4 +173,18 @@ public class SlidingWindow<E extends SlidingWindowData> {
   public double readSum() {
     return this.sum;
   }
+
+  /**
+   * read the smallest value in the sliding window, or NaN if the window is empty
+   */
+  public double readMin() {
+    return minQueue.peek();
+  }
+
+  /**
+   * read the largest value in the sliding window, or NaN if the window is empty
+   */
+  public double readMax() {
+    return maxQueue.peek();
+  }
 }
@@ -26,6 +26,7 @@ import org.jooq.Result;
 public class MetricFlowUnit extends GenericFlowUnit {
 
   private Result<Record> data = null;
+  private volatile MetricTable table = null;
 
   public MetricFlowUnit(long timeStamp) {
     super(timeStamp);
@@ -37,14 +38,36 @@ public class MetricFlowUnit extends GenericFlowUnit {
     this.empty = false;
   }
 
+  public MetricFlowUnit(long timeStamp, MetricTable table) {
+    super(timeStamp);
+    this.table = table;
+    this.empty = false;
+  }
+
   /**
    * read SQL result from flowunit
    * @return SQL result
    */
   public Result<Record> getData() {
+    if (data == null && table != null) {
+      return table.toResult();
+    }
     return data;
   }
 
+  /**
+   * Read the data as a columnar table. This is cheaper to read from than {@link #getData()}.
+   * @return the metric table, empty if the flow unit carries no data
+   */
+  public MetricTable getMetricTable() {
+    MetricTable ret = table;
+    if (ret == null) {
+      ret = MetricTable.fromResult(data);
+      table = ret;
+    }
+    return ret;
+  }
+
   public static MetricFlowUnit generic() {
     return new MetricFlowUnit(System.currentTimeMillis());
   }
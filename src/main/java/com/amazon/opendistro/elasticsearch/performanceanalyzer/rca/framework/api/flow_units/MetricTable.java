@@ -0,0 +1,316 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricRowVisitor;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+/**
+ * Columnar, read-only view of a MetricsDB metric table. The four aggregations are kept in primitive
+ * {@code double[]} columns with NaN standing for NULL, and rows can be looked up by the value of
+ * any dimension.
+ *
+ * <p>The table is read straight from the MetricsDB with {@link #read(MetricsDB, String)}, without
+ * a jOOQ record per row. Consumers that still walk a {@code Result<Record>} get one from {@link
+ * #toResult()}, which is built from the columns the first time it is asked for, so a metric that
+ * only has columnar consumers never materializes a result.
+ */
+public class MetricTable {
+  private static final List<String> AGGREGATIONS =
+      Collections.unmodifiableList(
+          Arrays.asList(MetricsDB.SUM, MetricsDB.AVG, MetricsDB.MIN, MetricsDB.MAX));
+
+  public static final MetricTable EMPTY =
+      new MetricTable(Collections.emptyList(), new String[0][], new double[4][0], 0, null);
+
+  private final List<String> dimensionNames;
+  private final String[][] dimensionValues;
+  private final double[][] aggregations;
+  private final int rowCount;
+  private volatile Result<Record> result;
+
+  private MetricTable(
+      List<String> dimensionNames,
+      String[][] dimensionValues,
+      double[][] aggregations,
+      int rowCount,
+      Result<Record> result) {
+    this.dimensionNames = dimensionNames;
+    this.dimensionValues = dimensionValues;
+    this.aggregations = aggregations;
+    this.rowCount = rowCount;
+    this.result = result;
+  }
+
+  /**
+   * Reads a metric table from MetricsDB.
+   *
+   * @param db The window to read from.
+   * @param metric The metric table to read.
+   * @return The table.
+   * @throws org.jooq.exception.DataAccessException if the table does not exist.
+   */
+  public static MetricTable read(MetricsDB db, String metric) {
+    Builder builder = new Builder();
+    db.readMetric(metric, builder);
+    return builder.build();
+  }
+
+  /**
+   * Copies a metric table that was read as a jOOQ result, for the callers that are handed one.
+   * Columns named sum, avg, min and max are read as aggregations, every other column as a
+   * dimension. Aggregations missing from the result read as NaN. {@link #toResult()} returns the
+   * result itself.
+   *
+   * @param result The result of a query against a metric table, may be null.
+   * @return The columnar copy.
+   */
+  public static MetricTable fromResult(Result<Record> result) {
+    if (result == null || result.isEmpty() && result.fields().length == 0) {
+      return EMPTY;
+    }
+    Field<?>[] fields = result.fields();
+    List<Integer> dimensionColumns = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    int[] aggColumns = new int[AGGREGATIONS.size()];
+    Arrays.fill(aggColumns, -1);
+    for (int col = 0; col < fields.length; col++) {
+      int agg = AGGREGATIONS.indexOf(fields[col].getName());
+      if (agg >= 0) {
+        aggColumns[agg] = col;
+      } else {
+        dimensionColumns.add(col);
+        names.add(fields[col].getName());
+      }
+    }
+
+    int rows = result.size();
+    String[][] dimensionValues = new String[dimensionColumns.size()][rows];
+    double[][] aggregations = new double[AGGREGATIONS.size()][rows];
+    for (int row = 0; row < rows; row++) {
+      Record record = result.get(row);
+      for (int d = 0; d < dimensionColumns.size(); d++) {
+        Object value = record.get(dimensionColumns.get(d));
+        dimensionValues[d][row] = value == null ? null : value.toString();
+      }
+      for (int a = 0; a < aggColumns.length; a++) {
+        aggregations[a][row] = aggColumns[a] < 0 ? Double.NaN : toDouble(record.get(aggColumns[a]));
+      }
+    }
+    return new MetricTable(
+        Collections.unmodifiableList(names), dimensionValues, aggregations, rows, result);
+  }
+
+  /**
+   * Returns the table as a jOOQ result with the columns of the MetricsDB table: the dimensions,
+   * then sum, avg, min and max. The result is built on the first call and shared by every caller,
+   * so it must not be modified.
+   *
+   * @return The result, null for {@link #EMPTY}.
+   */
+  public Result<Record> toResult() {
+    Result<Record> ret = result;
+    if (ret == null && this != EMPTY) {
+      synchronized (this) {
+        ret = result;
+        if (ret == null) {
+          ret = buildResult();
+          result = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  public int rowCount() {
+    return rowCount;
+  }
+
+  public boolean isEmpty() {
+    return rowCount == 0;
+  }
+
+  public List<String> getDimensionNames() {
+    return dimensionNames;
+  }
+
+  /**
+   * Returns the value of a dimension in a row.
+   *
+   * @param row The row index.
+   * @param dimension The dimension name.
+   * @return The value, null if the row has none.
+   * @throws IllegalArgumentException if the table does not have the dimension.
+   */
+  public String getDimensionValue(int row, String dimension) {
+    return dimensionValues[dimensionColumn(dimension)][row];
+  }
+
+  /**
+   * Returns an aggregation of a row.
+   *
+   * @param row The row index.
+   * @param aggregation One of {@link MetricsDB#AGG_VALUES}.
+   * @return The value, NaN if it is NULL in the MetricsDB.
+   * @throws IllegalArgumentException if the aggregation is not known.
+   */
+  public double getValue(int row, String aggregation) {
+    return aggregations[aggregationColumn(aggregation)][row];
+  }
+
+  /**
+   * Finds the first row where the dimension has the given value. The lookups are made on node
+   * level tables of a few rows, so the column is scanned rather than indexed.
+   *
+   * @param dimension The dimension name.
+   * @param value The value to look for.
+   * @return The row index, -1 if no row matches.
+   * @throws IllegalArgumentException if the table does not have the dimension.
+   */
+  public int indexOf(String dimension, String value) {
+    String[] values = dimensionValues[dimensionColumn(dimension)];
+    for (int row = 0; row < rowCount; row++) {
+      if (Objects.equals(values[row], value)) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Reads an aggregation from the first row where the dimension has the given value. This is the
+   * columnar equivalent of {@code SQLParsingUtil.readDataFromSqlResult}.
+   *
+   * @param dimension The dimension to match on.
+   * @param value The value of the dimension.
+   * @param aggregation The aggregation to read.
+   * @return The value, NaN if no row matches.
+   */
+  public double lookup(String dimension, String value, String aggregation) {
+    int row = indexOf(dimension, value);
+    return row < 0 ? Double.NaN : getValue(row, aggregation);
+  }
+
+  private Result<Record> buildResult() {
+    List<Field<?>> fieldList = new ArrayList<>();
+    for (String name : dimensionNames) {
+      fieldList.add(DSL.field(DSL.name(name), String.class));
+    }
+    for (String name : AGGREGATIONS) {
+      fieldList.add(DSL.field(DSL.name(name), Double.class));
+    }
+    Field<?>[] fields = fieldList.toArray(new Field<?>[0]);
+    DSLContext create = DSL.using(SQLDialect.SQLITE);
+    Result<Record> ret = create.newResult(fields);
+    for (int row = 0; row < rowCount; row++) {
+      Object[] values = new Object[fields.length];
+      int col = 0;
+      for (String[] column : dimensionValues) {
+        values[col++] = column[row];
+      }
+      for (double[] column : aggregations) {
+        values[col++] = Double.isNaN(column[row]) ? null : column[row];
+      }
+      Record record = create.newRecord(fields);
+      record.fromArray(values);
+      ret.add(record);
+    }
+    return ret;
+  }
+
+  private int dimensionColumn(String dimension) {
+    int col = dimensionNames.indexOf(dimension);
+    if (col < 0) {
+      throw new IllegalArgumentException("Unknown dimension " + dimension);
+    }
+    return col;
+  }
+
+  private static int aggregationColumn(String aggregation) {
+    int col = AGGREGATIONS.indexOf(aggregation);
+    if (col < 0) {
+      throw new IllegalArgumentException("Unknown aggregation " + aggregation);
+    }
+    return col;
+  }
+
+  private static double toDouble(Object value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    return Double.parseDouble(value.toString());
+  }
+
+  @Override
+  public String toString() {
+    return "MetricTable{dimensions=" + dimensionNames + ", rows=" + rowCount + '}';
+  }
+
+  /** Collects the rows of a metric table into growing columns. */
+  private static class Builder implements MetricRowVisitor {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private List<String> dimensionNames;
+    private String[][] dimensionValues;
+    private final double[][] aggregations = new double[AGGREGATIONS.size()][INITIAL_CAPACITY];
+    private int rowCount;
+
+    @Override
+    public void start(List<String> dimensionNames) {
+      this.dimensionNames = Collections.unmodifiableList(new ArrayList<>(dimensionNames));
+      this.dimensionValues = new String[dimensionNames.size()][INITIAL_CAPACITY];
+    }
+
+    @Override
+    public void row(String[] values, double sum, double avg, double min, double max) {
+      if (rowCount == aggregations[0].length) {
+        int capacity = rowCount * 2;
+        for (int d = 0; d < dimensionValues.length; d++) {
+          dimensionValues[d] = Arrays.copyOf(dimensionValues[d], capacity);
+        }
+        for (int a = 0; a < aggregations.length; a++) {
+          aggregations[a] = Arrays.copyOf(aggregations[a], capacity);
+        }
+      }
+      for (int d = 0; d < values.length; d++) {
+        dimensionValues[d][rowCount] = values[d];
+      }
+      aggregations[0][rowCount] = sum;
+      aggregations[1][rowCount] = avg;
+      aggregations[2][rowCount] = min;
+      aggregations[3][rowCount] = max;
+      rowCount++;
+    }
+
+    MetricTable build() {
+      return new MetricTable(dimensionNames, dimensionValues, aggregations, rowCount, null);
+    }
+  }
+}
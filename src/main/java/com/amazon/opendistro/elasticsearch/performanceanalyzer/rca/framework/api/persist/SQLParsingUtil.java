@@ -16,6 +16,7 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.persist;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -83,4 +84,30 @@ public class SQLParsingUtil {
     }
     return ret;
   }
+
+  /**
+   * Same as {@link #readDataFromSqlResult(Result, Field, String, String)}, but reads from the
+   * columnar copy of the metric table so the lookup does not allocate.
+   * @param table the metric table from the flow unit
+   * @param matchedField the field used for name matching
+   * @param matchedFieldName the name to be matched
+   * @param dataField The field to retrieve data from
+   * @return the data read from the table, NaN if it can't be found
+   */
+  public static double readDataFromMetricTable(MetricTable table, Field<String> matchedField, String matchedFieldName, String dataField) {
+    double ret = Double.NaN;
+    try {
+      int row = table.indexOf(matchedField.getName(), matchedFieldName);
+      if (row < 0) {
+        LOG.error("{} fails to match any row in field {}.", matchedFieldName, matchedField.getName());
+      } else {
+        ret = table.getValue(row, dataField);
+      }
+    }
+    catch (IllegalArgumentException ie) {
+      LOG.error("Fail to read {} field matching {} in field {} from metric table.",
+          dataField, matchedFieldName, matchedField.getName());
+    }
+    return ret;
+  }
 }
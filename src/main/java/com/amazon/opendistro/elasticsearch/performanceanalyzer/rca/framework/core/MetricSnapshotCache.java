@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of the snapshots the Metric leaf nodes take of the MetricsDB tables. Many
+ * RCAs declare the same metrics, so without it the same table is read several times per tick.
+ *
+ * <p>The entries belong to one MetricsDB window. They are dropped as soon as a lookup is made
+ * against a different window, which happens on the first gather after the reader publishes a new
+ * one, and at the start of every tick so a window that is still being written to is not served
+ * stale. The cached tables are shared between the leaf nodes and must not be modified.
+ *
+ * <p>Every window gets its own map, so a lookup that started against the previous window can only
+ * ever store its snapshot in the map of that window, never in the one of the current window.
+ */
+public class MetricSnapshotCache {
+  private volatile Generation current = new Generation(null);
+
+  /**
+   * Returns the snapshot of the metric table in the given window, loading it on a miss.
+   *
+   * @param db The window the metric is read from.
+   * @param metricName The metric table to read.
+   * @param loader Reads the table on a miss. Exceptions thrown by it are passed on and nothing is
+   *     cached.
+   * @return The cached or freshly read snapshot.
+   */
+  public MetricTable get(MetricsDB db, String metricName, Function<String, MetricTable> loader) {
+    Generation generation = current;
+    if (generation.window != db) {
+      generation = switchWindow(db);
+    }
+    MetricTable snapshot = generation.snapshots.get(metricName);
+    if (snapshot == null) {
+      // Concurrent misses on a metric wait for a single load; only the lookup that ran it is a
+      // miss, the others are hits.
+      boolean[] loaded = new boolean[1];
+      snapshot =
+          generation.snapshots.computeIfAbsent(
+              metricName,
+              name -> {
+                loaded[0] = true;
+                return loader.apply(name);
+              });
+      if (loaded[0]) {
+        PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+            RcaGraphMetrics.METRIC_SNAPSHOT_CACHE_MISS, metricName, 1);
+        return snapshot;
+      }
+    }
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.METRIC_SNAPSHOT_CACHE_HIT, metricName, 1);
+    return snapshot;
+  }
+
+  /** Drops every cached snapshot. */
+  public synchronized void invalidate() {
+    current = new Generation(null);
+  }
+
+  int size() {
+    return current.snapshots.size();
+  }
+
+  private synchronized Generation switchWindow(MetricsDB db) {
+    if (current.window != db) {
+      current = new Generation(db);
+    }
+    return current;
+  }
+
+  /** The snapshots taken of one window. */
+  private static class Generation {
+    private final MetricsDB window;
+    private final Map<String, MetricTable> snapshots = new ConcurrentHashMap<>();
+
+    Generation(MetricsDB window) {
+      this.window = window;
+    }
+  }
+}
@@ -15,13 +15,17 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsHistory;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.ReaderMetricsProcessor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,6 +36,8 @@ import org.jooq.Result;
 public class MetricsDBProvider implements Queryable {
   private static final Logger LOG = LogManager.getLogger(MetricsDBProvider.class);
 
+  private final MetricSnapshotCache snapshotCache = new MetricSnapshotCache();
+
   @Override
   public MetricsDB getMetricsDB() throws Exception {
     ReaderMetricsProcessor processor = ReaderMetricsProcessor.getInstance();
@@ -52,13 +58,25 @@ public class MetricsDBProvider implements Queryable {
    *
    * <p>If we query for a metric that does not exist then {@code queryMetrics()} with throw
    * {@code exception}, which is not handled here. The caller might handle if it wants to.
+   *
+   * <p>The result is shared by all the leaf nodes that read the same metric from the same window
+   * in a tick.
    * @param db The MetricsDB file to query
    * @param metricName The table for the metric that will be queried.
    * @return Returns the metrics data in a tabular form.
    */
   @Override
   public Result<Record> queryMetrics(MetricsDB db, String metricName) {
-    return db.queryMetric(metricName);
+    return queryMetricTable(db, metricName).toResult();
+  }
+
+  /**
+   * Reads the metric table into a columnar table without materializing a jOOQ result. The table is
+   * shared by all the leaf nodes that read the same metric from the same window in a tick.
+   */
+  @Override
+  public MetricTable queryMetricTable(MetricsDB db, String metricName) {
+    return snapshotCache.get(db, metricName, metric -> MetricTable.read(db, metric));
   }
 
   @Override
@@ -75,6 +93,40 @@ public class MetricsDBProvider implements Queryable {
       return queryResult;
   }
 
+  @Override
+  public Result<Record> queryMetricHistory(
+      String metricName,
+      List<String> dimensions,
+      String aggregation,
+      long duration,
+      long step,
+      TimeUnit unit)
+      throws Exception {
+    ReaderMetricsProcessor processor = ReaderMetricsProcessor.getInstance();
+    if (processor == null) {
+      LOG.error("RCA: ReaderMetricsProcessor not initialized");
+      throw new Exception("ReaderMetricsProcessor not initialized");
+    }
+    MetricsHistory history = processor.getMetricsHistory();
+    long latest = history.getLatestWindowStartTime();
+    if (!history.isEnabled() || latest < 0) {
+      throw new Exception("Metrics history not initialized");
+    }
+    long end = latest + MetricsConfiguration.SAMPLING_INTERVAL;
+    return history.query(
+        Collections.singletonList(metricName),
+        Collections.singletonList(aggregation),
+        dimensions,
+        end - unit.toMillis(duration),
+        end,
+        unit.toMillis(step));
+  }
+
+  @Override
+  public void startTick() {
+    snapshotCache.invalidate();
+  }
+
   @Override
   public long getDBTimestamp(MetricsDB db) {
     return 0;
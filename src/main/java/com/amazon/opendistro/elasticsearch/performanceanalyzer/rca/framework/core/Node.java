@@ -63,6 +63,12 @@ public abstract class Node<T extends GenericFlowUnit> {
    * Flow unit produced by this vertex obtained from evaluating it locally.
    */
   protected T localFlowUnit;
+
+  /**
+   * Set by the scheduler when it gives up on an evaluation of the node that is still running. The
+   * flow units of the node read as empty while it is set, whatever the late evaluation writes.
+   */
+  private volatile boolean timedOut = false;
   /**
    * These are matched against the tags in the rca.conf, to determine if a node is to executed at a
    * location.
@@ -169,6 +175,9 @@ public abstract class Node<T extends GenericFlowUnit> {
   }
 
   public List<T> getFlowUnits() {
+    if (timedOut) {
+      return new ArrayList<>();
+    }
     List<T> allFlowUnits = flowUnits == null ? new ArrayList<>() : new ArrayList<>(flowUnits);
 
     if (localFlowUnit != null) {
@@ -186,6 +195,14 @@ public abstract class Node<T extends GenericFlowUnit> {
     this.localFlowUnit = localFlowUnit;
   }
 
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+  public void setTimedOut(boolean timedOut) {
+    this.timedOut = timedOut;
+  }
+
   /**
    * callback function to parse local rca.conf file and set RCA thresholds accordingly
    * The default callback function does nothing because we assume most of the RCA vertices
@@ -15,8 +15,13 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsHistory;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.jooq.Record;
 import org.jooq.Result;
 
@@ -26,8 +31,80 @@ public interface Queryable {
 
   Result<Record> queryMetrics(MetricsDB db, String metricName);
 
+  /**
+   * Reads all the data of a metric as a columnar table, which is what the Metric leaf nodes hand
+   * to the RCAs.
+   *
+   * @param db The MetricsDB file to query.
+   * @param metricName The table for the metric that will be queried.
+   * @return The metric table.
+   */
+  default MetricTable queryMetricTable(MetricsDB db, String metricName) {
+    return MetricTable.fromResult(queryMetrics(db, metricName));
+  }
+
   Result<Record> queryMetrics(
       MetricsDB db, String metricName, String dimension, String aggregation) throws Exception;
 
   long getDBTimestamp(MetricsDB db);
+
+  /**
+   * Called by the scheduler before every evaluation of the graph. Implementations that cache what
+   * they read for the leaf nodes drop it here.
+   */
+  default void startTick() {}
+
+  /**
+   * Queries the last {@code duration} of a metric in one call instead of keeping a sliding window
+   * of it. The result has a row per window and combination of the dimensions, with the start time
+   * of the window in the {@code timestamp} column and the value in a column named after the
+   * metric.
+   *
+   * @param metricName The metric to query.
+   * @param dimensions The dimensions to group the rows of a window by.
+   * @param aggregation The aggregation of the rows of a window: sum, avg, min or max.
+   * @param duration How far to look back from the latest window.
+   * @param unit The unit of the duration.
+   * @return The windows of the metric, oldest first for every combination of the dimensions.
+   * @throws Exception if the history cannot be queried.
+   */
+  default Result<Record> queryMetricHistory(
+      String metricName, List<String> dimensions, String aggregation, long duration, TimeUnit unit)
+      throws Exception {
+    return queryMetricHistory(
+        metricName,
+        dimensions,
+        aggregation,
+        unit.toMillis(duration),
+        MetricsConfiguration.SAMPLING_INTERVAL,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Same as {@link #queryMetricHistory(String, List, String, long, TimeUnit)}, but with a row per
+   * step instead of per window, which lets the history answer from its rollups when the step is a
+   * minute or longer.
+   *
+   * <p>A Queryable that does not keep a history has no window to answer with, so by default the
+   * result has the columns but no row.
+   *
+   * @param metricName The metric to query.
+   * @param dimensions The dimensions to group the rows of a window by.
+   * @param aggregation The aggregation of the rows of a window: sum, avg, min or max.
+   * @param duration How far to look back from the latest window.
+   * @param step The length of a step.
+   * @param unit The unit of the duration and the step.
+   * @return The steps of the metric, oldest first for every combination of the dimensions.
+   * @throws Exception if the history cannot be queried.
+   */
+  default Result<Record> queryMetricHistory(
+      String metricName,
+      List<String> dimensions,
+      String aggregation,
+      long duration,
+      long step,
+      TimeUnit unit)
+      throws Exception {
+    return MetricsHistory.emptyResult(Collections.singletonList(metricName), dimensions);
+  }
 }
@@ -37,10 +37,75 @@ public enum RcaGraphMetrics implements MeasurementSet {
   METRIC_GATHER_CALL(
       "MetricGatherCall", "millis", Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
 
+  /** Number of times a metric leaf node found the table snapshot in the per-tick cache. */
+  METRIC_SNAPSHOT_CACHE_HIT(
+      "MetricSnapshotCacheHit", "count", Collections.singletonList(Statistics.COUNT)),
+
+  /** Number of times a metric leaf node had to read the table from the MetricsDB. */
+  METRIC_SNAPSHOT_CACHE_MISS(
+      "MetricSnapshotCacheMiss", "count", Collections.singletonList(Statistics.COUNT)),
+
+  /** CPU time spent evaluating the graph nodes in a tick. */
+  GRAPH_EXECUTION_CPU(
+      "RcaGraphExecutionCpu",
+      "micros",
+      Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
+
+  /** Ticks that evaluated nodes reading the MetricsDB although no new window was available. */
+  RCA_SCHEDULER_WASTED_TICKS(
+      "RcaSchedulerWastedTicks", "count", Collections.singletonList(Statistics.COUNT)),
+
+  /** Nodes reading the MetricsDB whose evaluation was deferred until a new window is available. */
+  RCA_TASKLETS_DEFERRED("RcaTaskletsDeferred", "count", Collections.singletonList(Statistics.SUM)),
+
+  /**
+   * CPU time of the evaluations skipped because a deferred node was still waiting for a new window
+   * when its periodicity came up again, each taken as the CPU time of the last run of the node.
+   */
+  RCA_SCHEDULER_CPU_SAVED(
+      "RcaSchedulerCpuSaved", "micros", Collections.singletonList(Statistics.SUM)),
+
+  /** Time from the end of a MetricsDB window to the end of the graph evaluation that used it. */
+  WINDOW_TO_RCA_LATENCY(
+      "MetricsWindowToRcaLatency",
+      "millis",
+      Arrays.asList(Statistics.MAX, Statistics.MIN, Statistics.MEAN)),
+
+  /** Wall clock time from the start of a tick until all its graph nodes are done. */
+  GRAPH_EXECUTION_MAKESPAN(
+      "RcaGraphMakespan", "micros", Arrays.asList(Statistics.MAX, Statistics.MIN, Statistics.MEAN)),
+
+  /** The number of executor threads that were busy with graph nodes on average during a tick. */
+  GRAPH_EXECUTION_PARALLELISM(
+      "RcaGraphParallelism", "threads", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Time a graph node waited for an executor thread after all its upstream nodes were done. */
+  TASKLET_QUEUEING_DELAY(
+      "RcaTaskletQueueingDelay", "micros", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Graph nodes whose downstream nodes went ahead without them because they took too long. */
+  TASKLET_TIMEOUTS("RcaTaskletTimeouts", "count", Collections.singletonList(Statistics.SUM)),
+
   /** Measures the time spent in the persistence layer. */
   RCA_PERSIST_CALL(
       "RcaPersistCall", "micros", Arrays.asList(Statistics.MAX, Statistics.MEAN, Statistics.SUM)),
 
+  /** Flow units waiting to be written to the data store when a tick ends. */
+  RCA_PERSIST_QUEUE_DEPTH(
+      "RcaPersistQueueDepth", "count", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Number of flow units written to the data store in one transaction. */
+  RCA_PERSIST_BATCH_SIZE(
+      "RcaPersistBatchSize", "count", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Time taken to write and commit a batch of flow units to the data store. */
+  RCA_PERSIST_COMMIT_LATENCY(
+      "RcaPersistCommitLatency", "millis", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Flow units that were not persisted because the write queue was full. */
+  RCA_PERSIST_DROPPED("RcaPersistDropped", "namedCount",
+      Collections.singletonList(Statistics.NAMED_COUNTERS)),
+
   NUM_GRAPH_NODES("NumGraphNodes", "count", Collections.singletonList(Statistics.SAMPLE)),
 
   NUM_GRAPH_NODES_MUTED(
@@ -55,9 +120,36 @@ public enum RcaGraphMetrics implements MeasurementSet {
   /** Measures number of bytes that was sent out as part of a protobuf message. */
   NET_BYTES_OUT("TotalRcaBytesOutSerialized", "bytes", Collections.singletonList(Statistics.SUM)),
 
+  /** Number of flow unit messages, or batches of them, that were sent on the publish streams. */
+  NET_MESSAGES_OUT("TotalRcaMessagesOut", "count", Collections.singletonList(Statistics.SUM)),
+
+  /** Number of flow units carried by a batch sent to a remote host. */
+  FLOW_UNITS_PER_BATCH(
+      "RcaFlowUnitsPerBatch", "count", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Flow units a remote host sent that were dropped because the vertex queue was full. */
+  RCA_FLOW_UNITS_DROPPED("RcaFlowUnitsDropped", "namedCount",
+      Collections.singletonList(Statistics.NAMED_COUNTERS)),
+
+  /** Flow units held back for lack of credits and replaced by a newer one before being sent. */
+  RCA_FLOW_UNITS_SUPERSEDED("RcaFlowUnitsSuperseded", "namedCount",
+      Collections.singletonList(Statistics.NAMED_COUNTERS)),
+
   /** Measures number of bytes that was received as part of a protobuf message. */
   NET_BYTES_IN("TotalRcaBytesInSerialized", "bytes", Collections.singletonList(Statistics.SUM)),
 
+  /** Time a remote host took to send back the response headers of a call, keyed by host. */
+  NET_RESPONSE_LATENCY(
+      "RcaNetResponseLatency", "micros", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Calls in flight to a remote host when a new one is started, keyed by host. */
+  NET_IN_FLIGHT_CALLS(
+      "RcaNetInFlightCalls", "count", Arrays.asList(Statistics.MAX, Statistics.MEAN)),
+
+  /** Times the channel to a remote host got connected again after losing its connection. */
+  NET_RECONNECTS("RcaNetReconnects", "namedCount",
+      Collections.singletonList(Statistics.NAMED_COUNTERS)),
+
   /** Number of nodes that are currently publishing flow units to downstream nodes. */
   RCA_NODES_FU_PUBLISH_COUNT("RcaFlowUnitPublishCount", "namedCount",
       Collections.singletonList(Statistics.NAMED_COUNTERS)),
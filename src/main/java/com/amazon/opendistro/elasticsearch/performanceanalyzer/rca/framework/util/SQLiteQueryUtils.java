@@ -109,7 +109,8 @@ public class SQLiteQueryUtils {
   }
 
   /**
-   * This function build SQL query to fetch a rca from RCA table
+   * This function build SQL query to fetch the most recent row of a rca from RCA table. The
+   * (rca_name, timestamp) index of the RCA table lets SQLite find it without scanning the table.
    *
    * @param ctx DSLContext
    * @param rca The rca that will be queried
@@ -121,7 +122,8 @@ public class SQLiteQueryUtils {
     rcaQuery.where(
         DSL.field(ResourceFlowUnitFieldValue.RCA_NAME_FILELD.getName(), String.class).equal(rca)
     )
-        .orderBy(ResourceFlowUnitFieldValue.TIMESTAMP_FIELD.getField().desc());
+        .orderBy(ResourceFlowUnitFieldValue.TIMESTAMP_FIELD.getField().desc())
+        .limit(1);
     return rcaQuery;
   }
 
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage.Compression;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitList;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packs the flow units going to a host in a tick into one {@link FlowUnitBatchMessage} and back.
+ */
+public class FlowUnitBatchCodec {
+
+  private FlowUnitBatchCodec() {}
+
+  /**
+   * Parses the compression named in the settings, falling back to no compression.
+   *
+   * @param name The name of the compression, "none" or "gzip".
+   * @return The compression to use.
+   */
+  public static Compression parseCompression(final String name) {
+    if (name != null && Compression.GZIP.name().equalsIgnoreCase(name.trim())) {
+      return Compression.GZIP;
+    }
+    return Compression.NONE;
+  }
+
+  public static FlowUnitBatchMessage encode(
+      final List<FlowUnitMessage> flowUnits, final Compression compression) {
+    final FlowUnitList list = FlowUnitList.newBuilder().addAllFlowUnit(flowUnits).build();
+    ByteString payload = list.toByteString();
+    if (compression == Compression.GZIP) {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.size() / 2 + 64);
+      try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+        payload.writeTo(gzip);
+      } catch (IOException e) {
+        // Writing to a byte array does not fail.
+        throw new IllegalStateException(e);
+      }
+      payload = ByteString.copyFrom(bytes.toByteArray());
+    }
+    return FlowUnitBatchMessage.newBuilder()
+        .setCompression(compression)
+        .setCount(flowUnits.size())
+        .setPayload(payload)
+        .build();
+  }
+
+  /**
+   * Unpacks the flow units of a batch.
+   *
+   * @param batch The batch received from a remote host.
+   * @return The flow units in the batch.
+   * @throws IOException if the payload is not a valid compressed FlowUnitList.
+   */
+  public static List<FlowUnitMessage> decode(final FlowUnitBatchMessage batch) throws IOException {
+    if (batch.getCompression() == Compression.GZIP) {
+      try (InputStream in = new GZIPInputStream(batch.getPayload().newInput())) {
+        return FlowUnitList.parseFrom(in).getFlowUnitList();
+      }
+    }
+    return FlowUnitList.parseFrom(batch.getPayload()).getFlowUnitList();
+  }
+}
@@ -15,9 +15,11 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaConsts;
 import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
@@ -26,6 +28,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -48,6 +51,12 @@ public class ReceivedFlowUnitStore {
    */
   private final int perNodeFlowUnitQSize;
 
+  /**
+   * Told the name of a vertex every time its queue is drained, so that the publishers can be told
+   * that there is room again.
+   */
+  private volatile Consumer<String> drainListener;
+
   public ReceivedFlowUnitStore() {
     this(RcaConsts.DEFAULT_PER_NODE_FLOWUNIT_Q_SIZE);
   }
@@ -74,6 +83,8 @@ public class ReceivedFlowUnitStore {
     if (!retValue) {
       LOG.warn("Dropped flow unit because per vertex queue is full");
       StatsCollector.instance().logException(StatExceptionCode.RCA_VERTEX_RX_BUFFER_FULL_ERROR);
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+          .updateStat(RcaGraphMetrics.RCA_FLOW_UNITS_DROPPED, graphNode, 1);
     }
 
     return retValue;
@@ -94,9 +105,28 @@ public class ReceivedFlowUnitStore {
 
     existing.drainTo(tempList);
 
+    final Consumer<String> listener = drainListener;
+    if (listener != null) {
+      listener.accept(graphNode);
+    }
     return ImmutableList.copyOf(tempList);
   }
 
+  /**
+   * Gets the number of flow units that can still be queued for a vertex.
+   *
+   * @param graphNode The vertex.
+   * @return The free room in the queue of the vertex.
+   */
+  public int remainingCapacity(final String graphNode) {
+    BlockingQueue<FlowUnitMessage> existing = flowUnitMap.get(graphNode);
+    return existing == null ? perNodeFlowUnitQSize : existing.remainingCapacity();
+  }
+
+  public void setDrainListener(final Consumer<String> drainListener) {
+    this.drainListener = drainListener;
+  }
+
   /**
    * Drains out all the flow units for all nodes.
    */
@@ -18,6 +18,8 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage.Compression;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
@@ -26,11 +28,13 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.Data
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.IntentMsg;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.UnicastIntentMsg;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.BroadcastSubscriptionTxTask;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.FlowUnitBatchTxTask;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.FlowUnitTxTask;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.UnicastSubscriptionTxTask;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.util.ClusterUtils;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -52,6 +56,19 @@ public class WireHopper {
   private final ReceivedFlowUnitStore receivedFlowUnitStore;
   private final AppContext appContext;
 
+  /**
+   * When set, the flow units sent during a tick are held back and sent at the end of it, one
+   * message per remote host, instead of one message per flow unit per host.
+   */
+  public static final String BATCH_FLOW_UNITS_CONF_NAME = "rca-flow-unit-batching";
+
+  /** The compression of the flow unit batches: "none" or "gzip". */
+  public static final String BATCH_COMPRESSION_CONF_NAME = "rca-flow-unit-batch-compression";
+
+  private final boolean batchFlowUnits;
+  private final Compression batchCompression;
+  private final List<DataMsg> pendingDataMsgs = new ArrayList<>();
+
   public WireHopper(
       final NodeStateManager nodeStateManager,
       final NetClient netClient,
@@ -65,6 +82,10 @@ public class WireHopper {
     this.executorReference = executorReference;
     this.receivedFlowUnitStore = receivedFlowUnitStore;
     this.appContext = appContext;
+    this.batchFlowUnits = Boolean.parseBoolean(
+        PluginSettings.instance().getSettingValue(BATCH_FLOW_UNITS_CONF_NAME, "false").trim());
+    this.batchCompression = FlowUnitBatchCodec.parseCompression(
+        PluginSettings.instance().getSettingValue(BATCH_COMPRESSION_CONF_NAME, "none"));
   }
 
   public void sendIntent(IntentMsg msg) {
@@ -86,6 +107,12 @@ public class WireHopper {
   }
 
   public void sendData(DataMsg msg) {
+    if (batchFlowUnits) {
+      synchronized (pendingDataMsgs) {
+        pendingDataMsgs.add(msg);
+      }
+      return;
+    }
     ExecutorService executor = executorReference.get();
     if (executor != null) {
       try {
@@ -98,6 +125,36 @@ public class WireHopper {
     }
   }
 
+  /**
+   * Sends the flow units held back during the tick that just completed. Does nothing unless flow
+   * unit batching is enabled.
+   */
+  public void flushData() {
+    final List<DataMsg> msgs;
+    synchronized (pendingDataMsgs) {
+      if (pendingDataMsgs.isEmpty()) {
+        return;
+      }
+      msgs = new ArrayList<>(pendingDataMsgs);
+      pendingDataMsgs.clear();
+    }
+    ExecutorService executor = executorReference.get();
+    if (executor != null) {
+      try {
+        executor.execute(new FlowUnitBatchTxTask(
+            netClient,
+            subscriptionManager,
+            msgs,
+            batchCompression,
+            appContext));
+      } catch (final RejectedExecutionException ree) {
+        LOG.warn("Dropped sending flow unit batch because the threadpool queue is full");
+        StatsCollector.instance()
+                      .logException(StatExceptionCode.RCA_NETWORK_THREADPOOL_QUEUE_FULL_ERROR);
+      }
+    }
+  }
+
   @VisibleForTesting
   public AppContext getAppContext() {
     return appContext;
@@ -18,14 +18,18 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.handler;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse.PublishResponseStatus;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.FlowUnitBatchCodec;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.NodeStateManager;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.ReceivedFlowUnitStore;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks.FlowUnitRxTask;
 import io.grpc.stub.StreamObserver;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -47,6 +51,12 @@ public class PublishRequestHandler {
   private List<StreamObserver<PublishResponse>> upstreamResponseStreamList =
       Collections.synchronizedList(new ArrayList<>());
 
+  /**
+   * Credits handed out to the publishers that accept them, so that they hold flow units back
+   * instead of sending ones this node would have to drop.
+   */
+  private final PublisherCredits publisherCredits;
+
   public PublishRequestHandler(
       NodeStateManager nodeStateManager,
       ReceivedFlowUnitStore receivedFlowUnitStore,
@@ -54,6 +64,7 @@ public class PublishRequestHandler {
     this.executorReference = executorReference;
     this.nodeStateManager = nodeStateManager;
     this.receivedFlowUnitStore = receivedFlowUnitStore;
+    this.publisherCredits = new PublisherCredits(receivedFlowUnitStore);
   }
 
   public StreamObserver<FlowUnitMessage> getClientStream(
@@ -62,11 +73,21 @@ public class PublishRequestHandler {
     return new SendDataClientStreamUpdateConsumer(serviceResponse);
   }
 
+  public StreamObserver<FlowUnitBatchMessage> getClientBatchStream(
+      final StreamObserver<PublishResponse> serviceResponse) {
+    upstreamResponseStreamList.add(serviceResponse);
+    return new SendBatchClientStreamUpdateConsumer(serviceResponse);
+  }
+
   public void terminateUpstreamConnections() {
     for (final StreamObserver<PublishResponse> responseStream : upstreamResponseStreamList) {
-      responseStream.onNext(
-          PublishResponse.newBuilder().setDataStatus(PublishResponseStatus.NODE_SHUTDOWN).build());
-      responseStream.onCompleted();
+      publisherCredits.remove(responseStream);
+      synchronized (responseStream) {
+        responseStream.onNext(PublishResponse.newBuilder()
+            .setDataStatus(PublishResponseStatus.NODE_SHUTDOWN)
+            .build());
+        responseStream.onCompleted();
+      }
     }
   }
 
@@ -88,8 +109,12 @@ public class PublishRequestHandler {
       final ExecutorService executorService = executorReference.get();
       if (executorService != null) {
         try {
-          executorService.execute(
-              new FlowUnitRxTask(nodeStateManager, receivedFlowUnitStore, flowUnitMessage));
+          executorService.execute(() -> {
+            new FlowUnitRxTask(nodeStateManager, receivedFlowUnitStore, flowUnitMessage).run();
+            if (flowUnitMessage.getAcceptsCredits()) {
+              publisherCredits.onFlowUnitReceived(serviceResponse, flowUnitMessage.getGraphNode());
+            }
+          });
           PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
               .updateStat(RcaGraphMetrics.NET_BYTES_IN, flowUnitMessage.getGraphNode(),
                   flowUnitMessage.getSerializedSize());
@@ -111,17 +136,90 @@ public class PublishRequestHandler {
     public void onError(Throwable throwable) {
       LOG.error("Client ran into an error while streaming flow units: {}", throwable.getMessage());
       throwable.printStackTrace();
+      publisherCredits.remove(serviceResponse);
     }
 
     @Override
     public void onCompleted() {
       LOG.debug("Client finished streaming flow units");
-      serviceResponse.onNext(buildDataResponse(PublishResponseStatus.SUCCESS));
-      serviceResponse.onCompleted();
+      publisherCredits.remove(serviceResponse);
+      synchronized (serviceResponse) {
+        serviceResponse.onNext(buildDataResponse(PublishResponseStatus.SUCCESS));
+        serviceResponse.onCompleted();
+      }
     }
 
     private PublishResponse buildDataResponse(final PublishResponseStatus status) {
       return PublishResponse.newBuilder().setDataStatus(status).build();
     }
   }
+
+  private class SendBatchClientStreamUpdateConsumer
+      implements StreamObserver<FlowUnitBatchMessage> {
+
+    private final StreamObserver<PublishResponse> serviceResponse;
+
+    SendBatchClientStreamUpdateConsumer(final StreamObserver<PublishResponse> serviceResponse) {
+      this.serviceResponse = serviceResponse;
+    }
+
+    /**
+     * Unpacks the batch on the network threadpool and persists each of its flow units.
+     *
+     * @param batchMessage The flow units that the client sent for one tick.
+     */
+    @Override
+    public void onNext(FlowUnitBatchMessage batchMessage) {
+      final ExecutorService executorService = executorReference.get();
+      if (executorService != null) {
+        try {
+          executorService.execute(() -> receiveBatch(batchMessage));
+          PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+              .updateStat(RcaGraphMetrics.NET_BYTES_IN, NetClient.FLOW_UNIT_BATCH_STAT_KEY,
+                  batchMessage.getSerializedSize());
+        } catch (final RejectedExecutionException ree) {
+          LOG.warn("Dropped handling received flow unit batch because the netwwork threadpool "
+              + "queue is full");
+          StatsCollector.instance()
+                        .logException(StatExceptionCode.RCA_NETWORK_THREADPOOL_QUEUE_FULL_ERROR);
+        }
+      }
+    }
+
+    private void receiveBatch(final FlowUnitBatchMessage batchMessage) {
+      final List<FlowUnitMessage> flowUnitMessages;
+      try {
+        flowUnitMessages = FlowUnitBatchCodec.decode(batchMessage);
+      } catch (final IOException e) {
+        LOG.error("Could not decode a flow unit batch of {} flow units", batchMessage.getCount(),
+            e);
+        StatsCollector.instance().logException(StatExceptionCode.RCA_NETWORK_ERROR);
+        return;
+      }
+      for (final FlowUnitMessage flowUnitMessage : flowUnitMessages) {
+        new FlowUnitRxTask(nodeStateManager, receivedFlowUnitStore, flowUnitMessage).run();
+        if (batchMessage.getAcceptsCredits()) {
+          publisherCredits.onFlowUnitReceived(serviceResponse, flowUnitMessage.getGraphNode());
+        }
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      LOG.error("Client ran into an error while streaming flow unit batches: {}",
+          throwable.getMessage());
+      publisherCredits.remove(serviceResponse);
+    }
+
+    @Override
+    public void onCompleted() {
+      LOG.debug("Client finished streaming flow unit batches");
+      publisherCredits.remove(serviceResponse);
+      synchronized (serviceResponse) {
+        serviceResponse.onNext(
+            PublishResponse.newBuilder().setDataStatus(PublishResponseStatus.SUCCESS).build());
+        serviceResponse.onCompleted();
+      }
+    }
+  }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.handler;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse.PublishResponseStatus;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.ReceivedFlowUnitStore;
+import io.grpc.stub.StreamObserver;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hands out credits to the hosts that publish flow units to this node and accept credits. The free
+ * room in the queue of a vertex is split evenly between the hosts publishing that vertex. A host is
+ * granted its share every time the queue is drained, if it published since it was last granted
+ * some, and is told right away when its share drops to nothing.
+ */
+class PublisherCredits {
+
+  private static final Logger LOG = LogManager.getLogger(PublisherCredits.class);
+
+  private final ReceivedFlowUnitStore receivedFlowUnitStore;
+
+  /**
+   * The response stream of every publisher that accepts credits, with the vertices it publishes
+   * and whether it published each of them since it was last granted credits for it.
+   */
+  private final ConcurrentMap<StreamObserver<PublishResponse>, Map<String, Boolean>> publishers =
+      new ConcurrentHashMap<>();
+
+  PublisherCredits(final ReceivedFlowUnitStore receivedFlowUnitStore) {
+    this.receivedFlowUnitStore = receivedFlowUnitStore;
+    receivedFlowUnitStore.setDrainListener(this::onVertexDrained);
+  }
+
+  /**
+   * Called once a flow unit a publisher sent has been queued, or dropped.
+   *
+   * @param publisher The response stream of the publisher.
+   * @param vertex The vertex of the flow unit.
+   */
+  void onFlowUnitReceived(final StreamObserver<PublishResponse> publisher, final String vertex) {
+    publishers.computeIfAbsent(publisher, p -> new ConcurrentHashMap<>()).put(vertex, true);
+    if (receivedFlowUnitStore.remainingCapacity(vertex) / publisherCount(vertex) == 0) {
+      grant(publisher, vertex, 0);
+    }
+  }
+
+  /**
+   * Grants new credits for a vertex whose queue has just been drained. Everybody gets at least one
+   * credit, so that every publisher keeps making progress even if there are more of them than
+   * there is room in the queue.
+   */
+  void onVertexDrained(final String vertex) {
+    final int share =
+        Math.max(1, receivedFlowUnitStore.remainingCapacity(vertex) / publisherCount(vertex));
+    for (final Map.Entry<StreamObserver<PublishResponse>, Map<String, Boolean>> entry :
+        publishers.entrySet()) {
+      if (entry.getValue().replace(vertex, true, false)) {
+        grant(entry.getKey(), vertex, share);
+      }
+    }
+  }
+
+  void remove(final StreamObserver<PublishResponse> publisher) {
+    publishers.remove(publisher);
+  }
+
+  private int publisherCount(final String vertex) {
+    int count = 0;
+    for (final Map<String, Boolean> vertices : publishers.values()) {
+      if (vertices.containsKey(vertex)) {
+        count++;
+      }
+    }
+    return Math.max(1, count);
+  }
+
+  private void grant(
+      final StreamObserver<PublishResponse> publisher, final String vertex, final int credits) {
+    final PublishResponse response = PublishResponse.newBuilder()
+        .setDataStatus(PublishResponseStatus.SUCCESS)
+        .putVertexCredits(vertex, credits)
+        .build();
+    try {
+      // The response stream is shared by the threads receiving flow units and the one draining.
+      synchronized (publisher) {
+        publisher.onNext(response);
+      }
+    } catch (final RuntimeException e) {
+      LOG.debug("Could not send credits for {}, the publisher went away", vertex, e);
+      remove(publisher);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.tasks;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage.Compression;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.PublishResponse.PublishResponseStatus;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.GenericFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.DataMsg;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.SubscriptionManager;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Task that sends the flow units produced in a tick to the remote hosts, one batch per host.
+ */
+public class FlowUnitBatchTxTask implements Runnable {
+
+  private static final Logger LOG = LogManager.getLogger(FlowUnitBatchTxTask.class);
+
+  private final NetClient client;
+  private final SubscriptionManager subscriptionManager;
+
+  /**
+   * The flow units the graph nodes produced in the tick.
+   */
+  private final List<DataMsg> dataMsgs;
+
+  private final Compression compression;
+  private final AppContext appContext;
+
+  public FlowUnitBatchTxTask(
+      final NetClient client,
+      final SubscriptionManager subscriptionManager,
+      final List<DataMsg> dataMsgs,
+      final Compression compression,
+      final AppContext appContext) {
+    this.client = client;
+    this.subscriptionManager = subscriptionManager;
+    this.dataMsgs = dataMsgs;
+    this.compression = compression;
+    this.appContext = appContext;
+  }
+
+  /**
+   * Groups the flow units by the host they go to and sends each group as one message.
+   *
+   * @see Thread#run()
+   */
+  @Override
+  public void run() {
+    final InstanceDetails esInstanceDetails = appContext.getMyInstanceDetails();
+    final Map<InstanceDetails.Id, List<FlowUnitMessage>> flowUnitsByHost = new LinkedHashMap<>();
+    final Map<InstanceDetails.Id, Set<String>> graphNodesByHost = new LinkedHashMap<>();
+
+    for (final DataMsg dataMsg : dataMsgs) {
+      final String sourceGraphNode = dataMsg.getSourceGraphNode();
+      if (!subscriptionManager.isNodeSubscribed(sourceGraphNode)) {
+        LOG.debug("No subscribers for {}.", sourceGraphNode);
+        continue;
+      }
+      final List<FlowUnitMessage> messages = new ArrayList<>(dataMsg.getFlowUnits().size());
+      for (final GenericFlowUnit flowUnit : dataMsg.getFlowUnits()) {
+        messages.add(
+            flowUnit.buildFlowUnitMessage(sourceGraphNode, esInstanceDetails.getInstanceId()));
+      }
+      for (final InstanceDetails.Id downstreamHostId :
+          subscriptionManager.getSubscribersFor(sourceGraphNode)) {
+        flowUnitsByHost.computeIfAbsent(downstreamHostId, id -> new ArrayList<>()).addAll(messages);
+        graphNodesByHost.computeIfAbsent(downstreamHostId, id -> new HashSet<>())
+                        .add(sourceGraphNode);
+        PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR
+            .updateStat(RcaGraphMetrics.RCA_NODES_FU_PUBLISH_COUNT, sourceGraphNode,
+                messages.size());
+      }
+    }
+
+    for (final Map.Entry<InstanceDetails.Id, List<FlowUnitMessage>> entry :
+        flowUnitsByHost.entrySet()) {
+      final InstanceDetails.Id downstreamHostId = entry.getKey();
+      if (entry.getValue().isEmpty()) {
+        continue;
+      }
+      final Set<String> graphNodes = graphNodesByHost.get(downstreamHostId);
+      LOG.debug("rca: [pub-tx]: {} -> {}", graphNodes, downstreamHostId);
+      client.publishBatch(
+          appContext.getInstanceById(downstreamHostId),
+          entry.getValue(),
+          compression,
+          new StreamObserver<PublishResponse>() {
+            @Override
+            public void onNext(final PublishResponse value) {
+              LOG.debug("rca: Received acknowledgement from the server. status: {}",
+                  value.getDataStatus());
+              if (value.getDataStatus() == PublishResponseStatus.NODE_SHUTDOWN) {
+                unsubscribe(graphNodes, downstreamHostId);
+              }
+            }
+
+            @Override
+            public void onError(final Throwable t) {
+              LOG.error("rca: Encountered an exception at the server: ", t);
+              StatsCollector.instance().logException(StatExceptionCode.RCA_NETWORK_ERROR);
+              unsubscribe(graphNodes, downstreamHostId);
+            }
+
+            @Override
+            public void onCompleted() {
+              LOG.debug("rca: Server closed the data channel!");
+            }
+          });
+    }
+  }
+
+  private void unsubscribe(
+      final Set<String> graphNodes, final InstanceDetails.Id downstreamHostId) {
+    for (final String graphNode : graphNodes) {
+      subscriptionManager.unsubscribeAndTerminateConnection(graphNode, downstreamHostId);
+    }
+    client.flushStream(downstreamHostId);
+  }
+}
@@ -48,6 +48,14 @@ public interface Persistable {
    */
   JsonElement read(String rca);
 
+  /**
+   * A number that changes whenever what {@link #read(String)} returns for the RCA may have
+   * changed, so that readers can tell whether their copy of the response is still current.
+   * @param rca name of RCA to query
+   * @return version of the persisted results of the RCA
+   */
+  long getVersion(String rca);
+
   /**
    * Write data to the database.
    *
@@ -56,6 +64,12 @@ public interface Persistable {
    */
   <T extends ResourceFlowUnit> void write(Node<?> node, T flowUnit) throws SQLException, IOException;
 
+  /**
+   * Hand the flow units written so far to the data store. It is called at the end of every RCA
+   * tick and does not wait for the data to be stored.
+   */
+  void flush();
+
   void close() throws SQLException;
 
   /**
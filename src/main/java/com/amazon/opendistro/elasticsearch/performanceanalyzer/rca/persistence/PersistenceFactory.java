@@ -36,11 +36,11 @@ public class PersistenceFactory {
     Map<String, String> datastore = rcaConf.getDatastore();
     switch (datastore.get(RcaConsts.DATASTORE_TYPE_KEY).toLowerCase()) {
       case "sqlite":
-        return new SQLitePersistor(
+        return new WriteBehindPersistor(new SQLitePersistor(
             datastore.get(RcaConsts.DATASTORE_LOC_KEY),
             datastore.get(RcaConsts.DATASTORE_FILENAME),
             datastore.get(RcaConsts.DATASTORE_STORAGE_FILE_RETENTION_COUNT),
-                RcaConsts.DB_FILE_ROTATION_TIME_UNIT, RcaConsts.ROTATION_PERIOD);
+                RcaConsts.DB_FILE_ROTATION_TIME_UNIT, RcaConsts.ROTATION_PERIOD));
       default:
         String err = "The datastore value can only be sqlite in any case format";
         throw new MalformedConfig(rcaConf.getConfigFileLoc(), err);
@@ -18,6 +18,7 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.GenericSummary;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.SQLiteQueryUtils;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -28,9 +29,13 @@ import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -61,6 +66,13 @@ public abstract class PersistorBase implements Persistable {
   private final FileRotate fileRotate;
   private final FileGC fileGC;
 
+  // Incremented by every batch written and every DB file opened. The responses of read(rca) are
+  // cached until the rca is written again or the file is rotated.
+  private long writeSeq = 0;
+  private long lastRotationSeq = 0;
+  private final Map<String, Long> lastWriteSeq = new HashMap<>();
+  private final Map<String, CachedRead> readCache = new HashMap<>();
+
   enum RotationType {
     TRY_ROTATE,
     FORCE_ROTATE
@@ -138,15 +150,39 @@ public abstract class PersistorBase implements Persistable {
   //  we might want to define a separate abstract method in interface to address that use case.
   @Override
   public synchronized JsonElement read(String rca) {
+    long version = getVersion(rca);
+    CachedRead cached = readCache.get(rca);
+    if (cached != null && cached.version == version) {
+      return cached.response;
+    }
     JsonArray rcaJson = new JsonArray();
     JsonElement response = readRca(rca);
     if (response != null) {
       rcaJson.add(response);
     }
+    readCache.put(rca, new CachedRead(version, rcaJson));
     return rcaJson;
   }
 
+  /**
+   * A version of what {@link #read(String)} returns for the rca, that changes whenever a flow unit
+   * of the rca is written or the DB file is rotated.
+   */
+  @Override
+  public synchronized long getVersion(String rca) {
+    if (SQLiteQueryUtils.ALL_TEMPERATURE_DIMENSIONS.equals(rca)) {
+      long version = lastRotationSeq;
+      for (String dimension : SQLiteQueryUtils.temperatureProfileDimensionRCASet) {
+        version = Math.max(version, getVersion(dimension));
+      }
+      return version;
+    }
+    return Math.max(lastRotationSeq, lastWriteSeq.getOrDefault(rca, 0L));
+  }
+
   private synchronized void openNewDBFile() throws SQLException {
+    lastRotationSeq = ++writeSeq;
+    readCache.clear();
     this.fileCreateTime = new Date(System.currentTimeMillis());
     this.filename = Paths.get(dir, filenameParam).toString();
     this.tableNames = new HashSet<>();
@@ -175,17 +211,50 @@ public abstract class PersistorBase implements Persistable {
       LOG.debug("RCA: Flow unit isEmpty");
       return;
     }
+    if (!writeBatch(Collections.singletonList(new PendingWrite(node.name(), flowUnit))).isEmpty()) {
+      throw new SQLException("RCA: Failed to persist the flow unit of " + node.name());
+    }
+  }
+
+  // Writes are synchronous, there is nothing buffered to flush.
+  @Override
+  public void flush() {
+  }
 
+  /**
+   * Persists a batch of flow units, with all their nested summaries, in a single transaction. A
+   * flow unit that cannot be written is rolled back on its own and dropped, the others are still
+   * committed.
+   *
+   * @param batch The non-empty flow units to be persisted and the nodes that emitted them.
+   * @return The flow units that were dropped because they could not be written.
+   * @throws SQLException A SQLException is thrown if we are unable to create a new connection
+   *     after the file rotation or while writing to the data base.
+   * @throws IOException This is thrown if we are unable to delete the old database files.
+   */
+  synchronized List<PendingWrite> writeBatch(List<PendingWrite> batch)
+      throws SQLException, IOException {
+    if (batch.isEmpty()) {
+      return Collections.emptyList();
+    }
     rotateRegisterGarbageThenCreateNewDB(RotationType.TRY_ROTATE);
 
+    List<PendingWrite> failed;
     try {
-      writeFlowUnit(flowUnit, node.name());
+      failed = writeFlowUnits(batch);
     } catch (SQLException e) {
-      LOG.error(
-          "RCA: Multiple attempts to write the data for table '{}' failed", node.name(), e);
+      LOG.error("RCA: Multiple attempts to write a batch of {} flow units failed", batch.size(), e);
       // We rethrow this exception so that framework can take appropriate action.
       throw e;
     }
+    Set<PendingWrite> dropped = new HashSet<>(failed);
+    long seq = ++writeSeq;
+    for (PendingWrite pendingWrite : batch) {
+      if (!dropped.contains(pendingWrite)) {
+        lastWriteSeq.put(pendingWrite.getNodeName(), seq);
+      }
+    }
+    return failed;
   }
 
   private synchronized void rotateRegisterGarbageThenCreateNewDB(RotationType type) throws IOException, SQLException {
@@ -214,32 +283,103 @@ public abstract class PersistorBase implements Persistable {
   /**
    * Writing a flow unit can fail if the DB file does not exist or if it is corrupted. In such
    * cases, we create a new file and attempt to write the data in the new file.
-   * @param flowUnit The flow unit to be persisted.
-   * @param tableName The name of the table the data is to be persisted in.
-   * @param <T> The Type of flowUnit.
+   * @param batch The flow units to be persisted along with the names of their nodes.
+   * @return The flow units that could not be written.
    * @throws SQLException This is thrown when the DB files does not exist or the schema is
    *     corrupted.
    * @throws IOException This is thrown if the attempt to create a new DB file fails.
    */
-  private synchronized <T extends ResourceFlowUnit> void writeFlowUnit(
-      T flowUnit, String tableName) throws SQLException, IOException {
+  private synchronized List<PendingWrite> writeFlowUnits(List<PendingWrite> batch)
+      throws SQLException, IOException {
     try {
-        tryWriteFlowUnit(flowUnit, tableName);
+      return tryWriteInTransaction(batch);
     } catch (SQLException | DataAccessException e) {
       LOG.info(
-          "RCA: Fail to write to table '{}', creating a new DB file and retrying write/create operation", tableName, e);
+          "RCA: Fail to write a batch of {} flow units, creating a new DB file and retrying write/create operation",
+          batch.size(), e);
       rotateRegisterGarbageThenCreateNewDB(RotationType.FORCE_ROTATE);
-      tryWriteFlowUnit(flowUnit, tableName);
+      return tryWriteInTransaction(batch);
     }
   }
 
-  private synchronized <T extends ResourceFlowUnit> void tryWriteFlowUnit(
-          T flowUnit, String nodeName) throws SQLException, DataAccessException {
+  /**
+   * Inserting every row in its own implicit transaction makes SQLite sync the journal once per
+   * row. The batch is committed once instead, with a savepoint around every flow unit so that a
+   * flow unit that fails is rolled back without the others. The tables are created before the
+   * transaction starts, so that rolling it back never drops a table the in-memory registry has.
+   * The whole batch only fails, and the file is rotated, if no flow unit could be written at all or
+   * if the transaction itself fails.
+   */
+  private synchronized List<PendingWrite> tryWriteInTransaction(List<PendingWrite> batch)
+      throws SQLException, DataAccessException {
+    for (PendingWrite pendingWrite : batch) {
+      createMissingTables(pendingWrite.getFlowUnit());
+    }
+    List<PendingWrite> failed = new ArrayList<>();
+    boolean autoCommit = conn.getAutoCommit();
+    conn.setAutoCommit(false);
+    try {
+      Exception lastFailure = null;
+      for (PendingWrite pendingWrite : batch) {
+        Savepoint savepoint = conn.setSavepoint();
+        try {
+          tryWriteFlowUnit(pendingWrite.getFlowUnit(), pendingWrite.getNodeName());
+        } catch (SQLException | DataAccessException e) {
+          LOG.error("RCA: Failed to write the flow unit of {}", pendingWrite.getNodeName(), e);
+          conn.rollback(savepoint);
+          failed.add(pendingWrite);
+          lastFailure = e;
+        }
+        conn.releaseSavepoint(savepoint);
+      }
+      if (failed.size() == batch.size()) {
+        // Not a single flow unit could be written, the file is more likely to blame than they are.
+        throw new SQLException("RCA: Failed to write any of " + batch.size() + " flow units",
+            lastFailure);
+      }
+      conn.commit();
+    } catch (SQLException | DataAccessException e) {
+      try {
+        conn.rollback();
+      } catch (SQLException rollbackException) {
+        LOG.error("RCA: Failed to roll back the batch", rollbackException);
+      }
+      throw e;
+    } finally {
+      conn.setAutoCommit(autoCommit);
+    }
+    return failed;
+  }
+
+  private synchronized void createMissingTables(ResourceFlowUnit flowUnit) throws SQLException {
     String tableName = ResourceFlowUnit.RCA_TABLE_NAME;
     if (!tableNames.contains(tableName)) {
       LOG.info("RCA: Table '{}' does not exist. Creating one with columns: {}", tableName, flowUnit.getSqlSchema());
       createTable(tableName, flowUnit.getSqlSchema());
     }
+    if (flowUnit.hasResourceSummary() && flowUnit.isSummaryPersistable()) {
+      createMissingSummaryTables(
+          flowUnit.getPersistableSummary(), tableName, getPrimaryKeyColumnName(tableName));
+    }
+  }
+
+  private synchronized void createMissingSummaryTables(
+      GenericSummary summary,
+      String referenceTable,
+      String referenceTablePrimaryKeyFieldName) throws SQLException {
+    String tableName = summary.getClass().getSimpleName();
+    if (!tableNames.contains(tableName)) {
+      LOG.info("RCA: Summary table '{}' does not exist. Creating one with columns: {}", tableName, summary.getSqlSchema());
+      createTable(tableName, summary.getSqlSchema(), referenceTable, referenceTablePrimaryKeyFieldName);
+    }
+    for (GenericSummary nestedSummary : summary.getNestedSummaryList()) {
+      createMissingSummaryTables(nestedSummary, tableName, getPrimaryKeyColumnName(tableName));
+    }
+  }
+
+  private synchronized <T extends ResourceFlowUnit> void tryWriteFlowUnit(
+          T flowUnit, String nodeName) throws SQLException, DataAccessException {
+    String tableName = ResourceFlowUnit.RCA_TABLE_NAME;
     int lastPrimaryKey = insertRow(tableName, flowUnit.getSqlValue(nodeName));
 
     if (flowUnit.hasResourceSummary() && flowUnit.isSummaryPersistable()) {
@@ -258,10 +398,6 @@ public abstract class PersistorBase implements Persistable {
       String referenceTablePrimaryKeyFieldName,
       int referenceTablePrimaryKeyFieldValue) throws SQLException {
     String tableName = summary.getClass().getSimpleName();
-    if (!tableNames.contains(tableName)) {
-      LOG.info("RCA: Summary table '{}' does not exist. Creating one with columns: {}", tableName, summary.getSqlSchema());
-      createTable(tableName, summary.getSqlSchema(), referenceTable, referenceTablePrimaryKeyFieldName);
-    }
     List<Object> values = summary.getSqlValue();
     values.add(Integer.valueOf(referenceTablePrimaryKeyFieldValue));
     int lastPrimaryKey = insertRow(tableName, values);
@@ -273,4 +409,33 @@ public abstract class PersistorBase implements Persistable {
   protected String getPrimaryKeyColumnName(String tableName) {
     return tableName + "_ID";
   }
+
+  private static class CachedRead {
+    private final long version;
+    private final JsonElement response;
+
+    CachedRead(long version, JsonElement response) {
+      this.version = version;
+      this.response = response;
+    }
+  }
+
+  /** A flow unit waiting to be persisted and the name of the graph node that emitted it. */
+  static class PendingWrite {
+    private final String nodeName;
+    private final ResourceFlowUnit flowUnit;
+
+    PendingWrite(String nodeName, ResourceFlowUnit flowUnit) {
+      this.nodeName = nodeName;
+      this.flowUnit = flowUnit;
+    }
+
+    String getNodeName() {
+      return nodeName;
+    }
+
+    ResourceFlowUnit getFlowUnit() {
+      return flowUnit;
+    }
+  }
 }
@@ -36,8 +36,12 @@ import com.google.gson.JsonSyntaxException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,7 +55,6 @@ import org.apache.logging.log4j.Logger;
 import org.jooq.CreateTableConstraintStep;
 import org.jooq.DSLContext;
 import org.jooq.Field;
-import org.jooq.InsertValuesStepN;
 import org.jooq.JSONFormat;
 import org.jooq.Record;
 import org.jooq.Record1;
@@ -60,14 +63,16 @@ import org.jooq.SQLDialect;
 import org.jooq.SelectJoinStep;
 import org.jooq.Table;
 import org.jooq.exception.DataAccessException;
+import org.jooq.conf.ParamType;
 import org.jooq.impl.DSL;
 
 class SQLitePersistor extends PersistorBase {
   private static final String DB_URL = "jdbc:sqlite:";
   private DSLContext create;
   private Map<String, List<Field<?>>> jooqTableColumns;
+  // The insert statement of each table, prepared once per DB file and reused for every row.
+  private Map<String, PreparedStatement> insertStatements;
   private static final Logger LOG = LogManager.getLogger(SQLitePersistor.class);
-  private static final String LAST_INSERT_ROWID = "last_insert_rowid()";
   private static final String PRIMARY_KEY_AUTOINCREMENT_POSTFIX = " INTEGER PRIMARY KEY AUTOINCREMENT";
 
   private static int id_test = 1;
@@ -77,6 +82,7 @@ class SQLitePersistor extends PersistorBase {
     super(dir, filename, DB_URL, storageFileRetentionCount, rotationTime, rotationPeriod);
     create = DSL.using(conn, SQLDialect.SQLITE);
     jooqTableColumns = new HashMap<>();
+    insertStatements = new HashMap<>();
   }
 
   // This updates the DSL context based on a new SQLite connection
@@ -86,8 +92,30 @@ class SQLitePersistor extends PersistorBase {
     if (create != null) {
       create.close();
     }
+    closeInsertStatements();
     create = DSL.using(super.conn, SQLDialect.SQLITE);
     jooqTableColumns = new HashMap<>();
+    insertStatements = new HashMap<>();
+  }
+
+  @Override
+  public synchronized void close() throws SQLException {
+    closeInsertStatements();
+    super.close();
+  }
+
+  private synchronized void closeInsertStatements() {
+    if (insertStatements == null) {
+      return;
+    }
+    for (PreparedStatement statement : insertStatements.values()) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        LOG.debug("Failed to close the insert statement", e);
+      }
+    }
+    insertStatements.clear();
   }
 
   @Override
@@ -109,11 +137,28 @@ class SQLitePersistor extends PersistorBase {
         throw new SQLException(ex);
       }
     }
+    if (tableName.equals(ResourceFlowUnit.RCA_TABLE_NAME)) {
+      // Every read looks up the most recent row of one RCA.
+      createIndex(tableName,
+          ResourceFlowUnitFieldValue.RCA_NAME_FILELD.getField(),
+          ResourceFlowUnitFieldValue.TIMESTAMP_FIELD.getField());
+    }
     tableNames.add(tableName);
     jooqTableColumns.put(tableName, columns);
     LOG.debug("Added table '{}' and its columns: '{}' to in-memory registry.", tableName, columns);
   }
 
+  private synchronized void createIndex(String tableName, Field<?>... fields) throws SQLException {
+    String indexName = tableName + "_" + fields[0].getName() + "_IDX";
+    try {
+      create.createIndexIfNotExists(indexName).on(DSL.table(tableName), fields).execute();
+      LOG.debug("Successfully created index: {}", indexName);
+    } catch (DataAccessException ex) {
+      LOG.error("Error creating index: {}", indexName, ex);
+      throw new SQLException(ex);
+    }
+  }
+
   /**
    * create table with foreign key
    */
@@ -133,6 +178,8 @@ class SQLitePersistor extends PersistorBase {
               .references(referenceTable, DSL.field(referenceTablePrimaryKeyFieldName)));
       constraintStep.execute();
       LOG.debug("table with fk created: {}", constraintStep.toString());
+      // The nested summaries of a row are looked up by its primary key.
+      createIndex(tableName, foreignKeyField);
     } catch (DataAccessException e) {
       String msg = "table " + tableName + " already exists";
       if (e.getMessage().contains(msg)) {
@@ -152,25 +199,25 @@ class SQLitePersistor extends PersistorBase {
   @Override
   synchronized int insertRow(String tableName, List<Object> row) throws SQLException {
     int lastPrimaryKey = -1;
-    String sqlQuery = "SELECT " + LAST_INSERT_ROWID;
 
     Objects.requireNonNull(create, "DSLContext cannot be null");
-    Table<Record> table = DSL.table(tableName);
     List<Field<?>> columnsForTable = jooqTableColumns.get(tableName);
     if (columnsForTable == null) {
       LOG.error("NO columns found for table: {}. Tables: {}, columns: {}", tableName, tableNames, jooqTableColumns);
       throw new SQLException("No columns exist for table.");
     }
 
-    InsertValuesStepN insertValuesStepN = create
-        .insertInto(table)
-        .columns(columnsForTable)
-        .values(row);
-    
     try {
-      insertValuesStepN.execute();
-      LOG.debug("sql insert: {}", insertValuesStepN.toString());
-      lastPrimaryKey = create.fetch(sqlQuery).get(0).get(LAST_INSERT_ROWID, Integer.class);
+      PreparedStatement statement = getInsertStatement(tableName, columnsForTable);
+      for (int i = 0; i < row.size(); i++) {
+        statement.setObject(i + 1, row.get(i));
+      }
+      statement.executeUpdate();
+      try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+        if (generatedKeys.next()) {
+          lastPrimaryKey = generatedKeys.getInt(1);
+        }
+      }
     } catch (Exception e) {
       LOG.error("Failed to insert into the table {}", tableName, e);
       throw new SQLException(e);
@@ -179,6 +226,22 @@ class SQLitePersistor extends PersistorBase {
     return lastPrimaryKey;
   }
 
+  private synchronized PreparedStatement getInsertStatement(
+      String tableName, List<Field<?>> columnsForTable) throws SQLException {
+    PreparedStatement statement = insertStatements.get(tableName);
+    if (statement == null) {
+      String sql = create
+          .insertInto(DSL.table(tableName))
+          .columns(columnsForTable)
+          .values(Collections.nCopies(columnsForTable.size(), DSL.param()))
+          .getSQL(ParamType.INDEXED);
+      LOG.debug("sql insert: {}", sql);
+      statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+      insertStatements.put(tableName, statement);
+    }
+    return statement;
+  }
+
   // This reads all SQLite tables in the latest SQLite file and converts the read data to JSON.
   @Override
   synchronized String readTables() {
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.ExceptionsAndErrors;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.PersistorBase.PendingWrite;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonElement;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.Record;
+import org.jooq.Result;
+
+/**
+ * Takes the writes of the graph nodes off the RCA scheduler threads. The flow units are queued in
+ * a bounded queue and a single writer thread stores them in batches, one transaction per batch,
+ * whenever a tick ends. Reads are served from what has been committed and do not wait for the
+ * queue: the REST handlers poll the versions on every request and must not force a write on every
+ * poll. A flow unit shows up once the batch of the tick it was written in is committed.
+ */
+public class WriteBehindPersistor implements Persistable {
+  private static final Logger LOG = LogManager.getLogger(WriteBehindPersistor.class);
+  static final int DEFAULT_QUEUE_CAPACITY = 1024;
+  static final int MAX_BATCH_SIZE = 256;
+  private static final long SHUTDOWN_WAIT_SECONDS = 10;
+
+  private final PersistorBase persistor;
+  private final BlockingQueue<PendingWrite> queue;
+  private final ExecutorService writer;
+
+  WriteBehindPersistor(PersistorBase persistor) {
+    this(persistor, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  @VisibleForTesting
+  WriteBehindPersistor(PersistorBase persistor, int queueCapacity) {
+    this.persistor = persistor;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.writer =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("rca-persistor-%d").setDaemon(true).build());
+  }
+
+  @Override
+  public <T extends ResourceFlowUnit> void write(Node<?> node, T flowUnit) {
+    if (flowUnit.isEmpty()) {
+      LOG.debug("RCA: Flow unit isEmpty");
+      return;
+    }
+    if (!queue.offer(new PendingWrite(node.name(), flowUnit))) {
+      LOG.warn("RCA: Dropped the flow unit of {} because the write queue is full", node.name());
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RCA_PERSIST_DROPPED, node.name(), 1);
+    }
+  }
+
+  @Override
+  public void flush() {
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.RCA_PERSIST_QUEUE_DEPTH, "", queue.size());
+    submitDrain();
+  }
+
+  /** Stores everything queued so far and waits for it to be done. */
+  @VisibleForTesting
+  void flushAndWait() {
+    Future<?> drain = submitDrain();
+    if (drain == null) {
+      return;
+    }
+    try {
+      drain.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.error("RCA: Failed to store the queued flow units", e.getCause());
+    }
+  }
+
+  private Future<?> submitDrain() {
+    try {
+      return writer.submit(this::drain);
+    } catch (RejectedExecutionException e) {
+      LOG.debug("RCA: Persistor is closed, not storing the queued flow units");
+      return null;
+    }
+  }
+
+  /** Runs on the writer thread only. */
+  private void drain() {
+    List<PendingWrite> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    while (queue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+      long startTime = System.currentTimeMillis();
+      List<PendingWrite> failed;
+      try {
+        failed = persistor.writeBatch(batch);
+      } catch (SQLException | IOException e) {
+        LOG.error("RCA: Failed to persist a batch of {} flow units", batch.size(), e);
+        failed = batch;
+      }
+      for (PendingWrite pendingWrite : failed) {
+        PerformanceAnalyzerApp.ERRORS_AND_EXCEPTIONS_AGGREGATOR.updateStat(
+            ExceptionsAndErrors.EXCEPTION_IN_PERSIST, pendingWrite.getNodeName(), 1);
+      }
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RCA_PERSIST_BATCH_SIZE, "", batch.size());
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RCA_PERSIST_COMMIT_LATENCY, "", System.currentTimeMillis() - startTime);
+      batch.clear();
+    }
+  }
+
+  @Override
+  public List<ResourceFlowUnit> read(Node<?> node) {
+    return persistor.read(node);
+  }
+
+  @Override
+  public String read() {
+    return persistor.read();
+  }
+
+  @Override
+  public JsonElement read(String rca) {
+    return persistor.read(rca);
+  }
+
+  @Override
+  public long getVersion(String rca) {
+    return persistor.getVersion(rca);
+  }
+
+  @Override
+  public List<String> getAllPersistedRcas() {
+    return persistor.getAllPersistedRcas();
+  }
+
+  @Override
+  public Map<String, Result<Record>> getRecordsForAllTables() {
+    return persistor.getRecordsForAllTables();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    flushAndWait();
+    writer.shutdown();
+    try {
+      if (!writer.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        writer.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      writer.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    persistor.close();
+  }
+}
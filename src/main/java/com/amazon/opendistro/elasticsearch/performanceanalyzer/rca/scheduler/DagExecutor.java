@@ -0,0 +1,328 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the tasklets of a tick as a dependency DAG. A tasklet is handed to the executor pool as soon
+ * as all of its own predecessors are done, instead of waiting for the whole level above it. When
+ * more tasklets are ready than there are threads, the ones with the longest critical path, that is
+ * the longest estimated chain of evaluations from the tasklet to the end of the graph, go first.
+ *
+ * <p>Every tasklet gets a timeout. The scheduler thread waiting for the tick watches the deadlines;
+ * a tasklet that is not done in time is given up on and its successors go ahead without it. The
+ * evaluation itself cannot be interrupted and still owns the flow units of the node, so the
+ * scheduler thread does not touch them: the node is marked as timed out, which makes it read as
+ * empty, and its late result is dropped. The tasklet is skipped until the evaluation returns.
+ */
+class DagExecutor {
+  private static final Logger LOG = LogManager.getLogger(DagExecutor.class);
+
+  /** Estimate of the run time of a tasklet that has not run yet. */
+  private static final double DEFAULT_RUN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final int WAITING = 0;
+  private static final int QUEUED = 1;
+  private static final int RUNNING = 2;
+  private static final int DONE = 3;
+
+  private final ExecutorService executorPool;
+  private final long timeoutNanos;
+
+  /** The tasklets in dependency order and, by their index in it, their successors. */
+  private final Tasklet[] tasklets;
+
+  private final int[][] successors;
+  private final int[] predecessorCounts;
+  private final double[] criticalPathNanos;
+
+  DagExecutor(List<List<Tasklet>> levels, ExecutorService executorPool, long timeoutMillis) {
+    this.executorPool = executorPool;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    List<Tasklet> ordered = new ArrayList<>();
+    levels.forEach(ordered::addAll);
+    this.tasklets = ordered.toArray(new Tasklet[0]);
+    Map<Tasklet, Integer> indexes = new HashMap<>();
+    for (int i = 0; i < tasklets.length; i++) {
+      indexes.put(tasklets[i], i);
+    }
+
+    List<List<Integer>> successorLists = new ArrayList<>();
+    for (int i = 0; i < tasklets.length; i++) {
+      successorLists.add(new ArrayList<>());
+    }
+    this.predecessorCounts = new int[tasklets.length];
+    for (int i = 0; i < tasklets.length; i++) {
+      for (Tasklet predecessor : tasklets[i].predecessors) {
+        Integer idx = indexes.get(predecessor);
+        if (idx != null) {
+          successorLists.get(idx).add(i);
+          predecessorCounts[i]++;
+        }
+      }
+    }
+    this.successors = new int[tasklets.length][];
+    for (int i = 0; i < tasklets.length; i++) {
+      successors[i] = successorLists.get(i).stream().mapToInt(Integer::intValue).toArray();
+    }
+    this.criticalPathNanos = new double[tasklets.length];
+  }
+
+  /**
+   * Decides which tasklets run in this tick and starts the ones that have no predecessors left to
+   * wait for. The returned handle is used to wait for the rest.
+   */
+  Tick start(boolean advanceClock, boolean newData) {
+    boolean[] scheduled = new boolean[tasklets.length];
+    for (int i = 0; i < tasklets.length; i++) {
+      scheduled[i] = tasklets[i].prepare(advanceClock, newData);
+    }
+    updateCriticalPaths(scheduled);
+    Tick tick = new Tick(scheduled);
+    for (int i = 0; i < tasklets.length; i++) {
+      if (predecessorCounts[i] == 0) {
+        tick.release(i);
+      }
+    }
+    return tick;
+  }
+
+  /**
+   * The critical path of a tasklet is its own estimated run time plus the longest critical path of
+   * its successors. The tasklets are in dependency order, so walking them backwards sees the
+   * successors first. Tasklets that do not run in this tick cost nothing.
+   */
+  private void updateCriticalPaths(boolean[] scheduled) {
+    for (int i = tasklets.length - 1; i >= 0; i--) {
+      double longestSuccessor = 0;
+      for (int s : successors[i]) {
+        longestSuccessor = Math.max(longestSuccessor, criticalPathNanos[s]);
+      }
+      double own = 0;
+      if (scheduled[i]) {
+        double mean = tasklets[i].getMeanRunNanos();
+        own = mean > 0 ? mean : DEFAULT_RUN_NANOS;
+      }
+      criticalPathNanos[i] = own + longestSuccessor;
+    }
+  }
+
+  double getCriticalPathNanos(Tasklet tasklet) {
+    for (int i = 0; i < tasklets.length; i++) {
+      if (tasklets[i] == tasklet) {
+        return criticalPathNanos[i];
+      }
+    }
+    return 0;
+  }
+
+  /** The execution of one tick of the graph. */
+  class Tick {
+    private final boolean[] scheduled;
+    private final AtomicIntegerArray remainingPredecessors;
+    private final AtomicIntegerArray states;
+    private final long[] readyNanos;
+    private final long[] startNanos;
+    private final long[] endNanos;
+    private final PriorityBlockingQueue<Integer> readyQueue;
+    private final AtomicInteger outstanding;
+    private final long tickStartNanos;
+    private long makespanNanos;
+    private int timedOut;
+
+    private Tick(boolean[] scheduled) {
+      this.scheduled = scheduled;
+      this.remainingPredecessors = new AtomicIntegerArray(predecessorCounts);
+      this.states = new AtomicIntegerArray(tasklets.length);
+      this.readyNanos = new long[tasklets.length];
+      this.startNanos = new long[tasklets.length];
+      this.endNanos = new long[tasklets.length];
+      this.readyQueue =
+          new PriorityBlockingQueue<>(
+              Math.max(1, tasklets.length),
+              (a, b) -> Double.compare(criticalPathNanos[b], criticalPathNanos[a]));
+      this.outstanding = new AtomicInteger(tasklets.length);
+      this.tickStartNanos = System.nanoTime();
+    }
+
+    /** Called when all the predecessors of a tasklet are done. */
+    private void release(int idx) {
+      if (!scheduled[idx]) {
+        finish(idx, WAITING);
+        return;
+      }
+      readyNanos[idx] = System.nanoTime();
+      states.set(idx, QUEUED);
+      readyQueue.add(idx);
+      executorPool.execute(this::runNext);
+    }
+
+    /** Runs the ready tasklet with the longest critical path. */
+    private void runNext() {
+      Integer idx = readyQueue.poll();
+      if (idx == null) {
+        return;
+      }
+      // Set before the state so that the scheduler thread sees it when it checks the deadline.
+      startNanos[idx] = System.nanoTime();
+      if (!states.compareAndSet(idx, QUEUED, RUNNING)) {
+        // The tasklet timed out while waiting in the queue.
+        return;
+      }
+      try {
+        tasklets[idx].run();
+      } catch (Exception ex) {
+        LOG.error("RCA: Tasklet for node: {} failed", tasklets[idx].getNode().name(), ex);
+        tasklets[idx].clearFlowUnits();
+      }
+      if (states.get(idx) == DONE) {
+        // Given up on while running; the successors have gone ahead with the node read as empty.
+        LOG.debug("RCA: Dropping the late result of node: {}", tasklets[idx].getNode().name());
+        return;
+      }
+      finish(idx, RUNNING);
+    }
+
+    /** Marks a tasklet as done, if it is still in the expected state. */
+    private void finish(int idx, int expectedState) {
+      if (states.compareAndSet(idx, expectedState, DONE)) {
+        onDone(idx);
+      }
+    }
+
+    /** Releases the successors of a tasklet that has just been marked as done. */
+    private void onDone(int idx) {
+      endNanos[idx] = System.nanoTime();
+      for (int s : successors[idx]) {
+        if (remainingPredecessors.decrementAndGet(s) == 0) {
+          release(s);
+        }
+      }
+      if (outstanding.decrementAndGet() == 0) {
+        synchronized (this) {
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Waits for all the tasklets of the tick to be done or given up on.
+     *
+     * @throws InterruptedException if the scheduler thread is interrupted while waiting.
+     */
+    void await() throws InterruptedException {
+      synchronized (this) {
+        while (outstanding.get() > 0) {
+          long waitNanos = expireOverdue();
+          if (outstanding.get() > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, 1));
+          }
+        }
+      }
+      makespanNanos = System.nanoTime() - tickStartNanos;
+    }
+
+    /**
+     * Gives up on the tasklets that have been queued or running for longer than the timeout.
+     *
+     * @return The time until the next deadline.
+     */
+    private long expireOverdue() {
+      long now = System.nanoTime();
+      long nextDeadline = timeoutNanos;
+      for (int i = 0; i < tasklets.length; i++) {
+        int state = states.get(i);
+        long since;
+        if (state == QUEUED) {
+          since = readyNanos[i];
+        } else if (state == RUNNING) {
+          since = startNanos[i];
+        } else {
+          continue;
+        }
+        long left = since + timeoutNanos - now;
+        if (left > 0) {
+          nextDeadline = Math.min(nextDeadline, left);
+          continue;
+        }
+        if (state == QUEUED && states.compareAndSet(i, QUEUED, DONE)) {
+          LOG.warn(
+              "RCA: Tasklet for node: {} timed out in the queue", tasklets[i].getNode().name());
+          tasklets[i].cancel();
+          timedOut++;
+          onDone(i);
+        } else if (state == RUNNING && states.compareAndSet(i, RUNNING, DONE)) {
+          LOG.warn("RCA: Tasklet for node: {} timed out", tasklets[i].getNode().name());
+          // Marked before the successors are released, so that none of them reads the late result.
+          tasklets[i].timeOut();
+          timedOut++;
+          onDone(i);
+        }
+      }
+      return nextDeadline;
+    }
+
+    /** Wall clock time from the start of the tick until all its tasklets were done. */
+    long getMakespanNanos() {
+      return makespanNanos;
+    }
+
+    /** Number of tasklets given up on because of the timeout. */
+    int getTimedOutCount() {
+      return timedOut;
+    }
+
+    /**
+     * The sum of the run times of the tasklets divided by the makespan: the number of threads that
+     * were busy on average.
+     */
+    double getParallelism() {
+      if (makespanNanos <= 0) {
+        return 0;
+      }
+      long busy = 0;
+      for (int i = 0; i < tasklets.length; i++) {
+        if (tasklets[i].ranLastTick() && endNanos[i] >= startNanos[i]) {
+          busy += endNanos[i] - startNanos[i];
+        }
+      }
+      return (double) busy / makespanNanos;
+    }
+
+    /** Time each tasklet that ran spent between being ready and starting, keyed by tasklet. */
+    Map<Tasklet, Long> getQueueingDelays() {
+      Map<Tasklet, Long> delays = new HashMap<>();
+      for (int i = 0; i < tasklets.length; i++) {
+        if (tasklets[i].ranLastTick()) {
+          delays.put(tasklets[i], startNanos[i] - readyNanos[i]);
+        }
+      }
+      return delays;
+    }
+  }
+}
@@ -16,14 +16,19 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.NodeRole;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.ConnectedComponent;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Queryable;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.RcaConf;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.ThresholdMain;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.metrics.RcaGraphMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.WireHopper;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.Persistable;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.MetricsWindowSignal;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.sql.SQLException;
@@ -71,6 +76,17 @@ public class RCAScheduler {
   static final int PERIODICITY_SECONDS = 1;
   static final int PERIODICITY_IN_MS = PERIODICITY_SECONDS * 1000;
 
+  /**
+   * Selects how the graph is scheduled. In the timer mode, every node is evaluated on a fixed
+   * one second tick when its periodicity comes up. In the event mode, the ticks still drive the
+   * purely time based nodes, but the nodes that read the MetricsDB only run once the reader has
+   * published a new window, and they run as soon as it does.
+   */
+  public static final String SCHEDULER_MODE_CONF_NAME = "rca-scheduler-mode";
+
+  public static final String TIMER_MODE = "timer";
+  public static final String EVENT_MODE = "event";
+
   private static final Logger LOG = LogManager.getLogger(RCAScheduler.class);
 
   private CountDownLatch schedulerTrackingLatch;
@@ -143,13 +159,36 @@ public class RCAScheduler {
       schedulerTrackingLatch.countDown();
     }
 
+    final boolean eventDriven = isEventDriven();
+    LOG.info("RCA scheduler runs in {} mode", eventDriven ? EVENT_MODE : TIMER_MODE);
+    final MetricsWindowSignal windowSignal = MetricsWindowSignal.instance();
+    long lastWindow = windowSignal.getLatestWindowStartTime();
+    long nextTimerTick = System.currentTimeMillis();
     while (schedulerState == RcaSchedulerState.STATE_STARTED) {
       try {
-        long startTime = System.currentTimeMillis();
-        task.run();
-        long duration = System.currentTimeMillis() - startTime;
-        if (duration < PERIODICITY_IN_MS) {
-          Thread.sleep(PERIODICITY_IN_MS - duration);
+        long now = System.currentTimeMillis();
+        if (now >= nextTimerTick) {
+          nextTimerTick = now + PERIODICITY_IN_MS;
+          long window = windowSignal.getLatestWindowStartTime();
+          boolean newWindow = window > lastWindow;
+          lastWindow = window;
+          if (eventDriven) {
+            task.runTick(true, newWindow);
+          } else {
+            task.run();
+          }
+          recordTickStats(task, newWindow, window);
+        } else if (eventDriven) {
+          // Wake up as soon as the reader publishes a window so that the nodes waiting for data
+          // do not wait for the next timer tick.
+          long window = windowSignal.awaitWindowAfter(lastWindow, nextTimerTick - now);
+          if (window > lastWindow) {
+            lastWindow = window;
+            task.runTick(false, true);
+            recordTickStats(task, true, window);
+          }
+        } else {
+          Thread.sleep(nextTimerTick - now);
         }
       } catch (InterruptedException ie) {
         LOG.error("**ERR: Rca scheduler thread sleep interrupted.", ie);
@@ -161,6 +200,30 @@ public class RCAScheduler {
     }
   }
 
+  private boolean isEventDriven() {
+    String mode = PluginSettings.instance().getSettingValue(SCHEDULER_MODE_CONF_NAME, TIMER_MODE);
+    return EVENT_MODE.equalsIgnoreCase(mode.trim());
+  }
+
+  /**
+   * A tick that evaluated the nodes reading the MetricsDB without a new window to read is wasted.
+   * When there was a new window, the time from the end of the window to now is the time it took
+   * for its metrics to turn into RCA results.
+   */
+  private void recordTickStats(RCASchedulerTask task, boolean newWindow, long window) {
+    if (task.getLastTickDataDrivenRuns() == 0) {
+      return;
+    }
+    if (!newWindow) {
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RCA_SCHEDULER_WASTED_TICKS, "", 1);
+    } else if (window != MetricsWindowSignal.NO_WINDOW) {
+      long windowEnd = window + MetricsConfiguration.SAMPLING_INTERVAL;
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.WINDOW_TO_RCA_LATENCY, "", System.currentTimeMillis() - windowEnd);
+    }
+  }
+
   /**
    * Signal a shutdown on the scheduled pool first and then to the executor pool. Calling a shutdown
    * on them does not lead to immediate shutdown instead, they stop taking new tasks and wait for
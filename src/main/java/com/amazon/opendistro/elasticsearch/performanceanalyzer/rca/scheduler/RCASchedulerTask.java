@@ -17,6 +17,7 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.PerformanceAnalyzerApp;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.ConnectedComponent;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Queryable;
@@ -28,6 +29,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.uti
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.IntentMsg;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.WireHopper;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.Persistable;
+import com.google.common.annotations.VisibleForTesting;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -36,7 +38,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -46,6 +47,11 @@ public class RCASchedulerTask implements Runnable {
   private static final Logger LOG = LogManager.getLogger(RCASchedulerTask.class);
   private static final String EMPTY_STRING = "";
 
+  /** The time a graph node is given to evaluate before its downstream nodes go ahead without it. */
+  public static final String TASKLET_TIMEOUT_CONF_NAME = "rca-tasklet-timeout-millis";
+
+  static final long DEFAULT_TASKLET_TIMEOUT_MS = 5000;
+
   /**
    * This is a wrapper class for return type of createTaskletAndSendIntent method. This is required
    * because this method usually returns the tasklet created for a given graphNode. Occasionally, it
@@ -75,6 +81,22 @@ public class RCASchedulerTask implements Runnable {
   /** The thread pool to execute the tasklets. */
   private final ExecutorService executorPool;
 
+  /** Source of the metrics gathered by the leaf nodes, told when a tick starts. */
+  private final Queryable queryable;
+
+  /** The network proxy, told when a tick is done so that it can send out what it held back. */
+  private final WireHopper hopper;
+
+  /** Where the nodes write their results, told when a tick is done so that it can store them. */
+  private final Persistable persistable;
+
+  /** Runs the tasklets of a tick, each as soon as its own predecessors are done. */
+  private final DagExecutor dagExecutor;
+
+  private int lastTickDataDrivenRuns;
+
+  private int lastTickSkippedRuns;
+
   /**
    * List of locally executable nodes whose data might be needed by downstream remote nodes. We keep
    * track of such nodes, so that the data can be sent to the network thread (wireHopper) as soon as
@@ -106,6 +128,9 @@ public class RCASchedulerTask implements Runnable {
       final AppContext appContext) {
     this.maxTicks = maxTicks;
     this.executorPool = executorPool;
+    this.queryable = db;
+    this.persistable = persistable;
+    this.hopper = hopper;
     this.remotelyDesirableNodeSet = new HashMap<>();
     Map<Node<?>, Tasklet> nodeTaskletMap = new HashMap<>();
 
@@ -127,9 +152,29 @@ public class RCASchedulerTask implements Runnable {
     }
     this.locallyExecutableTasklets =
         Collections.unmodifiableList(dependencyOrderedLocallyExecutables);
+    // Predecessors are always in an earlier level, so a single pass in level order suffices.
+    locallyExecutableTasklets.forEach(l -> l.forEach(Tasklet::computeDataDriven));
+    this.dagExecutor =
+        new DagExecutor(locallyExecutableTasklets, executorPool, getTaskletTimeoutMillis());
     LOG.debug("rca: locally executable tasklet size: {}", locallyExecutableTasklets.size());
   }
 
+  private static long getTaskletTimeoutMillis() {
+    String value =
+        PluginSettings.instance()
+            .getSettingValue(TASKLET_TIMEOUT_CONF_NAME, String.valueOf(DEFAULT_TASKLET_TIMEOUT_MS));
+    try {
+      long timeout = Long.parseLong(value.trim());
+      if (timeout > 0) {
+        return timeout;
+      }
+    } catch (NumberFormatException ignored) {
+      // fall through to the default.
+    }
+    LOG.error("Invalid value for {}: {}, using the default.", TASKLET_TIMEOUT_CONF_NAME, value);
+    return DEFAULT_TASKLET_TIMEOUT_MS;
+  }
+
   /**
    * Merge two list of lists level wise, that is the level0 list of the first list is merged with
    * the level 0 of the second list, level 1 of the first list is merged with the level 1 of the
@@ -346,36 +391,139 @@ public class RCASchedulerTask implements Runnable {
             remotelyDesirableNodeSet,
             hopper,
             GraphNodeOperations::readFromWire);
+    remoteTasklet.markAsNet();
     LOG.debug("Tasklet created for REMOTE node '{}' with readFromWire", graphNode.name());
     tasklet.addPredecessor(remoteTasklet);
     ret.remoteTasklets.add(remoteTasklet);
   }
 
   public void run() {
-    currTick = currTick + 1;
+    runTick(true, true);
+  }
+
+  /**
+   * Evaluates the graph once.
+   *
+   * @param advanceClock Whether this is a timer tick. Only timer ticks count towards the
+   *     periodicity of the nodes.
+   * @param newData Whether a new MetricsDB window is available. Without one, the nodes that read
+   *     the MetricsDB are deferred to the tick that brings the next window and only the purely
+   *     time based nodes run.
+   */
+  void runTick(boolean advanceClock, boolean newData) {
+    if (advanceClock) {
+      currTick = currTick + 1;
+    }
     long runStartTime = System.currentTimeMillis();
 
     PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
         RcaGraphMetrics.NUM_GRAPH_NODES, "", Stats.getInstance().getTotalNodesCount());
 
-    List<CompletableFuture<Void>> lastLevelTasks = createAsyncTasks();
+    if (queryable != null) {
+      queryable.startTick();
+    }
+    DagExecutor.Tick tick = dagExecutor.start(advanceClock, newData);
     preWait();
-    lastLevelTasks.forEach(CompletableFuture::join);
+    try {
+      tick.await();
+    } catch (InterruptedException ie) {
+      LOG.error("RCA: Interrupted while waiting for the graph nodes to complete.", ie);
+      Thread.currentThread().interrupt();
+      return;
+    }
+    recordTickStats();
+    recordDagStats(tick);
+    if (hopper != null) {
+      hopper.flushData();
+    }
+    if (persistable != null) {
+      persistable.flush();
+    }
     postCompletion(runStartTime);
   }
 
-  protected List<CompletableFuture<Void>> createAsyncTasks() {
-    Map<Tasklet, CompletableFuture<Void>> taskletFutureMap = new HashMap<>();
-    List<CompletableFuture<Void>> lastLevel = new ArrayList<>();
-    for (List<Tasklet> taskletsAtThisLevel : locallyExecutableTasklets) {
-      lastLevel.clear();
-      for (Tasklet tasklet : taskletsAtThisLevel) {
-        CompletableFuture<Void> taskletFuture = tasklet.execute(executorPool, taskletFutureMap);
-        lastLevel.add(taskletFuture);
-        taskletFutureMap.put(tasklet, taskletFuture);
+  /**
+   * Exports how well the tick used the executor pool: the makespan of the tick, the number of
+   * threads busy on average, the time each node waited for a thread once its predecessors were
+   * done and the number of nodes that timed out.
+   */
+  private void recordDagStats(DagExecutor.Tick tick) {
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.GRAPH_EXECUTION_MAKESPAN, "", tick.getMakespanNanos() / 1000);
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.GRAPH_EXECUTION_PARALLELISM, "", tick.getParallelism());
+    tick.getQueueingDelays()
+        .forEach(
+            (tasklet, delayNanos) ->
+                PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+                    RcaGraphMetrics.TASKLET_QUEUEING_DELAY,
+                    tasklet.getNode().name(),
+                    delayNanos / 1000));
+    if (tick.getTimedOutCount() > 0) {
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.TASKLET_TIMEOUTS, "", tick.getTimedOutCount());
+    }
+  }
+
+  /**
+   * Adds up what the tasklets did in the tick that just completed: the CPU time the evaluated
+   * nodes took, and the data driven nodes that were deferred for lack of a new window. A deferred
+   * node only saves CPU when its periodicity comes up again before the window arrives, as the
+   * evaluation it skipped is folded into the one that runs with the window. That evaluation is
+   * charged the CPU time the node took the last time it ran.
+   */
+  private void recordTickStats() {
+    long cpuNanos = 0;
+    long cpuSavedNanos = 0;
+    int dataDrivenRan = 0;
+    int deferred = 0;
+    int skipped = 0;
+    for (List<Tasklet> level : locallyExecutableTasklets) {
+      for (Tasklet tasklet : level) {
+        if (tasklet.ranLastTick()) {
+          cpuNanos += tasklet.getLastRunCpuNanos();
+          if (tasklet.isDataDriven()) {
+            dataDrivenRan++;
+          }
+        } else if (tasklet.isDataDriven() && tasklet.isPending()) {
+          deferred++;
+        }
+        if (tasklet.skippedRunLastTick()) {
+          skipped++;
+          cpuSavedNanos += tasklet.getLastRunCpuNanos();
+        }
       }
     }
-    return lastLevel;
+    lastTickDataDrivenRuns = dataDrivenRan;
+    lastTickSkippedRuns = skipped;
+    PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+        RcaGraphMetrics.GRAPH_EXECUTION_CPU, "", cpuNanos / 1000);
+    if (deferred > 0) {
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RCA_TASKLETS_DEFERRED, "", deferred);
+    }
+    if (skipped > 0) {
+      PerformanceAnalyzerApp.RCA_GRAPH_METRICS_AGGREGATOR.updateStat(
+          RcaGraphMetrics.RCA_SCHEDULER_CPU_SAVED, "", cpuSavedNanos / 1000);
+    }
+  }
+
+  @VisibleForTesting
+  List<List<Tasklet>> getLocallyExecutableTasklets() {
+    return locallyExecutableTasklets;
+  }
+
+  /** The number of nodes reading the MetricsDB, directly or not, that ran in the last tick. */
+  int getLastTickDataDrivenRuns() {
+    return lastTickDataDrivenRuns;
+  }
+
+  /**
+   * The number of evaluations skipped in the last tick because the node was still waiting for a
+   * new window when its periodicity came up again.
+   */
+  int getLastTickSkippedRuns() {
+    return lastTickSkippedRuns;
   }
 
   protected void preWait() {}
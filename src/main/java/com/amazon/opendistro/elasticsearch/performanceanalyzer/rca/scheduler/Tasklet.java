@@ -15,17 +15,18 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.LeafNode;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Queryable;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.messages.DataMsg;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net.WireHopper;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.NetPersistor;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.Persistable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
@@ -37,6 +38,7 @@ import org.apache.logging.log4j.Logger;
  */
 public class Tasklet {
   private static final Logger LOG = LogManager.getLogger(Tasklet.class);
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
 
   protected List<Tasklet> predecessors;
 
@@ -50,6 +52,32 @@ public class Tasklet {
   private Consumer<FlowUnitOperationArgWrapper> exec;
   private boolean isNet = false;
 
+  /**
+   * True if the node reads the MetricsDB, directly as a leaf or through one of its local
+   * predecessors. Such a tasklet only produces something new when there is a new window.
+   */
+  private boolean dataDriven = false;
+
+  /** True if the periodicity of the node has come up but the tasklet has not run since. */
+  private boolean pending = false;
+
+  /** True if the tasklet is pending but was held back for lack of a new MetricsDB window. */
+  private boolean deferred = false;
+
+  /**
+   * True if the periodicity of the node came up on the last tick while it was still deferred, so
+   * that the evaluation due earlier is folded into the one that runs with the next window.
+   */
+  private volatile boolean skippedRunLastTick = false;
+
+  /** Whether the tasklet ran on the last tick and the CPU time that took, in nanoseconds. */
+  private volatile boolean ranLastTick = false;
+  private volatile long lastRunCpuNanos = 0;
+  private volatile double meanRunNanos = 0;
+
+  /** True from the time the tasklet is prepared to run until its evaluation returns. */
+  private volatile boolean running = false;
+
   /**
    * A tasklet is always built on top of a Node.
    *
@@ -87,34 +115,127 @@ public class Tasklet {
     return this;
   }
 
-  public CompletableFuture<Void> execute(
-      ExecutorService executorPool, Map<Tasklet, CompletableFuture<Void>> taskletToFutureMap) {
-    ticks += 1;
-    if (ticks % node.getEvaluationIntervalSeconds() != 0) {
+  /** Marks this tasklet as the proxy that reads the output of a remote node from the wire. */
+  void markAsNet() {
+    this.isNet = true;
+  }
+
+  /**
+   * Works out whether this tasklet depends on the MetricsDB. This has to be called after the same
+   * has been done for all the predecessors.
+   */
+  void computeDataDriven() {
+    dataDriven =
+        !isNet && (node instanceof LeafNode || predecessors.stream().anyMatch(p -> p.dataDriven));
+  }
+
+  boolean isDataDriven() {
+    return dataDriven;
+  }
+
+  boolean isPending() {
+    return pending;
+  }
+
+  boolean ranLastTick() {
+    return ranLastTick;
+  }
+
+  long getLastRunCpuNanos() {
+    return lastRunCpuNanos;
+  }
+
+  boolean skippedRunLastTick() {
+    return skippedRunLastTick;
+  }
+
+  /**
+   * Decides on the scheduler thread, before anything of the tick runs, whether the tasklet runs in
+   * this tick. A tasklet that does not run has its flow units emptied, so that the downstream
+   * nodes see nothing new from it.
+   *
+   * @param advanceClock Whether this is a timer tick that counts towards the periodicity of the
+   *     node. Ticks triggered by a new MetricsDB window do not.
+   * @param newData Whether a new MetricsDB window is available. If not, a data driven tasklet
+   *     whose periodicity has come up stays pending until there is one.
+   * @return true if the tasklet has to be run in this tick.
+   */
+  boolean prepare(boolean advanceClock, boolean newData) {
+    ranLastTick = false;
+    skippedRunLastTick = false;
+    if (advanceClock) {
+      ticks += 1;
+      if (ticks % node.getEvaluationIntervalSeconds() == 0) {
+        skippedRunLastTick = deferred;
+        pending = true;
+      }
+    }
+    if (running) {
+      // An earlier evaluation timed out and has not returned yet. It still owns the flow units of
+      // the node, so leave them alone and try again on the next tick. The node keeps reading as
+      // empty until then.
+      LOG.warn("RCA: Tasklet for node: {} is still running from an earlier tick", node.name());
+      return false;
+    }
+    if (node.isTimedOut()) {
+      // The late evaluation has returned; drop whatever it left behind.
+      clearFlowUnits();
+      node.setTimedOut(false);
+    }
+    if (!pending || (dataDriven && !newData)) {
       // If its not time to run this tasklet, return an isEmpty flowUnit.
-      node.setEmptyFlowUnitList();
-      node.setEmptyLocalFlowUnit();
-      return CompletableFuture.supplyAsync(() -> null);
+      deferred = pending;
+      clearFlowUnits();
+      return false;
+    }
+    pending = false;
+    deferred = false;
+    ranLastTick = true;
+    running = true;
+    return true;
+  }
+
+  /** Evaluates the node and sends the result to the remote subscribers, if there are any. */
+  void run() {
+    long wallStart = System.nanoTime();
+    long cpuStart = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    try {
+      exec.accept(new FlowUnitOperationArgWrapper(node, db, persistable, hopper));
+      if (!node.isTimedOut()) {
+        sendToRemote();
+      }
+    } finally {
+      lastRunCpuNanos = Math.max(0, THREAD_MX_BEAN.getCurrentThreadCpuTime() - cpuStart);
+      long wallNanos = System.nanoTime() - wallStart;
+      meanRunNanos = meanRunNanos == 0 ? wallNanos : 0.8 * meanRunNanos + 0.2 * wallNanos;
+      running = false;
     }
+  }
+
+  /**
+   * Gives up on an evaluation that is still running. Its successors go ahead and read the node as
+   * empty; the flow units the evaluation writes when it returns are not sent to remote nodes and
+   * are cleared at the next tick.
+   */
+  void timeOut() {
+    node.setTimedOut(true);
+  }
+
+  /** Drops a tasklet that was prepared to run but was never started. */
+  void cancel() {
+    ranLastTick = false;
+    running = false;
+    clearFlowUnits();
+  }
+
+  void clearFlowUnits() {
+    node.setEmptyFlowUnitList();
+    node.setEmptyLocalFlowUnit();
+  }
 
-    // Create a list of the Futures that corresponds to my predecessor nodes.
-    List<CompletableFuture<Void>> predecessorResultFutures =
-        predecessors.stream().map(p -> taskletToFutureMap.get(p)).collect(Collectors.toList());
-
-    // Create a future that will wait for all the predecessors to complete.
-    CompletableFuture<Void> completedPredecessorTasks =
-        CompletableFuture.allOf(predecessorResultFutures.toArray(new CompletableFuture[0]));
-
-    // Now execute me and send the response to remote if there are subscribers.
-    CompletableFuture<Void> retCompletableFuture =
-        completedPredecessorTasks.thenAcceptAsync(
-            a -> {
-              exec.accept(new FlowUnitOperationArgWrapper(node, db, persistable, hopper));
-              sendToRemote();
-            },
-            executorPool);
-    LOG.debug("RCA: Finished creating executable future for tasklet: {}", node.name());
-    return retCompletableFuture;
+  /** The running mean of the wall clock time an evaluation of the node takes, in nanoseconds. */
+  double getMeanRunNanos() {
+    return meanRunNanos;
   }
 
   private void sendToRemote() {
@@ -64,27 +64,27 @@ public class NodeConfigCollector extends EsConfigNode {
   }
 
   private void collectQueueCapacity(MetricFlowUnit flowUnit) {
-    final double writeQueueCapacity = SQLParsingUtil.readDataFromSqlResult(flowUnit.getData(),
+    final double writeQueueCapacity = SQLParsingUtil.readDataFromMetricTable(flowUnit.getMetricTable(),
         THREAD_POOL_TYPE.getField(), ThreadPoolType.WRITE.toString(), MetricsDB.MAX);
     collectAndPublishMetric(ResourceUtil.WRITE_QUEUE_CAPACITY, writeQueueCapacity);
 
-    final double searchQueueCapacity = SQLParsingUtil.readDataFromSqlResult(flowUnit.getData(),
+    final double searchQueueCapacity = SQLParsingUtil.readDataFromMetricTable(flowUnit.getMetricTable(),
         THREAD_POOL_TYPE.getField(), ThreadPoolType.SEARCH.toString(), MetricsDB.MAX);
     collectAndPublishMetric(ResourceUtil.SEARCH_QUEUE_CAPACITY, searchQueueCapacity);
   }
 
   private void collectCacheMaxSize(MetricFlowUnit cacheMaxSize) {
-    final double fieldDataCacheMaxSize = SQLParsingUtil.readDataFromSqlResult(cacheMaxSize.getData(),
+    final double fieldDataCacheMaxSize = SQLParsingUtil.readDataFromMetricTable(cacheMaxSize.getMetricTable(),
             CACHE_TYPE.getField(), CacheType.FIELD_DATA_CACHE.toString(), MetricsDB.MAX);
     collectAndPublishMetric(ResourceUtil.FIELD_DATA_CACHE_MAX_SIZE, fieldDataCacheMaxSize);
 
-    final double shardRequestCacheMaxSize = SQLParsingUtil.readDataFromSqlResult(cacheMaxSize.getData(),
+    final double shardRequestCacheMaxSize = SQLParsingUtil.readDataFromMetricTable(cacheMaxSize.getMetricTable(),
             CACHE_TYPE.getField(), CacheType.SHARD_REQUEST_CACHE.toString(), MetricsDB.MAX);
     collectAndPublishMetric(ResourceUtil.SHARD_REQUEST_CACHE_MAX_SIZE, shardRequestCacheMaxSize);
   }
 
   private void collectHeapMaxSize(MetricFlowUnit heapMax) {
-    final double heapMaxSize = SQLParsingUtil.readDataFromSqlResult(heapMax.getData(),
+    final double heapMaxSize = SQLParsingUtil.readDataFromMetricTable(heapMax.getMetricTable(),
             MEM_TYPE.getField(), AllMetrics.GCType.HEAP.toString(), MetricsDB.MAX);
     collectAndPublishMetric(ResourceUtil.HEAP_MAX_SIZE, heapMaxSize);
   }
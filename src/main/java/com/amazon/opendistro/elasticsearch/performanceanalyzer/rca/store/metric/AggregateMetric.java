@@ -25,7 +25,6 @@ import java.util.Collections;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
@@ -69,17 +68,14 @@ public class AggregateMetric extends Metric {
         }
     }
 
-    protected Result<Record> createDslAndFetch(final DSLContext context,
-                                               final String tableName,
-                                               final Field<?> aggDimension,
-                                               final List<Field<?>> groupByFieldsList,
-                                               final List<Field<?>> selectFieldsList) {
-        return context
-                .select(selectFieldsList)
-                .from(tableName)
-                .groupBy(groupByFieldsList)
-                .orderBy(aggDimension.desc())
-                .fetch();
+    /**
+     * The group by is handed to the MetricsDB instead of being built in SQL here, so that the
+     * columnar engine answers it with a scan of the table rather than a copy of the window in
+     * SQLite.
+     */
+    protected Result<Record> fetch(final MetricsDB db, final String tableName) throws Exception {
+        return db.groupMetric(tableName, metricsDBAggrColumn, aggregateFunction.getMetricsDBAgg(),
+                groupByFieldsName);
     }
 
     protected List<Field<?>> getGroupByFieldsList() {
@@ -110,17 +106,8 @@ public class AggregateMetric extends Metric {
     public MetricFlowUnit gather(final Queryable queryable) {
         LOG.debug("Metric: Trying to gather metrics for {}", tableName);
         final Result<Record> result;
-        List<Field<?>> selectFieldsList;
         try {
-            final MetricsDB db = queryable.getMetricsDB();
-            final DSLContext context = db.getDSLContext();
-
-            final Field<?> aggDimension = getAggrDimension();
-            final List<Field<?>> groupByFieldsList = getGroupByFieldsList();
-            selectFieldsList = getSelectFieldsList(groupByFieldsList, aggDimension);
-
-            result = createDslAndFetch(context, tableName, aggDimension, groupByFieldsList,
-                    selectFieldsList);
+            result = fetch(queryable.getMetricsDB(), tableName);
         } catch (Exception e) {
             //TODO: Emit log/stats that gathering failed.
             LOG.error("RCA: Caught an exception while getting the DB {}", e.getMessage());
@@ -143,9 +130,20 @@ public class AggregateMetric extends Metric {
     }
 
     public enum AggregateFunction {
-        SUM,
-        MAX,
-        MIN,
-        AVG
+        SUM(MetricsDB.SUM),
+        MAX(MetricsDB.MAX),
+        MIN(MetricsDB.MIN),
+        AVG(MetricsDB.AVG);
+
+        private final String metricsDBAgg;
+
+        AggregateFunction(String metricsDBAgg) {
+            this.metricsDBAgg = metricsDBAgg;
+        }
+
+        /** The name of this function in the aggregations the MetricsDB queries take. */
+        public String getMetricsDBAgg() {
+            return metricsDBAgg;
+        }
     }
 }
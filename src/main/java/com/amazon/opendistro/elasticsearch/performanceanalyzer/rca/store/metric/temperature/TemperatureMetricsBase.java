@@ -20,6 +20,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Metrics
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.temperature.TemperatureDimension;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.store.metric.AggregateMetric;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import org.jooq.DSLContext;
 import org.jooq.Field;
@@ -62,7 +63,19 @@ public abstract class TemperatureMetricsBase extends AggregateMetric {
                 groupByDimensions);
     }
 
+    /**
+     * The temperature queries filter and nest their group bys, so they are run in SQL, against a
+     * context that only has to hold the table of the metric.
+     */
     @Override
+    protected Result<Record> fetch(final MetricsDB db, final String tableName) {
+        final Field<?> aggDimension = getAggrDimension();
+        final List<Field<?>> groupByFieldsList = getGroupByFieldsList();
+        return createDslAndFetch(db.getDSLContext(Collections.singletonList(tableName)), tableName,
+                aggDimension, groupByFieldsList,
+                getSelectFieldsList(groupByFieldsList, aggDimension));
+    }
+
     protected abstract Result<Record> createDslAndFetch(final DSLContext context,
                                                         final String tableName,
                                                         final Field<?> aggDimension,
@@ -139,7 +139,7 @@ public class GenericResourceRca extends Rca<ResourceFlowUnit<HotResourceSummary>
         }
       }
       if (!recordParsingError) {
-        slidingWindow.next(new SlidingWindowData(this.clock.millis(), totalUsage));
+        slidingWindow.next(this.clock.millis(), totalUsage);
       }
     }
 
@@ -82,7 +82,7 @@ public class HighHeapUsageOldGenRca extends Rca<ResourceFlowUnit<HotResourceSumm
   // e.g. if lowerBoundThreshold = 0.2, then we only send out summary if value > 0.2*threshold
   private final double lowerBoundThreshold;
   private final SlidingWindow<SlidingWindowData> gcEventSlidingWindow;
-  private final MinOldGenSlidingWindow minOldGenSlidingWindow;
+  private final SlidingWindow<SlidingWindowData> minOldGenSlidingWindow;
   //Keep the sliding window large enough to avoid false positive
   private static final int SLIDING_WINDOW_SIZE_IN_MINS = 10;
   private static final double OLD_GEN_USED_THRESHOLD_IN_PERCENTAGE = 0.65;
@@ -107,7 +107,7 @@ public class HighHeapUsageOldGenRca extends Rca<ResourceFlowUnit<HotResourceSumm
         ? lowerBoundThreshold : 1.0;
     this.counter = 0;
     gcEventSlidingWindow = new SlidingWindow<>(SLIDING_WINDOW_SIZE_IN_MINS, TimeUnit.MINUTES);
-    minOldGenSlidingWindow = new MinOldGenSlidingWindow(SLIDING_WINDOW_SIZE_IN_MINS,
+    minOldGenSlidingWindow = new SlidingWindow<>(SLIDING_WINDOW_SIZE_IN_MINS,
         TimeUnit.MINUTES);
     this.nodeStatAggregators = new ArrayList<>();
     for (Metric consumerMetric : consumers) {
@@ -136,7 +136,7 @@ public class HighHeapUsageOldGenRca extends Rca<ResourceFlowUnit<HotResourceSumm
         continue;
       }
       double ret =
-          SQLParsingUtil.readDataFromSqlResult(heapUsedMetric.getData(), MEM_TYPE.getField(), OLD_GEN.toString(), MetricsDB.MAX);
+          SQLParsingUtil.readDataFromMetricTable(heapUsedMetric.getMetricTable(), MEM_TYPE.getField(), OLD_GEN.toString(), MetricsDB.MAX);
       if (Double.isNaN(ret)) {
         LOG.error("Failed to parse metric in FlowUnit from {}", heap_Used.getClass().getName());
       } else {
@@ -149,7 +149,7 @@ public class HighHeapUsageOldGenRca extends Rca<ResourceFlowUnit<HotResourceSumm
         continue;
       }
       double ret =
-          SQLParsingUtil.readDataFromSqlResult(gcEventMetric.getData(), MEM_TYPE.getField(), TOT_FULL_GC.toString(), MetricsDB.MAX);
+          SQLParsingUtil.readDataFromMetricTable(gcEventMetric.getMetricTable(), MEM_TYPE.getField(), TOT_FULL_GC.toString(), MetricsDB.MAX);
       if (Double.isNaN(ret)) {
         LOG.error("Failed to parse metric in FlowUnit from {}", gc_event.getClass().getName());
       } else {
@@ -162,7 +162,7 @@ public class HighHeapUsageOldGenRca extends Rca<ResourceFlowUnit<HotResourceSumm
         continue;
       }
       double ret =
-          SQLParsingUtil.readDataFromSqlResult(heapMaxMetric.getData(), MEM_TYPE.getField(), OLD_GEN.toString(), MetricsDB.MAX);
+          SQLParsingUtil.readDataFromMetricTable(heapMaxMetric.getMetricTable(), MEM_TYPE.getField(), OLD_GEN.toString(), MetricsDB.MAX);
       if (Double.isNaN(ret)) {
         LOG.error("Failed to parse metric in FlowUnit from {}", heap_Max.getClass().getName());
       } else {
@@ -177,8 +177,8 @@ public class HighHeapUsageOldGenRca extends Rca<ResourceFlowUnit<HotResourceSumm
           oldGenHeapUsed,
           oldGenGCEvent,
           maxOldGenHeapSize);
-      gcEventSlidingWindow.next(new SlidingWindowData(currTimeStamp, oldGenGCEvent));
-      minOldGenSlidingWindow.next(new SlidingWindowData(currTimeStamp, oldGenHeapUsed));
+      gcEventSlidingWindow.next(currTimeStamp, oldGenGCEvent);
+      minOldGenSlidingWindow.next(currTimeStamp, oldGenHeapUsed);
     }
 
     //collect node stats from metrics
@@ -242,38 +242,6 @@ public class HighHeapUsageOldGenRca extends Rca<ResourceFlowUnit<HotResourceSumm
     }
   }
 
-  /**
-   * Sliding window to check the minimal olg gen usage within a given time frame
-   */
-  private static class MinOldGenSlidingWindow extends SlidingWindow<SlidingWindowData> {
-
-    public MinOldGenSlidingWindow(int SLIDING_WINDOW_SIZE_IN_TIMESTAMP, TimeUnit timeUnit) {
-      super(SLIDING_WINDOW_SIZE_IN_TIMESTAMP, timeUnit);
-    }
-
-    @Override
-    public void next(SlidingWindowData e) {
-      while (!windowDeque.isEmpty()
-          && windowDeque.peekFirst().getValue() >= e.getValue()) {
-        windowDeque.pollFirst();
-      }
-      windowDeque.addFirst(e);
-      while (!windowDeque.isEmpty()
-          &&
-          TimeUnit.MILLISECONDS.toSeconds(e.getTimeStamp() - windowDeque.peekLast().getTimeStamp())
-              > SLIDING_WINDOW_SIZE) {
-        windowDeque.pollLast();
-      }
-    }
-
-    public double readMin() {
-      if (!windowDeque.isEmpty()) {
-        return windowDeque.peekLast().getValue();
-      }
-      return Double.NaN;
-    }
-  }
-
   /**
    * read top k value from rca.conf
    * @param conf RcaConf object
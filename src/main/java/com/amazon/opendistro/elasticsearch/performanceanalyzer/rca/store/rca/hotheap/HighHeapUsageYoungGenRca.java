@@ -98,16 +98,16 @@ public class HighHeapUsageYoungGenRca extends Rca<ResourceFlowUnit<HotResourceSu
        * so the promotion rate within this time window is (100 + 100 + 0 + 50 + 50) / time slice
        */
       @Override
-      protected void add(SlidingWindowData e) {
-        if (!windowDeque.isEmpty() && e.getValue() > windowDeque.peekFirst().getValue()) {
-          sum += (e.getValue() - windowDeque.peekFirst().getValue());
+      protected void add(long timeStamp, double value) {
+        if (!isEmpty() && value > peekNewestValue()) {
+          sum += (value - peekNewestValue());
         }
       }
 
       @Override
-      protected void remove(SlidingWindowData e) {
-        if (!windowDeque.isEmpty() && e.getValue() < windowDeque.peekLast().getValue()) {
-          sum -= (windowDeque.peekLast().getValue() - e.getValue());
+      protected void remove(long timeStamp, double value) {
+        if (!isEmpty() && value < peekOldestValue()) {
+          sum -= (peekOldestValue() - value);
         }
       }
     };
@@ -128,10 +128,10 @@ public class HighHeapUsageYoungGenRca extends Rca<ResourceFlowUnit<HotResourceSu
       if (metricFU.isEmpty()) {
         continue;
       }
-      double oldGenHeapUsed = SQLParsingUtil.readDataFromSqlResult(metricFU.getData(),
+      double oldGenHeapUsed = SQLParsingUtil.readDataFromMetricTable(metricFU.getMetricTable(),
           MEM_TYPE.getField(), OLD_GEN.toString(), MetricsDB.MAX);
       if (!Double.isNaN(oldGenHeapUsed)) {
-        promotionRateDeque.next(new SlidingWindowData(currTimeStamp, oldGenHeapUsed / CONVERT_BYTES_TO_MEGABYTES));
+        promotionRateDeque.next(currTimeStamp, oldGenHeapUsed / CONVERT_BYTES_TO_MEGABYTES);
       }
       else {
         LOG.error("Failed to parse metric in FlowUnit from {}", heap_Used.getClass().getName());
@@ -143,10 +143,10 @@ public class HighHeapUsageYoungGenRca extends Rca<ResourceFlowUnit<HotResourceSu
       if (metricFU.isEmpty()) {
         continue;
       }
-      double totYoungGCTime = SQLParsingUtil.readDataFromSqlResult(metricFU.getData(),
+      double totYoungGCTime = SQLParsingUtil.readDataFromMetricTable(metricFU.getMetricTable(),
           MEM_TYPE.getField(), TOT_YOUNG_GC.toString(), MetricsDB.MAX);
       if (!Double.isNaN(totYoungGCTime)) {
-        gcTimeDeque.next(new SlidingWindowData(currTimeStamp, totYoungGCTime));
+        gcTimeDeque.next(currTimeStamp, totYoungGCTime);
       }
       else {
         LOG.error("Failed to parse metric in FlowUnit from {}", gc_Collection_Time.getClass().getName());
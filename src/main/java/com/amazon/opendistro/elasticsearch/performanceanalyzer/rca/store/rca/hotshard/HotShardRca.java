@@ -115,7 +115,7 @@ public class HotShardRca extends Rca<ResourceFlowUnit<HotNodeSummary>> {
                         usageDeque = new SlidingWindow<>(SLIDING_WINDOW_IN_SECONDS, TimeUnit.SECONDS);
                         metricMap.put(indexShardKey, usageDeque);
                     }
-                    usageDeque.next(new SlidingWindowData(this.clock.millis(), usage));
+                    usageDeque.next(this.clock.millis(), usage);
                 }
             } catch (Exception e) {
                 StatsCollector.instance().logMetric(HOT_SHARD_RCA_ERROR_METRIC);
@@ -168,7 +168,7 @@ public class QueueRejectionRca extends Rca<ResourceFlowUnit<HotNodeSummary>> {
         if (flowUnit.isEmpty()) {
           continue;
         }
-        double rejectCnt = SQLParsingUtil.readDataFromSqlResult(flowUnit.getData(),
+        double rejectCnt = SQLParsingUtil.readDataFromMetricTable(flowUnit.getMetricTable(),
             THREAD_POOL_TYPE.getField(), threadPoolMetric.toString(), MetricsDB.MAX);
         if (!Double.isNaN(rejectCnt)) {
           if (rejectCnt > 0) {
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import java.util.Arrays;
+import org.jooq.Record;
+import org.jooq.Result;
+
+/**
+ * The per thread OS metrics of a reader window, held in arrays instead of a table of the in-memory
+ * database. A row is a thread; the metrics of all the rows are stored in one array, in the order
+ * of {@link #getMetricColumns()}, with NaN for a missing value. Rows are looked up by tid through
+ * an open addressing index, so that the shard requests can be joined with the threads they ran on
+ * without creating and dropping a table every window.
+ */
+public class AlignedOSMetrics {
+  private static final String[] METRIC_COLUMNS =
+      OSMetricsSnapshot.METRIC_COLUMNS.toArray(new String[0]);
+  // Positions of the columns in OSMetricsSnapshot.selectAll().
+  private static final int TID = 0;
+  private static final int TNAME = 1;
+  private static final int FIRST_METRIC = 2;
+  private static final int LAST_UPDATE_TIME = FIRST_METRIC + METRIC_COLUMNS.length;
+  private static final long NO_UPDATE_TIME = Long.MIN_VALUE;
+
+  private String[] tids;
+  private String[] threadNames;
+  private double[] values;
+  private long[] lastUpdateTimes;
+  private int size;
+  // The row + 1 of the tid hashed to a slot, 0 for an empty slot.
+  private int[] index;
+
+  private AlignedOSMetrics(int expectedRows) {
+    int capacity = Math.max(expectedRows, 16);
+    tids = new String[capacity];
+    threadNames = new String[capacity];
+    values = new double[capacity * METRIC_COLUMNS.length];
+    lastUpdateTimes = new long[capacity];
+    index = new int[Integer.highestOneBit(capacity) << 2];
+  }
+
+  /** The metrics of a single snapshot, as they were sampled. */
+  public static AlignedOSMetrics of(OSMetricsSnapshot snapshot) {
+    Result<Record> rows = snapshot.selectAll().fetch();
+    AlignedOSMetrics metrics = new AlignedOSMetrics(rows.size());
+    for (Record row : rows) {
+      String tid = (String) row.get(TID);
+      int at = metrics.find(tid);
+      if (at < 0) {
+        at = metrics.add(tid, (String) row.get(TNAME), NO_UPDATE_TIME);
+        Arrays.fill(metrics.values, metrics.offset(at), metrics.offset(at + 1), Double.NaN);
+      }
+      // A thread has a single row in a snapshot; if not, the largest values are kept.
+      for (int col = 0; col < METRIC_COLUMNS.length; col++) {
+        int offset = metrics.offset(at) + col;
+        metrics.values[offset] = max(metrics.values[offset], toDouble(row.get(FIRST_METRIC + col)));
+      }
+      Object updateTime = row.get(LAST_UPDATE_TIME);
+      if (updateTime != null) {
+        metrics.lastUpdateTimes[at] =
+            Math.max(metrics.lastUpdateTimes[at], ((Number) updateTime).longValue());
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Given metrics in two windows calculates a new window which overlaps with the given windows.
+   * |------leftWindow-------|-------rightWindow--------| leftLastUpdateTime rightLastUpdateTime
+   *
+   * <p>a b |-----alignedWindow-----|
+   *
+   * <p>leftWeight = leftLastUpdateTime - a rightWeight = b - leftLastUpdateTime
+   *
+   * <p>A thread sampled in both windows gets MetricValue = (leftWeight * l_metric + rightWeight *
+   * r_metric) / (b - a), missing if either side is. A thread sampled in one window only keeps the
+   * values of that window. A thread is sampled in a window if its row has an update time.
+   *
+   * <p>This method assumes that both left/right windows are greater than or equal to 5 seconds.
+   *
+   * @param leftWindow a snapshot of the left window metrics
+   * @param rightWindow a snapshot of the right window metrics
+   * @param a aligned window start time.
+   * @param b aligned window end time.
+   * @return the threads of both windows, then those of the left window only, then those of the
+   *     right window only.
+   */
+  public static AlignedOSMetrics align(
+      OSMetricsSnapshot leftWindow, OSMetricsSnapshot rightWindow, long a, long b) {
+    AlignedOSMetrics left = of(leftWindow);
+    AlignedOSMetrics right = of(rightWindow);
+    AlignedOSMetrics aligned = new AlignedOSMetrics(left.size + right.size);
+    double span = b - a;
+
+    for (int l = 0; l < left.size; l++) {
+      int r = right.find(left.tids[l]);
+      if (!left.isSampled(l) || r < 0 || !right.isSampled(r)) {
+        continue;
+      }
+      double leftWeight = left.lastUpdateTimes[l] - a;
+      double rightWeight = b - left.lastUpdateTimes[l];
+      int at = aligned.add(left.tids[l], left.threadNames[l], left.lastUpdateTimes[l]);
+      for (int col = 0; col < METRIC_COLUMNS.length; col++) {
+        // NaN is carried through the way NULL is by the database.
+        aligned.values[aligned.offset(at) + col] =
+            (leftWeight * left.values[left.offset(l) + col]
+                    + rightWeight * right.values[right.offset(r) + col])
+                / span;
+      }
+    }
+    for (int l = 0; l < left.size; l++) {
+      int r = right.find(left.tids[l]);
+      if (left.isSampled(l) && (r < 0 || !right.isSampled(r))) {
+        aligned.copy(left, l, left.lastUpdateTimes[l]);
+      }
+    }
+    for (int r = 0; r < right.size; r++) {
+      int l = left.find(right.tids[r]);
+      if (right.isSampled(r) && (l < 0 || !left.isSampled(l))) {
+        aligned.copy(right, r, NO_UPDATE_TIME);
+      }
+    }
+    return aligned;
+  }
+
+  public static String[] getMetricColumns() {
+    return METRIC_COLUMNS.clone();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public String getTid(int row) {
+    return tids[row];
+  }
+
+  public String getThreadName(int row) {
+    return threadNames[row];
+  }
+
+  /** The value of the metric in column col of getMetricColumns(), NaN if missing. */
+  public double getMetric(int row, int col) {
+    return values[offset(row) + col];
+  }
+
+  /** The row of the thread, -1 if there is none. */
+  public int find(String tid) {
+    if (tid == null) {
+      return -1;
+    }
+    int mask = index.length - 1;
+    for (int slot = hash(tid) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+      int row = index[slot] - 1;
+      if (tid.equals(tids[row])) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isSampled(int row) {
+    return lastUpdateTimes[row] != NO_UPDATE_TIME;
+  }
+
+  private int offset(int row) {
+    return row * METRIC_COLUMNS.length;
+  }
+
+  private void copy(AlignedOSMetrics from, int row, long lastUpdateTime) {
+    int at = add(from.tids[row], from.threadNames[row], lastUpdateTime);
+    System.arraycopy(from.values, from.offset(row), values, offset(at), METRIC_COLUMNS.length);
+  }
+
+  /** Appends a row for a tid that is not in the table yet. */
+  private int add(String tid, String threadName, long lastUpdateTime) {
+    if (size == tids.length) {
+      grow();
+    }
+    int row = size++;
+    tids[row] = tid;
+    threadNames[row] = threadName;
+    lastUpdateTimes[row] = lastUpdateTime;
+    if (tid != null) {
+      insert(row);
+    }
+    return row;
+  }
+
+  private void insert(int row) {
+    int mask = index.length - 1;
+    int slot = hash(tids[row]) & mask;
+    while (index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = row + 1;
+  }
+
+  private void grow() {
+    int capacity = tids.length * 2;
+    tids = Arrays.copyOf(tids, capacity);
+    threadNames = Arrays.copyOf(threadNames, capacity);
+    values = Arrays.copyOf(values, capacity * METRIC_COLUMNS.length);
+    lastUpdateTimes = Arrays.copyOf(lastUpdateTimes, capacity);
+    // Keep the index at most half full.
+    index = new int[index.length * 2];
+    for (int row = 0; row < size; row++) {
+      if (tids[row] != null) {
+        insert(row);
+      }
+    }
+  }
+
+  private static int hash(String tid) {
+    int h = tid.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static double toDouble(Object value) {
+    return value == null ? Double.NaN : ((Number) value).doubleValue();
+  }
+
+  /** The larger of two values, a missing value being the smaller one. */
+  private static double max(double current, double value) {
+    return Double.isNaN(current) || value > current ? value : current;
+  }
+}
@@ -18,6 +18,7 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -44,9 +45,24 @@ public class EventDispatcher {
   }
 
   public void processEvent(Event event) {
+    processEvent(event, null);
+  }
+
+  /**
+   * Dispatches an event whose value has not been materialized yet. The processors only look at the
+   * key to decide if they are interested in an event, so the value is decoded only once a processor
+   * has been picked and events that no one processes never get their value decoded.
+   *
+   * @param event The event with the key set.
+   * @param value Supplies the value of the event, or null if the event already carries it.
+   */
+  public void processEvent(Event event, Supplier<String> value) {
     boolean eventProcessed = false;
     for (EventProcessor p : eventProcessors) {
       if (p.shouldProcessEvent(event)) {
+        if (value != null) {
+          event.value = value.get();
+        }
         p.processEvent(event);
         p.commitBatchIfRequired();
         eventProcessed = true;
@@ -19,27 +19,27 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.DBUtils;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.TroubleshootingConfig;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.CommonMetric;
-import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.OSMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.BatchPut;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Dimensions;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Metric;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators.QuantileSketch;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jooq.BatchBindStep;
-import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
-import org.jooq.SelectField;
 import org.jooq.SelectHavingStep;
-import org.jooq.impl.DSL;
 
 @SuppressWarnings("serial")
 public class MetricsEmitter {
@@ -84,158 +84,77 @@ public class MetricsEmitter {
         }
       };
 
+  private static final AllMetrics.ShardOperationMetric[] LATENCY_PERCENTILES = {
+    AllMetrics.ShardOperationMetric.LATENCY_P50,
+    AllMetrics.ShardOperationMetric.LATENCY_P90,
+    AllMetrics.ShardOperationMetric.LATENCY_P99
+  };
+  private static final double[] LATENCY_QUANTILES = {0.5, 0.9, 0.99};
+
+  /**
+   * Attributes the OS metrics of the threads to the shard requests that ran on them, in proportion
+   * to the share of the thread time of the window each request took (tUtil), and aggregates them by
+   * shard, index, operation and role. The requests are hash joined with the threads on tid.
+   */
   public static void emitAggregatedOSMetrics(
       final DSLContext create,
       final MetricsDB db,
-      final OSMetricsSnapshot osMetricsSnap,
-      final ShardRequestMetricsSnapshot rqMetricsSnap)
+      final AlignedOSMetrics osMetrics,
+      final ShardRequestUtilization utilization)
       throws Exception {
 
-    SelectHavingStep<Record> rqTable = rqMetricsSnap.fetchThreadUtilizationRatioTable();
-    SelectHavingStep<Record> osTable = osMetricsSnap.selectAll();
-
-    List<SelectField<?>> fields =
-        new ArrayList<SelectField<?>>() {
-          {
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()),
-                    String.class));
-          }
-        };
-
-    for (OSMetrics metric : OSMetrics.values()) {
-      fields.add(
-          DSL.field(ShardRequestMetricsSnapshot.Fields.TUTIL.toString(), Double.class)
-              .mul(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(metric.toString()));
-    }
-
-    ArrayList<Field<?>> groupByFields =
-        new ArrayList<Field<?>>() {
-          {
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()),
-                    String.class));
-          }
-        };
-
-    List<SelectField<?>> aggFields =
-        new ArrayList<SelectField<?>>() {
-          {
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()),
-                    String.class));
-            this.add(
-                DSL.field(
-                    DSL.name(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()),
-                    String.class));
-          }
-        };
-
-    for (OSMetrics metric : OSMetrics.values()) {
-      aggFields.add(
-          DSL.sum(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(MetricsDB.SUM + "_" + metric.toString()));
-      aggFields.add(
-          DSL.avg(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(MetricsDB.AVG + "_" + metric.toString()));
-      aggFields.add(
-          DSL.min(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(MetricsDB.MIN + "_" + metric.toString()));
-      aggFields.add(
-          DSL.max(DSL.field(DSL.name(metric.toString()), Double.class))
-              .as(MetricsDB.MAX + "_" + metric.toString()));
-    }
+    List<ShardRequestUtilization.Request> requests = utilization.getRequests();
+    checkInvalidData(requests, osMetrics);
 
+    String[] metricColumns = AlignedOSMetrics.getMetricColumns();
     long mCurrT = System.currentTimeMillis();
-    Result<Record> res =
-        create
-            .select(aggFields)
-            .from(
-                create
-                    .select(fields)
-                    .from(rqTable)
-                    .join(osTable)
-                    .on(
-                        osTable
-                            .field(OSMetricsSnapshot.Fields.tid.toString(), String.class)
-                            .eq(
-                                rqTable.field(
-                                    OSMetricsSnapshot.Fields.tid.toString(), String.class))))
-            .groupBy(groupByFields)
-            .fetch();
+    Map<List<String>, ShardOSMetrics> aggregates = new HashMap<>();
+    for (ShardRequestUtilization.Request request : requests) {
+      int thread = osMetrics.find(request.getTid());
+      if (thread < 0) {
+        continue;
+      }
+      List<String> shardOp =
+          Arrays.asList(
+              request.getShardId(),
+              request.getIndexName(),
+              request.getOperation(),
+              request.getShardRole());
+      ShardOSMetrics aggregate =
+          aggregates.computeIfAbsent(shardOp, k -> new ShardOSMetrics(metricColumns.length));
+      double ratio = utilization.getUtilization(request);
+      for (int col = 0; col < metricColumns.length; col++) {
+        aggregate.add(col, ratio * osMetrics.getMetric(thread, col));
+      }
+    }
     long mFinalT = System.currentTimeMillis();
     LOG.debug("Total time taken for tid corelation: {}", mFinalT - mCurrT);
-    checkInvalidData(rqTable, osTable, create);
-
-    Set<String> metricColumns = osMetricsSnap.getMetricColumns();
 
     mCurrT = System.currentTimeMillis();
-    for (String metricColumn : metricColumns) {
-      List<String> dims =
-          new ArrayList<String>() {
-            {
-              this.add(AllMetrics.CommonDimension.SHARD_ID.toString());
-              this.add(AllMetrics.CommonDimension.INDEX_NAME.toString());
-              this.add(AllMetrics.CommonDimension.OPERATION.toString());
-              this.add(AllMetrics.CommonDimension.SHARD_ROLE.toString());
-            }
-          };
-      db.createMetric(new Metric<Double>(metricColumn, 0d), dims);
-      BatchBindStep handle = db.startBatchPut(new Metric<Double>(metricColumn, 0d), dims);
-      for (Record r : res) {
-        if (r.get(MetricsDB.SUM + "_" + metricColumn) == null) {
+    List<String> dims =
+        Arrays.asList(
+            AllMetrics.CommonDimension.SHARD_ID.toString(),
+            AllMetrics.CommonDimension.INDEX_NAME.toString(),
+            AllMetrics.CommonDimension.OPERATION.toString(),
+            AllMetrics.CommonDimension.SHARD_ROLE.toString());
+    for (int col = 0; col < metricColumns.length; col++) {
+      db.createMetric(new Metric<Double>(metricColumns[col], 0d), dims);
+      BatchPut handle = db.startBatchPut(new Metric<Double>(metricColumns[col], 0d), dims);
+      for (Map.Entry<List<String>, ShardOSMetrics> entry : aggregates.entrySet()) {
+        ShardOSMetrics aggregate = entry.getValue();
+        if (aggregate.counts[col] == 0) {
           continue;
         }
-
-        Double sumMetric = Double.parseDouble(r.get(MetricsDB.SUM + "_" + metricColumn).toString());
-        Double avgMetric = Double.parseDouble(r.get(MetricsDB.AVG + "_" + metricColumn).toString());
-        Double minMetric = Double.parseDouble(r.get(MetricsDB.MIN + "_" + metricColumn).toString());
-        Double maxMetric = Double.parseDouble(r.get(MetricsDB.MAX + "_" + metricColumn).toString());
+        List<String> shardOp = entry.getKey();
         handle.bind(
-            r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()).toString(),
-            sumMetric,
-            avgMetric,
-            minMetric,
-            maxMetric);
+            shardOp.get(0),
+            shardOp.get(1),
+            shardOp.get(2),
+            shardOp.get(3),
+            aggregate.sums[col],
+            aggregate.sums[col] / aggregate.counts[col],
+            aggregate.mins[col],
+            aggregate.maxs[col]);
       }
 
       if (handle.size() > 0) {
@@ -246,49 +165,84 @@ public class MetricsEmitter {
     LOG.debug("Total time taken for writing resource metrics metricsdb: {}", mFinalT - mCurrT);
   }
 
+  /** The sum, min, max and count of the values of every OS metric attributed to a shard. */
+  private static class ShardOSMetrics {
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxs;
+    private final int[] counts;
+
+    ShardOSMetrics(int metrics) {
+      sums = new double[metrics];
+      mins = new double[metrics];
+      maxs = new double[metrics];
+      counts = new int[metrics];
+    }
+
+    /** Adds a value; missing values are skipped, as the aggregate functions of SQL do. */
+    void add(int col, double value) {
+      if (Double.isNaN(value)) {
+        return;
+      }
+      if (counts[col] == 0) {
+        mins[col] = value;
+        maxs[col] = value;
+      } else {
+        mins[col] = Math.min(mins[col], value);
+        maxs[col] = Math.max(maxs[col], value);
+      }
+      sums[col] += value;
+      counts[col]++;
+    }
+  }
+
   /**
    * Check if there is any invalid data. Invalid data is if we have tid in request table but not in
    * OS tables.
    *
-   * @param rqTable request table select
-   * @param osTable OS table select
-   * @param create db connection
+   * @param requests shard requests of the window
+   * @param osMetrics OS metrics of the threads
    */
-  @SuppressWarnings("unchecked")
   private static void checkInvalidData(
-      SelectHavingStep<Record> rqTable, SelectHavingStep<Record> osTable, final DSLContext create) {
+      List<ShardRequestUtilization.Request> requests, AlignedOSMetrics osMetrics) {
     if (!TroubleshootingConfig.getEnableDevAssert()) {
       return;
     }
 
-    Condition condition = DSL.trueCondition();
-    Field tidField = DSL.field(DSL.name(OSMetricsSnapshot.Fields.tid.toString()), String.class);
-    Field tNameField = DSL.field(DSL.name(OSMetricsSnapshot.Fields.tName.toString()), String.class);
-
-    Set<String> rqSet = DBUtils.getRecordSetByField(rqTable, tidField, condition, create);
-    condition = tNameField.contains("[bulk]").or(tNameField.contains("[search]"));
-    Set<String> osSet = DBUtils.getRecordSetByField(osTable, tidField, condition, create);
+    Set<String> rqSet = new TreeSet<>();
+    for (ShardRequestUtilization.Request request : requests) {
+      rqSet.add(request.getTid());
+    }
+    Set<String> osSet = new TreeSet<>();
+    for (int row = 0; row < osMetrics.size(); row++) {
+      String threadName = osMetrics.getThreadName(row);
+      if (threadName != null
+          && (threadName.contains("[bulk]") || threadName.contains("[search]"))) {
+        osSet.add(osMetrics.getTid(row));
+      }
+    }
 
     if (!osSet.containsAll(rqSet)) {
       String msg =
           String.format(
               "[Invalid Data] Unmatched tid between %s and %s", rqSet.toString(), osSet.toString());
       LOG.error(msg);
-      LOG.error(create.select().from(rqTable).fetch().toString());
-      LOG.error(create.select().from(osTable).where(condition).fetch().toString());
       throw new RuntimeException(msg);
     }
   }
 
+  /**
+   * Writes the latency, the number of requests and the number of bulk documents of every shard
+   * operation, and the percentiles of its latency from the sketch of the operation.
+   */
   public static void emitWorkloadMetrics(
-      final DSLContext create, final MetricsDB db, final ShardRequestMetricsSnapshot rqMetricsSnap)
+      final DSLContext create, final MetricsDB db, final ShardRequestLatencies latencies)
       throws Exception {
     long mCurrT = System.currentTimeMillis();
-    Result<Record> res = rqMetricsSnap.fetchLatencyByOp();
 
     db.createMetric(
         new Metric<Double>(CommonMetric.LATENCY.toString(), 0d), LATENCY_TABLE_DIMENSIONS);
-    BatchBindStep handle =
+    BatchPut handle =
         db.startBatchPut(
             new Metric<Double>(CommonMetric.LATENCY.toString(), 0d), LATENCY_TABLE_DIMENSIONS);
 
@@ -306,81 +260,72 @@ public class MetricsEmitter {
     db.createMetric(
         new Metric<Double>(AllMetrics.ShardOperationMetric.SHARD_OP_COUNT.toString(), 0d),
         shardDims);
-    BatchBindStep countHandle =
+    BatchPut countHandle =
         db.startBatchPut(
             new Metric<Double>(AllMetrics.ShardOperationMetric.SHARD_OP_COUNT.toString(), 0d),
             shardDims);
 
     db.createMetric(
         new Metric<Double>(AllMetrics.ShardBulkMetric.DOC_COUNT.toString(), 0d), shardDims);
-    BatchBindStep bulkDocHandle =
+    BatchPut bulkDocHandle =
         db.startBatchPut(
             new Metric<Double>(AllMetrics.ShardBulkMetric.DOC_COUNT.toString(), 0d), shardDims);
 
-    for (Record r : res) {
-      Double sumLatency =
-          Double.parseDouble(
-              r.get(
-                      DBUtils.getAggFieldName(
-                          ShardRequestMetricsSnapshot.Fields.LAT.toString(), MetricsDB.SUM))
-                  .toString());
-      Double avgLatency =
-          Double.parseDouble(
-              r.get(
-                      DBUtils.getAggFieldName(
-                          ShardRequestMetricsSnapshot.Fields.LAT.toString(), MetricsDB.AVG))
-                  .toString());
-      Double minLatency =
-          Double.parseDouble(
-              r.get(
-                      DBUtils.getAggFieldName(
-                          ShardRequestMetricsSnapshot.Fields.LAT.toString(), MetricsDB.MIN))
-                  .toString());
-      Double maxLatency =
-          Double.parseDouble(
-              r.get(
-                      DBUtils.getAggFieldName(
-                          ShardRequestMetricsSnapshot.Fields.LAT.toString(), MetricsDB.MAX))
-                  .toString());
+    BatchPut[] percentileHandles = new BatchPut[LATENCY_PERCENTILES.length];
+    for (int i = 0; i < LATENCY_PERCENTILES.length; i++) {
+      Metric<Double> metric = new Metric<Double>(LATENCY_PERCENTILES[i].toString(), 0d);
+      db.createMetric(metric, shardDims);
+      percentileHandles[i] = db.startBatchPut(metric, shardDims);
+    }
 
+    for (ShardRequestLatencies.ShardOperation op : latencies.getOperations()) {
+      QuantileSketch sketch = op.getLatencies();
       handle.bind(
-          r.get(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()).toString(),
+          op.getOperation(),
           null,
           null,
           null,
-          r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()).toString(),
-          r.get(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()).toString(),
-          r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()).toString(),
-          sumLatency,
-          avgLatency,
-          minLatency,
-          maxLatency);
-
-      Double count =
-          Double.parseDouble(
-              r.get(AllMetrics.ShardOperationMetric.SHARD_OP_COUNT.toString()).toString());
+          op.getShardId(),
+          op.getIndexName(),
+          op.getShardRole(),
+          sketch.getSum(),
+          sketch.getAverage(),
+          sketch.getMin(),
+          sketch.getMax());
+
+      Double count = (double) sketch.getCount();
       countHandle.bind(
-          r.get(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()).toString(),
-          r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()).toString(),
-          r.get(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()).toString(),
-          r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()).toString(),
+          op.getOperation(),
+          op.getShardId(),
+          op.getIndexName(),
+          op.getShardRole(),
           count,
           count,
           count,
           count);
 
-      Object bulkDocCountObj = r.get(AllMetrics.ShardBulkMetric.DOC_COUNT.toString());
-      if (bulkDocCountObj != null) {
-        Double bulkDocCount = Double.parseDouble(bulkDocCountObj.toString());
-        bulkDocHandle.bind(
-            r.get(ShardRequestMetricsSnapshot.Fields.OPERATION.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ID.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.INDEX_NAME.toString()).toString(),
-            r.get(ShardRequestMetricsSnapshot.Fields.SHARD_ROLE.toString()).toString(),
-            bulkDocCount,
-            bulkDocCount,
-            bulkDocCount,
-            bulkDocCount);
+      Double bulkDocCount = (double) op.getDocCount();
+      bulkDocHandle.bind(
+          op.getOperation(),
+          op.getShardId(),
+          op.getIndexName(),
+          op.getShardRole(),
+          bulkDocCount,
+          bulkDocCount,
+          bulkDocCount,
+          bulkDocCount);
+
+      for (int i = 0; i < LATENCY_PERCENTILES.length; i++) {
+        Double latency = sketch.getQuantile(LATENCY_QUANTILES[i]);
+        percentileHandles[i].bind(
+            op.getOperation(),
+            op.getShardId(),
+            op.getIndexName(),
+            op.getShardRole(),
+            latency,
+            latency,
+            latency,
+            latency);
       }
     }
     if (handle.size() > 0) {
@@ -392,40 +337,43 @@ public class MetricsEmitter {
     if (bulkDocHandle.size() > 0) {
       bulkDocHandle.execute();
     }
+    for (BatchPut percentileHandle : percentileHandles) {
+      if (percentileHandle.size() > 0) {
+        percentileHandle.execute();
+      }
+    }
     long mFinalT = System.currentTimeMillis();
     LOG.debug("Total time taken for writing workload metrics metricsdb: {}", mFinalT - mCurrT);
   }
 
   public static void emitThreadNameMetrics(
-      final DSLContext create, final MetricsDB db, final OSMetricsSnapshot osMetricsSnap)
+      final DSLContext create, final MetricsDB db, final AlignedOSMetrics osMetrics)
       throws Exception {
     long mCurrT = System.currentTimeMillis();
-    Result<Record> res = osMetricsSnap.getOSMetrics();
-
-    Set<String> metricColumns = osMetricsSnap.getMetricColumns();
-    for (Record r : res) {
+    String[] metricColumns = AlignedOSMetrics.getMetricColumns();
+    for (int row = 0; row < osMetrics.size(); row++) {
       Dimensions dimensions = new Dimensions();
-      Object threadName = r.get(OSMetricsSnapshot.Fields.tName.toString());
+      String threadName = osMetrics.getThreadName(row);
 
       if (threadName == null) {
-        LOG.debug("Could not find tName: {}", r);
+        LOG.debug("Could not find tName for tid: {}", osMetrics.getTid(row));
         continue;
       }
-      String operation = categorizeThreadName(threadName.toString(), dimensions);
+      String operation = categorizeThreadName(threadName, dimensions);
       if (operation == null) {
         continue;
       }
 
       dimensions.put(ShardRequestMetricsSnapshot.Fields.OPERATION.toString(), operation);
-      for (String metricColumn : metricColumns) {
-        if (r.get(metricColumn) == null) {
+      for (int col = 0; col < metricColumns.length; col++) {
+        double metric = osMetrics.getMetric(row, col);
+        if (Double.isNaN(metric)) {
           continue;
         }
-        Double metric = Double.parseDouble(r.get(metricColumn).toString());
-        if (operation.equals("merge") && metricColumn.equals("cpu")) {
+        if (operation.equals("merge") && metricColumns[col].equals("cpu")) {
           LOG.debug("Putting merge metric {}", metric);
         }
-        db.putMetric(new Metric<Double>(metricColumn, metric), dimensions, 0);
+        db.putMetric(new Metric<Double>(metricColumns[col], metric), dimensions, 0);
       }
     }
     long mFinalT = System.currentTimeMillis();
@@ -640,7 +588,7 @@ public class MetricsEmitter {
         new Metric<Double>(AllMetrics.MasterMetricValues.MASTER_TASK_RUN_TIME.toString(), 0d),
         dims);
 
-    BatchBindStep handle =
+    BatchPut handle =
         metricsDB.startBatchPut(
             new Metric<Double>(AllMetrics.MasterMetricValues.MASTER_TASK_RUN_TIME.toString(), 0d),
             dims);
@@ -700,7 +648,7 @@ public class MetricsEmitter {
         new Metric<Double>(AllMetrics.MasterMetricValues.MASTER_TASK_QUEUE_TIME.toString(), 0d),
         dims);
 
-    BatchBindStep handle =
+    BatchPut handle =
         metricsDB.startBatchPut(
             new Metric<Double>(AllMetrics.MasterMetricValues.MASTER_TASK_QUEUE_TIME.toString(), 0d),
             dims);
@@ -794,7 +742,7 @@ public class MetricsEmitter {
 
       db.createMetric(new Metric<Double>(tableName, 0d), dimensionNames);
 
-      BatchBindStep handle = db.startBatchPut(tableName, selectFields.size());
+      BatchPut handle = db.startBatchPut(tableName, selectFields.size());
       for (Record r : fetchedData) {
         int columnNum = selectFields.size();
         Object[] bindValues = new Object[columnNum];
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Lets consumers of the MetricsDB windows wait for the reader to publish a new one instead of
+ * polling. {@link ReaderMetricsProcessor} publishes the start time of every window once all its
+ * metrics are committed.
+ */
+public class MetricsWindowSignal {
+  private static final MetricsWindowSignal INSTANCE = new MetricsWindowSignal();
+
+  /** Returned when no window has been published yet. */
+  public static final long NO_WINDOW = -1;
+
+  private long latestWindowStartTime = NO_WINDOW;
+
+  @VisibleForTesting
+  MetricsWindowSignal() {}
+
+  public static MetricsWindowSignal instance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Marks a window as available and wakes up the waiting consumers. Windows older than the latest
+   * published one are ignored.
+   *
+   * @param windowStartTime The start time of the window, the key it has in the MetricsDB map.
+   */
+  public synchronized void publish(long windowStartTime) {
+    if (windowStartTime > latestWindowStartTime) {
+      latestWindowStartTime = windowStartTime;
+      notifyAll();
+    }
+  }
+
+  public synchronized long getLatestWindowStartTime() {
+    return latestWindowStartTime;
+  }
+
+  /**
+   * Waits until a window newer than the given one is published or the timeout elapses.
+   *
+   * @param windowStartTime The latest window the caller has seen.
+   * @param timeoutMillis The maximum time to wait.
+   * @return The start time of the latest published window, which is not newer than {@code
+   *     windowStartTime} if the wait timed out.
+   * @throws InterruptedException if the thread is interrupted while waiting.
+   */
+  public synchronized long awaitWindowAfter(long windowStartTime, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long remaining = timeoutMillis;
+    while (latestWindowStartTime <= windowStartTime && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return latestWindowStartTime;
+  }
+}
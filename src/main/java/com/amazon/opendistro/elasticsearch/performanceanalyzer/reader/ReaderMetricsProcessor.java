@@ -25,6 +25,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetric
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsHistory;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLog;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.EventLogFileHandler;
 import com.google.common.annotations.VisibleForTesting;
@@ -55,7 +56,7 @@ public class ReaderMetricsProcessor implements Runnable {
   // ReaderMetricsProcessor.
   private NavigableMap<Long, MetricsDB> metricsDBMap;
   private NavigableMap<Long, OSMetricsSnapshot> osMetricsMap;
-  private NavigableMap<Long, ShardRequestMetricsSnapshot> shardRqMetricsMap;
+  private final ShardRequestMatcher shardRqMatcher;
   private NavigableMap<Long, HttpRequestMetricsSnapshot> httpRqMetricsMap;
   private NavigableMap<Long, MasterEventMetricsSnapshot> masterEventMetricsMap;
   private Map<AllMetrics.MetricName, NavigableMap<Long, MemoryDBSnapshot>> nodeMetricsMap;
@@ -77,6 +78,7 @@ public class ReaderMetricsProcessor implements Runnable {
 
   private final boolean processNewFormat;
   private final EventLogFileHandler eventLogFileHandler;
+  private final MetricsHistory metricsHistory;
   private static ReaderMetricsProcessor current = null;
 
   public static void setCurrentInstance(ReaderMetricsProcessor currentInstance) {
@@ -96,7 +98,7 @@ public class ReaderMetricsProcessor implements Runnable {
     create = DSL.using(conn, SQLDialect.SQLITE);
     metricsDBMap = new ConcurrentSkipListMap<>();
     osMetricsMap = new TreeMap<>();
-    shardRqMetricsMap = new TreeMap<>();
+    shardRqMatcher = new ShardRequestMatcher(RQ_SNAPSHOTS);
     httpRqMetricsMap = new TreeMap<>();
     masterEventMetricsMap = new TreeMap<>();
     this.rootLocation = rootLocation;
@@ -110,6 +112,7 @@ public class ReaderMetricsProcessor implements Runnable {
     eventLogFileHandler = new EventLogFileHandler(new EventLog(), rootLocation);
     this.processNewFormat = processNewFormat;
     this.appContext = appContext;
+    this.metricsHistory = new MetricsHistory();
   }
 
   @Override
@@ -130,14 +133,6 @@ public class ReaderMetricsProcessor implements Runnable {
 
       while (true) {
         // Create snapshots.
-        Statement vacuumStmt = conn.createStatement();
-        try {
-          vacuumStmt.executeUpdate("VACUUM");
-        } catch (Exception e) {
-          LOG.error("Unable to run Vacuum.");
-        } finally {
-          vacuumStmt.close();
-        }
         conn.setAutoCommit(false);
         startTime = System.currentTimeMillis();
         processMetrics(rootLocation, startTime);
@@ -198,7 +193,6 @@ public class ReaderMetricsProcessor implements Runnable {
 
   public void trimOldSnapshots() throws Exception {
     trimMap(osMetricsMap, OS_SNAPSHOTS);
-    trimMap(shardRqMetricsMap, RQ_SNAPSHOTS);
     trimMap(httpRqMetricsMap, HTTP_RQ_SNAPSHOTS);
     trimMap(masterEventMetricsMap, MASTER_EVENT_SNAPSHOTS);
     trimDatabases(
@@ -265,25 +259,19 @@ public class ReaderMetricsProcessor implements Runnable {
     }
 
     long mCurrT = System.currentTimeMillis();
-    // This is object holds a reference to the temporary os snapshot. It is used to delete tables at
-    // the end of this
-    // reader cycle. The OSMetricsSnapshot expects windowEndTime in the constructor.
-    OSMetricsSnapshot alignedOSSnapHolder =
-        new OSMetricsSnapshot(this.conn, "os_aligned_", currWindowStartTime);
-    OSMetricsSnapshot osAlignedSnap =
+    AlignedOSMetrics osAlignedMetrics =
         alignOSMetrics(
-            prevWindowStartTime,
-            prevWindowStartTime + MetricsConfiguration.SAMPLING_INTERVAL,
-            alignedOSSnapHolder);
+            prevWindowStartTime, prevWindowStartTime + MetricsConfiguration.SAMPLING_INTERVAL);
 
     long mFinalT = System.currentTimeMillis();
     LOG.debug("Total time taken for aligning OS Metrics: {}", mFinalT - mCurrT);
+    TIMING_STATS.put("alignOSMetrics", (double) (mFinalT - mCurrT));
 
     mCurrT = System.currentTimeMillis();
     MetricsDB metricsDB = createMetricsDB(prevWindowStartTime);
 
     emitMasterMetrics(prevWindowStartTime, metricsDB);
-    emitShardRequestMetrics(prevWindowStartTime, alignedOSSnapHolder, osAlignedSnap, metricsDB);
+    emitShardRequestMetrics(prevWindowStartTime, osAlignedMetrics, metricsDB);
     emitHttpRequestMetrics(prevWindowStartTime, metricsDB);
     emitNodeMetrics(currWindowStartTime, metricsDB);
 
@@ -292,6 +280,19 @@ public class ReaderMetricsProcessor implements Runnable {
     mFinalT = System.currentTimeMillis();
     LOG.debug("Total time taken for emitting Metrics: {}", mFinalT - mCurrT);
     TIMING_STATS.put("emitMetrics", (double) (mFinalT - mCurrT));
+
+    // The history is updated before the window is published, so that the consumers woken up by
+    // the signal find the window in both.
+    mCurrT = System.currentTimeMillis();
+    try {
+      metricsHistory.ingest(prevWindowStartTime, metricsDB);
+    } catch (Exception e) {
+      LOG.error("Unable to add window {} to the metrics history", prevWindowStartTime, e);
+    }
+    mFinalT = System.currentTimeMillis();
+    TIMING_STATS.put("ingestMetricsHistory", (double) (mFinalT - mCurrT));
+    TIMING_STATS.put("metricsHistoryBytes", (double) metricsHistory.sizeInBytes());
+    MetricsWindowSignal.instance().publish(prevWindowStartTime);
   }
 
   private void emitHttpRequestMetrics(long prevWindowStartTime, MetricsDB metricsDB)
@@ -308,36 +309,27 @@ public class ReaderMetricsProcessor implements Runnable {
   }
 
   private void emitShardRequestMetrics(
-      long prevWindowStartTime,
-      OSMetricsSnapshot alignedOSSnapHolder,
-      OSMetricsSnapshot osAlignedSnap,
-      MetricsDB metricsDB)
+      long prevWindowStartTime, AlignedOSMetrics osAlignedMetrics, MetricsDB metricsDB)
       throws Exception {
 
-    if (shardRqMetricsMap.containsKey(prevWindowStartTime)) {
-
-      ShardRequestMetricsSnapshot preShardRequestMetricsSnapshot =
-          shardRqMetricsMap.get(prevWindowStartTime);
-      LOG.debug(
-          "shard emit time {}, {}",
-          prevWindowStartTime,
-          preShardRequestMetricsSnapshot.windowStartTime);
-      MetricsEmitter.emitWorkloadMetrics(
-          create, metricsDB, preShardRequestMetricsSnapshot); // calculate latency
-      if (osAlignedSnap != null) {
-        // LOG.info(osAlignedSnap.fetchAll());
-        // LOG.info(preShardRequestMetricsSnapshot.fetchAll());
+    ShardRequestUtilization utilization = shardRqMatcher.getUtilization(prevWindowStartTime);
+    if (utilization != null) {
+      LOG.debug("shard emit time {}", prevWindowStartTime);
+      ShardRequestLatencies latencies = shardRqMatcher.getLatencies(prevWindowStartTime);
+      if (latencies != null) {
+        MetricsEmitter.emitWorkloadMetrics(create, metricsDB, latencies); // latency percentiles
+      }
+      TIMING_STATS.put("shardRequestsInflight", (double) shardRqMatcher.getInflightCount());
+      if (osAlignedMetrics != null) {
         MetricsEmitter.emitAggregatedOSMetrics(
-            create, metricsDB, osAlignedSnap, preShardRequestMetricsSnapshot); // table join
+            create, metricsDB, osAlignedMetrics, utilization); // tid join
         MetricsEmitter.emitThreadNameMetrics(
-            create, metricsDB, osAlignedSnap); // threads other than bulk and query
+            create, metricsDB, osAlignedMetrics); // threads other than bulk and query
       } else {
         LOG.debug("OS METRICS NULL");
       }
-      alignedOSSnapHolder.remove();
     } else {
-      LOG.debug(
-          "Shard request snapshot for the previous window does not exist. Not emitting metrics.");
+      LOG.debug("Shard requests of the previous window were not read. Not emitting metrics.");
     }
   }
 
@@ -429,7 +421,7 @@ public class ReaderMetricsProcessor implements Runnable {
             currWindowStartTime, currWindowEndTime, conn, osMetricsMap);
     EventProcessor requestProcessor =
         RequestEventProcessor.buildRequestMetricEventsProcessor(
-            currWindowStartTime, currWindowEndTime, conn, shardRqMetricsMap);
+            currWindowStartTime, shardRqMatcher);
     EventProcessor httpProcessor =
         HttpRequestEventProcessor.buildHttpRequestMetricEventsProcessor(
             currWindowStartTime, currWindowEndTime, conn, httpRqMetricsMap);
@@ -462,6 +454,12 @@ public class ReaderMetricsProcessor implements Runnable {
         currWindowStartTime, currWindowStartTime + MetricsConfiguration.SAMPLING_INTERVAL);
 
     eventLogFileHandler.read(currWindowStartTime, eventDispatcher);
+    TIMING_STATS.put(
+        "readEventLogCpuMicros", eventLogFileHandler.getLastReadCpuTimeNanos() / 1000.0);
+    TIMING_STATS.put(
+        "readEventLogAllocatedBytes", (double) eventLogFileHandler.getLastReadAllocatedBytes());
+    TIMING_STATS.put("readEventLogFileBytes", (double) eventLogFileHandler.getLastReadFileBytes());
+    TIMING_STATS.put("readEventLogMapped", eventLogFileHandler.isMmapRead() ? 1.0 : 0.0);
 
     eventDispatcher.finalizeProcessing();
 
@@ -490,15 +488,13 @@ public class ReaderMetricsProcessor implements Runnable {
    *     that value is measured is MetricsConfiguration.SAMPLING_INTERVAL.
    * @param endTime the end time of the previous sampling period. The bound of the period where that
    *     value is measured is MetricsConfiguration.SAMPLING_INTERVAL.
-   * @param alignedWindow where we store aligned snapshot
-   * @return alignedWindow if we have two sampled snapshot; a sampled snapshot if we have only one
-   *     sampled snapshot within startTime and endTime; null if the number of total snapshots is
-   *     less than OS_SNAPSHOTS or if there is no snapshot taken after startTime or right window
-   *     snapshot ends at or before endTime
+   * @return the aligned metrics if we have two sampled snapshot; the metrics of a sampled snapshot
+   *     if we have only one sampled snapshot within startTime and endTime; null if the number of
+   *     total snapshots is less than OS_SNAPSHOTS or if there is no snapshot taken after startTime
+   *     or right window snapshot ends at or before endTime
    * @throws Exception thrown when we have issues in aligning window
    */
-  public OSMetricsSnapshot alignOSMetrics(
-      long startTime, long endTime, OSMetricsSnapshot alignedWindow) throws Exception {
+  public AlignedOSMetrics alignOSMetrics(long startTime, long endTime) throws Exception {
     LOG.debug("Aligning metrics for {}, {}", startTime, endTime);
     // Find osmetric windows that overlap with the expected window.
     // This is atmost 2 but maybe less than 2. If less than 2, simply return the existing window.
@@ -527,7 +523,7 @@ public class ReaderMetricsProcessor implements Runnable {
 
     if (t2 == null) {
       LOG.error("We dont have the next OS snapshot above startTime.");
-      return entry.getValue();
+      return AlignedOSMetrics.of(entry.getValue());
     }
 
     if (t2 < endTime) {
@@ -545,9 +541,7 @@ public class ReaderMetricsProcessor implements Runnable {
     LOG.debug("Adding new scaled OS snapshot- actualTime {}", startTime);
     OSMetricsSnapshot leftWindow = osMetricsMap.get(t1);
     OSMetricsSnapshot rightWindow = osMetricsMap.get(t2);
-    OSMetricsSnapshot.alignWindow(
-        leftWindow, rightWindow, alignedWindow.getTableName(), startTime, endTime);
-    return alignedWindow;
+    return AlignedOSMetrics.align(leftWindow, rightWindow, startTime, endTime);
   }
 
   /**
@@ -685,8 +679,17 @@ public class ReaderMetricsProcessor implements Runnable {
     return metricsDBMap.lastEntry();
   }
 
+  /**
+   * This is called by operations outside of the ReaderMetricsProcessor.
+   *
+   * @return the compressed history of the windows this processor emitted
+   */
+  public MetricsHistory getMetricsHistory() {
+    return metricsHistory;
+  }
+
   public MetricsDB createMetricsDB(long timestamp) throws Exception {
-    MetricsDB db = new MetricsDB(timestamp);
+    MetricsDB db = MetricsDB.createForWindow(timestamp);
     return db;
   }
 
@@ -792,11 +795,6 @@ public class ReaderMetricsProcessor implements Runnable {
     return eventLogFileHandler;
   }
 
-  @VisibleForTesting
-  NavigableMap<Long, ShardRequestMetricsSnapshot> getShardRequestMetricsMap() {
-    return shardRqMetricsMap;
-  }
-
   @VisibleForTesting
   NavigableMap<Long, HttpRequestMetricsSnapshot> getHttpRqMetricsMap() {
     return httpRqMetricsMap;
@@ -20,45 +20,24 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetric
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
 import java.io.File;
-import java.sql.Connection;
 import java.util.Map;
-import java.util.NavigableMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jooq.BatchBindStep;
 
 public class RequestEventProcessor implements EventProcessor {
 
   private static final Logger LOG = LogManager.getLogger(RequestEventProcessor.class);
 
-  private ShardRequestMetricsSnapshot rqSnap;
-  private BatchBindStep handle;
-  private long startTime;
-  private long endTime;
+  private final ShardRequestMatcher matcher;
 
-  private RequestEventProcessor(ShardRequestMetricsSnapshot rqSnap) {
-    this.rqSnap = rqSnap;
+  private RequestEventProcessor(ShardRequestMatcher matcher) {
+    this.matcher = matcher;
   }
 
   static RequestEventProcessor buildRequestMetricEventsProcessor(
-      long currWindowStartTime,
-      long currWindowEndTime,
-      Connection conn,
-      NavigableMap<Long, ShardRequestMetricsSnapshot> shardRqMetricsMap)
-      throws Exception {
-    if (shardRqMetricsMap.get(currWindowStartTime) == null) {
-      ShardRequestMetricsSnapshot rqSnap =
-          new ShardRequestMetricsSnapshot(conn, currWindowStartTime);
-      Map.Entry<Long, ShardRequestMetricsSnapshot> entry = shardRqMetricsMap.lastEntry();
-      if (entry != null) {
-        rqSnap.rolloverInflightRequests(entry.getValue());
-      }
-
-      shardRqMetricsMap.put(currWindowStartTime, rqSnap);
-      return new RequestEventProcessor(rqSnap);
-    } else {
-      return new RequestEventProcessor(shardRqMetricsMap.get(currWindowStartTime));
-    }
+      long currWindowStartTime, ShardRequestMatcher matcher) {
+    matcher.startWindow(currWindowStartTime);
+    return new RequestEventProcessor(matcher);
   }
 
   @Override
@@ -71,35 +50,17 @@ public class RequestEventProcessor implements EventProcessor {
     return false;
   }
 
-  public void initializeProcessing(long startTime, long endTime) {
-    this.startTime = startTime;
-    this.endTime = endTime;
-    this.handle = rqSnap.startBatchPut();
-  }
+  // The matcher pairs the events as they are read, so nothing is batched.
+  public void initializeProcessing(long startTime, long endTime) {}
 
-  public void finalizeProcessing() {
-    if (handle.size() > 0) {
-      handle.execute();
-    }
-    // LOG.info("Final request metrics {}", rqSnap.fetchAll());
-  }
+  public void finalizeProcessing() {}
 
   public void processEvent(Event event) {
     handleESMetrics(event);
-    // Flush data to sqlite when batch size is 500
-    if (handle.size() == 500) {
-      handle.execute();
-      handle = rqSnap.startBatchPut();
-    }
   }
 
   @Override
-  public void commitBatchIfRequired() {
-    if (handle.size() > BATCH_LIMIT) {
-      handle.execute();
-      handle = rqSnap.startBatchPut();
-    }
-  }
+  public void commitBatchIfRequired() {}
 
   private void handleESMetrics(Event entry) {
     // operation is of the form - shardBulk, shardSearch etc..
@@ -137,7 +98,7 @@ public class RequestEventProcessor implements EventProcessor {
     String threadId = metricKeyPathElements[1];
     String operation = metricKeyPathElements[2];
     String rid = metricKeyPathElements[3];
-    handle.bind(shardId, indexName, rid, threadId, operation, primary, startTime, null, docCount);
+    matcher.start(rid, threadId, operation, shardId, indexName, primary, startTime, docCount);
   }
 
   private String getPrimary(String primary) {
@@ -155,6 +116,6 @@ public class RequestEventProcessor implements EventProcessor {
     String threadId = metricKeyPathElements[1];
     String operation = metricKeyPathElements[2];
     String rid = metricKeyPathElements[3];
-    handle.bind(shardId, indexName, rid, threadId, operation, primary, null, finishTime, null);
+    matcher.finish(rid, threadId, operation, shardId, indexName, primary, finishTime);
   }
 }
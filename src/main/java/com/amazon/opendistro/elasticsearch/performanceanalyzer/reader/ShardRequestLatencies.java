@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators.QuantileSketch;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The latencies of the shard requests that finished in a reader window, by operation, shard, index
+ * and shard role. Each group keeps a {@link QuantileSketch} of its latencies, so that the
+ * percentiles of the latency can be emitted along with the sum, average, min and max.
+ */
+public class ShardRequestLatencies {
+  /** How far, relatively, a latency percentile may be from an actual latency. */
+  public static final double RELATIVE_ACCURACY = 0.01;
+
+  private final Map<List<String>, ShardOperation> operations = new HashMap<>();
+
+  /** The requests of an operation on a shard. */
+  public static class ShardOperation {
+    private final String operation;
+    private final String shardId;
+    private final String indexName;
+    private final String shardRole;
+    private final QuantileSketch latencies = new QuantileSketch(RELATIVE_ACCURACY);
+    private long docCount;
+
+    private ShardOperation(String operation, String shardId, String indexName, String shardRole) {
+      this.operation = operation;
+      this.shardId = shardId;
+      this.indexName = indexName;
+      this.shardRole = shardRole;
+    }
+
+    public String getOperation() {
+      return operation;
+    }
+
+    public String getShardId() {
+      return shardId;
+    }
+
+    public String getIndexName() {
+      return indexName;
+    }
+
+    public String getShardRole() {
+      return shardRole;
+    }
+
+    public QuantileSketch getLatencies() {
+      return latencies;
+    }
+
+    /** The number of documents of the requests, for bulk requests. */
+    public long getDocCount() {
+      return docCount;
+    }
+  }
+
+  public void record(
+      String operation,
+      String shardId,
+      String indexName,
+      String shardRole,
+      long latency,
+      long docCount) {
+    ShardOperation shardOperation =
+        operations.computeIfAbsent(
+            Arrays.asList(operation, shardId, indexName, shardRole),
+            k -> new ShardOperation(operation, shardId, indexName, shardRole));
+    shardOperation.latencies.add(latency);
+    shardOperation.docCount += docCount;
+  }
+
+  public Collection<ShardOperation> getOperations() {
+    return operations.values();
+  }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pairs the start and finish events of the shard requests as the reader dispatches them, and
+ * records the latency of every finished request in the {@link ShardRequestLatencies} of the window
+ * the finish event was read in. It also records the time every request spent on its thread in the
+ * window in its {@link ShardRequestUtilization}, which is complete once the next window starts.
+ * This replaces the table of the events {@link ShardRequestMetricsSnapshot} kept for every window
+ * to join them on the request id.
+ *
+ * <p>The requests in flight are kept in an open addressing table keyed by request id and
+ * operation, with the fields of a request in arrays. An event whose pair has not been seen yet
+ * waits in the table; at the start of every window the requests that can no longer finish are
+ * dropped, following the same rules as {@link ShardRequestMetricsSnapshot#fetchInflightSelect()}:
+ * a finish event without a start, a request that started more than 10 minutes before the last
+ * window, and a request that started before the last window on a thread that has started a newer
+ * request since.
+ */
+public class ShardRequestMatcher {
+  private static final Logger LOG = LogManager.getLogger(ShardRequestMatcher.class);
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final long NONE = Long.MIN_VALUE;
+  // The operation of an empty slot.
+  private static final int EMPTY = -1;
+
+  private final int maxWindows;
+  private final NavigableMap<Long, ShardRequestLatencies> windows = new TreeMap<>();
+  private final NavigableMap<Long, ShardRequestUtilization> utilizations = new TreeMap<>();
+  private ShardRequestLatencies currentLatencies;
+  private ShardRequestUtilization currentUtilization;
+  private long currentWindowStartTime = NONE;
+  // The latest start time on each thread in the current window.
+  private final Map<String, Long> latestStartTimes = new HashMap<>();
+
+  // Operations are few, so they are numbered rather than hashed as strings.
+  private final Map<String, Integer> operationIds = new HashMap<>();
+  private final List<String> operationNames = new ArrayList<>();
+
+  private long[] rids;
+  private int[] operations;
+  private long[] startTimes;
+  private long[] finishTimes;
+  private long[] docCounts;
+  private String[] tids;
+  private String[] shardIds;
+  private String[] indexNames;
+  private String[] shardRoles;
+  private int size;
+
+  /** @param maxWindows The number of windows to keep the latencies and utilization of. */
+  public ShardRequestMatcher(int maxWindows) {
+    this.maxWindows = maxWindows;
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Starts recording the latencies of a new window, and drops the requests that can no longer
+   * finish from the ones in flight. The requests still in flight are counted in the utilization of
+   * the window that ends. Starting the current window again does nothing.
+   */
+  public void startWindow(long windowStartTime) {
+    if (windowStartTime == currentWindowStartTime) {
+      return;
+    }
+    if (currentLatencies != null) {
+      closeWindow();
+      expireInflightRequests(currentWindowStartTime);
+    }
+    currentWindowStartTime = windowStartTime;
+    currentLatencies = new ShardRequestLatencies();
+    currentUtilization = new ShardRequestUtilization();
+    windows.put(windowStartTime, currentLatencies);
+    while (windows.size() > maxWindows) {
+      windows.pollFirstEntry();
+    }
+  }
+
+  /** The latencies of the requests that finished in the window, null if it is not kept. */
+  public ShardRequestLatencies getLatencies(long windowStartTime) {
+    return windows.get(windowStartTime);
+  }
+
+  /**
+   * The time the requests spent on their threads in the window, null until the next window has
+   * started or if it is not kept.
+   */
+  public ShardRequestUtilization getUtilization(long windowStartTime) {
+    return utilizations.get(windowStartTime);
+  }
+
+  /** The number of requests waiting for their start or finish event. */
+  public int getInflightCount() {
+    return size;
+  }
+
+  public void start(
+      String rid,
+      String tid,
+      String operation,
+      String shardId,
+      String indexName,
+      String shardRole,
+      long startTime,
+      long docCount) {
+    long id = parseRid(rid);
+    if (id == NONE) {
+      return;
+    }
+    latestStartTimes.merge(tid, startTime, Math::max);
+    int op = operationId(operation);
+    int slot = find(id, op);
+    if (slot < 0) {
+      slot = insert(id, op, tid, shardId, indexName, shardRole);
+    } else {
+      // The start carries the dimensions of the request, a finish seen first may not.
+      tids[slot] = tid;
+      shardIds[slot] = shardId;
+      indexNames[slot] = indexName;
+      shardRoles[slot] = shardRole;
+    }
+    startTimes[slot] = Math.max(startTimes[slot], startTime);
+    docCounts[slot] = Math.max(docCounts[slot], docCount);
+    if (finishTimes[slot] != NONE) {
+      complete(slot);
+    }
+  }
+
+  public void finish(
+      String rid,
+      String tid,
+      String operation,
+      String shardId,
+      String indexName,
+      String shardRole,
+      long finishTime) {
+    long id = parseRid(rid);
+    if (id == NONE) {
+      return;
+    }
+    int op = operationId(operation);
+    int slot = find(id, op);
+    if (slot < 0) {
+      slot = insert(id, op, tid, shardId, indexName, shardRole);
+    }
+    finishTimes[slot] = Math.max(finishTimes[slot], finishTime);
+    if (startTimes[slot] != NONE) {
+      complete(slot);
+    }
+  }
+
+  private void complete(int slot) {
+    if (currentLatencies != null) {
+      currentLatencies.record(
+          operationNames.get(operations[slot]),
+          shardIds[slot],
+          indexNames[slot],
+          shardRoles[slot],
+          finishTimes[slot] - startTimes[slot],
+          docCounts[slot]);
+      recordUtilization(slot);
+    }
+    remove(slot);
+  }
+
+  private void closeWindow() {
+    for (int slot = 0; slot < operations.length; slot++) {
+      if (operations[slot] != EMPTY) {
+        recordUtilization(slot);
+      }
+    }
+    utilizations.put(currentWindowStartTime, currentUtilization);
+    while (utilizations.size() > maxWindows) {
+      utilizations.pollFirstEntry();
+    }
+  }
+
+  /**
+   * Records the time the request spent on its thread in the current window: from its start, or
+   * the start of the window if it started before or its start has not been read, to its finish,
+   * or the end of the window if it finishes after or has not finished yet.
+   */
+  private void recordUtilization(int slot) {
+    long windowEndTime = currentWindowStartTime + MetricsConfiguration.SAMPLING_INTERVAL;
+    long startTime = Math.max(startTimes[slot], currentWindowStartTime);
+    long finishTime =
+        finishTimes[slot] == NONE ? windowEndTime : Math.min(finishTimes[slot], windowEndTime);
+    currentUtilization.record(
+        tids[slot],
+        operationNames.get(operations[slot]),
+        shardIds[slot],
+        indexNames[slot],
+        shardRoles[slot],
+        finishTime - startTime);
+  }
+
+  private void expireInflightRequests(long windowStartTime) {
+    for (int slot = 0; slot < operations.length; slot++) {
+      if (operations[slot] != EMPTY && startTimes[slot] != NONE) {
+        latestStartTimes.merge(tids[slot], startTimes[slot], Math::max);
+      }
+    }
+
+    // Rebuild the table from the requests that are kept, which also shrinks it after a burst.
+    long[] oldRids = rids;
+    int[] oldOperations = operations;
+    long[] oldStartTimes = startTimes;
+    long[] oldDocCounts = docCounts;
+    String[] oldTids = tids;
+    String[] oldShardIds = shardIds;
+    String[] oldIndexNames = indexNames;
+    String[] oldShardRoles = shardRoles;
+    int capacity = INITIAL_CAPACITY;
+    while (capacity < size * 4) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+    int expired = 0;
+    for (int old = 0; old < oldOperations.length; old++) {
+      if (oldOperations[old] == EMPTY) {
+        continue;
+      }
+      long startTime = oldStartTimes[old];
+      if (startTime == NONE
+          || startTime <= windowStartTime - ShardRequestMetricsSnapshot.EXPIRE_AFTER
+          || (startTime <= windowStartTime && startTime != latestStartTimes.get(oldTids[old]))) {
+        expired++;
+        continue;
+      }
+      int slot =
+          insert(
+              oldRids[old],
+              oldOperations[old],
+              oldTids[old],
+              oldShardIds[old],
+              oldIndexNames[old],
+              oldShardRoles[old]);
+      startTimes[slot] = startTime;
+      docCounts[slot] = oldDocCounts[old];
+    }
+    latestStartTimes.clear();
+    LOG.debug("Expired {} shard requests, {} in flight", expired, size);
+  }
+
+  private void allocate(int capacity) {
+    rids = new long[capacity];
+    operations = new int[capacity];
+    Arrays.fill(operations, EMPTY);
+    startTimes = new long[capacity];
+    finishTimes = new long[capacity];
+    docCounts = new long[capacity];
+    tids = new String[capacity];
+    shardIds = new String[capacity];
+    indexNames = new String[capacity];
+    shardRoles = new String[capacity];
+    size = 0;
+  }
+
+  /** The slot of the request, -1 if it is not in the table. */
+  private int find(long rid, int op) {
+    int mask = operations.length - 1;
+    for (int slot = hash(rid, op) & mask; operations[slot] != EMPTY; slot = (slot + 1) & mask) {
+      if (rids[slot] == rid && operations[slot] == op) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /** Adds a request that is not in the table yet, with neither a start nor a finish time. */
+  private int insert(
+      long rid, int op, String tid, String shardId, String indexName, String shardRole) {
+    if ((size + 1) * 2 > operations.length) {
+      grow();
+    }
+    int mask = operations.length - 1;
+    int slot = hash(rid, op) & mask;
+    while (operations[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    rids[slot] = rid;
+    operations[slot] = op;
+    startTimes[slot] = NONE;
+    finishTimes[slot] = NONE;
+    docCounts[slot] = 0;
+    tids[slot] = tid;
+    shardIds[slot] = shardId;
+    indexNames[slot] = indexName;
+    shardRoles[slot] = shardRole;
+    size++;
+    return slot;
+  }
+
+  /**
+   * Empties the slot and moves back the requests that follow it in the probe sequence, so that
+   * lookups never need to skip deleted slots.
+   */
+  private void remove(int slot) {
+    int mask = operations.length - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask; operations[next] != EMPTY; next = (next + 1) & mask) {
+      int home = hash(rids[next], operations[next]) & mask;
+      // The request can move to the hole unless its home slot is between the hole and it.
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        move(next, hole);
+        hole = next;
+      }
+    }
+    operations[hole] = EMPTY;
+    tids[hole] = null;
+    shardIds[hole] = null;
+    indexNames[hole] = null;
+    shardRoles[hole] = null;
+    size--;
+  }
+
+  private void move(int from, int to) {
+    rids[to] = rids[from];
+    operations[to] = operations[from];
+    startTimes[to] = startTimes[from];
+    finishTimes[to] = finishTimes[from];
+    docCounts[to] = docCounts[from];
+    tids[to] = tids[from];
+    shardIds[to] = shardIds[from];
+    indexNames[to] = indexNames[from];
+    shardRoles[to] = shardRoles[from];
+  }
+
+  private void grow() {
+    long[] oldRids = rids;
+    int[] oldOperations = operations;
+    long[] oldStartTimes = startTimes;
+    long[] oldFinishTimes = finishTimes;
+    long[] oldDocCounts = docCounts;
+    String[] oldTids = tids;
+    String[] oldShardIds = shardIds;
+    String[] oldIndexNames = indexNames;
+    String[] oldShardRoles = shardRoles;
+    allocate(oldOperations.length * 2);
+    for (int old = 0; old < oldOperations.length; old++) {
+      if (oldOperations[old] != EMPTY) {
+        int slot =
+            insert(
+                oldRids[old],
+                oldOperations[old],
+                oldTids[old],
+                oldShardIds[old],
+                oldIndexNames[old],
+                oldShardRoles[old]);
+        startTimes[slot] = oldStartTimes[old];
+        finishTimes[slot] = oldFinishTimes[old];
+        docCounts[slot] = oldDocCounts[old];
+      }
+    }
+  }
+
+  private int operationId(String operation) {
+    Integer id = operationIds.get(operation);
+    if (id == null) {
+      id = operationNames.size();
+      operationIds.put(operation, id);
+      operationNames.add(operation);
+    }
+    return id;
+  }
+
+  private static long parseRid(String rid) {
+    try {
+      return Long.parseLong(rid);
+    } catch (NumberFormatException e) {
+      LOG.debug("Ignoring shard request with an invalid id {}", rid);
+      return NONE;
+    }
+  }
+
+  private static int hash(long rid, int op) {
+    long h = (rid ^ ((long) op << 56)) * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
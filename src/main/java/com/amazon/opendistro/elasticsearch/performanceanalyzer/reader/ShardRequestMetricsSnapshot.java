@@ -15,12 +15,9 @@
 
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
 
-import com.amazon.opendistro.elasticsearch.performanceanalyzer.DBUtils;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.CommonDimension;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.ShardBulkMetric;
-import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.ShardOperationMetric;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
-import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,7 +37,12 @@ import org.jooq.SelectField;
 import org.jooq.SelectHavingStep;
 import org.jooq.impl.DSL;
 
-/** Snapshot of start/end events generated by per shard operations like shardBulk/shardSearch. */
+/**
+ * Snapshot of start/end events generated by per shard operations like shardBulk/shardSearch.
+ *
+ * <p>The reader pairs the events in {@link ShardRequestMatcher} instead, this is kept as the
+ * reference for the latency and thread utilization the matcher computes.
+ */
 @SuppressWarnings("serial")
 public class ShardRequestMetricsSnapshot implements Removable {
   private static final Logger LOG = LogManager.getLogger(ShardRequestMetricsSnapshot.class);
@@ -56,7 +58,7 @@ public class ShardRequestMetricsSnapshot implements Removable {
   private final DSLContext create;
   public final Long windowStartTime;
   private final String tableName;
-  private static final Long EXPIRE_AFTER = 600000L;
+  static final long EXPIRE_AFTER = 600000L;
   private List<Field<?>> columns;
 
   public enum Fields {
@@ -194,64 +196,6 @@ public class ShardRequestMetricsSnapshot implements Removable {
                 .and(DSL.field(Fields.ST.toString()).isNotNull()));
   }
 
-  /**
-   * Return per operation latency. This is a performance optimization to avoid writing one entry per
-   * request back into metricsDB. This function returns one row per operation.
-   *
-   * <p>Latency Table |shard|indexName|rid |tid |operation |role| st| et| lat|
-   * +-----+---------+-------+----+----------+----+-------------+-------------+-----+ |0 |sonested
-   * |2447782|7069|shardquery|NA |1535065340330|1535065340625| 255| |0 |sonested
-   * |2447783|7069|shardquery|NA |1535065340330|1535065340635| 265| |0 |sonested
-   * |2447803|7069|shardfetch|NA |1535065344729|1535065344730| 001| |0 |sonested
-   * |2447804|7069|shardfetch|NA |1535065344729|1535065344732| 003|
-   *
-   * <p>Returned Table |shard|indexName|tid |operation |role|sum_lat|avg_lat|min_lat|max_lat|
-   * +-----+---------+----+----------+----+-------------+-------------+-------+-------+-------+-------+
-   * |0 |sonested |7069|shardquery|NA | 520| 260| 255| 265| |0 |sonested |7069|shardfetch|NA | 004|
-   * 002| 001| 003|
-   *
-   * @return aggrated latency by ShardID, IndexName, Operation, and ShardRole.
-   */
-  public Result<Record> fetchLatencyByOp() {
-    ArrayList<SelectField<?>> fields =
-        new ArrayList<SelectField<?>>() {
-          {
-            this.add(DSL.field(DSL.name(Fields.SHARD_ID.toString()), String.class));
-            this.add(DSL.field(DSL.name(Fields.INDEX_NAME.toString()), String.class));
-            this.add(DSL.field(DSL.name(Fields.OPERATION.toString()), String.class));
-            this.add(DSL.field(DSL.name(Fields.SHARD_ROLE.toString()), String.class));
-            this.add(
-                DSL.sum(DSL.field(DSL.name(Fields.LAT.toString()), Double.class))
-                    .as(DBUtils.getAggFieldName(Fields.LAT.toString(), MetricsDB.SUM)));
-            this.add(
-                DSL.avg(DSL.field(DSL.name(Fields.LAT.toString()), Double.class))
-                    .as(DBUtils.getAggFieldName(Fields.LAT.toString(), MetricsDB.AVG)));
-            this.add(
-                DSL.min(DSL.field(DSL.name(Fields.LAT.toString()), Double.class))
-                    .as(DBUtils.getAggFieldName(Fields.LAT.toString(), MetricsDB.MIN)));
-            this.add(
-                DSL.max(DSL.field(DSL.name(Fields.LAT.toString()), Double.class))
-                    .as(DBUtils.getAggFieldName(Fields.LAT.toString(), MetricsDB.MAX)));
-            this.add(DSL.count().as(ShardOperationMetric.SHARD_OP_COUNT.toString()));
-            this.add(
-                DSL.sum(DSL.field(DSL.name(Fields.DOC_COUNT.toString()), Double.class))
-                    .as(ShardBulkMetric.DOC_COUNT.toString()));
-          }
-        };
-
-    ArrayList<Field<?>> groupByFields =
-        new ArrayList<Field<?>>() {
-          {
-            this.add(DSL.field(DSL.name(Fields.SHARD_ID.toString()), String.class));
-            this.add(DSL.field(DSL.name(Fields.INDEX_NAME.toString()), String.class));
-            this.add(DSL.field(DSL.name(Fields.OPERATION.toString()), String.class));
-            this.add(DSL.field(DSL.name(Fields.SHARD_ROLE.toString()), String.class));
-          }
-        };
-
-    return create.select(fields).from(fetchLatency()).groupBy(groupByFields).fetch();
-  }
-
   /**
    * Return row per request.
    *
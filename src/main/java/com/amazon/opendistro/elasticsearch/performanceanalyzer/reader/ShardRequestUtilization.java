@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The time every shard request spent on its thread in a reader window, and its share of the time
+ * of all the requests on that thread in the window (tUtil). The OS metrics of a thread are
+ * attributed to its requests in proportion to that share.
+ *
+ * <p>The time of a request is clipped to the window: a request that started before the window is
+ * counted from its start, and one that had not finished by its end is counted up to its end.
+ */
+public class ShardRequestUtilization {
+  private final List<Request> requests = new ArrayList<>();
+  private final Map<String, Long> threadTimes = new HashMap<>();
+
+  /** A shard request that ran on a thread in the window. */
+  public static class Request {
+    private final String tid;
+    private final String operation;
+    private final String shardId;
+    private final String indexName;
+    private final String shardRole;
+    private final long time;
+
+    private Request(
+        String tid,
+        String operation,
+        String shardId,
+        String indexName,
+        String shardRole,
+        long time) {
+      this.tid = tid;
+      this.operation = operation;
+      this.shardId = shardId;
+      this.indexName = indexName;
+      this.shardRole = shardRole;
+      this.time = time;
+    }
+
+    public String getTid() {
+      return tid;
+    }
+
+    public String getOperation() {
+      return operation;
+    }
+
+    public String getShardId() {
+      return shardId;
+    }
+
+    public String getIndexName() {
+      return indexName;
+    }
+
+    public String getShardRole() {
+      return shardRole;
+    }
+
+    /** The time the request spent on its thread in the window, in milliseconds. */
+    public long getTime() {
+      return time;
+    }
+  }
+
+  void record(
+      String tid,
+      String operation,
+      String shardId,
+      String indexName,
+      String shardRole,
+      long time) {
+    requests.add(new Request(tid, operation, shardId, indexName, shardRole, time));
+    threadTimes.merge(tid, time, Long::sum);
+  }
+
+  public List<Request> getRequests() {
+    return Collections.unmodifiableList(requests);
+  }
+
+  /**
+   * The share of the time of the requests on its thread the request took, NaN when those took no
+   * time at all.
+   */
+  public double getUtilization(Request request) {
+    long threadTime = threadTimes.get(request.tid);
+    return threadTime == 0 ? Double.NaN : (double) request.time / threadTime;
+  }
+}
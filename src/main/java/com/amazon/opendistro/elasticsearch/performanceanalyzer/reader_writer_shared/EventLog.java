@@ -17,9 +17,17 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_sh
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.EventDispatcher;
-import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -27,6 +35,24 @@ import org.apache.logging.log4j.Logger;
  * This is a serializer - de-serializer class. This is used by the PerformancecAnalyzer Plugin to
  * write to serialize bytes before writing to file and by the PerformanceAnalyzer App to
  * de-serialize the bytes it has read from disk.
+ *
+ * <p>Two framings are supported. The legacy text framing writes every event as {@code
+ * ^key\nvalue$\n}. The binary framing writes a sequence of frames, each of which starts with a
+ * fixed size header:
+ *
+ * <pre>
+ *   +-------+---------+------+----------------+----------------+
+ *   | magic | version | type | payload length |    payload     |
+ *   | 1 B   | 1 B     | 1 B  | 4 B            | length bytes   |
+ *   +-------+---------+------+----------------+----------------+
+ * </pre>
+ *
+ * <p>A {@link #FRAME_TYPE_KEY} frame carries a 4 byte key id followed by the UTF-8 bytes of the key
+ * and interns the key for the rest of the file. A {@link #FRAME_TYPE_EVENT} frame carries a 4 byte
+ * key id followed by the UTF-8 bytes of the value. Key ids are assigned per written batch, so a
+ * later key frame with the same id overrides the earlier one. The reader dispatches on the first
+ * byte of every record, so files written in either framing (or a mix of both, during a rolling
+ * upgrade) can be read.
  */
 public class EventLog {
   private int metricLocPathLength;
@@ -37,12 +63,25 @@ public class EventLog {
 
   private static final char[] separator = System.lineSeparator().toCharArray();
 
-  private Ret ret;
+  static final byte BINARY_MAGIC = (byte) 0xEB;
+  static final byte BINARY_VERSION = 1;
+  static final byte FRAME_TYPE_KEY = 1;
+  static final byte FRAME_TYPE_EVENT = 2;
+  static final int FRAME_HEADER_SIZE = 1 + 1 + 1 + Integer.BYTES;
+  private static final int KEY_ID_SIZE = Integer.BYTES;
+  private static final int BUFFER_SIZE = 8192;
+
+  private final boolean writeBinary;
 
   public EventLog() {
+    this(PluginSettings.instance().shouldWriteBinaryEventLog());
+  }
+
+  public EventLog(boolean writeBinary) {
     if (separator.length > 1) {
       throw new IllegalStateException("separator cannot be multi-byte");
     }
+    this.writeBinary = writeBinary;
     // The path can be something like : /dev/shm/1566088110000/
 
     // This line takes the length of /dev/shm
@@ -56,6 +95,16 @@ public class EventLog {
     metricLocPathLength += 2;
   }
 
+  public boolean isWriteBinary() {
+    return writeBinary;
+  }
+
+  /**
+   * Serializes a single event in the legacy text framing.
+   *
+   * @param metric The event to serialize.
+   * @return The bytes to be appended to the file.
+   */
   public byte[] write(Event metric) {
     StringBuilder sb = new StringBuilder();
     sb.append(startMarker)
@@ -68,120 +117,210 @@ public class EventLog {
   }
 
   /**
-   * This functions interprets the bytes and creates Event objects from it.
+   * Serializes a batch of events in the configured framing. In the binary framing, every distinct
+   * key in the batch is written once as a key frame and all the events referring to it carry its
+   * id.
    *
-   * <p>A non-corrupted byte stream should start with the startMarker. It may not end with the
-   * endmarker based on how much of the actual bytes on the disk we are reading. This iterates
-   * through the bytes and tries to interpret them into Event members. A complete Event object can
-   * be something like this:
+   * @param metrics The events to serialize.
+   * @return The bytes to be appended to the file.
+   */
+  public byte[] write(List<Event> metrics) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (!writeBinary) {
+      for (Event metric : metrics) {
+        byte[] data = write(metric);
+        out.write(data, 0, data.length);
+      }
+      return out.toByteArray();
+    }
+
+    Map<String, Integer> keyIds = new HashMap<>();
+    for (Event metric : metrics) {
+      String key = metric.key.substring(metricLocPathLength);
+      Integer keyId = keyIds.get(key);
+      if (keyId == null) {
+        keyId = keyIds.size();
+        keyIds.put(key, keyId);
+        writeFrame(out, FRAME_TYPE_KEY, keyId, key.getBytes(StandardCharsets.UTF_8));
+      }
+      writeFrame(out, FRAME_TYPE_EVENT, keyId, metric.value.getBytes(StandardCharsets.UTF_8));
+    }
+    return out.toByteArray();
+  }
+
+  private static void writeFrame(ByteArrayOutputStream out, byte type, int keyId, byte[] data) {
+    ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE + KEY_ID_SIZE);
+    header.put(BINARY_MAGIC).put(BINARY_VERSION).put(type);
+    header.putInt(KEY_ID_SIZE + data.length);
+    header.putInt(keyId);
+    out.write(header.array(), 0, header.capacity());
+    out.write(data, 0, data.length);
+  }
+
+  /**
+   * This functions interprets the bytes of a complete file and creates Event objects from it.
    *
-   * <p>$heap_metrics {"current_time":1566110054768}
+   * <p>The buffer is expected to hold the whole file. Records are recognized by their first byte:
+   * the {@link #BINARY_MAGIC} starts a binary frame and the startMarker starts a legacy text
+   * record. A legacy text record looks like:
+   *
+   * <p>^heap_metrics {"current_time":1566110054768}
    * {"MemType":"totYoungGC","GC_Collection_Event":1, \ "GC_Collection_Time":6,
-   * "Heap_Committed":-2,"Heap_Init":-2, \ "Heap_Max":-2,"Heap_Used":-2}
-   * {"MemType":"totFullGC","GC_Collection_Event":0,"GC_Collection_Time":0, \
-   * "Heap_Committed":-2,"Heap_Init":-2,"Heap_Max":-2,"Heap_Used":-2}
-   * {"MemType":"PermGen","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":15335424,"Heap_Init":0,"Heap_Max":-1,"Heap_Used":14763104}
-   * {"MemType":"Survivor","GC_Collection_Event":-2, \ "GC_Collection_Time":-2,
-   * "Heap_Committed":11010048, \ "Heap_Init":11010048, "Heap_Max":11010048,"Heap_Used":6224432}
-   * {"MemType":"OldGen","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":179306496,"Heap_Init":179306496, \ "Heap_Max":2863661056, "Heap_Used":16384}
-   * {"MemType":"Eden","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":67108864,"Heap_Init":67108864,"Heap_Max":1409286144, \ "Heap_Used":30305704}
-   * {"MemType":"NonHeap","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":21037056,"Heap_Init":2555904,"Heap_Max":-1, \ "Heap_Used":20207152}
-   * {"MemType":"Heap","GC_Collection_Event":-2,"GC_Collection_Time":-2, \
-   * "Heap_Committed":257425408,"Heap_Init":268435456, \ "Heap_Max":3817865216,
-   * "Heap_Used":36546520} # $heap_metrics {"current_time":1566110055024} {"MemType":"totYoun
+   * "Heap_Committed":-2,"Heap_Init":-2, \ "Heap_Max":-2,"Heap_Used":-2} ... $
    *
    * <p>A Event object has three members: key, value and epoch. The serializer does not store the
-   * epoch explicitly and its part of the data. In the above example: The bytes after '$' in the
-   * line, is the key and all the other bytes leading up to '#', but not including it, is the value.
-   * Sometimes the last few bytes in themselves cannot make a complete event object, so the return
-   * also includes the count of unused bytes. The sender is supposed to send them again, in the next
-   * iteration.
+   * epoch explicitly and its part of the data. In the text framing, the bytes after '^' up to the
+   * line separator are the key and all the other bytes leading up to '$', but not including it, are
+   * the value. In the binary framing, the key is looked up by the interned id in the event frame.
    *
-   * <p>One corner case is, when the entirety of the bytes cannot create one Event object. This can
-   * happen when the value is too large to fit in the buffer. In this case, the de-serialize sends
-   * an empty list, The sender then has to read in more bytes and send it again. Sender essentially
-   * has to increase the buffer size.
+   * <p>Trailing bytes that do not make up a complete record, and frames with an unknown version,
+   * are skipped.
    *
    * @param byteBuffer The raw bytes in the file.
+   * @param processor The dispatcher every decoded event is handed to.
    */
   void read(final ByteBuffer byteBuffer, EventDispatcher processor) {
-    if (ret == null) {
-      ret = new Ret(new char[byteBuffer.limit()]);
-    }
-
+    List<String> keys = new ArrayList<>();
+    Slice slice = new Slice(byteBuffer);
     while (byteBuffer.hasRemaining()) {
-      char b = (char) byteBuffer.get();
-      ret = processByte(b, ret, processor);
+      byte b = byteBuffer.get(byteBuffer.position());
+      if (b == BINARY_MAGIC) {
+        if (!readFrame(byteBuffer, keys, slice, processor)) {
+          break;
+        }
+      } else if (b == startMarker) {
+        if (!readTextRecord(byteBuffer, slice, processor)) {
+          break;
+        }
+      } else {
+        // Bytes between records, such as the trailing line separator of a text record.
+        byteBuffer.get();
+      }
     }
   }
 
-  static class Ret {
-    String key;
-    String value;
-    int byteIdx;
-    char[] bytes;
-
-    Ret(char[] bytes) {
-      this.key = "";
-      this.value = "";
-      this.byteIdx = 0;
-      this.bytes = bytes;
+  /**
+   * A window into the buffer that is being read. The same instance is pointed at the value of every
+   * event in the file, and the value is only turned into a String if the EventDispatcher finds a
+   * processor for the event.
+   */
+  private static final class Slice implements Supplier<String> {
+    private final ByteBuffer byteBuffer;
+    private byte[] scratch;
+    private int offset;
+    private int length;
+    private Charset charset;
+
+    Slice(ByteBuffer byteBuffer) {
+      this.byteBuffer = byteBuffer;
+      this.scratch = byteBuffer.hasArray() ? null : new byte[BUFFER_SIZE];
     }
-  }
 
-  private static Ret processByte(char b, Ret arg, EventDispatcher processor) {
-    if (b == separator[0] && arg.key.isEmpty()) {
-      arg.key = new String(arg.bytes, 0, arg.byteIdx);
-      // reset bytes
-      arg.byteIdx = 0;
-    } else if (b == endMarker) {
-      // LOG.info("EndMarker found");
-      arg.value = new String(arg.bytes, 0, arg.byteIdx);
-
-      // Iterate through the key to figure out the index of the first file separator.
-      int indexOfFirstPathSep = arg.key.indexOf(File.separatorChar);
-      // TODO: Use to find the right parser
-      String mapKey;
-      if (indexOfFirstPathSep == -1) {
-        mapKey = arg.key;
-      } else {
-        mapKey = arg.key.substring(0, indexOfFirstPathSep);
+    Slice set(int offset, int length, Charset charset) {
+      this.offset = offset;
+      this.length = length;
+      this.charset = charset;
+      return this;
+    }
+
+    @Override
+    public String get() {
+      if (byteBuffer.hasArray()) {
+        return new String(byteBuffer.array(), byteBuffer.arrayOffset() + offset, length, charset);
+      }
+      // Memory mapped buffers have no backing array, so the bytes are bulk copied into a scratch
+      // array that is reused across the events of the file.
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
       }
+      ByteBuffer view = byteBuffer.duplicate();
+      ((Buffer) view).position(offset);
+      view.get(scratch, 0, length);
+      return new String(scratch, 0, length, charset);
+    }
+  }
 
-      // The keys as in the files can be of the format a/b/c. The full
-      // string goes inside the key of the Event but as part of the
-      // map's key we only take the string up to the first file Separator.
-      // So in this case, the key in the map will be just 'a'.
-      Event event = new Event(arg.key, arg.value, 0);
-      processor.processEvent(event);
-    } else if (b == startMarker) {
-      arg.key = "";
-      // reset
-      arg.byteIdx = 0;
-    } else {
-      arg.bytes[arg.byteIdx] = b;
-      arg.byteIdx += 1;
-
-      // If you run out of space, then grow the array and copy the data over.
-      if (arg.byteIdx == arg.bytes.length) {
-        // grow the bytebuffer
-        char[] newBytes = new char[arg.bytes.length * 2];
-        int i = 0;
-        for (char c : arg.bytes) {
-          newBytes[i] = c;
-          i += 1;
-        }
-        arg.bytes = newBytes;
+  private static boolean readFrame(
+      final ByteBuffer byteBuffer, List<String> keys, Slice slice, EventDispatcher processor) {
+    int start = byteBuffer.position();
+    if (byteBuffer.remaining() < FRAME_HEADER_SIZE) {
+      LOG.debug("Incomplete frame header at offset {}.", start);
+      return false;
+    }
+    byte version = byteBuffer.get(start + 1);
+    byte type = byteBuffer.get(start + 2);
+    int length = byteBuffer.getInt(start + 3);
+    int payloadStart = start + FRAME_HEADER_SIZE;
+    if (length < KEY_ID_SIZE || length > byteBuffer.limit() - payloadStart) {
+      LOG.debug("Incomplete or corrupt frame of length {} at offset {}.", length, start);
+      return false;
+    }
+    ((Buffer) byteBuffer).position(payloadStart + length);
+    if (version != BINARY_VERSION) {
+      LOG.error("Skipping frame with unsupported version {}.", version);
+      return true;
+    }
+
+    int keyId = byteBuffer.getInt(payloadStart);
+    slice.set(payloadStart + KEY_ID_SIZE, length - KEY_ID_SIZE, StandardCharsets.UTF_8);
+    if (type == FRAME_TYPE_KEY) {
+      while (keys.size() <= keyId) {
+        keys.add(null);
+      }
+      keys.set(keyId, slice.get());
+    } else if (type == FRAME_TYPE_EVENT) {
+      String key = keyId < keys.size() ? keys.get(keyId) : null;
+      if (key == null) {
+        LOG.error("Skipping event with undefined key id {}.", keyId);
+        return true;
       }
+      processor.processEvent(new Event(key, null, 0), slice);
+    } else {
+      LOG.error("Skipping frame with unknown type {}.", type);
+    }
+    return true;
+  }
+
+  private static boolean readTextRecord(
+      final ByteBuffer byteBuffer, Slice slice, EventDispatcher processor) {
+    int keyStart = byteBuffer.position() + 1;
+    int keyEnd = indexOf(byteBuffer, keyStart, (byte) separator[0]);
+    if (keyEnd == -1) {
+      return false;
+    }
+    int valueStart = keyEnd + 1;
+    int valueEnd = indexOf(byteBuffer, valueStart, (byte) endMarker);
+    if (valueEnd == -1) {
+      return false;
     }
-    return arg;
+    ((Buffer) byteBuffer).position(valueEnd + 1);
+
+    // A startMarker inside the value means the previous record was truncated, so resume the
+    // parsing from there just like the byte oriented parser used to.
+    int restart = indexOf(byteBuffer, keyStart, valueEnd, (byte) startMarker);
+    if (restart != -1) {
+      ((Buffer) byteBuffer).position(restart);
+      return true;
+    }
+
+    // The legacy writer did not define an encoding and the legacy reader treated every byte as
+    // one character, so the same is done here.
+    String key = slice.set(keyStart, keyEnd - keyStart, StandardCharsets.ISO_8859_1).get();
+    slice.set(valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+    processor.processEvent(new Event(key, null, 0), slice);
+    return true;
   }
 
-  public void clear() {
-    ret = null;
+  private static int indexOf(final ByteBuffer byteBuffer, int from, byte target) {
+    return indexOf(byteBuffer, from, byteBuffer.limit(), target);
+  }
+
+  private static int indexOf(final ByteBuffer byteBuffer, int from, int to, byte target) {
+    for (int i = from; i < to; i++) {
+      if (byteBuffer.get(i) == target) {
+        return i;
+      }
+    }
+    return -1;
   }
 }
@@ -18,13 +18,20 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_sh
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatExceptionCode;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.EventDispatcher;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -41,11 +48,27 @@ public class EventLogFileHandler {
   private final String metricsLocation;
   private static final int BUFFER_SIZE = 8192;
   private static final String TMP_FILE_EXT = ".tmp";
+  private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  private final boolean mmapRead;
   private long lastProcessed;
 
+  /** CPU time spent by the reader thread on the last file read, in nanoseconds. */
+  private long lastReadCpuTimeNanos;
+
+  /** Bytes allocated by the reader thread while reading the last file. */
+  private long lastReadAllocatedBytes;
+
+  /** The size of the last file read. */
+  private long lastReadFileBytes;
+
   public EventLogFileHandler(EventLog eventLog, String metricsLocation) {
+    this(eventLog, metricsLocation, PluginSettings.instance().shouldMmapEventLog());
+  }
+
+  public EventLogFileHandler(EventLog eventLog, String metricsLocation, boolean mmapRead) {
     this.eventLog = eventLog;
     this.metricsLocation = metricsLocation;
+    this.mmapRead = mmapRead;
   }
 
   public void writeTmpFile(List<Event> dataEntries, long epoch) {
@@ -77,19 +100,16 @@ public class EventLogFileHandler {
     Path path = Paths.get(metricsLocation, String.valueOf(epoch));
     Path tmpPath = Paths.get(path.toString() + TMP_FILE_EXT);
 
-    Event currEntry = null;
     try (OutputStream out =
         Files.newOutputStream(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-      for (Event event : dataEntries) {
-        currEntry = event;
-        byte[] data = eventLog.write(event);
-        writeInternal(out, data);
-      }
+      byte[] data = eventLog.write(dataEntries);
+      writeInternal(out, data);
     } catch (IOException e) {
       e.printStackTrace();
       LOG.error(
-          "Error writing entry '{}'. Cause: {}",
-          currEntry == null ? "NOT_INITIALIZED" : currEntry.key,
+          "Error writing {} entries for epoch {}. Cause: {}",
+          dataEntries.size(),
+          epoch,
           e.getMessage());
     }
   }
@@ -111,6 +131,9 @@ public class EventLogFileHandler {
   }
 
   public void read(long timestamp, EventDispatcher processor) {
+    lastReadCpuTimeNanos = 0;
+    lastReadAllocatedBytes = 0;
+    lastReadFileBytes = 0;
     if (timestamp <= lastProcessed) {
       return;
     }
@@ -123,10 +146,44 @@ public class EventLogFileHandler {
       LOG.info("Didnt find {} at {}", filename, mCurrT);
       return;
     }
-    readInternal(pathToFile, BUFFER_SIZE, processor);
+    long cpuStart = threadCpuTime();
+    long allocStart = threadAllocatedBytes();
+    if (mmapRead) {
+      readMapped(pathToFile, processor);
+    } else {
+      readInternal(pathToFile, processor);
+    }
+    lastReadCpuTimeNanos = threadCpuTime() - cpuStart;
+    lastReadAllocatedBytes = threadAllocatedBytes() - allocStart;
     lastProcessed = timestamp;
-    // LOG.info("PARSED - {} {}", filename, ret);
-    eventLog.clear();
+  }
+
+  public boolean isMmapRead() {
+    return mmapRead;
+  }
+
+  public long getLastReadCpuTimeNanos() {
+    return lastReadCpuTimeNanos;
+  }
+
+  public long getLastReadAllocatedBytes() {
+    return lastReadAllocatedBytes;
+  }
+
+  public long getLastReadFileBytes() {
+    return lastReadFileBytes;
+  }
+
+  private static long threadCpuTime() {
+    return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0;
+  }
+
+  private static long threadAllocatedBytes() {
+    if (threadBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadBean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
   }
 
   private void writeInternal(OutputStream stream, byte[] data) throws IOException {
@@ -139,19 +196,57 @@ public class EventLogFileHandler {
     }
   }
 
-  private void readInternal(Path pathToFile, int bufferSize, EventDispatcher processor) {
+  /**
+   * Reads the whole file in one go and hands it over to the EventLog. The files are renamed into
+   * place atomically, so the size seen when the channel is opened is final.
+   */
+  private void readInternal(Path pathToFile, EventDispatcher processor) {
     try (SeekableByteChannel channel = Files.newByteChannel(pathToFile, StandardOpenOption.READ)) {
-      ByteBuffer byteBuffer = ByteBuffer.allocate(bufferSize);
-
-      while (channel.read(byteBuffer) > 0) {
-        ((Buffer) byteBuffer).flip();
-        // LOG.info(" MAP {}", byteBuffer);
-        eventLog.read(byteBuffer, processor);
-        ((Buffer) byteBuffer).clear();
-        // TODO: Handle edge case where buffer is too small.
+      long size = channel.size();
+      lastReadFileBytes = size;
+      if (size > Integer.MAX_VALUE) {
+        LOG.error("File {} of size {} is too large to be read.", pathToFile, size);
+        return;
+      }
+      ByteBuffer byteBuffer = ByteBuffer.allocate((int) size);
+      while (byteBuffer.hasRemaining() && channel.read(byteBuffer) > 0) {
+        // keep reading until the buffer is full or the end of the file is reached.
+      }
+      ((Buffer) byteBuffer).flip();
+      eventLog.read(byteBuffer, processor);
+    } catch (IOException ex) {
+      LOG.error("Error reading file {}.", pathToFile, ex);
+      StatsCollector.instance().logException(StatExceptionCode.READER_FILE_READ_ERROR);
+    }
+  }
+
+  /**
+   * Memory maps the whole file and hands the mapping over to the EventLog, which decodes keys and
+   * values straight out of the mapped pages. The files live in /dev/shm, so the mapping is backed
+   * by the same pages the writer wrote and nothing is copied onto the heap up front.
+   *
+   * <p>The mapping is not unmapped when the read is done, as the JDK only unmaps a buffer when it
+   * is garbage collected. Until then the tmpfs pages of the file stay allocated, even after the
+   * purger has deleted the file. The buffers are short lived and usually go with the next young
+   * collection, but one promoted to the old generation holds its pages until the next old
+   * collection. If /dev/shm is tight, set event-log-mmap-read to false.
+   */
+  private void readMapped(Path pathToFile, EventDispatcher processor) {
+    try (FileChannel channel = FileChannel.open(pathToFile, StandardOpenOption.READ)) {
+      long size = channel.size();
+      lastReadFileBytes = size;
+      if (size > Integer.MAX_VALUE) {
+        LOG.error("File {} of size {} is too large to be mapped.", pathToFile, size);
+        return;
+      }
+      if (size == 0) {
+        return;
       }
+      MappedByteBuffer byteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      eventLog.read(byteBuffer, processor);
     } catch (IOException ex) {
-      ex.printStackTrace();
+      LOG.error("Error mapping file {}.", pathToFile, ex);
+      StatsCollector.instance().logException(StatExceptionCode.READER_FILE_READ_ERROR);
     }
   }
 }
@@ -21,26 +21,39 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsC
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.core.Util;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResponse;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsRestUtil;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsHistory;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.QueryPlan;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricAttributes;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.model.MetricsModel;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.ReaderMetricsProcessor;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.util.JsonConverter;
+import com.google.common.annotations.VisibleForTesting;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -55,12 +68,32 @@ import org.jooq.Result;
  * We can fetch multiple metrics using this interface and also specify the dimensions/aggregations
  * for fetching the metrics. We create a new metricsDB every 5 seconds and API only supports
  * querying the latest snapshot.
+ *
+ * <p>The same parameters sent to "/_opendistro/_performanceanalyzer/metrics/explain" return how the
+ * local MetricsDB would run the query instead of its result.
+ *
+ * <p>"filter=Operation:shardquery,IndexName:foo" keeps only the rows with these dimension values
+ * and "top=10&sort=CPU_Utilization" only the 10 rows with the highest CPU_Utilization. Both are
+ * applied by every node before it sends its rows. With "nodes=all&stream=true" the result of each
+ * node is written to the response as soon as it arrives, and the nodes that did not answer in time
+ * are listed under "timed_out_nodes".
+ *
+ * <p>"start=1593000000000&end=1593000600000&step=60000" queries the metrics history of the local
+ * node instead of its latest snapshot: one row per step of the range and combination of the
+ * dimensions, with the start of the step in a "timestamp" column. Times are in milliseconds since
+ * the epoch; "end" defaults to now, "start" to five minutes before "end" and "step" to the
+ * sampling interval. The rows come from the coarsest rollup of the history that is not coarser
+ * than the step and goes back to "start", whose resolution is returned as "resolution". Range
+ * queries support "filter" but not "top" or "nodes=all".
  */
 public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHandler {
 
   private static final Logger LOG = LogManager.getLogger(QueryMetricsRequestHandler.class);
   private static final int TIME_OUT_VALUE = 2;
   private static final TimeUnit TIME_OUT_UNIT = TimeUnit.SECONDS;
+  private static final String TIMED_OUT_NODES = "timed_out_nodes";
+  private static final String FAILED_NODES = "failed_nodes";
+  private static final long DEFAULT_RANGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
   private NetClient netClient;
   MetricsRestUtil metricsRestUtil;
   private final AppContext appContext;
@@ -122,6 +155,9 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
         List<String> metricList = metricsRestUtil.parseArrayParam(params, "metrics", false);
         List<String> aggList = metricsRestUtil.parseArrayParam(params, "agg", false);
         List<String> dimList = metricsRestUtil.parseArrayParam(params, "dim", true);
+        Map<String, String> dimFilters = metricsRestUtil.parseMapParam(params, "filter");
+        String sortMetric = params.getOrDefault("sort", "");
+        int topK = parseTopK(params);
 
         if (metricList.size() != aggList.size()) {
           sendResponse(
@@ -131,13 +167,37 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
           return;
         }
 
-        if (!validParams(exchange, metricList, dimList, aggList)) {
+        if (!validParams(exchange, metricList, dimList, aggList)
+            || !validPushDownParams(exchange, metricList, dimList, dimFilters, sortMetric, topK)) {
+          return;
+        }
+
+        if (isRangeQuery(params)) {
+          if ("all".equals(nodes) || topK > 0) {
+            sendResponse(
+                exchange,
+                "{\"error\":\"start/end/step only query the local node and do not support top.\"}",
+                HttpURLConnection.HTTP_BAD_REQUEST);
+            return;
+          }
+          sendRangeResponse(
+              exchange, mp.getMetricsHistory(), params, metricList, aggList, dimList, dimFilters,
+              dbTimestamp);
+          return;
+        }
+
+        if (isExplain(exchange)) {
+          QueryPlan plan =
+              db.explainQuery(metricList, aggList, dimList, dimFilters, sortMetric, topK);
+          sendResponse(
+              exchange, JsonConverter.writeValueAsString(plan), HttpURLConnection.HTTP_OK);
           return;
         }
 
         String localResponse;
         if (db != null) {
-          Result<Record> metricResult = db.queryMetric(metricList, aggList, dimList);
+          Result<Record> metricResult =
+              db.queryMetric(metricList, aggList, dimList, dimFilters, sortMetric, topK);
           if (metricResult == null) {
             localResponse = "{}";
           } else {
@@ -159,15 +219,26 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
         nodeResponses.put(localNodeId, localResponseWithTimestamp);
         String response = metricsRestUtil.nodeJsonBuilder(nodeResponses);
 
+        MetricsRequest request =
+            MetricsRequest.newBuilder()
+                .addAllMetricList(metricList)
+                .addAllAggList(aggList)
+                .addAllDimList(dimList)
+                .putAllDimFilters(dimFilters)
+                .setSortMetric(sortMetric)
+                .setTopK(topK)
+                .build();
         if (nodes == null || !nodes.equals("all") || allNodes.size() <= 1) {
           sendResponse(exchange, response, HttpURLConnection.HTTP_OK);
+        } else if (Boolean.parseBoolean(params.get("stream"))) {
+          streamRemoteStats(exchange, request, allNodes, localNodeId, localResponseWithTimestamp);
         } else if (nodes.equals("all")) {
           CountDownLatch doneSignal = new CountDownLatch(allNodes.size() - 1);
           for (int i = 1; i < allNodes.size(); i++) {
             InstanceDetails node = allNodes.get(i);
             LOG.debug("Collecting remote stats");
             try {
-              collectRemoteStats(node, metricList, aggList, dimList, nodeResponses, doneSignal);
+              collectRemoteStats(node, request, nodeResponses, doneSignal);
             } catch (Exception e) {
               LOG.error(
                   "Unable to collect stats for node, addr:{}, exception: {} ExceptionCode: {}",
@@ -219,17 +290,9 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
 
   void collectRemoteStats(
       InstanceDetails node,
-      List<String> metricList,
-      List<String> aggList,
-      List<String> dimList,
+      MetricsRequest request,
       final ConcurrentHashMap<String, String> nodeResponses,
       final CountDownLatch doneSignal) {
-    MetricsRequest request =
-        MetricsRequest.newBuilder()
-            .addAllMetricList(metricList)
-            .addAllAggList(aggList)
-            .addAllDimList(dimList)
-            .build();
     ThreadSafeStreamObserver responseObserver =
         new ThreadSafeStreamObserver(node, nodeResponses, doneSignal);
     try {
@@ -239,6 +302,202 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
     }
   }
 
+  /**
+   * Writes the response of every node to the client as soon as it arrives, using chunked transfer
+   * encoding, instead of holding all of them until the slowest node answers. Each remote node gets
+   * its own deadline; the nodes that miss it are listed under "timed_out_nodes" at the end of the
+   * response and the nodes whose call failed under "failed_nodes".
+   */
+  @VisibleForTesting
+  void streamRemoteStats(
+      HttpExchange exchange,
+      MetricsRequest request,
+      List<InstanceDetails> allNodes,
+      String localNodeId,
+      String localResponse)
+      throws IOException, InterruptedException {
+    BlockingQueue<NodeResponse> arrivals = new LinkedBlockingQueue<>();
+    Set<String> pending = new HashSet<>();
+    for (int i = 1; i < allNodes.size(); i++) {
+      InstanceDetails node = allNodes.get(i);
+      String nodeId = node.getInstanceId().toString();
+      pending.add(nodeId);
+      try {
+        netClient.getMetrics(
+            node,
+            request,
+            new StreamingStreamObserver(nodeId, arrivals),
+            TIME_OUT_VALUE,
+            TIME_OUT_UNIT);
+      } catch (Exception e) {
+        LOG.error(
+            "Unable to collect stats for node, addr:{}, exception: {} ExceptionCode: {}",
+            node.getInstanceIp(),
+            e,
+            StatExceptionCode.REQUEST_REMOTE_ERROR.toString());
+        StatsCollector.instance().logException(StatExceptionCode.REQUEST_REMOTE_ERROR);
+        arrivals.add(new NodeResponse(nodeId, null, false));
+      }
+    }
+
+    List<String> timedOutNodes = new ArrayList<>();
+    List<String> failedNodes = new ArrayList<>();
+    // A length of 0 makes the server use chunked transfer encoding.
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+    try (Writer writer =
+        new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+      writer.write("{");
+      writeNodeResponse(writer, localNodeId, localResponse);
+      writer.flush();
+
+      long deadline = System.nanoTime() + TIME_OUT_UNIT.toNanos(TIME_OUT_VALUE);
+      while (!pending.isEmpty()) {
+        NodeResponse arrival =
+            arrivals.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (arrival == null) {
+          break;
+        }
+        if (!pending.remove(arrival.nodeId)) {
+          continue;
+        }
+        if (arrival.timedOut) {
+          timedOutNodes.add(arrival.nodeId);
+        } else if (arrival.result == null) {
+          failedNodes.add(arrival.nodeId);
+        } else {
+          writer.write(", ");
+          writeNodeResponse(writer, arrival.nodeId, arrival.result);
+          writer.flush();
+        }
+      }
+      timedOutNodes.addAll(pending);
+      if (!timedOutNodes.isEmpty() || !failedNodes.isEmpty()) {
+        LOG.debug("Timeout or error while collecting remote stats");
+        StatsCollector.instance().logException(StatExceptionCode.REQUEST_REMOTE_ERROR);
+      }
+
+      writer.write(", ");
+      writeNodeResponse(writer, TIMED_OUT_NODES, JsonConverter.writeValueAsString(timedOutNodes));
+      writer.write(", ");
+      writeNodeResponse(writer, FAILED_NODES, JsonConverter.writeValueAsString(failedNodes));
+      writer.write("}");
+    }
+  }
+
+  private static void writeNodeResponse(Writer writer, String key, String value)
+      throws IOException {
+    writer.write("\"");
+    writer.write(key);
+    writer.write("\": ");
+    writer.write(value);
+  }
+
+  private boolean isRangeQuery(Map<String, String> params) {
+    return params.containsKey("start") || params.containsKey("end") || params.containsKey("step");
+  }
+
+  /** Answers a query with start, end or step from the metrics history of the local node. */
+  private void sendRangeResponse(
+      HttpExchange exchange,
+      MetricsHistory history,
+      Map<String, String> params,
+      List<String> metricList,
+      List<String> aggList,
+      List<String> dimList,
+      Map<String, String> dimFilters,
+      long dbTimestamp)
+      throws IOException {
+    long end = parseTimeParam(params, "end", System.currentTimeMillis());
+    long start = parseTimeParam(params, "start", end - DEFAULT_RANGE_MILLIS);
+    long step = parseTimeParam(params, "step", MetricsConfiguration.SAMPLING_INTERVAL);
+    if (start >= end || step <= 0) {
+      throw new InvalidParameterException("start needs to be before end and step positive");
+    }
+    if (!history.isEnabled()) {
+      sendResponse(
+          exchange,
+          String.format(
+              "{\"error\":\"The metrics history is disabled, see %s.\"}",
+              MetricsHistory.RETENTION_CONF_NAME),
+          HttpURLConnection.HTTP_UNAVAILABLE);
+      return;
+    }
+
+    Result<Record> metricResult;
+    try {
+      metricResult = history.query(metricList, aggList, dimList, start, end, step);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidParameterException(e.getMessage());
+    }
+    metricResult = metricsRestUtil.filterRows(metricResult, dimFilters);
+    String localResponse =
+        String.format(
+            "{\"timestamp\": %d, \"start\": %d, \"end\": %d, \"step\": %d, \"resolution\": %d, "
+                + "\"data\": %s}",
+            dbTimestamp, start, end, step, history.getResolutionMillis(start, step),
+            metricResult.formatJSON());
+    ConcurrentHashMap<String, String> nodeResponses = new ConcurrentHashMap<>();
+    final List<InstanceDetails> allNodes = appContext.getAllClusterInstances();
+    String localNodeId = "local";
+    if (allNodes.size() != 0) {
+      localNodeId = allNodes.get(0).getInstanceId().toString();
+    }
+    nodeResponses.put(localNodeId, localResponse);
+    sendResponse(
+        exchange, metricsRestUtil.nodeJsonBuilder(nodeResponses), HttpURLConnection.HTTP_OK);
+  }
+
+  private long parseTimeParam(Map<String, String> params, String name, long defaultValue) {
+    String value = params.get(name);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new InvalidParameterException(name + " parameter needs to be a number of milliseconds");
+    }
+  }
+
+  private int parseTopK(Map<String, String> params) {
+    String top = params.get("top");
+    if (top == null || top.isEmpty()) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(top);
+    } catch (NumberFormatException e) {
+      throw new InvalidParameterException("top parameter needs to be a number");
+    }
+  }
+
+  private boolean validPushDownParams(
+      HttpExchange exchange,
+      List<String> metricList,
+      List<String> dimList,
+      Map<String, String> dimFilters,
+      String sortMetric,
+      int topK)
+      throws IOException {
+    for (String dim : dimFilters.keySet()) {
+      if (!dimList.contains(dim)) {
+        sendResponse(
+            exchange,
+            String.format("{\"error\":\"%s needs to be in dim to be filtered on.\"}", dim),
+            HttpURLConnection.HTTP_BAD_REQUEST);
+        return false;
+      }
+    }
+    if (topK < 0 || (topK > 0 && !metricList.contains(sortMetric))) {
+      sendResponse(
+          exchange,
+          "{\"error\":\"top needs to be positive and sort one of the requested metrics.\"}",
+          HttpURLConnection.HTTP_BAD_REQUEST);
+      return false;
+    }
+    return true;
+  }
+
   private boolean isUnitLookUp(HttpExchange exchange) throws IOException {
     if (exchange.getRequestURI().toString().equals(Util.METRICS_QUERY_URL + "/units")) {
       return true;
@@ -246,6 +505,10 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
     return false;
   }
 
+  private boolean isExplain(HttpExchange exchange) {
+    return exchange.getRequestURI().getPath().equals(Util.METRICS_QUERY_URL + "/explain");
+  }
+
   private void getMetricUnits(HttpExchange exchange) throws IOException {
     Map<String, String> metricUnits = new HashMap<>();
     for (Map.Entry<String, MetricAttributes> entry : MetricsModel.ALL_METRICS.entrySet()) {
@@ -316,6 +579,47 @@ public class QueryMetricsRequestHandler extends MetricsHandler implements HttpHa
     }
   }
 
+  /** What a remote node answered: its result, or why it has none. */
+  private static class NodeResponse {
+    private final String nodeId;
+    private final String result;
+    private final boolean timedOut;
+
+    NodeResponse(String nodeId, String result, boolean timedOut) {
+      this.nodeId = nodeId;
+      this.result = result;
+      this.timedOut = timedOut;
+    }
+  }
+
+  private static class StreamingStreamObserver implements StreamObserver<MetricsResponse> {
+    private final String nodeId;
+    private final BlockingQueue<NodeResponse> arrivals;
+    private volatile String result;
+
+    StreamingStreamObserver(String nodeId, BlockingQueue<NodeResponse> arrivals) {
+      this.nodeId = nodeId;
+      this.arrivals = arrivals;
+    }
+
+    @Override
+    public void onNext(MetricsResponse value) {
+      result = value.getMetricsResult();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      boolean timedOut = Status.fromThrowable(t).getCode() == Status.Code.DEADLINE_EXCEEDED;
+      LOG.info("Metrics : Error occurred while getting Metrics for {}: {}", nodeId, t.getMessage());
+      arrivals.add(new NodeResponse(nodeId, null, timedOut));
+    }
+
+    @Override
+    public void onCompleted() {
+      arrivals.add(new NodeResponse(nodeId, result, false));
+    }
+  }
+
   private static class ThreadSafeStreamObserver implements StreamObserver<MetricsResponse> {
     private final CountDownLatch doneSignal;
     private final ConcurrentHashMap<String, String> nodeResponses;
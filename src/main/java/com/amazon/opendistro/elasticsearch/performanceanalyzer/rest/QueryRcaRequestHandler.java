@@ -22,6 +22,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.Version;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Stats;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.SQLiteQueryUtils;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.Persistable;
+import com.google.common.hash.Hashing;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -30,7 +31,11 @@ import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
@@ -56,6 +61,9 @@ import org.apache.logging.log4j.util.Supplier;
  * <p>The cluster level RCA can only be queried from the elected master using this rest API:
  * curl "localhost:9600/_opendistro/_performanceanalyzer/rca?name=ClusterTemperatureRca"
  *
+ * <p>Responses to RCA queries carry an ETag. A request that sends it back in If-None-Match gets a
+ * 304 with no body as long as no new flow unit of the queried RCAs was persisted since.
+ *
  *
  * <p>curl "localhost:9600/_opendistro/_performanceanalyzer/rca?name=NodeTemperatureRca&local=true"|jq
  * {
@@ -94,7 +102,18 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
   private static final String LOCAL_PARAM = "local";
   private static final String VERSION_RESPONSE_PROPERTY = "version";
   public static final String NAME_PARAM = "name";
+  private static final String ETAG_HEADER = "ETag";
+  private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+  private static final int MAX_CACHED_RESPONSES = 64;
   private Persistable persistable;
+  // Serialized responses by the RCAs queried, reused until one of the RCAs is persisted again.
+  private final Map<String, CachedResponse> responseCache =
+      new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+          return size() > MAX_CACHED_RESPONSES;
+        }
+      };
   private MetricsRestUtil metricsRestUtil;
   private AppContext appContext;
 
@@ -185,8 +204,10 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
           HttpURLConnection.HTTP_BAD_REQUEST);
       return;
     }
-    String response = getRcaData(persistable, rcaList).toString();
-    sendResponse(exchange, response, HttpURLConnection.HTTP_OK);
+    final List<String> rcas = rcaList;
+    sendCachedResponse(
+        exchange, "cluster:" + String.join(",", rcas), rcas,
+        () -> getRcaData(persistable, rcas).toString());
   }
 
   private boolean isLocalTemperatureProfileRequest(final Map<String, String> params) {
@@ -222,8 +243,9 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
         errorResponse.addProperty("error", builder.toString());
         sendResponse(exchange, errorResponse.toString(), HttpURLConnection.HTTP_BAD_REQUEST);
       } else {
-        String response = getTemperatureProfileRca(persistable, rcaRequested).toString();
-        sendResponse(exchange, response, HttpURLConnection.HTTP_OK);
+        sendCachedResponse(
+            exchange, "local:" + rcaRequested, Collections.singletonList(rcaRequested),
+            () -> getTemperatureProfileRca(persistable, rcaRequested).toString());
       }
     } catch (Exception ex) {
       JsonObject errorResponse = new JsonObject();
@@ -270,6 +292,33 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
     return jsonResponse;
   }
 
+  /**
+   * Sends the response to a query of the given RCAs. The response is built only if one of the RCAs
+   * was persisted again since it was last sent, and not sent at all if the client already has it.
+   */
+  private void sendCachedResponse(HttpExchange exchange, String cacheKey, List<String> rcas,
+      java.util.function.Supplier<String> responseBuilder) throws IOException {
+    long[] versions = new long[rcas.size()];
+    if (persistable != null) {
+      for (int i = 0; i < versions.length; i++) {
+        versions[i] = persistable.getVersion(rcas.get(i));
+      }
+    }
+    CachedResponse cached = responseCache.get(cacheKey);
+    if (cached == null || !Arrays.equals(cached.versions, versions)) {
+      cached = new CachedResponse(versions, responseBuilder.get());
+      responseCache.put(cacheKey, cached);
+    }
+
+    exchange.getResponseHeaders().set(ETAG_HEADER, cached.etag);
+    if (cached.matches(exchange.getRequestHeaders().getFirst(IF_NONE_MATCH_HEADER))) {
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+      exchange.close();
+      return;
+    }
+    sendResponse(exchange, cached.body, HttpURLConnection.HTTP_OK);
+  }
+
   public void sendResponse(HttpExchange exchange, String response, int status) throws IOException {
     try (OutputStream os = exchange.getResponseBody()) {
       exchange.sendResponseHeaders(status, response.length());
@@ -282,6 +331,7 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
 
   public synchronized void setPersistable(Persistable persistable) {
     this.persistable = persistable;
+    responseCache.clear();
   }
 
   /**
@@ -294,4 +344,29 @@ public class QueryRcaRequestHandler extends MetricsHandler implements HttpHandle
 
     return versionObject.toString();
   }
+
+  private static class CachedResponse {
+    private final long[] versions;
+    private final String body;
+    private final String etag;
+
+    CachedResponse(long[] versions, String body) {
+      this.versions = versions;
+      this.body = body;
+      this.etag = "\"" + Hashing.murmur3_128().hashString(body, StandardCharsets.UTF_8) + "\"";
+    }
+
+    boolean matches(String ifNoneMatch) {
+      if (ifNoneMatch == null) {
+        return false;
+      }
+      for (String tag : ifNoneMatch.split(",")) {
+        String trimmed = tag.trim();
+        if (trimmed.equals("*") || trimmed.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
 }
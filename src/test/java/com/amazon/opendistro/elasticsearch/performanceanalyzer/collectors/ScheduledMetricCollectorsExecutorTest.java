@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators.QuantileSketch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScheduledMetricCollectorsExecutorTest {
+  private static class SleepingCollector extends PerformanceAnalyzerMetricsCollector {
+    private final long sleepMillis;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    SleepingCollector(int timeInterval, String name, long sleepMillis) {
+      super(timeInterval, name);
+      this.sleepMillis = sleepMillis;
+    }
+
+    @Override
+    void collectMetrics(long startTime) {
+      runs.incrementAndGet();
+      try {
+        Thread.sleep(sleepMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Test
+  public void testSlowCollectorSkipsIntervals() throws Exception {
+    ScheduledMetricCollectorsExecutor executor =
+        new ScheduledMetricCollectorsExecutor(2, false, Long.MAX_VALUE / 2);
+    SleepingCollector fast = new SleepingCollector(50, "fast", 0);
+    SleepingCollector slow = new SleepingCollector(50, "slow", 180);
+    executor.addScheduledMetricCollector(fast);
+    executor.addScheduledMetricCollector(slow);
+    executor.setEnabled(true);
+    executor.start();
+    Thread.sleep(1000);
+    executor.interrupt();
+    executor.join(1000);
+
+    CollectorSchedule fastSchedule = executor.getSchedule(fast);
+    CollectorSchedule slowSchedule = executor.getSchedule(slow);
+    Assert.assertTrue(fast.runs.get() >= 10);
+    Assert.assertEquals(0, fastSchedule.getOverruns());
+    Assert.assertTrue(slow.runs.get() < fast.runs.get());
+    Assert.assertTrue(slowSchedule.getOverruns() > 0);
+    Assert.assertTrue(slowSchedule.getSkippedIntervals() >= slowSchedule.getOverruns());
+    Assert.assertTrue(slowSchedule.getRunTime().getPercentile(50) >= 180);
+    Assert.assertTrue(fastSchedule.getRunTime().getPercentile(50) < 50);
+  }
+
+  @Test
+  public void testDisabledExecutorRunsNothing() throws Exception {
+    ScheduledMetricCollectorsExecutor executor = new ScheduledMetricCollectorsExecutor(1, false);
+    SleepingCollector collector = new SleepingCollector(20, "disabled", 0);
+    executor.addScheduledMetricCollector(collector);
+    executor.start();
+    Thread.sleep(200);
+    executor.interrupt();
+    executor.join(1000);
+
+    Assert.assertEquals(0, collector.runs.get());
+    Assert.assertEquals(0, executor.getSchedule(collector).getSkippedIntervals());
+  }
+
+  @Test
+  public void testDeadlineStaysOnGrid() {
+    CollectorSchedule schedule = new CollectorSchedule(new SleepingCollector(100, "grid", 0), 1000);
+    Assert.assertEquals(0, schedule.advance(1050));
+    Assert.assertEquals(1100, schedule.getDeadline());
+    // woke up 250ms after the deadline: the 1200 and 1300 runs are lost
+    Assert.assertEquals(2, schedule.advance(1350));
+    Assert.assertEquals(1400, schedule.getDeadline());
+  }
+
+  @Test
+  public void testResetStartsNewSketches() {
+    CollectorSchedule schedule = new CollectorSchedule(new SleepingCollector(100, "next", 0), 1000);
+    for (int i = 0; i < 98; i++) {
+      schedule.recordRunTime(3);
+    }
+    schedule.recordRunTime(700);
+    schedule.recordRunTime(30000);
+    schedule.recordLateness(20);
+    QuantileSketch runTime = schedule.getRunTime();
+    QuantileSketch lateness = schedule.getLateness();
+    schedule.reset();
+    schedule.recordRunTime(5);
+
+    // the sketches handed out before the reset keep the stats of the report
+    Assert.assertEquals(100, runTime.getCount());
+    Assert.assertEquals(3, runTime.getQuantile(0.5), 3 * CollectorSchedule.RELATIVE_ACCURACY);
+    Assert.assertEquals(700, runTime.getQuantile(0.99), 700 * CollectorSchedule.RELATIVE_ACCURACY);
+    Assert.assertEquals(30000, runTime.getMax(), 0);
+    Assert.assertEquals(20, lateness.getMax(), 0);
+    Assert.assertEquals(1, schedule.getRunTime().getCount());
+    Assert.assertEquals(0, schedule.getLateness().getCount());
+  }
+}
@@ -20,6 +20,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatEx
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
 import java.lang.management.ThreadInfo;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Before;
@@ -53,4 +54,53 @@ public class ThreadListTest {
             System.setProperty(propertyName, old_clk_tck);
         }
     }
+
+    @Test
+    public void testCurrentThreadMappedWithoutAttach() throws InterruptedException {
+        long attachCount = attachCount();
+        ThreadList.ThreadState[] state = new ThreadList.ThreadState[1];
+        Thread thread = new Thread(
+                () -> state[0] = ThreadList.getThreadState(Thread.currentThread().getId()),
+                "thread-list-test");
+        thread.start();
+        thread.join();
+
+        Assert.assertNotNull(state[0]);
+        Assert.assertTrue(state[0].nativeTid > 0);
+        Assert.assertEquals("thread-list-test", state[0].threadName);
+        Assert.assertEquals(attachCount, attachCount());
+    }
+
+    @Test
+    public void testUnresolvedThreadDoesNotAttach() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        // Pool like names, whose comm is the same for both threads.
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "elasticsearch[node][search][T#" + i + "]");
+            threads[i].start();
+        }
+        try {
+            long attachCount = attachCount();
+            ThreadList.getThreadState(threads[0].getId());
+            Assert.assertEquals(attachCount, attachCount());
+        } finally {
+            release.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    private static long attachCount() {
+        AtomicInteger count =
+                StatsCollector.instance().getCounters().get(ThreadList.JVM_ATTACH_METRIC);
+        return count == null ? 0 : count.get();
+    }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricEventQueue.OverflowPolicy;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared.Event;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class MetricEventQueueTests {
+
+  @Test
+  public void testCapacityIsRoundedUp() {
+    assertEquals(1, new MetricEventQueue(1, OverflowPolicy.DROP).capacity());
+    assertEquals(8, new MetricEventQueue(5, OverflowPolicy.DROP).capacity());
+    assertEquals(8, new MetricEventQueue(8, OverflowPolicy.DROP).capacity());
+  }
+
+  @Test
+  public void testDrainInOrderAcrossLaps() {
+    MetricEventQueue queue = new MetricEventQueue(4, OverflowPolicy.DROP);
+    List<Event> drained = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(queue.offer(event("k" + i, i)));
+      assertTrue(queue.offer(event("k" + i + "b", i)));
+      assertEquals(2, queue.drainTo(drained, 2));
+    }
+    queue.drainTo(drained);
+    assertEquals(20, drained.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("k" + i, drained.get(2 * i).key);
+      assertEquals("k" + i + "b", drained.get(2 * i + 1).key);
+    }
+    assertEquals(0, queue.size());
+    assertEquals(0, queue.getDropCount());
+  }
+
+  @Test
+  public void testDropsAndHighWatermark() {
+    MetricEventQueue queue = new MetricEventQueue(4, OverflowPolicy.DROP);
+    for (int i = 0; i < 6; i++) {
+      queue.offer(event("k" + i, 1));
+    }
+    assertEquals(4, queue.size());
+    assertEquals(2, queue.getDropCount());
+    assertEquals(
+        Long.valueOf(2), queue.getAndResetDropCounts().get(Thread.currentThread().getName()));
+    // Every stats period gets its own drops.
+    assertTrue(queue.getAndResetDropCounts().isEmpty());
+    assertEquals(2, queue.getDropCount());
+
+    List<Event> drained = new ArrayList<>();
+    queue.drainTo(drained, 3);
+    assertEquals("k0", drained.get(0).key);
+    assertEquals(4, queue.getAndResetHighWatermark());
+    // The gauge starts again from the current depth.
+    queue.drainTo(drained);
+    assertEquals(1, queue.getAndResetHighWatermark());
+    assertEquals(0, queue.getAndResetHighWatermark());
+  }
+
+  @Test
+  public void testKeepNewest() {
+    MetricEventQueue queue = new MetricEventQueue(2, OverflowPolicy.KEEP_NEWEST);
+    assertTrue(queue.offer(event("a", 1)));
+    assertTrue(queue.offer(event("b", 1)));
+    // The ring is full; the newest event of every key is kept.
+    assertTrue(queue.offer(event("c", 1)));
+    assertTrue(queue.offer(event("c", 2)));
+    assertTrue(queue.offer(event("d", 1)));
+    // As many keys as the ring holds are already kept aside.
+    assertFalse(queue.offer(event("e", 1)));
+    assertEquals(2, queue.getDropCount());
+
+    List<Event> drained = new ArrayList<>();
+    assertEquals(4, queue.drainTo(drained));
+    assertEquals("a", drained.get(0).key);
+    assertEquals("b", drained.get(1).key);
+    Set<String> kept = new HashSet<>();
+    for (Event event : drained.subList(2, 4)) {
+      kept.add(event.key + event.epoch);
+    }
+    assertTrue(kept.contains("c2"));
+    assertTrue(kept.contains("d1"));
+
+    // Once drained, the events go to the ring again.
+    assertTrue(queue.offer(event("f", 1)));
+    drained.clear();
+    queue.drainTo(drained);
+    assertEquals(1, drained.size());
+    assertEquals("f", drained.get(0).key);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    final int producers = 4;
+    final int perProducer = 20000;
+    final MetricEventQueue queue = new MetricEventQueue(1024, OverflowPolicy.DROP);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < perProducer; i++) {
+          queue.offer(event(producer + "/" + i, i));
+        }
+      }, "producer-" + p);
+      threads.add(thread);
+      thread.start();
+    }
+
+    start.countDown();
+    List<Event> drained = new ArrayList<>();
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread thread : threads) {
+        running |= thread.isAlive();
+      }
+      queue.drainTo(drained, 256);
+    }
+    queue.drainTo(drained);
+
+    assertEquals((long) producers * perProducer, drained.size() + queue.getDropCount());
+    long drops = 0;
+    for (Map.Entry<String, Long> entry : queue.getAndResetDropCounts().entrySet()) {
+      assertTrue(entry.getKey().startsWith("producer-"));
+      drops += entry.getValue();
+    }
+    assertEquals(queue.getDropCount(), drops);
+
+    // Every event is drained once, and the events of a producer stay in order.
+    int[] last = new int[producers];
+    Arrays.fill(last, -1);
+    for (Event event : drained) {
+      String[] parts = event.key.split("/");
+      int producer = Integer.parseInt(parts[0]);
+      int index = Integer.parseInt(parts[1]);
+      assertTrue(index > last[producer]);
+      last[producer] = index;
+    }
+    assertTrue(queue.getAndResetHighWatermark() <= queue.capacity());
+  }
+
+  @Test
+  public void testKeepNewestWithConcurrentProducers() throws Exception {
+    final int producers = 4;
+    final int perProducer = 20000;
+    for (int round = 0; round < 20; round++) {
+      // A small ring, so that the producers keep going from the ring to the overflow and back.
+      final MetricEventQueue queue = new MetricEventQueue(8, OverflowPolicy.KEEP_NEWEST);
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<>();
+      for (int p = 0; p < producers; p++) {
+        final String key = "producer-" + p;
+        Thread thread = new Thread(() -> {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < perProducer; i++) {
+            queue.offer(event(key, i));
+          }
+        }, key);
+        threads.add(thread);
+        thread.start();
+      }
+
+      start.countDown();
+      List<Event> drained = new ArrayList<>();
+      boolean running = true;
+      while (running) {
+        running = false;
+        for (Thread thread : threads) {
+          running |= thread.isAlive();
+        }
+        queue.drainTo(drained, 5);
+      }
+      queue.drainTo(drained);
+      assertEquals(0, queue.size());
+
+      // An event kept aside is never drained after a newer event of its producer, so the last
+      // event drained for every key is the newest one.
+      Map<String, Long> last = new HashMap<>();
+      for (Event event : drained) {
+        Long previous = last.put(event.key, event.epoch);
+        assertTrue(previous == null || event.epoch > previous);
+      }
+      for (long newest : last.values()) {
+        assertEquals(perProducer - 1, newest);
+      }
+    }
+  }
+
+  private static Event event(String key, long epoch) {
+    return new Event(key, "value", epoch);
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.CommonDimension;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.metrics.CPU_Utilization;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.metrics.Heap_AllocRate;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.MetricsDBProvider;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Queryable;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.temperature.TemperatureDimension;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.store.metric.AggregateMetric;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.store.metric.AggregateMetric.AggregateFunction;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.store.metric.temperature.byShard.calculators.ShardBasedTemperatureCalculator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.impl.DSL;
+import org.junit.Test;
+
+/** Runs every MetricsDB test against the columnar engine as well. */
+public class ColumnarMetricsDBTests extends MetricsDBTests {
+
+  public ColumnarMetricsDBTests() throws ClassNotFoundException {
+    super();
+  }
+
+  @Override
+  protected MetricsDB createDB(long windowStartTime) {
+    return new ColumnarMetricsDB(windowStartTime);
+  }
+
+  @Test
+  public void testBatchPutAndSelectAll() throws Exception {
+    MetricsDB db = createDB(1553713380);
+    List<String> dims = Arrays.asList("shard", "index");
+    db.createMetric(Metric.cpu(0D), dims);
+    assertTrue(db.metricExists("cpu"));
+    assertFalse(db.metricExists("rss"));
+
+    BatchPut handle = db.startBatchPut(Metric.cpu(0D), dims);
+    handle.bind("1", "ac-test", 4D, 2D, 1D, 3D);
+    handle.bind("2", null, "6", null, 6D, 6D);
+    assertEquals(2, handle.size());
+    handle.execute();
+    assertEquals(0, handle.size());
+
+    Result<Record> res = db.queryMetric("cpu");
+    assertEquals(2, res.size());
+    assertEquals("1", res.get(0).get("shard"));
+    assertEquals(4D, (Double) res.get(0).get(MetricsDB.SUM), 0);
+    assertNull(res.get(1).get("index"));
+    assertNull(res.get(1).get(MetricsDB.AVG));
+    assertEquals(6D, (Double) res.get(1).get(MetricsDB.SUM), 0);
+
+    // Null aggregations are skipped, and null dimension values sort first.
+    res = db.queryMetric(Arrays.asList("cpu"), Arrays.asList("avg"), Arrays.asList("index"));
+    assertEquals(2, res.size());
+    assertNull(res.get(0).get("index"));
+    assertNull(res.get(0).get("cpu"));
+    assertEquals(2D, (Double) res.get(1).get("cpu"), 0);
+    db.remove();
+  }
+
+  @Test
+  public void testDSLContextMaterializesWindow() throws Exception {
+    MetricsDB db = createDB(1553713380);
+    db.createMetric(Metric.cpu(0D), Arrays.asList("shard"));
+    db.startBatchPut(Metric.cpu(0D), Arrays.asList("shard")).bind("1", 5D, 5D, 5D, 5D).execute();
+
+    DSLContext create = db.getDSLContext();
+    assertEquals(
+        5D,
+        create
+            .select(DSL.sum(DSL.field(MetricsDB.SUM, Double.class)))
+            .from(DSL.table("cpu"))
+            .fetchOne(0, Double.class),
+        0);
+
+    // A write drops the materialized copy so the next caller sees the new rows.
+    db.startBatchPut(Metric.cpu(0D), Arrays.asList("shard")).bind("2", 7D, 7D, 7D, 7D).execute();
+    create = db.getDSLContext();
+    assertEquals(
+        12D,
+        create
+            .select(DSL.sum(DSL.field(MetricsDB.SUM, Double.class)))
+            .from(DSL.table("cpu"))
+            .fetchOne(0, Double.class),
+        0);
+    db.remove();
+  }
+
+  @Test
+  public void testRcaTickDoesNotMaterializeWindow() throws Exception {
+    ColumnarMetricsDB db = new ColumnarMetricsDB(1553713380);
+    List<String> dims =
+        Arrays.asList(
+            CommonDimension.SHARD_ID.toString(),
+            CommonDimension.INDEX_NAME.toString(),
+            CommonDimension.OPERATION.toString());
+    db.createMetric(new Metric<>(CPU_Utilization.NAME, 0D), dims);
+    db.createMetric(new Metric<>(Heap_AllocRate.NAME, 0D), dims);
+    db.startBatchPut(new Metric<>(CPU_Utilization.NAME, 0D), dims)
+        .bind("1", "logs", "bulk", 2D, 2D, 2D, 2D)
+        .bind("2", "logs", "bulk", 3D, 3D, 3D, 3D)
+        .bind(null, null, "GC", 1D, 1D, 1D, 1D)
+        .execute();
+    Queryable queryable =
+        new MetricsDBProvider() {
+          @Override
+          public MetricsDB getMetricsDB() {
+            return db;
+          }
+        };
+
+    // The group bys of the graph are scanned from the columns.
+    MetricFlowUnit flowUnit =
+        new AggregateMetric(
+                1,
+                CPU_Utilization.NAME,
+                AggregateFunction.SUM,
+                MetricsDB.MAX,
+                CommonDimension.OPERATION.toString())
+            .gather(queryable);
+    assertEquals("bulk", flowUnit.getData().get(0).get(0, String.class));
+    assertEquals(5D, flowUnit.getData().get(0).get(1, Double.class), 0);
+    assertTrue(db.getMaterializedMetrics().isEmpty());
+
+    // The temperature queries run in SQL, but only copy the table they read.
+    flowUnit =
+        new ShardBasedTemperatureCalculator(TemperatureDimension.CPU_Utilization).gather(queryable);
+    assertEquals(2, flowUnit.getData().size());
+    assertEquals(Collections.singleton(CPU_Utilization.NAME), db.getMaterializedMetrics());
+    db.remove();
+  }
+
+  @Test(expected = Exception.class)
+  public void testUnknownAggregation() throws Exception {
+    MetricsDB db = createDB(1553713380);
+    db.createMetric(Metric.cpu(0D), Arrays.asList("shard"));
+    db.queryMetric(Arrays.asList("cpu"), Arrays.asList("p99"), Arrays.asList("shard"));
+  }
+}
@@ -21,8 +21,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import org.jooq.BatchBindStep;
+import java.util.Map;
 import org.jooq.Record;
 import org.jooq.Result;
 import org.junit.After;
@@ -36,7 +38,11 @@ public class MetricsDBTests {
   @Before
   public void setUp() throws Exception {
     System.setProperty("java.io.tmpdir", "/tmp");
-    this.db = new MetricsDB(1553713380);
+    this.db = createDB(1553713380);
+  }
+
+  protected MetricsDB createDB(long windowStartTime) throws Exception {
+    return new MetricsDB(windowStartTime);
   }
 
   public MetricsDBTests() throws ClassNotFoundException {
@@ -226,6 +232,156 @@ public class MetricsDBTests {
     assertEquals(7D, cpu, 0);
   }
 
+  @Test
+  public void testGroupMetric() throws Exception {
+    db.createMetric(Metric.cpu(10D), Arrays.asList("shard", "index"));
+    db.createMetric(Metric.rss(10D), Arrays.asList("shard", "index"));
+    putCPUMetric(db, 10D, "1", "ac-test");
+    putCPUMetric(db, 4D, "1", "ac-test");
+    putCPUMetric(db, 6D, "2", "ac-test");
+    putCPUMetric(db, 8D, "1", "ac-test-2");
+    Result<Record> res =
+        db.groupMetric("cpu", MetricsDB.MAX, MetricsDB.SUM, Arrays.asList("shard"));
+    assertEquals(2, res.size());
+    assertEquals("1", res.get(0).get(0).toString());
+    assertEquals(22D, Double.parseDouble(res.get(0).get(1).toString()), 0);
+    assertEquals("2", res.get(1).get(0).toString());
+    assertEquals(6D, Double.parseDouble(res.get(1).get(1).toString()), 0);
+
+    // Without dimensions there is a single group, even when the table is empty.
+    res = db.groupMetric("cpu", MetricsDB.MIN, MetricsDB.MAX, Collections.emptyList());
+    assertEquals(1, res.size());
+    assertEquals(10D, Double.parseDouble(res.get(0).get(0).toString()), 0);
+    res = db.groupMetric("rss", MetricsDB.SUM, MetricsDB.SUM, Collections.emptyList());
+    assertEquals(1, res.size());
+    assertNull(res.get(0).get(0));
+  }
+
+  @Test
+  public void testTopK() throws Exception {
+    List<String> columns = Arrays.asList("shard", "index");
+    db.createMetric(Metric.cpu(10D), columns);
+    db.createMetric(Metric.rss(10D), columns);
+    putCPUMetric(db, 10D, "1", "ac-test");
+    putCPUMetric(db, 30D, "2", "ac-test");
+    putCPUMetric(db, 20D, "3", "ac-test");
+    putRSSMetric(db, 1D, "4", "ac-test");
+    Result<Record> res =
+        db.queryMetric(
+            Arrays.asList("cpu", "rss"),
+            Arrays.asList("sum", "sum"),
+            Arrays.asList("shard", "index"),
+            Collections.emptyMap(),
+            "cpu",
+            2);
+    assertEquals(2, res.size());
+    assertEquals("2", res.get(0).get("shard").toString());
+    assertEquals("3", res.get(1).get("shard").toString());
+
+    // Rows without a value for the sort metric come last.
+    res =
+        db.queryMetric(
+            Arrays.asList("cpu", "rss"),
+            Arrays.asList("sum", "sum"),
+            Arrays.asList("shard", "index"),
+            Collections.emptyMap(),
+            "cpu",
+            10);
+    assertEquals(4, res.size());
+    assertEquals("4", res.get(3).get("shard").toString());
+    assertNull(res.get(3).get("cpu"));
+
+    // Any of the queried metrics can rank the rows.
+    res =
+        db.queryMetric(
+            Arrays.asList("cpu", "rss"),
+            Arrays.asList("sum", "sum"),
+            Arrays.asList("shard", "index"),
+            Collections.emptyMap(),
+            "rss",
+            1);
+    assertEquals(1, res.size());
+    assertEquals("4", res.get(0).get("shard").toString());
+  }
+
+  @Test
+  public void testDimFilters() throws Exception {
+    List<String> columns = Arrays.asList("shard", "index");
+    db.createMetric(Metric.cpu(10D), columns);
+    db.createMetric(Metric.rss(10D), columns);
+    putCPUMetric(db, 10D, "1", "ac-test");
+    putCPUMetric(db, 30D, "2", "ac-test");
+    putCPUMetric(db, 20D, "3", "ac-test-2");
+    putCPUMetric(db, 5D, "1", "ac-test");
+    putRSSMetric(db, 1D, "1", "ac-test");
+    putRSSMetric(db, 3D, "3", "ac-test-2");
+    Result<Record> res =
+        db.queryMetric(
+            Arrays.asList("cpu", "rss"),
+            Arrays.asList("sum", "sum"),
+            Arrays.asList("shard", "index"),
+            Collections.singletonMap("index", "ac-test"),
+            "",
+            0);
+    assertEquals(2, res.size());
+    assertEquals("1", res.get(0).get("shard").toString());
+    assertEquals(15D, Double.parseDouble(res.get(0).get("cpu").toString()), 0);
+    assertEquals(1D, Double.parseDouble(res.get(0).get("rss").toString()), 0);
+    assertEquals("2", res.get(1).get("shard").toString());
+    assertNull(res.get(1).get("rss"));
+
+    // The rows are filtered before the top ones are kept.
+    Map<String, String> filters = new HashMap<>();
+    filters.put("index", "ac-test");
+    filters.put("shard", "1");
+    res =
+        db.queryMetric(
+            Arrays.asList("cpu"),
+            Arrays.asList("max"),
+            Arrays.asList("shard", "index"),
+            filters,
+            "cpu",
+            1);
+    assertEquals(1, res.size());
+    assertEquals(10D, Double.parseDouble(res.get(0).get("cpu").toString()), 0);
+
+    res =
+        db.queryMetric(
+            Arrays.asList("cpu"),
+            Arrays.asList("sum"),
+            Arrays.asList("shard", "index"),
+            Collections.singletonMap("index", "missing"),
+            "",
+            0);
+    assertEquals(0, res.size());
+  }
+
+  @Test(expected = Exception.class)
+  public void testDimFilterNotQueried() throws Exception {
+    db.createMetric(Metric.cpu(10D), Arrays.asList("shard", "index"));
+    putCPUMetric(db, 10D, "1", "ac-test");
+    db.queryMetric(
+        Arrays.asList("cpu"),
+        Arrays.asList("sum"),
+        Arrays.asList("shard"),
+        Collections.singletonMap("index", "ac-test"),
+        "",
+        0);
+  }
+
+  @Test(expected = Exception.class)
+  public void testTopKSortMetricNotQueried() throws Exception {
+    db.createMetric(Metric.cpu(10D), Arrays.asList("shard", "index"));
+    putCPUMetric(db, 10D, "1", "ac-test");
+    db.queryMetric(
+        Arrays.asList("cpu"),
+        Arrays.asList("sum"),
+        Arrays.asList("shard", "index"),
+        Collections.emptyMap(),
+        "rss",
+        1);
+  }
+
   private void putCPUMetric(MetricsDB db, Double val, String shard, String index) {
     Dimensions dimensions = new Dimensions();
     dimensions.put("shard", shard);
@@ -329,7 +485,7 @@ public class MetricsDBTests {
           }
         };
     mdb.createMetric(new Metric<Double>(metricColumn, 0d), dims);
-    BatchBindStep handle = mdb.startBatchPut(new Metric<Double>(metricColumn, 0d), dims);
+    BatchPut handle = mdb.startBatchPut(new Metric<Double>(metricColumn, 0d), dims);
 
     Dimensions dimensions = new Dimensions();
     for (int i = 0; i < iterations; i++) {
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.junit.Test;
+
+public class MetricsHistoryTests {
+  private static final String CPU = AllMetrics.OSMetrics.CPU_UTILIZATION.toString();
+  private static final String SHARD = AllMetrics.CommonDimension.SHARD_ID.toString();
+  private static final String INDEX = AllMetrics.CommonDimension.INDEX_NAME.toString();
+  private static final long START = 1593000000000L;
+  private static final long INTERVAL = 5000;
+
+  /** A window where shard 1 uses i cores and shard 2 twice as many. */
+  private static MetricsDB window(int i) {
+    MetricsDB db = new ColumnarMetricsDB(START + i * INTERVAL);
+    List<String> dims = Arrays.asList(SHARD, INDEX);
+    Metric<Double> metric = new Metric<>(CPU, 0D);
+    db.createMetric(metric, dims);
+    double shard2 = 2D * i;
+    db.startBatchPut(metric, dims)
+        .bind("1", "logs", (double) i, (double) i, (double) i, (double) i)
+        .bind("2", "logs", shard2, shard2, shard2, shard2)
+        .execute();
+    return db;
+  }
+
+  private static MetricsHistory ingest(MetricsHistory history, int windows) throws Exception {
+    for (int i = 0; i < windows; i++) {
+      MetricsDB db = window(i);
+      history.ingest(db.getWindowStartTime(), db);
+      db.remove();
+    }
+    return history;
+  }
+
+  private static Result<Record> query(
+      MetricsHistory history, String agg, List<String> dims, long step) {
+    return history.query(
+        Collections.singletonList(CPU), Collections.singletonList(agg), dims, START,
+        START + 60000, step);
+  }
+
+  @Test
+  public void testQueryEveryWindow() throws Exception {
+    MetricsHistory history = ingest(new MetricsHistory(600000, 1 << 20), 12);
+    assertEquals(START + 11 * INTERVAL, history.getLatestWindowStartTime());
+
+    Result<Record> result = query(history, MetricsDB.SUM, Collections.emptyList(), INTERVAL);
+    assertEquals(12, result.size());
+    for (int i = 0; i < 12; i++) {
+      assertEquals(
+          START + i * INTERVAL, (long) result.get(i).get(MetricsHistory.TIMESTAMP, Long.class));
+      assertEquals(3D * i, result.get(i).get(CPU, Double.class), 0);
+    }
+  }
+
+  @Test
+  public void testQueryStepsByDimension() throws Exception {
+    MetricsHistory history = ingest(new MetricsHistory(600000, 1 << 20), 12);
+
+    // Six windows per step, averaged.
+    Result<Record> result =
+        query(history, MetricsDB.AVG, Collections.singletonList(SHARD), 6 * INTERVAL);
+    assertEquals(4, result.size());
+    assertEquals("1", result.get(0).get(SHARD));
+    assertEquals(START, (long) result.get(0).get(MetricsHistory.TIMESTAMP, Long.class));
+    assertEquals(2.5, result.get(0).get(CPU, Double.class), 0);
+    assertEquals(8.5, result.get(1).get(CPU, Double.class), 0);
+    assertEquals("2", result.get(2).get(SHARD));
+    assertEquals(5D, result.get(2).get(CPU, Double.class), 0);
+    assertEquals(17D, result.get(3).get(CPU, Double.class), 0);
+
+    result = query(history, MetricsDB.MAX, Collections.emptyList(), 60000);
+    assertEquals(1, result.size());
+    assertEquals(22D, result.get(0).get(CPU, Double.class), 0);
+
+    result = query(history, MetricsDB.MIN, Collections.singletonList(INDEX), 60000);
+    assertEquals(1, result.size());
+    assertEquals("logs", result.get(0).get(INDEX));
+    assertEquals(0D, result.get(0).get(CPU, Double.class), 0);
+  }
+
+  @Test
+  public void testOlderWindowIsIgnored() throws Exception {
+    MetricsHistory history = ingest(new MetricsHistory(600000, 1 << 20), 3);
+    MetricsDB db = window(1);
+    history.ingest(db.getWindowStartTime(), db);
+    db.remove();
+    assertEquals(3, query(history, MetricsDB.SUM, Collections.emptyList(), INTERVAL).size());
+  }
+
+  @Test
+  public void testRetention() throws Exception {
+    MetricsHistory history = ingest(new MetricsHistory(60000, 1 << 20), 130);
+
+    // Chunks are evicted whole, so the history goes back to the start of the oldest chunk that
+    // has a window in the last minute.
+    Result<Record> result =
+        history.query(
+            Collections.singletonList(CPU), Collections.singletonList(MetricsDB.SUM),
+            Collections.emptyList(), START, START + 130 * INTERVAL, INTERVAL);
+    assertEquals(70, result.size());
+    assertEquals(
+        START + 60 * INTERVAL, (long) result.get(0).get(MetricsHistory.TIMESTAMP, Long.class));
+  }
+
+  @Test
+  public void testMemoryBudget() throws Exception {
+    long unbounded = ingest(new MetricsHistory(6000000, 1 << 20), 130).sizeInBytes();
+    MetricsHistory history = ingest(new MetricsHistory(6000000, unbounded / 2), 130);
+    assertTrue(history.sizeInBytes() <= unbounded / 2);
+    Result<Record> result =
+        history.query(
+            Collections.singletonList(CPU), Collections.singletonList(MetricsDB.SUM),
+            Collections.emptyList(), START, START + 130 * INTERVAL, INTERVAL);
+    assertTrue(result.size() < 130);
+    Record latest = result.get(result.size() - 1);
+    assertEquals(START + 129 * INTERVAL, (long) latest.get(MetricsHistory.TIMESTAMP, Long.class));
+  }
+
+  @Test
+  public void testMemoryBudgetBeforeAChunkIsSealed() throws Exception {
+    // 30 windows fit in the first chunk of every series, which is still being appended to.
+    long unbounded = ingest(new MetricsHistory(6000000, 1 << 20), 30).sizeInBytes();
+    MetricsHistory history = ingest(new MetricsHistory(6000000, unbounded * 3 / 4), 30);
+    assertTrue(history.sizeInBytes() <= unbounded * 3 / 4);
+    Result<Record> result =
+        history.query(
+            Collections.singletonList(CPU), Collections.singletonList(MetricsDB.SUM),
+            Collections.emptyList(), START, START + 30 * INTERVAL, INTERVAL);
+    // The oldest windows were trimmed rather than the whole history dropped.
+    assertTrue(result.size() > 1);
+    assertTrue(result.size() < 30);
+    Record latest = result.get(result.size() - 1);
+    assertEquals(START + 29 * INTERVAL, (long) latest.get(MetricsHistory.TIMESTAMP, Long.class));
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    MetricsHistory history = ingest(new MetricsHistory(0, 1 << 20), 3);
+    assertEquals(-1, history.getLatestWindowStartTime());
+    assertEquals(0, query(history, MetricsDB.SUM, Collections.emptyList(), INTERVAL).size());
+  }
+
+  @Test
+  public void testRollupsAnswerLikeTheWindows() throws Exception {
+    long hour = TimeUnit.HOURS.toMillis(1);
+    MetricsHistory tiered =
+        new MetricsHistory(600000, 1 << 24, new long[] {2 * hour, 4 * hour, 8 * hour});
+    MetricsHistory windows = new MetricsHistory(3 * hour, 1 << 24);
+    // Two hours of windows, the last one still being rolled up.
+    int count = 1440;
+    ingest(tiered, count);
+    ingest(windows, count);
+    assertTrue(tiered.sizeInBytes() < windows.sizeInBytes());
+
+    long end = START + count * INTERVAL;
+    for (long step : new long[] {60000, 600000, hour}) {
+      long start = step == hour ? START : end - hour;
+      assertEquals(step, tiered.getResolutionMillis(start, step));
+      for (String agg : MetricsDB.AGG_VALUES) {
+        for (List<String> dims :
+            Arrays.asList(Collections.<String>emptyList(), Collections.singletonList(SHARD))) {
+          Result<Record> expected =
+              windows.query(Collections.singletonList(CPU), Collections.singletonList(agg), dims,
+                  start, end, step);
+          Result<Record> rolledUp =
+              tiered.query(Collections.singletonList(CPU), Collections.singletonList(agg), dims,
+                  start, end, step);
+          assertEquals(agg + " every " + step, expected.size(), rolledUp.size());
+          for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).get(MetricsHistory.TIMESTAMP),
+                rolledUp.get(i).get(MetricsHistory.TIMESTAMP));
+            assertEquals(expected.get(i).get(CPU, Double.class),
+                rolledUp.get(i).get(CPU, Double.class), 1e-9);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRangeBeforeTheWindowsUsesRollup() throws Exception {
+    long hour = TimeUnit.HOURS.toMillis(1);
+    MetricsHistory history =
+        ingest(new MetricsHistory(60000, 1 << 24, new long[] {hour, 0, 0}), 720);
+    long end = START + 720 * INTERVAL;
+    // The windows only go back a few minutes, the 1 minute rollup the whole hour.
+    assertEquals(INTERVAL, history.getResolutionMillis(end - 60000, INTERVAL));
+    assertEquals(60000, history.getResolutionMillis(START, 600000));
+
+    Result<Record> result =
+        history.query(
+            Collections.singletonList(CPU), Collections.singletonList(MetricsDB.MAX),
+            Collections.emptyList(), START, end, 600000);
+    assertEquals(6, result.size());
+    // The largest window of the first ten minutes is the 120th, where shard 2 uses 238 cores.
+    assertEquals(238D, result.get(0).get(CPU, Double.class), 0);
+  }
+
+  @Test
+  public void testRollupsStayInBudget() throws Exception {
+    long hour = TimeUnit.HOURS.toMillis(1);
+    MetricsHistory history =
+        ingest(new MetricsHistory(600000, 4000, new long[] {2 * hour, 4 * hour, 8 * hour}), 1440);
+    assertTrue(history.sizeInBytes() <= 4000);
+    Result<Record> result =
+        history.query(
+            Collections.singletonList(CPU), Collections.singletonList(MetricsDB.MIN),
+            Collections.emptyList(), START, START + 1440 * INTERVAL, hour);
+    assertEquals(2, result.size());
+    assertEquals(0D, result.get(0).get(CPU, Double.class), 0);
+    assertEquals(720D, result.get(1).get(CPU, Double.class), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownAggregation() throws Exception {
+    query(ingest(new MetricsHistory(600000, 1 << 20), 1), "p99", Collections.emptyList(), INTERVAL);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooManySteps() throws Exception {
+    query(
+        ingest(new MetricsHistory(600000, 1 << 20), 1), MetricsDB.SUM, Collections.emptyList(), 1);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryPlannerTests {
+  private static final List<String> DIMS = Arrays.asList("shard", "index", "operation", "role");
+
+  private MetricsDB db;
+
+  public QueryPlannerTests() throws ClassNotFoundException {
+    Class.forName("org.sqlite.JDBC");
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty("java.io.tmpdir", "/tmp");
+    this.db = new MetricsDB(1553713385);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.db.remove();
+    this.db.deleteOnDiskFile();
+  }
+
+  @Test
+  public void testSameResultAsUnionPlan() throws Exception {
+    fillWindow(db, Arrays.asList("cpu", "paging"), 50);
+    // A missing table and an empty table have to behave alike.
+    db.createMetric(new Metric<>("rss", 0d), DIMS);
+    db.createMetric(new Metric<>("gc", 0d), DIMS);
+
+    List<List<String>> metricSets =
+        Arrays.asList(
+            Collections.singletonList("cpu"),
+            Arrays.asList("cpu", "rss"),
+            Arrays.asList("cpu", "rss", "paging", "gc", "missing"));
+    List<List<String>> dimSets =
+        Arrays.asList(
+            Collections.emptyList(),
+            Collections.singletonList("index"),
+            Arrays.asList("shard", "index"),
+            DIMS);
+    for (List<String> metrics : metricSets) {
+      for (String agg : MetricsDB.AGG_VALUES) {
+        List<String> aggs = Collections.nCopies(metrics.size(), agg);
+        for (List<String> dims : dimSets) {
+          assertSameRows(
+              db.queryMetricWithUnion(metrics, aggs, dims), db.queryMetric(metrics, aggs, dims));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testExplainShapes() throws Exception {
+    fillWindow(db, Arrays.asList("cpu", "rss"), 5);
+
+    QueryPlan plan =
+        db.explainQuery(
+            Arrays.asList("cpu", "missing"),
+            Arrays.asList("sum", "avg"),
+            DIMS,
+            Collections.emptyMap(),
+            null,
+            0);
+    assertEquals(QueryPlan.Shape.SINGLE_METRIC, plan.getShape());
+    assertEquals(Collections.singletonList("missing"), plan.getMissingMetrics());
+    assertFalse(plan.getSqlitePlan().isEmpty());
+
+    assertNull(plan.getSortMetric());
+
+    plan =
+        db.explainQuery(
+            Arrays.asList("cpu", "rss"),
+            Arrays.asList("sum", "max"),
+            DIMS,
+            Collections.singletonMap("index", "index3"),
+            "rss",
+            3);
+    assertEquals(QueryPlan.Shape.SHARED_SCAN, plan.getShape());
+    assertTrue(plan.isTopK());
+    assertEquals("rss", plan.getSortMetric());
+    assertTrue(plan.getSql().toLowerCase().contains("union all"));
+    assertTrue(plan.getSql().contains("'index3'"));
+
+    plan =
+        db.explainQuery(
+            Arrays.asList("missing"), Arrays.asList("sum"), DIMS, Collections.emptyMap(), null, 0);
+    assertEquals(QueryPlan.Shape.EMPTY, plan.getShape());
+    assertNull(plan.getSql());
+    assertNull(db.queryMetric(Arrays.asList("missing"), Arrays.asList("sum"), DIMS));
+  }
+
+  @Test(expected = Exception.class)
+  public void testUnknownAggregation() throws Exception {
+    fillWindow(db, Arrays.asList("cpu"), 1);
+    db.queryMetric(Arrays.asList("cpu"), Arrays.asList("p99"), DIMS);
+  }
+
+  private static void fillWindow(MetricsDB db, List<String> metrics, int shards) throws Exception {
+    for (int m = 0; m < metrics.size(); m++) {
+      Metric<Double> metric = new Metric<>(metrics.get(m), 0d);
+      db.createMetric(metric, DIMS);
+      BatchPut handle = db.startBatchPut(metric, DIMS);
+      for (int shard = 0; shard < shards; shard++) {
+        // Every metric leaves out a different subset of the shards.
+        if ((shard + m) % 7 == 0) {
+          continue;
+        }
+        String index = "index" + (shard % 13);
+        for (String op : Arrays.asList("bulk", "query")) {
+          double value = shard * (m + 1) + op.length();
+          handle.bind(
+              String.valueOf(shard), index, op, "primary", value, value / 2, value - 1, value + 1);
+        }
+      }
+      handle.execute();
+    }
+    db.commit();
+  }
+
+  private static void assertSameRows(Result<Record> expected, Result<Record> actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.fields().length, actual.fields().length);
+    for (int row = 0; row < expected.size(); row++) {
+      for (int col = 0; col < expected.fields().length; col++) {
+        Object left = expected.get(row).get(col);
+        Object right = actual.get(row).get(col);
+        if (left == null || right == null) {
+          assertEquals(left, right);
+        } else if (left instanceof Number || right instanceof Number) {
+          assertEquals(
+              Double.parseDouble(left.toString()), Double.parseDouble(right.toString()), 1e-9);
+        } else {
+          assertEquals(left.toString(), right.toString());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TimeSeriesChunkTests {
+
+  @Test
+  public void testRoundTrip() {
+    Random random = new Random(42);
+    TimeSeriesChunk chunk = new TimeSeriesChunk(200);
+    long[] timestamps = new long[200];
+    double[][] values = new double[200][TimeSeriesChunk.COLUMNS];
+    long timestamp = 1593000000000L;
+    for (int i = 0; i < timestamps.length; i++) {
+      // On time, a little late, or after a long pause of the reader.
+      int kind = random.nextInt(3);
+      timestamp += kind == 0 ? 5000 : kind == 1 ? 5000 + random.nextInt(100) - 50 : 3600000;
+      timestamps[i] = timestamp;
+      for (int col = 0; col < TimeSeriesChunk.COLUMNS; col++) {
+        int value = random.nextInt(4);
+        values[i][col] =
+            value == 0
+                ? Double.NaN
+                : value == 1 ? 12.5 : value == 2 ? random.nextInt(100) : random.nextDouble();
+      }
+      chunk.append(timestamps[i], values[i]);
+    }
+    assertTrue(chunk.isFull());
+    chunk.seal();
+
+    TimeSeriesChunk.Cursor cursor = chunk.cursor();
+    for (int i = 0; i < timestamps.length; i++) {
+      assertTrue(cursor.next());
+      assertEquals(timestamps[i], cursor.timestamp());
+      for (int col = 0; col < TimeSeriesChunk.COLUMNS; col++) {
+        assertEquals(values[i][col], cursor.value(col), 0);
+      }
+    }
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  public void testSteadySeriesIsSmall() {
+    TimeSeriesChunk chunk = new TimeSeriesChunk(60);
+    for (int i = 0; i < 60; i++) {
+      chunk.append(1593000000000L + i * 5000L, new double[] {42.5, 10.625, 1, 20});
+    }
+    chunk.seal();
+    // 40 bytes for the first point and a bit per timestamp and value after it.
+    assertTrue(chunk.sizeInBytes() < 60 * 8);
+  }
+
+  @Test
+  public void testSeriesScanAndEviction() {
+    TimeSeries series = new TimeSeries(Arrays.asList("1", "index"), 10);
+    for (int i = 0; i < 35; i++) {
+      assertTrue(series.append(i * 5000L, new double[] {i, i, i, i}));
+    }
+    assertFalse(series.append(5000L, new double[] {0, 0, 0, 0}));
+
+    List<Long> scanned = new ArrayList<>();
+    series.scan(20000, 100000, (timestamp, point) -> scanned.add(timestamp));
+    assertEquals(16, scanned.size());
+    assertEquals(20000L, (long) scanned.get(0));
+
+    // Only whole chunks are evicted: the chunk of 50000 to 95000 is kept.
+    series.evictBefore(60000);
+    scanned.clear();
+    series.scan(0, Long.MAX_VALUE, (timestamp, point) -> scanned.add(timestamp));
+    assertEquals(50000L, (long) scanned.get(0));
+    assertEquals(25, scanned.size());
+  }
+
+  @Test
+  public void testSeriesTrim() {
+    TimeSeries series = new TimeSeries(Arrays.asList("1", "index"), 10);
+    for (int i = 0; i < 15; i++) {
+      series.append(i * 5000L, new double[] {i, i, i, i});
+    }
+    // The chunk of 50000 to 70000 is encoded again from 60000.
+    series.trimBefore(60000);
+    List<Long> scanned = new ArrayList<>();
+    List<Double> values = new ArrayList<>();
+    series.scan(0, Long.MAX_VALUE, (timestamp, point) -> {
+      scanned.add(timestamp);
+      values.add(point.value(0));
+    });
+    assertEquals(3, scanned.size());
+    assertEquals(60000L, (long) scanned.get(0));
+    assertEquals(12D, values.get(0), 0);
+    assertEquals(70000L, series.getLastTimestamp());
+    assertTrue(series.append(75000L, new double[] {15, 15, 15, 15}));
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelHealthTest {
+
+  private ChannelHealth health;
+
+  @Before
+  public void setUp() {
+    health = new ChannelHealth("host1");
+  }
+
+  @Test
+  public void testOnlyConnectingAgainCountsAsReconnect() {
+    int generation = health.getGeneration();
+    health.onStateChange(ConnectivityState.CONNECTING, generation);
+    health.onStateChange(ConnectivityState.READY, generation);
+    Assert.assertEquals(0, health.getReconnects());
+
+    health.onStateChange(ConnectivityState.IDLE, generation);
+    health.onStateChange(ConnectivityState.CONNECTING, generation);
+    health.onStateChange(ConnectivityState.READY, generation);
+    Assert.assertEquals(1, health.getReconnects());
+    Assert.assertEquals(ConnectivityState.READY, health.getState());
+  }
+
+  @Test
+  public void testStateOfAnEvictedChannelIsIgnored() {
+    int generation = health.getGeneration();
+    health.onEvicted(0);
+    Assert.assertFalse(health.onStateChange(ConnectivityState.READY, generation));
+    Assert.assertEquals(ConnectivityState.SHUTDOWN, health.getState());
+  }
+
+  @Test
+  public void testBackoffGrowsWhileTheHostCannotBeReached() {
+    health.onStateChange(ConnectivityState.TRANSIENT_FAILURE, health.getGeneration());
+    health.onEvicted(0);
+    Assert.assertTrue(health.isBackingOff(ChannelHealth.INITIAL_BACKOFF_MILLIS / 2));
+    Assert.assertFalse(health.isBackingOff(ChannelHealth.INITIAL_BACKOFF_MILLIS * 2));
+
+    health.onStateChange(ConnectivityState.TRANSIENT_FAILURE, health.getGeneration());
+    health.onEvicted(0);
+    Assert.assertTrue(health.isBackingOff(ChannelHealth.INITIAL_BACKOFF_MILLIS * 3 / 2));
+    Assert.assertFalse(health.isBackingOff(ChannelHealth.INITIAL_BACKOFF_MILLIS * 3));
+
+    // Getting connected resets the backoff.
+    health.onStateChange(ConnectivityState.READY, health.getGeneration());
+    Assert.assertFalse(health.isBackingOff(0));
+  }
+
+  @Test
+  public void testNoBackoffForAChannelThatNeverTriedToConnect() {
+    health.onEvicted(0);
+    Assert.assertFalse(health.isBackingOff(0));
+  }
+
+  @Test
+  public void testTerminatedChannelIsShutDown() {
+    GRPCConnectionManager connectionManager = new GRPCConnectionManager(false, 9650);
+    InstanceDetails.Id id = new InstanceDetails.Id("host1");
+    InstanceDetails host = new InstanceDetails(id, new InstanceDetails.Ip("127.0.0.1"), 9650);
+    connectionManager.getClientStubForHost(host);
+    ManagedChannel channel = connectionManager.getPerHostChannelMap().get(id).get();
+    Assert.assertNotNull(connectionManager.getChannelHealth(id));
+
+    // The channel is reused for the next calls to the host.
+    connectionManager.getClientStubForHost(host);
+    Assert.assertSame(channel, connectionManager.getPerHostChannelMap().get(id).get());
+
+    connectionManager.terminateConnection(id);
+    Assert.assertTrue(channel.isShutdown());
+    Assert.assertFalse(connectionManager.getPerHostChannelMap().containsKey(id));
+    connectionManager.shutdown();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PublishCreditsTest {
+
+  private static final String VERTEX = "HighHeapUsageClusterRca";
+  private static final InstanceDetails.Id HOST = new InstanceDetails.Id("host1");
+
+  private PublishCredits credits;
+
+  @Before
+  public void setUp() {
+    credits = new PublishCredits();
+  }
+
+  private FlowUnitMessage flowUnit(long timestamp) {
+    return FlowUnitMessage.newBuilder().setGraphNode(VERTEX).setTimeStamp(timestamp).build();
+  }
+
+  @Test
+  public void testUnlimitedUntilGranted() {
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(credits.acquireOrHold(HOST, flowUnit(i)));
+    }
+  }
+
+  @Test
+  public void testHoldsNewestWhenOutOfCredits() {
+    credits.grant(HOST, Collections.singletonMap(VERTEX, 1));
+    Assert.assertTrue(credits.acquireOrHold(HOST, flowUnit(1)));
+    Assert.assertFalse(credits.acquireOrHold(HOST, flowUnit(2)));
+    Assert.assertFalse(credits.acquireOrHold(HOST, flowUnit(3)));
+
+    List<FlowUnitMessage> released = credits.grant(HOST, Collections.singletonMap(VERTEX, 2));
+    Assert.assertEquals(1, released.size());
+    Assert.assertEquals(3, released.get(0).getTimeStamp());
+
+    // One of the two credits went to the flow unit that was held back.
+    Assert.assertTrue(credits.acquireOrHold(HOST, flowUnit(4)));
+    Assert.assertFalse(credits.acquireOrHold(HOST, flowUnit(5)));
+  }
+
+  @Test
+  public void testZeroGrantReleasesNothing() {
+    credits.grant(HOST, Collections.singletonMap(VERTEX, 0));
+    Assert.assertFalse(credits.acquireOrHold(HOST, flowUnit(1)));
+    Assert.assertTrue(credits.grant(HOST, Collections.singletonMap(VERTEX, 0)).isEmpty());
+  }
+
+  @Test
+  public void testResetForgetsCredits() {
+    credits.grant(HOST, Collections.singletonMap(VERTEX, 0));
+    Assert.assertFalse(credits.acquireOrHold(HOST, flowUnit(1)));
+    credits.reset(HOST);
+    Assert.assertTrue(credits.acquireOrHold(HOST, flowUnit(2)));
+  }
+}
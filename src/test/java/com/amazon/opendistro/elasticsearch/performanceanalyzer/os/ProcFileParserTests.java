@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcFileParserTests {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("procfileparser", ".txt");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private void write(String content) throws IOException {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testThreadNameWithSpaces() throws IOException {
+    write("4242 (elasticsearch[n) 1]) S -1 18446744073709551615 42\n");
+    ProcFileParser parser = new ProcFileParser(true, false);
+    long[] values = new long[6];
+
+    Assert.assertTrue(parser.parseLine(file.getPath(), values));
+    Assert.assertEquals(4242, values[0]);
+    Assert.assertEquals("(elasticsearch[n) 1])", parser.getString(1));
+    Assert.assertTrue(parser.tokenEquals(2, "S"));
+    Assert.assertEquals(-1, values[3]);
+    Assert.assertEquals(Long.parseUnsignedLong("18446744073709551615"), values[4]);
+    Assert.assertEquals(42, values[5]);
+  }
+
+  @Test
+  public void testLineShorterThanSchema() throws IOException {
+    write("1 2\n");
+    Assert.assertFalse(new ProcFileParser().parseLine(file.getPath(), new long[3]));
+  }
+
+  @Test
+  public void testMissingFile() throws IOException {
+    ProcFileParser parser = new ProcFileParser();
+    Assert.assertFalse(parser.load(file.getPath() + ".missing"));
+    Assert.assertFalse(parser.nextLine());
+  }
+
+  @Test
+  public void testKeyValues() throws IOException {
+    write("rchar: 10\nwchar: 20\nsyscr: 3\nsyscw: 4\nread_bytes: 4096\nwrite_bytes: 0\n");
+    ProcFileParser parser = new ProcFileParser(false, true);
+    String[] keys = {"write_bytes", "rchar", "absent"};
+    long[] values = new long[keys.length];
+
+    Assert.assertTrue(parser.load(file.getPath()));
+    Assert.assertEquals(2, parser.parseKeyValues(keys, values));
+    Assert.assertEquals(0, values[0]);
+    Assert.assertEquals(10, values[1]);
+  }
+
+  @Test
+  public void testFileLargerThanBuffer() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      content.append("line ").append(i).append('\n');
+    }
+    write(content.toString());
+    ProcFileParser parser = new ProcFileParser();
+
+    Assert.assertTrue(parser.load(file.getPath()));
+    int lines = 0;
+    while (parser.nextLine()) {
+      Assert.assertEquals(lines, parser.getLong(1));
+      lines++;
+    }
+    Assert.assertEquals(2000, lines);
+  }
+}
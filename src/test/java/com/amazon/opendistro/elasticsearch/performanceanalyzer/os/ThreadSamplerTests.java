@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.os;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.collectors.StatsCollector;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadSamplerTests {
+  private static final int SAMPLING_INTERVAL =
+      MetricsConfiguration.CONFIG_MAP.get(ThreadCPU.class).samplingInterval;
+
+  @Test
+  public void testSamplesEveryThreadInOnePass() {
+    ThreadSampler sampler = new ThreadSampler(4, 10_000);
+    sampler.sample();
+
+    Assert.assertFalse(sampler.isPartial());
+    String pid = OSGlobals.getPid();
+    Assert.assertTrue(sampler.getStatSamples().containsKey(pid));
+    Assert.assertTrue(sampler.getSchedSamples().containsKey(pid));
+    Assert.assertEquals(sampler.getStatSamples().size(), OSGlobals.getTids().size(), 16);
+  }
+
+  @Test
+  public void testPassIsSharedWithinACycle() {
+    ThreadSampler sampler = new ThreadSampler(1, 10_000);
+    sampler.sample();
+    long timestamp = sampler.getKvTimestamp();
+    sampler.sample();
+
+    Assert.assertEquals(timestamp, sampler.getKvTimestamp());
+    Assert.assertEquals(0, sampler.getOldkvTimestamp());
+  }
+
+  @Test
+  public void testPassStopsAtTheDeadline() {
+    // Every read of the clock takes 1ms, so a 3ms budget leaves time for two threads.
+    SteppingClock clock = new SteppingClock(1);
+    ThreadSampler sampler = new ThreadSampler(1, 3);
+    sampler.setClock(clock);
+    int partialPasses = partialPassCount();
+
+    sampler.sample();
+
+    Assert.assertTrue(OSGlobals.getTids().size() > 2);
+    Assert.assertTrue(sampler.isPartial());
+    Assert.assertEquals(2, sampler.getStatSamples().size());
+    Assert.assertEquals(2, sampler.getSchedSamples().size());
+    Assert.assertEquals(partialPasses + 1, partialPassCount());
+  }
+
+  @Test
+  public void testCollectorsSkipPartialPasses() {
+    SteppingClock clock = new SteppingClock(0);
+    ThreadSampler sampler = new ThreadSampler(1, 3);
+    sampler.setClock(clock);
+    ThreadCPU cpu = new ThreadCPU(sampler);
+    ThreadSched sched = new ThreadSched(sampler);
+
+    try {
+      // A complete pass, then one cut short by the deadline.
+      sampleCollectors(cpu, sched, sampler);
+      Assert.assertFalse(sampler.isPartial());
+      clock.advance(SAMPLING_INTERVAL, 1);
+      sampleCollectors(cpu, sched, sampler);
+
+      // The threads of the partial pass were sampled in both passes, but no rate is computed.
+      Assert.assertTrue(sampler.isPartial());
+      Assert.assertEquals(2, sampler.getStatSamples().size());
+      Assert.assertTrue(cpu.getCPUPagingActivity().getAllThreadIds().isEmpty());
+      String tid = sampler.getStatSamples().keySet().iterator().next();
+      Assert.assertFalse(sched.getSchedLatency().hasSchedMetrics(tid));
+      Assert.assertFalse(ThreadDiskIO.getIOUtilization().hasDiskIOMetrics(tid));
+
+      // The next complete pass has rates again, against the threads of the partial one.
+      clock.advance(SAMPLING_INTERVAL, 0);
+      sampleCollectors(cpu, sched, sampler);
+      Assert.assertFalse(sampler.isPartial());
+      Assert.assertTrue(cpu.getCPUPagingActivity().getAllThreadIds().contains(tid));
+      Assert.assertTrue(sched.getSchedLatency().hasSchedMetrics(tid));
+      Assert.assertTrue(ThreadDiskIO.getIOUtilization().hasDiskIOMetrics(tid));
+    } finally {
+      // ThreadDiskIO is static, hand it back the sampler of the collectors.
+      ThreadDiskIO.addSample(ThreadSampler.INSTANCE);
+    }
+  }
+
+  private static void sampleCollectors(ThreadCPU cpu, ThreadSched sched, ThreadSampler sampler) {
+    cpu.addSample();
+    sched.addSample();
+    ThreadDiskIO.addSample(sampler);
+  }
+
+  private static int partialPassCount() {
+    AtomicInteger count =
+        StatsCollector.instance().getCounters().get(ThreadSampler.PARTIAL_SAMPLE_METRIC);
+    return count == null ? 0 : count.get();
+  }
+
+  /** A clock that moves forward by a step every time it is read, and when told to. */
+  private static class SteppingClock extends Clock {
+    private long millis = 1_000_000;
+    private long step;
+
+    SteppingClock(long step) {
+      this.step = step;
+    }
+
+    void advance(long millis, long step) {
+      this.millis += millis;
+      this.step = step;
+    }
+
+    @Override
+    public synchronized long millis() {
+      long now = millis;
+      millis += step;
+      return now;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
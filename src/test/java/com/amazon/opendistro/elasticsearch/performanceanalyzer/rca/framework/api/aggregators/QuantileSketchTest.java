@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.GradleTaskForRca;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(GradleTaskForRca.class)
+public class QuantileSketchTest {
+  private static final double ACCURACY = 0.01;
+
+  @Test
+  public void testEmpty() {
+    QuantileSketch sketch = new QuantileSketch(ACCURACY);
+    Assert.assertEquals(0, sketch.getCount());
+    Assert.assertEquals(0, sketch.getSum(), 0);
+    Assert.assertTrue(Double.isNaN(sketch.getMin()));
+    Assert.assertTrue(Double.isNaN(sketch.getAverage()));
+    Assert.assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+  }
+
+  @Test
+  public void testExactStatsAndClampedQuantiles() {
+    QuantileSketch sketch = new QuantileSketch(ACCURACY);
+    sketch.add(255);
+    sketch.add(265);
+    Assert.assertEquals(2, sketch.getCount());
+    Assert.assertEquals(520, sketch.getSum(), 0);
+    Assert.assertEquals(260, sketch.getAverage(), 0);
+    Assert.assertEquals(255, sketch.getMin(), 0);
+    Assert.assertEquals(265, sketch.getMax(), 0);
+
+    // A single value is answered exactly, whatever the bucket it falls in.
+    QuantileSketch single = new QuantileSketch(ACCURACY);
+    single.add(42);
+    Assert.assertEquals(42, single.getQuantile(0.99), 0);
+    single.add(0);
+    single.add(-3);
+    Assert.assertEquals(-3, single.getMin(), 0);
+    Assert.assertEquals(0, single.getQuantile(0.5), 0);
+  }
+
+  @Test
+  public void testRemovingAnExtreme() {
+    QuantileSketch sketch = new QuantileSketch(ACCURACY);
+    sketch.add(10);
+    sketch.add(20);
+    sketch.add(1000);
+    sketch.remove(20);
+    Assert.assertEquals(10, sketch.getMin(), 0);
+    Assert.assertEquals(1000, sketch.getMax(), 0);
+    Assert.assertEquals(1010, sketch.getSum(), 0);
+
+    // Once the max is removed it is read from the buckets.
+    sketch.remove(1000);
+    Assert.assertEquals(10, sketch.getMax(), 10 * ACCURACY);
+    Assert.assertEquals(10, sketch.getSum(), 0);
+
+    // An empty sketch starts over with exact extremes.
+    sketch.remove(10);
+    sketch.add(7);
+    Assert.assertEquals(7, sketch.getMin(), 0);
+    Assert.assertEquals(7, sketch.getMax(), 0);
+  }
+
+  @Test
+  public void testRelativeAccuracy() {
+    Random random = new Random(7);
+    long[] values = new long[10000];
+    QuantileSketch sketch = new QuantileSketch(ACCURACY);
+    for (int i = 0; i < values.length; i++) {
+      // Mostly small values with a long tail, like request latencies.
+      values[i] = i % 20 == 0 ? 1000 + random.nextInt(600000) : 1 + random.nextInt(50);
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+    for (double quantile : new double[] {0, 0.5, 0.9, 0.99, 1}) {
+      long expected = values[(int) (quantile * (values.length - 1))];
+      double actual = sketch.getQuantile(quantile);
+      Assert.assertEquals(expected, actual, expected * ACCURACY + Math.ulp(actual));
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    QuantileSketch low = new QuantileSketch(ACCURACY);
+    QuantileSketch high = new QuantileSketch(ACCURACY);
+    QuantileSketch all = new QuantileSketch(ACCURACY);
+    for (long value = 1; value <= 1000; value++) {
+      (value <= 10 ? low : high).add(value);
+      all.add(value);
+    }
+    // Merging into the sketch of the high values grows its buckets downwards.
+    high.merge(low);
+    high.merge(new QuantileSketch(ACCURACY));
+    Assert.assertEquals(all.getCount(), high.getCount());
+    Assert.assertEquals(all.getSum(), high.getSum(), 0);
+    Assert.assertEquals(1, high.getMin(), 0);
+    Assert.assertEquals(1000, high.getMax(), 0);
+    for (double quantile : new double[] {0, 0.01, 0.5, 0.9, 0.99, 1}) {
+      Assert.assertEquals(all.getQuantile(quantile), high.getQuantile(quantile), 0);
+    }
+
+    QuantileSketch empty = new QuantileSketch(ACCURACY);
+    empty.merge(all);
+    Assert.assertEquals(all.getQuantile(0.9), empty.getQuantile(0.9), 0);
+    Assert.assertEquals(1, empty.getMin(), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeOfAnotherAccuracy() {
+    new QuantileSketch(ACCURACY).merge(new QuantileSketch(0.05));
+  }
+}
@@ -49,4 +49,51 @@ public class SlidingWindowTest {
     slidingWindow.next(new SlidingWindowData(TimeUnit.SECONDS.toMillis(4), 7));
     Assert.assertEquals(8.333, slidingWindow.readAvg(TimeUnit.SECONDS), 0.1);
   }
+
+  @Test
+  public void testMinAndMax() {
+    SlidingWindow<SlidingWindowData> slidingWindow = new SlidingWindow<>(3, TimeUnit.SECONDS);
+    Assert.assertTrue(Double.isNaN(slidingWindow.readMin()));
+    Assert.assertTrue(Double.isNaN(slidingWindow.readMax()));
+
+    slidingWindow.next(0, 5);
+    slidingWindow.next(TimeUnit.SECONDS.toMillis(1), 1);
+    slidingWindow.next(TimeUnit.SECONDS.toMillis(2), 9);
+    Assert.assertEquals(1, slidingWindow.readMin(), 0);
+    Assert.assertEquals(9, slidingWindow.readMax(), 0);
+
+    // 1 and 5 leave the window
+    slidingWindow.next(TimeUnit.SECONDS.toMillis(5), 4);
+    Assert.assertEquals(4, slidingWindow.readMin(), 0);
+    Assert.assertEquals(9, slidingWindow.readMax(), 0);
+    Assert.assertEquals(2, slidingWindow.size());
+  }
+
+  @Test
+  public void testWindowGrowsBeyondItsInitialCapacity() {
+    SlidingWindow<SlidingWindowData> slidingWindow = new SlidingWindow<>(100, TimeUnit.SECONDS);
+    for (int i = 0; i < 1000; i++) {
+      slidingWindow.next(TimeUnit.SECONDS.toMillis(i), i);
+    }
+    // samples 899 to 999 are in the window
+    Assert.assertEquals(101, slidingWindow.size());
+    Assert.assertEquals(899, slidingWindow.readMin(), 0);
+    Assert.assertEquals(999, slidingWindow.readMax(), 0);
+    Assert.assertEquals(949, slidingWindow.readAvg(), 0.001);
+  }
+
+  @Test
+  public void testPercentiles() {
+    PercentileSlidingWindow<SlidingWindowData> slidingWindow =
+        new PercentileSlidingWindow<>(100, TimeUnit.SECONDS);
+    Assert.assertTrue(Double.isNaN(slidingWindow.readPercentile(50)));
+    for (int i = 1; i <= 200; i++) {
+      slidingWindow.next(TimeUnit.SECONDS.toMillis(i), i);
+    }
+    // 100 to 200 are in the window
+    Assert.assertEquals(100, slidingWindow.readPercentile(0), 1);
+    Assert.assertEquals(150, slidingWindow.readPercentile(50), 1.5);
+    Assert.assertEquals(190, slidingWindow.readPercentile(90), 1.9);
+    Assert.assertEquals(200, slidingWindow.readPercentile(100), 2);
+  }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.BatchPut;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.ColumnarMetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Metric;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.Mock;
+import org.jooq.tools.jdbc.MockConnection;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricTableTest {
+  private final DSLContext context = DSL.using(new MockConnection(Mock.of(0)));
+
+  private Result<Record> result(String[]... rows) {
+    List<String[]> data = new ArrayList<>();
+    for (String[] row : rows) {
+      data.add(row);
+    }
+    return context.fetchFromStringData(data);
+  }
+
+  @Test
+  public void testLookup() {
+    MetricFlowUnit flowUnit =
+        new MetricFlowUnit(
+            0,
+            result(
+                new String[] {
+                  "MemType", MetricsDB.SUM, MetricsDB.AVG, MetricsDB.MIN, MetricsDB.MAX
+                },
+                new String[] {"Eden", "1.0", "2.0", "3.0", "4.0"},
+                new String[] {"Heap", "5.0", "6.0", "7.0", "8.0"}));
+    MetricTable table = flowUnit.getMetricTable();
+    Assert.assertSame(table, flowUnit.getMetricTable());
+
+    Assert.assertEquals(2, table.rowCount());
+    Assert.assertEquals(1, table.indexOf("MemType", "Heap"));
+    Assert.assertEquals(-1, table.indexOf("MemType", "Survivor"));
+    Assert.assertEquals(8.0, table.lookup("MemType", "Heap", MetricsDB.MAX), 0);
+    Assert.assertEquals(2.0, table.lookup("MemType", "Eden", MetricsDB.AVG), 0);
+    Assert.assertTrue(Double.isNaN(table.lookup("MemType", "Survivor", MetricsDB.MAX)));
+    Assert.assertEquals("Eden", table.getDimensionValue(0, "MemType"));
+  }
+
+  @Test
+  public void testReadFromMetricsDB() throws Exception {
+    Class.forName("org.sqlite.JDBC");
+    System.setProperty("java.io.tmpdir", "/tmp");
+    MetricsDB sqlite = new MetricsDB(1553713380);
+    try {
+      assertReadsTable(sqlite);
+    } finally {
+      sqlite.remove();
+      sqlite.deleteOnDiskFile();
+    }
+    assertReadsTable(new ColumnarMetricsDB(1553713380));
+  }
+
+  private static void assertReadsTable(MetricsDB db) {
+    List<String> dims = Arrays.asList("MemType", "Operation");
+    db.createMetric(new Metric<>("Heap_Used", 0d), dims);
+    BatchPut handle = db.startBatchPut(new Metric<>("Heap_Used", 0d), dims);
+    for (int i = 0; i < 40; i++) {
+      handle.bind("Type" + i, i % 2 == 0 ? null : "op", (double) i, null, 1d, (double) i + 1);
+    }
+    handle.execute();
+
+    MetricTable table = MetricTable.read(db, "Heap_Used");
+    Assert.assertEquals(dims, table.getDimensionNames());
+    Assert.assertEquals(40, table.rowCount());
+    Assert.assertEquals(33, table.indexOf("MemType", "Type33"));
+    Assert.assertEquals(34.0, table.lookup("MemType", "Type33", MetricsDB.MAX), 0);
+    Assert.assertTrue(Double.isNaN(table.lookup("MemType", "Type33", MetricsDB.AVG)));
+    Assert.assertNull(table.getDimensionValue(32, "Operation"));
+
+    // The jOOQ result has the columns of the MetricsDB table, and is only built once.
+    Result<Record> result = table.toResult();
+    Assert.assertSame(result, table.toResult());
+    Assert.assertEquals(40, result.size());
+    Assert.assertEquals(6, result.fields().length);
+    Assert.assertEquals("Type33", result.get(33).get("MemType"));
+    Assert.assertEquals(33.0, result.get(33).get(MetricsDB.SUM, Double.class), 0);
+    Assert.assertNull(result.get(33).get(MetricsDB.AVG));
+  }
+
+  @Test(expected = DataAccessException.class)
+  public void testReadMissingTable() {
+    MetricTable.read(new ColumnarMetricsDB(1553713380), "Heap_Used");
+  }
+
+  @Test
+  public void testMissingAggregationsAndEmptyData() {
+    MetricTable table =
+        MetricTable.fromResult(
+            result(new String[] {"MemType", MetricsDB.MAX}, new String[] {"Heap", "1.0"}));
+    Assert.assertTrue(Double.isNaN(table.getValue(0, MetricsDB.SUM)));
+
+    Assert.assertTrue(MetricFlowUnit.generic().getMetricTable().isEmpty());
+    Assert.assertTrue(MetricTable.fromResult(null).isEmpty());
+    Assert.assertNull(new MetricFlowUnit(0, MetricTable.EMPTY).getData());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownDimension() {
+    MetricTable.fromResult(
+            result(new String[] {"MemType", MetricsDB.MAX}, new String[] {"Heap", "1.0"}))
+        .indexOf("ThreadPoolType", "write");
+  }
+}
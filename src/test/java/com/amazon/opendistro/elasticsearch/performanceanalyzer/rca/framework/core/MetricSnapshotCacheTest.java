@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.ColumnarMetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.MetricTable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+import org.jooq.SQLDialect;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricSnapshotCacheTest {
+
+  private final List<String> loads = new ArrayList<>();
+
+  private final Function<String, MetricTable> loader =
+      metric -> {
+        loads.add(metric);
+        return newTable();
+      };
+
+  private static MetricTable newTable() {
+    return MetricTable.fromResult(
+        DSL.using(SQLDialect.SQLITE).newResult(DSL.field(DSL.name(MetricsDB.SUM), Double.class)));
+  }
+
+  @Test
+  public void testHitWithinWindow() {
+    MetricSnapshotCache cache = new MetricSnapshotCache();
+    MetricsDB db = new ColumnarMetricsDB(1000);
+
+    MetricTable first = cache.get(db, "CPU_Utilization", loader);
+    Assert.assertSame(first, cache.get(db, "CPU_Utilization", loader));
+    cache.get(db, "Heap_Used", loader);
+    Assert.assertEquals(2, loads.size());
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testNewWindowDropsSnapshots() {
+    MetricSnapshotCache cache = new MetricSnapshotCache();
+    cache.get(new ColumnarMetricsDB(1000), "CPU_Utilization", loader);
+    cache.get(new ColumnarMetricsDB(1005), "CPU_Utilization", loader);
+    Assert.assertEquals(2, loads.size());
+    Assert.assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testLoadFromPreviousWindowIsNotServed() throws Exception {
+    MetricSnapshotCache cache = new MetricSnapshotCache();
+    MetricsDB oldWindow = new ColumnarMetricsDB(1000);
+    MetricsDB newWindow = new ColumnarMetricsDB(1005);
+    MetricTable oldSnapshot = newTable();
+    MetricTable newSnapshot = newTable();
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch switched = new CountDownLatch(1);
+
+    // A tasklet still reading the old window finishes its load after another one moved to the
+    // new window.
+    Thread slowTasklet =
+        new Thread(
+            () ->
+                cache.get(
+                    oldWindow,
+                    "CPU_Utilization",
+                    metric -> {
+                      loading.countDown();
+                      try {
+                        switched.await();
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                      return oldSnapshot;
+                    }));
+    slowTasklet.start();
+    loading.await();
+    Assert.assertSame(newSnapshot, cache.get(newWindow, "CPU_Utilization", m -> newSnapshot));
+    switched.countDown();
+    slowTasklet.join();
+
+    Assert.assertSame(newSnapshot, cache.get(newWindow, "CPU_Utilization", loader));
+    Assert.assertEquals(0, loads.size());
+    Assert.assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testInvalidate() {
+    MetricSnapshotCache cache = new MetricSnapshotCache();
+    MetricsDB db = new ColumnarMetricsDB(1000);
+    cache.get(db, "CPU_Utilization", loader);
+    cache.invalidate();
+    cache.get(db, "CPU_Utilization", loader);
+    Assert.assertEquals(2, loads.size());
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() {
+    MetricSnapshotCache cache = new MetricSnapshotCache();
+    MetricsDB db = new ColumnarMetricsDB(1000);
+    try {
+      cache.get(
+          db,
+          "CPU_Utilization",
+          metric -> {
+            throw new DataAccessException("no such table: " + metric);
+          });
+      Assert.fail();
+    } catch (DataAccessException expected) {
+      // The metric is not in the window yet.
+    }
+    Assert.assertEquals(0, cache.size());
+    cache.get(db, "CPU_Utilization", loader);
+    Assert.assertEquals(1, loads.size());
+  }
+}
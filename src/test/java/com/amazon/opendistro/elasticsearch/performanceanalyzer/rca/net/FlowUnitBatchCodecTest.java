@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitBatchMessage.Compression;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlowUnitBatchCodecTest {
+
+  private List<FlowUnitMessage> flowUnits(int count) {
+    List<FlowUnitMessage> flowUnits = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      flowUnits.add(FlowUnitMessage.newBuilder()
+          .setGraphNode("HighHeapUsageClusterRca")
+          .setEsNode("node-" + i)
+          .setTimeStamp(1000L + i)
+          .build());
+    }
+    return flowUnits;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    List<FlowUnitMessage> flowUnits = flowUnits(50);
+    for (Compression compression : new Compression[] {Compression.NONE, Compression.GZIP}) {
+      FlowUnitBatchMessage batch = FlowUnitBatchCodec.encode(flowUnits, compression);
+      Assert.assertEquals(compression, batch.getCompression());
+      Assert.assertEquals(50, batch.getCount());
+      Assert.assertEquals(flowUnits, FlowUnitBatchCodec.decode(batch));
+    }
+  }
+
+  @Test
+  public void testGzipShrinksRepetitiveBatches() {
+    List<FlowUnitMessage> flowUnits = flowUnits(200);
+    int plain = FlowUnitBatchCodec.encode(flowUnits, Compression.NONE).getSerializedSize();
+    int gzipped = FlowUnitBatchCodec.encode(flowUnits, Compression.GZIP).getSerializedSize();
+    Assert.assertTrue(gzipped < plain);
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptPayload() throws IOException {
+    FlowUnitBatchMessage batch = FlowUnitBatchMessage.newBuilder()
+        .setCompression(Compression.GZIP)
+        .setCount(1)
+        .setPayload(ByteString.copyFromUtf8("not gzip"))
+        .build();
+    FlowUnitBatchCodec.decode(batch);
+  }
+
+  @Test
+  public void testParseCompression() {
+    Assert.assertEquals(Compression.GZIP, FlowUnitBatchCodec.parseCompression(" GZIP "));
+    Assert.assertEquals(Compression.NONE, FlowUnitBatchCodec.parseCompression("snappy"));
+    Assert.assertEquals(Compression.NONE, FlowUnitBatchCodec.parseCompression(null));
+  }
+}
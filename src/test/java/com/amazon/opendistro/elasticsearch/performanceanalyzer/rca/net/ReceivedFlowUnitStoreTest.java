@@ -2,7 +2,9 @@ package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.net;
 
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.FlowUnitMessage;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.GradleTaskForRca;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -72,6 +74,23 @@ public class ReceivedFlowUnitStoreTest {
     Assert.assertTrue(drained.contains(msg3));
   }
 
+  @Test
+  public void testRemainingCapacityAndDrainListener() {
+    testFlowUnitStore = new ReceivedFlowUnitStore(2);
+    final List<String> drained = new ArrayList<>();
+    testFlowUnitStore.setDrainListener(drained::add);
+    Assert.assertEquals(2, testFlowUnitStore.remainingCapacity(TEST_NODE));
+
+    testFlowUnitStore.enqueue(TEST_NODE, buildTestFlowUnitMessage());
+    testFlowUnitStore.enqueue(TEST_NODE, buildTestFlowUnitMessage());
+    Assert.assertFalse(testFlowUnitStore.enqueue(TEST_NODE, buildTestFlowUnitMessage()));
+    Assert.assertEquals(0, testFlowUnitStore.remainingCapacity(TEST_NODE));
+
+    Assert.assertEquals(2, testFlowUnitStore.drainNode(TEST_NODE).size());
+    Assert.assertEquals(2, testFlowUnitStore.remainingCapacity(TEST_NODE));
+    Assert.assertEquals(Collections.singletonList(TEST_NODE), drained);
+  }
+
   private FlowUnitMessage buildTestFlowUnitMessage() {
     return FlowUnitMessage.newBuilder().build();
   }
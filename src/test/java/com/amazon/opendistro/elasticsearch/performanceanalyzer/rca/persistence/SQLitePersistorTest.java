@@ -24,6 +24,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.ResourceUtil;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Node;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler.FlowUnitOperationArgWrapper;
+import com.google.gson.JsonElement;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -130,6 +131,28 @@ public class SQLitePersistorTest {
     Assert.assertTrue(readTableStr.contains("HotResourceSummary"));
   }
 
+  @Test
+  public void readIsCachedUntilTheRcaIsWrittenAgain() throws IOException, SQLException {
+    ResourceContext context = new ResourceContext(Resources.State.HEALTHY);
+    Node rca = new TestRca();
+    SQLitePersistor sqlite =
+        new SQLitePersistor(
+            testLocation.toString(), baseFilename, String.valueOf(1), TimeUnit.HOURS, 1);
+
+    sqlite.write(rca, new ResourceFlowUnit(1000, context, null, false));
+    long version = sqlite.getVersion(rca.name());
+    JsonElement first = sqlite.read(rca.name());
+    Assert.assertSame(first, sqlite.read(rca.name()));
+    Assert.assertEquals(version, sqlite.getVersion(rca.name()));
+
+    sqlite.write(rca, new ResourceFlowUnit(2000, context, null, false));
+    Assert.assertTrue(sqlite.getVersion(rca.name()) > version);
+    JsonElement second = sqlite.read(rca.name());
+    Assert.assertNotSame(first, second);
+    Assert.assertTrue(second.toString().contains("2000"));
+    sqlite.close();
+  }
+
   @Test
   public void concurrentWriteAndRotate() throws IOException, SQLException {
     ResourceContext context = new ResourceContext(Resources.State.UNHEALTHY);
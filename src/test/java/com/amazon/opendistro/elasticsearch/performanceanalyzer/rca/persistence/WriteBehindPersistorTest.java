@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.Rca;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.Resources;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.contexts.ResourceContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.ResourceFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotNodeSummary;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.HotResourceSummary;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.summaries.ResourceUtil;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler.FlowUnitOperationArgWrapper;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.exception.DataAccessException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindPersistorTest {
+  private Path testLocation;
+  private SQLitePersistor sqlite;
+
+  class TestRca extends Rca<ResourceFlowUnit> {
+    public TestRca() {
+      super(5);
+    }
+
+    @Override
+    public ResourceFlowUnit operate() {
+      return null;
+    }
+
+    @Override
+    public void generateFlowUnitListFromWire(FlowUnitOperationArgWrapper args) {
+    }
+  }
+
+  @Before
+  public void init() throws Exception {
+    String cwd = System.getProperty("user.dir");
+    testLocation = Paths.get(cwd, "src", "test", "resources", "tmp", "write_behind");
+    Files.createDirectories(testLocation);
+    FileUtils.cleanDirectory(testLocation.toFile());
+    sqlite =
+        new SQLitePersistor(
+            testLocation.toString(), "rca.test.file", String.valueOf(1), TimeUnit.HOURS, 1);
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    sqlite.close();
+    FileUtils.cleanDirectory(testLocation.toFile());
+  }
+
+  private ResourceFlowUnit flowUnit() {
+    HotNodeSummary nodeSummary =
+        new HotNodeSummary(new InstanceDetails.Id("node1"), new InstanceDetails.Ip("127.0.0.1"));
+    nodeSummary.appendNestedSummary(
+        new HotResourceSummary(ResourceUtil.OLD_GEN_HEAP_USAGE, 70, 71, 60));
+    nodeSummary.appendNestedSummary(
+        new HotResourceSummary(ResourceUtil.YOUNG_GEN_PROMOTION_RATE, 10, 20, 60));
+    return new ResourceFlowUnit(
+        System.currentTimeMillis(),
+        new ResourceContext(Resources.State.UNHEALTHY),
+        nodeSummary,
+        true);
+  }
+
+  @Test
+  public void testWritesAreStoredInBatchesOnFlush() {
+    WriteBehindPersistor persistor = new WriteBehindPersistor(sqlite);
+    TestRca rca = new TestRca();
+    for (int i = 0; i < 10; i++) {
+      persistor.write(rca, flowUnit());
+    }
+    Assert.assertTrue(sqlite.getRecordsForAllTables().isEmpty());
+
+    persistor.flushAndWait();
+    Map<String, Result<Record>> records = sqlite.getRecordsForAllTables();
+    Assert.assertEquals(10, records.get(ResourceFlowUnit.RCA_TABLE_NAME).size());
+    Assert.assertEquals(10, records.get(HotNodeSummary.class.getSimpleName()).size());
+    Result<Record> resourceSummaries = records.get(HotResourceSummary.class.getSimpleName());
+    Assert.assertEquals(20, resourceSummaries.size());
+    // Every nested summary points at the row of its own node summary.
+    for (int i = 0; i < resourceSummaries.size(); i++) {
+      Assert.assertEquals(
+          Integer.valueOf(i / 2 + 1),
+          resourceSummaries.get(i).get("HotNodeSummary_ID", Integer.class));
+    }
+  }
+
+  @Test
+  public void testReadsServeCommittedWrites() {
+    WriteBehindPersistor persistor = new WriteBehindPersistor(sqlite);
+    TestRca rca = new TestRca();
+    long version = persistor.getVersion(rca.name());
+    persistor.write(rca, flowUnit());
+    // Reads do not wait for the queue to be stored.
+    Assert.assertFalse(persistor.read().contains("TestRca"));
+    Assert.assertEquals(version, persistor.getVersion(rca.name()));
+
+    persistor.flushAndWait();
+    Assert.assertTrue(persistor.read().contains("TestRca"));
+    Assert.assertNotEquals(version, persistor.getVersion(rca.name()));
+  }
+
+  @Test
+  public void testFailedFlowUnitIsRolledBackAlone() {
+    WriteBehindPersistor persistor = new WriteBehindPersistor(sqlite);
+    TestRca rca = new TestRca();
+    HotNodeSummary nodeSummary =
+        new HotNodeSummary(new InstanceDetails.Id("node2"), new InstanceDetails.Ip("127.0.0.2"));
+    nodeSummary.appendNestedSummary(new UnwritableSummary());
+    persistor.write(rca, flowUnit());
+    // Fails on its nested summary, after its own row and the node summary are inserted.
+    persistor.write(
+        rca,
+        new ResourceFlowUnit(
+            System.currentTimeMillis(),
+            new ResourceContext(Resources.State.UNHEALTHY),
+            nodeSummary,
+            true));
+    persistor.write(rca, flowUnit());
+    persistor.flushAndWait();
+
+    Map<String, Result<Record>> records = sqlite.getRecordsForAllTables();
+    Assert.assertEquals(2, records.get(ResourceFlowUnit.RCA_TABLE_NAME).size());
+    Assert.assertEquals(2, records.get(HotNodeSummary.class.getSimpleName()).size());
+    Assert.assertEquals(4, records.get(HotResourceSummary.class.getSimpleName()).size());
+    // The table was created outside of the rolled back unit and is still there.
+    Assert.assertEquals(0, records.get(UnwritableSummary.class.getSimpleName()).size());
+  }
+
+  static class UnwritableSummary extends HotResourceSummary {
+    UnwritableSummary() {
+      super(ResourceUtil.OLD_GEN_HEAP_USAGE, 70, 71, 60);
+    }
+
+    @Override
+    public List<Object> getSqlValue() {
+      throw new DataAccessException("Unwritable summary");
+    }
+  }
+
+  @Test
+  public void testWritesBeyondCapacityAreDropped() {
+    WriteBehindPersistor persistor = new WriteBehindPersistor(sqlite, 2);
+    TestRca rca = new TestRca();
+    for (int i = 0; i < 5; i++) {
+      persistor.write(rca, flowUnit());
+    }
+    persistor.flushAndWait();
+    Assert.assertEquals(
+        2, sqlite.getRecordsForAllTables().get(ResourceFlowUnit.RCA_TABLE_NAME).size());
+  }
+}
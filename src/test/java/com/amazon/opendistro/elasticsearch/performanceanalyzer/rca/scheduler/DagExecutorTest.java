@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.AnalysisGraph;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.Metric;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.Symptom;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.SymptomFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.metrics.CPU_Utilization;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.ConnectedComponent;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.RcaConf;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaConsts;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaUtil;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.spec.MetricsDBProviderTestHelper;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DagExecutorTest {
+  private final List<String> evaluated = Collections.synchronizedList(new ArrayList<>());
+
+  class SleepingSymptom extends Symptom {
+    private final String myname;
+    private final int sleepFor;
+
+    SleepingSymptom(String myname, int sleepFor) {
+      super(1);
+      this.myname = myname;
+      this.sleepFor = sleepFor;
+    }
+
+    @Override
+    public String name() {
+      return myname;
+    }
+
+    @Override
+    public SymptomFlowUnit operate() {
+      RcaSchedulerAsyncTaskTest.sleepWithInterruptHandler(sleepFor);
+      evaluated.add(myname);
+      return null;
+    }
+  }
+
+  private RCASchedulerTask createTask(AnalysisGraph graph, ExecutorService pool) throws Exception {
+    List<ConnectedComponent> connectedComponents = RcaUtil.getAnalysisGraphComponents(graph);
+    return new RCASchedulerTask(
+        1000,
+        pool,
+        connectedComponents,
+        new MetricsDBProviderTestHelper(true),
+        null,
+        new RcaConf(Paths.get(RcaConsts.TEST_CONFIG_PATH, "rca.conf").toString()),
+        null,
+        new AppContext());
+  }
+
+  // With a single thread, the node heading the longer chain has to go first even though the
+  // other one was created, and so is ordered, before it.
+  @Test
+  public void testLongestCriticalPathRunsFirst() throws Exception {
+    AnalysisGraph graph =
+        new AnalysisGraph() {
+          @Override
+          public void construct() {
+            Metric cpu = new CPU_Utilization(1);
+            addLeaf(cpu);
+            Symptom alone = new SleepingSymptom("alone", 0);
+            alone.addAllUpstreams(Collections.singletonList(cpu));
+            Symptom head = new SleepingSymptom("head", 0);
+            head.addAllUpstreams(Collections.singletonList(cpu));
+            Symptom middle = new SleepingSymptom("middle", 0);
+            middle.addAllUpstreams(Collections.singletonList(head));
+            Symptom tail = new SleepingSymptom("tail", 0);
+            tail.addAllUpstreams(Collections.singletonList(middle));
+          }
+        };
+    RCASchedulerTask task = createTask(graph, Executors.newSingleThreadExecutor());
+    DagExecutor executor =
+        new DagExecutor(
+            task.getLocallyExecutableTasklets(), Executors.newSingleThreadExecutor(), 5000);
+    DagExecutor.Tick tick = executor.start(true, true);
+    tick.await();
+
+    Assert.assertEquals("head", evaluated.get(0));
+    Assert.assertEquals(4, evaluated.size());
+    Assert.assertEquals(0, tick.getTimedOutCount());
+    Assert.assertTrue(tick.getMakespanNanos() > 0);
+  }
+
+  // A node that takes longer than the timeout does not hold up the nodes downstream of it.
+  @Test
+  public void testTimedOutNodeReleasesSuccessors() throws Exception {
+    AnalysisGraph graph =
+        new AnalysisGraph() {
+          @Override
+          public void construct() {
+            Metric cpu = new CPU_Utilization(1);
+            addLeaf(cpu);
+            Symptom slow = new SleepingSymptom("slow", 3000);
+            slow.addAllUpstreams(Collections.singletonList(cpu));
+            Symptom after = new SleepingSymptom("after", 0);
+            after.addAllUpstreams(Collections.singletonList(slow));
+          }
+        };
+    RCASchedulerTask task = createTask(graph, Executors.newSingleThreadExecutor());
+    DagExecutor executor =
+        new DagExecutor(task.getLocallyExecutableTasklets(), Executors.newFixedThreadPool(2), 200);
+    long start = System.currentTimeMillis();
+    DagExecutor.Tick tick = executor.start(true, true);
+    tick.await();
+
+    Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+    Assert.assertEquals(Collections.singletonList("after"), evaluated);
+    Assert.assertEquals(1, tick.getTimedOutCount());
+
+    // The slow node is still running, so the next tick leaves it out instead of running it twice.
+    DagExecutor.Tick next = executor.start(true, true);
+    next.await();
+    Assert.assertEquals(2, evaluated.size());
+    Assert.assertEquals(0, next.getTimedOutCount());
+  }
+
+  // The successors of a node that timed out read it as empty, also once its late result is in.
+  @Test
+  public void testLateResultOfTimedOutNodeIsDropped() throws Exception {
+    List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+    Symptom[] slow = new Symptom[1];
+    AnalysisGraph graph =
+        new AnalysisGraph() {
+          @Override
+          public void construct() {
+            Metric cpu = new CPU_Utilization(1);
+            addLeaf(cpu);
+            slow[0] = new SleepingSymptom("slow", 500);
+            slow[0].addAllUpstreams(Collections.singletonList(cpu));
+            Symptom after =
+                new SleepingSymptom("after", 0) {
+                  @Override
+                  public SymptomFlowUnit operate() {
+                    seen.add(slow[0].getFlowUnits().size());
+                    return super.operate();
+                  }
+                };
+            after.addAllUpstreams(Collections.singletonList(slow[0]));
+          }
+        };
+    RCASchedulerTask task = createTask(graph, Executors.newSingleThreadExecutor());
+    DagExecutor executor =
+        new DagExecutor(task.getLocallyExecutableTasklets(), Executors.newFixedThreadPool(2), 100);
+    executor.start(true, true).await();
+    Assert.assertEquals(Collections.singletonList(0), seen);
+
+    // Wait for the slow node to return: what it wrote is not visible.
+    while (!evaluated.contains("slow")) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(50);
+    Assert.assertTrue(slow[0].getFlowUnits().isEmpty());
+
+    // Once it returned, the node runs again and its result is seen as usual.
+    DagExecutor fast =
+        new DagExecutor(task.getLocallyExecutableTasklets(), Executors.newFixedThreadPool(2), 5000);
+    fast.start(true, true).await();
+    Assert.assertEquals(Arrays.asList(0, 1), seen);
+  }
+}
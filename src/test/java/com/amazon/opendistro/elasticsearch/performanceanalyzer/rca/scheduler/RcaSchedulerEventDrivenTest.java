@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.scheduler;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.AnalysisGraph;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.Metric;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.Symptom;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.flow_units.SymptomFlowUnit;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.metrics.CPU_Utilization;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.ConnectedComponent;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.RcaConf;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaConsts;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.RcaUtil;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.spec.MetricsDBProviderTestHelper;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RcaSchedulerEventDrivenTest {
+  private final List<String> evaluated = Collections.synchronizedList(new ArrayList<>());
+
+  class CountingSymptom extends Symptom {
+    private final String myname;
+
+    CountingSymptom(String myname, long evaluationIntervalSeconds) {
+      super(evaluationIntervalSeconds);
+      this.myname = myname;
+    }
+
+    @Override
+    public String name() {
+      return myname;
+    }
+
+    @Override
+    public SymptomFlowUnit operate() {
+      evaluated.add(myname);
+      return null;
+    }
+  }
+
+  class AnalysisGraphT extends AnalysisGraph {
+    @Override
+    public void construct() {
+      Metric cpu = new CPU_Utilization(1);
+      addLeaf(cpu);
+      Symptom every = new CountingSymptom("every", 1);
+      every.addAllUpstreams(Collections.singletonList(cpu));
+      Symptom everyOther = new CountingSymptom("everyOther", 2);
+      everyOther.addAllUpstreams(Collections.singletonList(cpu));
+    }
+  }
+
+  private RCASchedulerTask createTask() throws Exception {
+    AnalysisGraph graph = new AnalysisGraphT();
+    List<ConnectedComponent> connectedComponents = RcaUtil.getAnalysisGraphComponents(graph);
+    return new RCASchedulerTask(
+        1000,
+        Executors.newFixedThreadPool(2),
+        connectedComponents,
+        new MetricsDBProviderTestHelper(true),
+        null,
+        new RcaConf(Paths.get(RcaConsts.TEST_CONFIG_PATH, "rca.conf").toString()),
+        null,
+        new AppContext());
+  }
+
+  @Test
+  public void testDataDrivenNodesWaitForNewWindow() throws Exception {
+    RCASchedulerTask task = createTask();
+
+    // A timer tick without a new window defers the nodes that read the metrics db.
+    task.runTick(true, false);
+    Assert.assertTrue(evaluated.isEmpty());
+    Assert.assertEquals(0, task.getLastTickDataDrivenRuns());
+
+    // The window arriving between two timer ticks runs them without waiting for the next tick.
+    task.runTick(false, true);
+    Assert.assertEquals(Collections.singletonList("every"), evaluated);
+    Assert.assertEquals(2, task.getLastTickDataDrivenRuns());
+
+    // Nothing is pending any more, so another window before the next tick does not run anything.
+    evaluated.clear();
+    task.runTick(false, true);
+    Assert.assertTrue(evaluated.isEmpty());
+
+    // The second timer tick brings the periodicity of both symptoms up.
+    task.runTick(true, true);
+    Assert.assertEquals(2, evaluated.size());
+    Assert.assertTrue(evaluated.contains("everyOther"));
+  }
+
+  @Test
+  public void testOnlyFoldedEvaluationsCountAsSkipped() throws Exception {
+    RCASchedulerTask task = createTask();
+
+    // Deferring a node on its own does not skip anything, it only runs later.
+    task.runTick(true, false);
+    Assert.assertEquals(0, task.getLastTickSkippedRuns());
+    task.runTick(false, false);
+    Assert.assertEquals(0, task.getLastTickSkippedRuns());
+
+    // The periodicity of the leaf and of "every" comes up again while they are still deferred.
+    task.runTick(true, false);
+    Assert.assertEquals(2, task.getLastTickSkippedRuns());
+    task.runTick(true, false);
+    Assert.assertEquals(2, task.getLastTickSkippedRuns());
+
+    // "everyOther" came up on the third tick and comes up again now, so it skips one as well. One
+    // evaluation each makes up for all the ticks without a window.
+    task.runTick(true, true);
+    Assert.assertEquals(3, task.getLastTickSkippedRuns());
+    Assert.assertEquals(2, evaluated.size());
+    task.runTick(true, true);
+    Assert.assertEquals(0, task.getLastTickSkippedRuns());
+  }
+
+  @Test
+  public void testTimerModeRunsOnEveryTick() throws Exception {
+    RCASchedulerTask task = createTask();
+    task.run();
+    task.run();
+    Assert.assertEquals(3, evaluated.size());
+    Assert.assertEquals(3, task.getLastTickDataDrivenRuns());
+  }
+}
@@ -30,6 +30,7 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetric
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.ShardOperationMetric;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.TCPDimension;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.TCPValue;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsConfiguration;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.PerformanceAnalyzerMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.Dimensions;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metricsdb.MetricsDB;
@@ -84,6 +85,13 @@ public class MetricsEmitterTests extends AbstractReaderTests {
     Result<Record> res = rqMetricsSnap.fetchThreadUtilizationRatio();
     Float tUtil = Float.parseFloat(res.get(0).get("tUtil").toString());
     assertEquals(0.07048611f, tUtil.floatValue(), 0);
+    // The matcher attributes the thread time as the join of the snapshot does.
+    ShardRequestUtilization utilization = matchRequests(1535065195000L);
+    assertEquals(3, utilization.getRequests().size());
+    assertEquals(
+        tUtil.floatValue(),
+        (float) utilization.getUtilization(utilization.getRequests().get(0)),
+        0);
 
     OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(conn, 1L);
     // Create OSMetricsSnapshot
@@ -107,7 +115,8 @@ public class MetricsEmitterTests extends AbstractReaderTests {
 
     DSLContext create = DSL.using(conn, SQLDialect.SQLITE);
     MetricsDB db = new MetricsDB(1553713402);
-    MetricsEmitter.emitAggregatedOSMetrics(create, db, osMetricsSnap, rqMetricsSnap);
+    MetricsEmitter.emitAggregatedOSMetrics(
+        create, db, AlignedOSMetrics.of(osMetricsSnap), utilization);
     res =
         db.queryMetric(
             Arrays.asList(OSMetrics.PAGING_RSS.toString(), OSMetrics.CPU_UTILIZATION.toString()),
@@ -151,6 +160,13 @@ public class MetricsEmitterTests extends AbstractReaderTests {
     Result<Record> res = rqMetricsSnap.fetchThreadUtilizationRatio();
     Float tUtil = Float.parseFloat(res.get(0).get("tUtil").toString());
     assertEquals(0.07048611f, tUtil.floatValue(), 0);
+    // The matcher attributes the thread time as the join of the snapshot does.
+    ShardRequestUtilization utilization = matchRequests(1535065195000L);
+    assertEquals(3, utilization.getRequests().size());
+    assertEquals(
+        tUtil.floatValue(),
+        (float) utilization.getUtilization(utilization.getRequests().get(0)),
+        0);
 
     OSMetricsSnapshot osMetricsSnap = new OSMetricsSnapshot(conn, 1L);
     // Create OSMetricsSnapshot
@@ -174,7 +190,8 @@ public class MetricsEmitterTests extends AbstractReaderTests {
 
     DSLContext create = DSL.using(conn, SQLDialect.SQLITE);
     MetricsDB db = new MetricsDB(1553713410);
-    MetricsEmitter.emitAggregatedOSMetrics(create, db, osMetricsSnap, rqMetricsSnap);
+    MetricsEmitter.emitAggregatedOSMetrics(
+        create, db, AlignedOSMetrics.of(osMetricsSnap), utilization);
     res =
         db.queryMetric(
             Arrays.asList(OSMetrics.PAGING_RSS.toString(), OSMetrics.CPU_UTILIZATION.toString()),
@@ -186,6 +203,19 @@ public class MetricsEmitterTests extends AbstractReaderTests {
     db.remove();
   }
 
+  /** The requests the tests put in the shard request snapshot, read by a matcher. */
+  private static ShardRequestUtilization matchRequests(long windowStartTime) {
+    ShardRequestMatcher matcher = new ShardRequestMatcher(1);
+    matcher.startWindow(windowStartTime);
+    matcher.start("1", "1", "shardBulk", "1", "ac-test", "primary", 1535065196120L, 0);
+    matcher.finish("1", "1", "shardBulk", "1", "ac-test", "primary", 1535065196323L);
+    matcher.start("2", "1", "shardSearch", "1", "ac-test", "primary", 1535065197323L, 0);
+    matcher.start("3", "2", "shardSearch", "1", "ac-test", "primary", 1535065198323L, 0);
+    matcher.finish("3", "2", "shardSearch", "1", "ac-test", "primary", 1535065199923L);
+    matcher.startWindow(windowStartTime + MetricsConfiguration.SAMPLING_INTERVAL);
+    return matcher.getUtilization(windowStartTime);
+  }
+
   @Test
   public void testHttpMetricsEmitter() throws Exception {
     Connection conn = DriverManager.getConnection(DB_URL);
@@ -223,70 +253,63 @@ public class MetricsEmitterTests extends AbstractReaderTests {
   @Test
   public void testWorkloadMetricsEmitter() throws Exception {
     Connection conn = DriverManager.getConnection(DB_URL);
-    ShardRequestMetricsSnapshot rqMetricsSnap =
-        new ShardRequestMetricsSnapshot(conn, 1535065195000L);
-    BatchBindStep handle = rqMetricsSnap.startBatchPut();
-    handle.bind(
-        "shardId", "indexName", "1", "threadId", "operation", "primary", 1535065195000L, null, 10);
-    handle.bind(
-        "shardId",
-        "indexName",
-        "1",
-        "threadId",
-        "operation",
-        "primary",
-        null,
-        1535065196000L,
-        null);
-    handle.bind(
-        "shardId", "indexName", "2", "threadId", "operation", "primary", 1535065197000L, null, 10);
-    handle.bind(
-        "shardId",
-        "indexName",
-        "2",
-        "threadId",
-        "operation",
-        "primary",
-        null,
-        1535065198000L,
-        null);
-    handle.execute();
-
-    System.out.println(rqMetricsSnap.fetchAll());
-    System.out.println(rqMetricsSnap.fetchLatencyByOp());
+    long window = 1535065195000L;
+    ShardRequestMatcher matcher = new ShardRequestMatcher(1);
+    matcher.startWindow(window);
+    matcher.start("1", "threadId", "operation", "shardId", "indexName", "primary", window, 10);
+    matcher.finish("1", "threadId", "operation", "shardId", "indexName", "primary", window + 1000);
+    matcher.finish("2", "threadId", "operation", "shardId", "indexName", "primary", window + 5000);
+    matcher.start(
+        "2", "threadId", "operation", "shardId", "indexName", "primary", window + 2000, 10);
 
     DSLContext create = DSL.using(conn, SQLDialect.SQLITE);
     MetricsDB db = new MetricsDB(1553713445);
-    MetricsEmitter.emitWorkloadMetrics(create, db, rqMetricsSnap);
+    MetricsEmitter.emitWorkloadMetrics(create, db, matcher.getLatencies(window));
     Result<Record> res =
         db.queryMetric(
             Arrays.asList(
                 ShardBulkMetric.DOC_COUNT.toString(),
-                ShardOperationMetric.SHARD_OP_COUNT.toString()),
-            Arrays.asList("sum", "sum"),
+                ShardOperationMetric.SHARD_OP_COUNT.toString(),
+                CommonMetric.LATENCY.toString(),
+                ShardOperationMetric.LATENCY_P50.toString()),
+            Arrays.asList("sum", "sum", "max", "max"),
             Arrays.asList(HttpRequestMetricsSnapshot.Fields.OPERATION.toString()));
 
-    Double bulkDocs =
-        Double.parseDouble(res.get(0).get(ShardBulkMetric.DOC_COUNT.toString()).toString());
-    Double shardOps =
-        Double.parseDouble(
-            res.get(0).get(ShardOperationMetric.SHARD_OP_COUNT.toString()).toString());
+    Record record = res.get(0);
     db.remove();
-    assertEquals(20.0d, bulkDocs.doubleValue(), 0);
-    assertEquals(2d, shardOps.doubleValue(), 0);
+    assertEquals(1, res.size());
+    assertEquals(20.0d, toDouble(record, ShardBulkMetric.DOC_COUNT.toString()), 0);
+    assertEquals(2d, toDouble(record, ShardOperationMetric.SHARD_OP_COUNT.toString()), 0);
+    // The max is exact, the percentiles are within the accuracy of the sketch.
+    assertEquals(3000d, toDouble(record, CommonMetric.LATENCY.toString()), 0);
+    assertEquals(
+        1000d,
+        toDouble(record, ShardOperationMetric.LATENCY_P50.toString()),
+        1000 * ShardRequestLatencies.RELATIVE_ACCURACY);
   }
 
   @Test
   public void testWorkloadMetricsEmitterDoNothing() throws Exception {
     Connection conn = DriverManager.getConnection(DB_URL);
-    ShardRequestMetricsSnapshot rqMetricsSnap =
-        new ShardRequestMetricsSnapshot(conn, 1535065195000L);
+    long window = 1535065195000L;
+    ShardRequestMatcher matcher = new ShardRequestMatcher(1);
+    matcher.startWindow(window);
+    // A request that has not finished has no latency yet.
+    matcher.start("1", "threadId", "operation", "shardId", "indexName", "primary", window, 10);
     DSLContext create = DSL.using(conn, SQLDialect.SQLITE);
     MetricsDB db = new MetricsDB(1553713492);
-    MetricsEmitter.emitWorkloadMetrics(create, db, rqMetricsSnap);
-    System.out.println(rqMetricsSnap.fetchAll());
+    MetricsEmitter.emitWorkloadMetrics(create, db, matcher.getLatencies(window));
+    Result<Record> res =
+        db.queryMetric(
+            Arrays.asList(ShardOperationMetric.SHARD_OP_COUNT.toString()),
+            Arrays.asList("sum"),
+            Arrays.asList(HttpRequestMetricsSnapshot.Fields.OPERATION.toString()));
     db.remove();
-    assertEquals(0, rqMetricsSnap.fetchAll().size());
+    assertEquals(0, res.size());
+  }
+
+  private static double toDouble(Record record, String metric) {
+    return Double.parseDouble(record.get(metric).toString());
   }
 
   @Test
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsWindowSignalTests {
+  @Test
+  public void testPublishIgnoresOlderWindows() {
+    MetricsWindowSignal signal = new MetricsWindowSignal();
+    Assert.assertEquals(MetricsWindowSignal.NO_WINDOW, signal.getLatestWindowStartTime());
+    signal.publish(10000);
+    signal.publish(5000);
+    Assert.assertEquals(10000, signal.getLatestWindowStartTime());
+  }
+
+  @Test
+  public void testAwaitTimesOutWithoutNewWindow() throws Exception {
+    MetricsWindowSignal signal = new MetricsWindowSignal();
+    signal.publish(10000);
+    long start = System.currentTimeMillis();
+    Assert.assertEquals(10000, signal.awaitWindowAfter(10000, 50));
+    Assert.assertTrue(System.currentTimeMillis() - start >= 50);
+  }
+
+  @Test
+  public void testAwaitReturnsOnPublish() throws Exception {
+    MetricsWindowSignal signal = new MetricsWindowSignal();
+    CompletableFuture<Long> waiter =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return signal.awaitWindowAfter(MetricsWindowSignal.NO_WINDOW, 10000);
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    signal.publish(15000);
+    Assert.assertEquals(15000L, (long) waiter.get(5, TimeUnit.SECONDS));
+  }
+}
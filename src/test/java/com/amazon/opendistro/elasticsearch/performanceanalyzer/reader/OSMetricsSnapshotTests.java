@@ -21,11 +21,10 @@ import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetric
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.OSMetrics;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import org.jooq.BatchBindStep;
-import org.jooq.Record;
-import org.jooq.Result;
 import org.junit.Test;
 
 @SuppressWarnings("serial")
@@ -258,15 +257,15 @@ public class OSMetricsSnapshotTests {
     metrics.put(OSMetrics.PAGING_RSS.toString(), 3.63d);
     os2.putMetric(metrics, dimensions, 12000L);
 
-    OSMetricsSnapshot osFinal = new OSMetricsSnapshot(conn, 3L);
-    OSMetricsSnapshot.alignWindow(osMetricsSnap, os2, osFinal.getTableName(), 5000L, 10000L);
-    Result<Record> res = osFinal.fetchAll();
-    // System.out.println(res);
-    Double cpu =
-        Double.parseDouble(res.get(0).get(OSMetrics.CPU_UTILIZATION.toString()).toString());
-    assertEquals(cpu.doubleValue(), 2.3333d, 0);
-    cpu = Double.parseDouble(res.get(1).get(OSMetrics.CPU_UTILIZATION.toString()).toString());
-    assertEquals(cpu.doubleValue(), 3.8d, 0);
+    AlignedOSMetrics osFinal = AlignedOSMetrics.align(osMetricsSnap, os2, 5000L, 10000L);
+    int cpuColumn =
+        Arrays.asList(AlignedOSMetrics.getMetricColumns())
+            .indexOf(OSMetrics.CPU_UTILIZATION.toString());
+    assertEquals(3, osFinal.size());
+    assertEquals("1", osFinal.getTid(0));
+    assertEquals(osFinal.getMetric(0, cpuColumn), 2.3333d, 0);
+    assertEquals("2", osFinal.getTid(1));
+    assertEquals(osFinal.getMetric(1, cpuColumn), 3.8d, 0);
   }
 
   @Test
@@ -292,16 +291,16 @@ public class OSMetricsSnapshotTests {
     metrics.put("CPU_Utilization", 30d);
     os2.putMetric(metrics, dimensions, 12000L);
 
-    OSMetricsSnapshot osFinal = new OSMetricsSnapshot(conn, 3L);
-    OSMetricsSnapshot.alignWindow(osMetricsSnap, os2, osFinal.getTableName(), 5000L, 10000L);
-    Result<Record> res = osFinal.fetchAll();
-    assertEquals(3, res.size());
-    // System.out.println(res);
-    Double cpu = Double.parseDouble(res.get(0).get("CPU_Utilization").toString());
-    assertEquals(cpu.doubleValue(), 16d, 0);
-    cpu = Double.parseDouble(res.get(1).get("CPU_Utilization").toString());
-    assertEquals(cpu.doubleValue(), 20, 0);
-    cpu = Double.parseDouble(res.get(2).get("CPU_Utilization").toString());
-    assertEquals(cpu.doubleValue(), 30, 0);
+    AlignedOSMetrics osFinal = AlignedOSMetrics.align(osMetricsSnap, os2, 5000L, 10000L);
+    int cpuColumn = Arrays.asList(AlignedOSMetrics.getMetricColumns()).indexOf("CPU_Utilization");
+    assertEquals(3, osFinal.size());
+    // Threads of both windows first, then of the left window only, then of the right window only.
+    assertEquals("1", osFinal.getTid(0));
+    assertEquals(osFinal.getMetric(0, cpuColumn), 16d, 0);
+    assertEquals("2", osFinal.getTid(1));
+    assertEquals(osFinal.getMetric(1, cpuColumn), 20, 0);
+    assertEquals("3", osFinal.getTid(2));
+    assertEquals(osFinal.getMetric(2, cpuColumn), 30, 0);
+    assertEquals(-1, osFinal.find("4"));
   }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.api.aggregators.QuantileSketch;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ShardRequestMatcherTests {
+  private static final long WINDOW = 1535065340000L;
+
+  @Test
+  public void testMatchesStartAndFinishInAnyOrder() {
+    ShardRequestMatcher matcher = new ShardRequestMatcher(4);
+    matcher.startWindow(WINDOW);
+    matcher.start("2447782", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 330, 0);
+    matcher.finish("2447782", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 625);
+    // The same request id with another operation is another request.
+    matcher.finish("2447782", "7069", "shardfetch", "0", "sonested", "NA", WINDOW + 730);
+    matcher.start("2447782", "7069", "shardfetch", "0", "sonested", "NA", WINDOW + 729, 0);
+    matcher.start("2447783", "7070", "shardbulk", "1", "sonested", "primary", WINDOW + 100, 10);
+    matcher.finish("2447783", "7070", "shardbulk", "1", "sonested", "primary", WINDOW + 300);
+    matcher.start("2447784", "7070", "shardbulk", "1", "sonested", "primary", WINDOW + 400, 5);
+    matcher.finish("2447784", "7070", "shardbulk", "1", "sonested", "primary", WINDOW + 500);
+    assertEquals(0, matcher.getInflightCount());
+
+    Map<String, ShardRequestLatencies.ShardOperation> operations =
+        byOperation(matcher.getLatencies(WINDOW));
+    assertEquals(3, operations.size());
+    assertEquals(295, operations.get("shardquery").getLatencies().getSum(), 0);
+    assertEquals(1, operations.get("shardfetch").getLatencies().getMax(), 0);
+    ShardRequestLatencies.ShardOperation bulk = operations.get("shardbulk");
+    assertEquals("primary", bulk.getShardRole());
+    assertEquals(2, bulk.getLatencies().getCount());
+    assertEquals(150, bulk.getLatencies().getAverage(), 0);
+    assertEquals(15, bulk.getDocCount());
+  }
+
+  @Test
+  public void testInflightRequestsFinishInLaterWindows() {
+    ShardRequestMatcher matcher = new ShardRequestMatcher(2);
+    matcher.startWindow(WINDOW);
+    matcher.start("1", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 1000, 0);
+    // A finish without a start is dropped with the window.
+    matcher.finish("2", "7070", "shardquery", "0", "sonested", "NA", WINDOW + 1000);
+    assertEquals(2, matcher.getInflightCount());
+
+    matcher.startWindow(WINDOW + 5000);
+    assertEquals(1, matcher.getInflightCount());
+    matcher.startWindow(WINDOW + 10000);
+    matcher.finish("1", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 11000);
+    matcher.start("2", "7070", "shardquery", "0", "sonested", "NA", WINDOW + 10500, 0);
+    assertEquals(1, matcher.getInflightCount());
+
+    assertEquals(0, matcher.getLatencies(WINDOW + 5000).getOperations().size());
+    assertEquals(
+        10000,
+        byOperation(matcher.getLatencies(WINDOW + 10000)).get("shardquery").getLatencies()
+            .getMax(),
+        0);
+    // Only as many windows as asked for are kept.
+    assertNull(matcher.getLatencies(WINDOW));
+  }
+
+  @Test
+  public void testExpiresRequestsThatCannotFinish() {
+    ShardRequestMatcher matcher = new ShardRequestMatcher(4);
+    matcher.startWindow(WINDOW);
+    matcher.start("1", "7069", "shardquery", "0", "sonested", "NA", WINDOW - 1000, 0);
+    matcher.start("2", "7069", "shardfetch", "0", "sonested", "NA", WINDOW - 500, 0);
+    matcher.start("3", "7070", "shardquery", "0", "sonested", "NA", WINDOW - 1000, 0);
+    matcher.start(
+        "4",
+        "7071",
+        "shardquery",
+        "0",
+        "sonested",
+        "NA",
+        WINDOW - ShardRequestMetricsSnapshot.EXPIRE_AFTER,
+        0);
+    matcher.start("5", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 1000, 0);
+    assertEquals(5, matcher.getInflightCount());
+
+    // Request 1 and 2 are older than the window, on a thread that started request 5 since, and
+    // request 4 is too old. Request 3 is the latest on its thread.
+    matcher.startWindow(WINDOW + 5000);
+    assertEquals(2, matcher.getInflightCount());
+    matcher.finish("1", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 6000);
+    matcher.finish("3", "7070", "shardquery", "0", "sonested", "NA", WINDOW + 6000);
+    matcher.finish("5", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 6000);
+    assertEquals(1, matcher.getInflightCount());
+    assertEquals(
+        2,
+        byOperation(matcher.getLatencies(WINDOW + 5000)).get("shardquery").getLatencies()
+            .getCount());
+  }
+
+  @Test
+  public void testManyRequestsInFlight() {
+    ShardRequestMatcher matcher = new ShardRequestMatcher(4);
+    matcher.startWindow(WINDOW);
+    int requests = 50000;
+    for (int i = 0; i < requests; i++) {
+      matcher.start(String.valueOf(i), "t" + (i % 64), "shardbulk", "0", "idx", "primary", i, 1);
+    }
+    assertEquals(requests, matcher.getInflightCount());
+    // Finishing in another order moves the requests left in the table around.
+    for (int i = requests - 1; i >= 0; i -= 2) {
+      matcher.finish(String.valueOf(i), "t" + (i % 64), "shardbulk", "0", "idx", "primary", i + 7);
+    }
+    for (int i = 0; i < requests; i += 2) {
+      matcher.finish(String.valueOf(i), "t" + (i % 64), "shardbulk", "0", "idx", "primary", i + 3);
+    }
+    assertEquals(0, matcher.getInflightCount());
+    QuantileSketch latencies =
+        byOperation(matcher.getLatencies(WINDOW)).get("shardbulk").getLatencies();
+    assertEquals(requests, latencies.getCount());
+    assertEquals(3, latencies.getMin(), 0);
+    assertEquals(7, latencies.getMax(), 0);
+    assertEquals(5, latencies.getAverage(), 0);
+  }
+
+  @Test
+  public void testAttributesThreadTimeToRequests() {
+    ShardRequestMatcher matcher = new ShardRequestMatcher(4);
+    matcher.startWindow(WINDOW);
+    matcher.start("1", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 1000, 0);
+    matcher.start("2", "7069", "shardfetch", "0", "sonested", "NA", WINDOW + 3000, 0);
+    matcher.finish("2", "7069", "shardfetch", "0", "sonested", "NA", WINDOW + 4000);
+    // A finish without a start counts from the start of the window.
+    matcher.finish("3", "7070", "shardquery", "0", "sonested", "NA", WINDOW + 2000);
+    assertNull(matcher.getUtilization(WINDOW));
+
+    // Request 1 is still in flight and counts up to the end of the window.
+    matcher.startWindow(WINDOW + 5000);
+    ShardRequestUtilization utilization = matcher.getUtilization(WINDOW);
+    Map<String, ShardRequestUtilization.Request> requests = byThreadOperation(utilization);
+    assertEquals(3, requests.size());
+    assertEquals(4000, requests.get("7069/shardquery").getTime());
+    assertEquals(0.8, utilization.getUtilization(requests.get("7069/shardquery")), 0);
+    assertEquals(0.2, utilization.getUtilization(requests.get("7069/shardfetch")), 0);
+    assertEquals(2000, requests.get("7070/shardquery").getTime());
+    assertEquals(1, utilization.getUtilization(requests.get("7070/shardquery")), 0);
+
+    matcher.finish("1", "7069", "shardquery", "0", "sonested", "NA", WINDOW + 6000);
+    matcher.start("4", "7070", "shardbulk", "1", "sonested", "primary", WINDOW + 9000, 0);
+    matcher.start("5", "7071", "shardquery", "0", "sonested", "NA", WINDOW + 7000, 0);
+    matcher.finish("5", "7071", "shardquery", "0", "sonested", "NA", WINDOW + 7000);
+    // Starting the current window again does not close it.
+    matcher.startWindow(WINDOW + 5000);
+    assertNull(matcher.getUtilization(WINDOW + 5000));
+
+    matcher.startWindow(WINDOW + 10000);
+    utilization = matcher.getUtilization(WINDOW + 5000);
+    requests = byThreadOperation(utilization);
+    assertEquals(3, requests.size());
+    assertEquals(1000, requests.get("7069/shardquery").getTime());
+    assertEquals(1000, requests.get("7070/shardbulk").getTime());
+    assertEquals(1, utilization.getUtilization(requests.get("7070/shardbulk")), 0);
+    // A thread whose requests took no time has no utilization.
+    assertTrue(Double.isNaN(utilization.getUtilization(requests.get("7071/shardquery"))));
+  }
+
+  private static Map<String, ShardRequestUtilization.Request> byThreadOperation(
+      ShardRequestUtilization utilization) {
+    Map<String, ShardRequestUtilization.Request> requests = new HashMap<>();
+    for (ShardRequestUtilization.Request request : utilization.getRequests()) {
+      requests.put(request.getTid() + "/" + request.getOperation(), request);
+    }
+    return requests;
+  }
+
+  private static Map<String, ShardRequestLatencies.ShardOperation> byOperation(
+      ShardRequestLatencies latencies) {
+    Map<String, ShardRequestLatencies.ShardOperation> operations = new HashMap<>();
+    for (ShardRequestLatencies.ShardOperation operation : latencies.getOperations()) {
+      operations.put(operation.getOperation(), operation);
+    }
+    return operations;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.EventDispatcher;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventLogFileHandlerTests {
+  private static final long EPOCH = 1566413960000L;
+
+  private Path dir;
+
+  private static class CollectingDispatcher extends EventDispatcher {
+    private final List<Event> events = new ArrayList<>();
+
+    @Override
+    public void processEvent(Event event, Supplier<String> value) {
+      if (value != null) {
+        event.value = value.get();
+      }
+      events.add(event);
+    }
+  }
+
+  @Before
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("eventlog");
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  private static Event event(String key, String value) {
+    String path =
+        Paths.get(
+                PluginSettings.instance().getMetricsLocation(),
+                String.valueOf(System.currentTimeMillis()),
+                key)
+            .toString();
+    return new Event(path, value, 0);
+  }
+
+  private List<Event> writeAndRead(boolean binary, boolean mmap, String largeValue) {
+    EventLogFileHandler writer =
+        new EventLogFileHandler(new EventLog(binary), dir.toString(), mmap);
+    writer.writeTmpFileWithPrivilege(
+        Arrays.asList(event("heap_metrics", "Heap_Used:1"), event("os_metrics", largeValue)),
+        EPOCH);
+    writer.writeTmpFileWithPrivilege(
+        Arrays.asList(event("node_metrics", "Cache:2")), EPOCH);
+    writer.renameFromTmpWithPrivilege(EPOCH);
+
+    EventLogFileHandler reader =
+        new EventLogFileHandler(new EventLog(binary), dir.toString(), mmap);
+    CollectingDispatcher dispatcher = new CollectingDispatcher();
+    reader.read(EPOCH, dispatcher);
+    assertTrue(reader.getLastReadFileBytes() > largeValue.length());
+    assertEquals(mmap, reader.isMmapRead());
+    return dispatcher.events;
+  }
+
+  private static String largeValue() {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 5 * 8192) {
+      sb.append("CPU_Utilization:0.25\n");
+    }
+    return sb.toString();
+  }
+
+  private void verify(boolean binary, boolean mmap) {
+    String large = largeValue();
+    List<Event> events = writeAndRead(binary, mmap, large);
+    assertEquals(3, events.size());
+    assertEquals("heap_metrics", events.get(0).key);
+    assertEquals("Heap_Used:1", events.get(0).value);
+    assertEquals("os_metrics", events.get(1).key);
+    assertEquals(large, events.get(1).value);
+    assertEquals("node_metrics", events.get(2).key);
+    assertEquals("Cache:2", events.get(2).value);
+  }
+
+  @Test
+  public void testMappedBinaryRead() {
+    verify(true, true);
+  }
+
+  @Test
+  public void testMappedTextRead() {
+    verify(false, true);
+  }
+
+  @Test
+  public void testHeapBinaryRead() {
+    verify(true, false);
+  }
+
+  @Test
+  public void testHeapTextRead() {
+    verify(false, false);
+  }
+
+  @Test
+  public void testMissingFileResetsStats() {
+    EventLogFileHandler reader =
+        new EventLogFileHandler(new EventLog(true), dir.toString(), true);
+    reader.read(EPOCH, new CollectingDispatcher());
+    assertEquals(0, reader.getLastReadFileBytes());
+    assertEquals(0, reader.getLastReadCpuTimeNanos());
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.reader_writer_shared;
+
+import static org.junit.Assert.assertEquals;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.config.PluginSettings;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.EventDispatcher;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class EventLogTests {
+
+  private static class CollectingDispatcher extends EventDispatcher {
+    private final List<Event> events = new ArrayList<>();
+
+    @Override
+    public void processEvent(Event event, Supplier<String> value) {
+      if (value != null) {
+        event.value = value.get();
+      }
+      events.add(event);
+    }
+  }
+
+  private static Event event(String key, String value) {
+    String path =
+        Paths.get(
+                PluginSettings.instance().getMetricsLocation(),
+                String.valueOf(System.currentTimeMillis()),
+                key)
+            .toString();
+    return new Event(path, value, 0);
+  }
+
+  private static List<Event> sampleEvents() {
+    return Arrays.asList(
+        event("heap_metrics", "current_time:1566110054768\nHeap_Used:1024"),
+        event("threads/7123/os_metrics", "current_time:1566110054768\nCPU:0.25"),
+        event("heap_metrics", "current_time:1566110054769\nHeap_Used:2048"),
+        event("shardquery/dGVzdA/start", "current_time:1566110054770\nindexName:\u00e9l\u00e8ve"));
+  }
+
+  private static List<Event> read(byte[] data) {
+    CollectingDispatcher dispatcher = new CollectingDispatcher();
+    new EventLog(true).read(ByteBuffer.wrap(data), dispatcher);
+    return dispatcher.events;
+  }
+
+  private static void assertEvents(List<Event> expected, List<Event> actual, int keyPrefix) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).key.substring(keyPrefix), actual.get(i).key);
+      assertEquals(expected.get(i).value, actual.get(i).value);
+    }
+  }
+
+  private static int keyPrefix(List<Event> events) {
+    String key = events.get(0).key;
+    return key.length() - "heap_metrics".length();
+  }
+
+  @Test
+  public void testBinaryRoundTrip() {
+    List<Event> events = sampleEvents();
+    List<Event> actual = read(new EventLog(true).write(events));
+    assertEvents(events, actual, keyPrefix(events));
+  }
+
+  @Test
+  public void testTextIsStillReadable() {
+    List<Event> events = sampleEvents().subList(0, 3);
+    List<Event> actual = read(new EventLog(false).write(events));
+    assertEvents(events, actual, keyPrefix(events));
+  }
+
+  @Test
+  public void testMixedFramingsInOneFile() {
+    List<Event> events = sampleEvents().subList(0, 3);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] text = new EventLog(false).write(events.subList(0, 1));
+    byte[] binary = new EventLog(true).write(events.subList(1, 3));
+    out.write(text, 0, text.length);
+    out.write(binary, 0, binary.length);
+
+    List<Event> actual = read(out.toByteArray());
+    assertEvents(events, actual, keyPrefix(events));
+  }
+
+  @Test
+  public void testKeysAreInternedOncePerBatch() {
+    List<Event> events = sampleEvents();
+    byte[] data = new EventLog(true).write(events);
+    int keyFrames = 0;
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    while (buffer.hasRemaining()) {
+      int start = buffer.position();
+      assertEquals(EventLog.BINARY_MAGIC, buffer.get(start));
+      if (buffer.get(start + 2) == EventLog.FRAME_TYPE_KEY) {
+        keyFrames++;
+      }
+      buffer.position(start + EventLog.FRAME_HEADER_SIZE + buffer.getInt(start + 3));
+    }
+    assertEquals(3, keyFrames);
+  }
+
+  @Test
+  public void testTruncatedTrailingFrameIsIgnored() {
+    List<Event> events = sampleEvents();
+    byte[] data = new EventLog(true).write(events);
+    byte[] truncated = Arrays.copyOf(data, data.length - 3);
+
+    List<Event> actual = read(truncated);
+    assertEvents(events.subList(0, 3), actual, keyPrefix(events));
+  }
+}
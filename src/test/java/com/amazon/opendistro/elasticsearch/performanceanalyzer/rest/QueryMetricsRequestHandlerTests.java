@@ -16,21 +16,45 @@
 package com.amazon.opendistro.elasticsearch.performanceanalyzer.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsRequest;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.grpc.MetricsResponse;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics.OSMetrics;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.MetricsRestUtil;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.handler.MetricsServerHandler;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.net.NetClient;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
 import com.amazon.opendistro.elasticsearch.performanceanalyzer.reader.ReaderMetricsProcessor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 @SuppressWarnings("serial")
 public class QueryMetricsRequestHandlerTests {
@@ -152,6 +176,120 @@ public class QueryMetricsRequestHandlerTests {
     assertEquals(0, ret.size());
   }
 
+  @Test
+  public void testParseMapParameter() throws Exception {
+    HashMap<String, String> params = new HashMap<String, String>();
+    assertEquals(0, metricsRestUtil.parseMapParam(params, "filter").size());
+
+    params.put("filter", "Operation:shardquery,IndexName:sonested");
+    Map<String, String> ret = metricsRestUtil.parseMapParam(params, "filter");
+    assertEquals(2, ret.size());
+    assertEquals("shardquery", ret.get("Operation"));
+    assertEquals("sonested", ret.get("IndexName"));
+  }
+
+  @Test(expected = InvalidParameterException.class)
+  public void testParseMapParameterNoValue() throws Exception {
+    HashMap<String, String> params = new HashMap<String, String>();
+    params.put("filter", "Operation");
+    metricsRestUtil.parseMapParam(params, "filter");
+  }
+
+  @Test
+  public void testFilterRows() {
+    Field<String> operation = DSL.field(DSL.name("Operation"), String.class);
+    Field<Double> cpu = DSL.field(DSL.name("CPU_Utilization"), Double.class);
+    Field<?>[] fields = {operation, cpu};
+    DSLContext create = DSL.using(SQLDialect.SQLITE);
+    Result<Record> result = create.newResult(fields);
+    String[] operations = {"shardquery", "shardfetch", "shardquery", "shardquery", "GC"};
+    Double[] values = {0.5, 2.0, 1.5, null, 3.0};
+    for (int i = 0; i < operations.length; i++) {
+      Record record = create.newRecord(fields);
+      record.set(operation, operations[i]);
+      record.set(cpu, values[i]);
+      result.add(record);
+    }
+
+    assertSame(result, metricsRestUtil.filterRows(result, Collections.emptyMap()));
+
+    Map<String, String> filter = Collections.singletonMap("Operation", "shardquery");
+    Result<Record> filtered = metricsRestUtil.filterRows(result, filter);
+    assertEquals(3, filtered.size());
+    assertEquals(Double.valueOf(0.5), filtered.get(0).get(cpu));
+    assertEquals(Double.valueOf(1.5), filtered.get(1).get(cpu));
+    assertNull(filtered.get(2).get(cpu));
+  }
+
+  @Test
+  public void testStreamRemoteStats() throws Exception {
+    InstanceDetails local = node("local", "10.0.0.1");
+    InstanceDetails fast = node("fast", "10.0.0.2");
+    InstanceDetails slow = node("slow", "10.0.0.3");
+    InstanceDetails failing = node("failing", "10.0.0.4");
+    NetClient netClient = Mockito.mock(NetClient.class);
+    // The fast node answers right away, the slow one never does and the failing one is down.
+    Mockito.doAnswer(
+            invocation -> {
+              StreamObserver<MetricsResponse> observer = invocation.getArgument(2);
+              observer.onNext(
+                  MetricsResponse.newBuilder().setMetricsResult("{\"fast\": 1}").build());
+              observer.onCompleted();
+              return null;
+            })
+        .when(netClient)
+        .getMetrics(
+            Mockito.eq(fast),
+            Mockito.any(),
+            Mockito.any(),
+            Mockito.anyLong(),
+            Mockito.any(TimeUnit.class));
+    Mockito.doAnswer(
+            invocation -> {
+              StreamObserver<MetricsResponse> observer = invocation.getArgument(2);
+              observer.onError(Status.UNAVAILABLE.asRuntimeException());
+              return null;
+            })
+        .when(netClient)
+        .getMetrics(
+            Mockito.eq(failing),
+            Mockito.any(),
+            Mockito.any(),
+            Mockito.anyLong(),
+            Mockito.any(TimeUnit.class));
+
+    HttpExchange exchange = Mockito.mock(HttpExchange.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    Mockito.when(exchange.getResponseBody()).thenReturn(body);
+    QueryMetricsRequestHandler handler =
+        new QueryMetricsRequestHandler(netClient, metricsRestUtil, new AppContext());
+    long start = System.currentTimeMillis();
+    handler.streamRemoteStats(
+        exchange,
+        MetricsRequest.newBuilder().build(),
+        Arrays.asList(local, fast, slow, failing),
+        "local",
+        "{\"local\": 0}");
+
+    // The slow node is given up on at the deadline instead of holding the response.
+    assertTrue(System.currentTimeMillis() - start < 10000);
+    Mockito.verify(exchange).sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+    JsonNode response = new ObjectMapper().readTree(body.toString("UTF-8"));
+    assertEquals(0, response.get("local").get("local").asInt());
+    assertEquals(1, response.get("fast").get("fast").asInt());
+    assertFalse(response.has("slow"));
+    assertFalse(response.has("failing"));
+    assertEquals(1, response.get("timed_out_nodes").size());
+    assertEquals("slow", response.get("timed_out_nodes").get(0).asText());
+    assertEquals(1, response.get("failed_nodes").size());
+    assertEquals("failing", response.get("failed_nodes").get(0).asText());
+  }
+
+  private static InstanceDetails node(String id, String ip) {
+    return new InstanceDetails(
+        AllMetrics.NodeRole.DATA, new InstanceDetails.Id(id), new InstanceDetails.Ip(ip), false);
+  }
+
   @Test(expected = InvalidParameterException.class)
   public void testParseArrayParameterNoParam() throws Exception {
     String rootLocation = "test_files/dev/shm";
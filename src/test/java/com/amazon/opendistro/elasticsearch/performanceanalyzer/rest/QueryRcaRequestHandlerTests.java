@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.opendistro.elasticsearch.performanceanalyzer.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.AppContext;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.metrics.AllMetrics;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.core.Stats;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.framework.util.InstanceDetails;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.persistence.Persistable;
+import com.amazon.opendistro.elasticsearch.performanceanalyzer.rca.store.rca.temperature.ClusterTemperatureRca;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class QueryRcaRequestHandlerTests {
+  private static final String RCA = ClusterTemperatureRca.TABLE_NAME;
+  private static final String CLUSTER_QUERY = "name=" + RCA;
+  private static final String LOCAL_QUERY = "name=" + RCA + "&local=true";
+
+  private QueryRcaRequestHandler handler;
+  private Persistable persistable;
+  // The version of the RCA in the persistable, bumped by every write.
+  private final AtomicLong version = new AtomicLong(1);
+  // Every read of the RCA returns a new value, so that responses built apart can be told apart.
+  private final AtomicInteger reads = new AtomicInteger();
+
+  @Before
+  public void setup() {
+    // Initializes the muted RCAs that local requests are checked against.
+    Stats.getInstance().getConnectedComponents();
+
+    AppContext appContext = Mockito.mock(AppContext.class);
+    Mockito.when(appContext.getMyInstanceDetails())
+        .thenReturn(
+            new InstanceDetails(
+                AllMetrics.NodeRole.ELECTED_MASTER,
+                new InstanceDetails.Id("master"),
+                new InstanceDetails.Ip("127.0.0.1"),
+                true));
+    persistable = Mockito.mock(Persistable.class);
+    Mockito.when(persistable.getVersion(RCA)).thenAnswer(invocation -> version.get());
+    Mockito.when(persistable.read(RCA))
+        .thenAnswer(invocation -> new JsonPrimitive(reads.incrementAndGet()));
+    handler = new QueryRcaRequestHandler(appContext);
+    handler.setPersistable(persistable);
+  }
+
+  @Test
+  public void testUnchangedVersionIsNotModified() throws Exception {
+    Response first = query(CLUSTER_QUERY, null);
+    assertEquals(HttpURLConnection.HTTP_OK, first.status);
+    assertNotNull(first.etag);
+
+    Response second = query(CLUSTER_QUERY, first.etag);
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, second.status);
+    assertEquals(first.etag, second.etag);
+    assertEquals("", second.body);
+
+    // A client without the ETag gets the cached body, which is not read again.
+    Response third = query(CLUSTER_QUERY, null);
+    assertEquals(HttpURLConnection.HTTP_OK, third.status);
+    assertEquals(first.body, third.body);
+    Mockito.verify(persistable, Mockito.times(1)).read(RCA);
+  }
+
+  @Test
+  public void testWriteChangesETag() throws Exception {
+    Response first = query(CLUSTER_QUERY, null);
+    version.incrementAndGet();
+
+    Response second = query(CLUSTER_QUERY, first.etag);
+    assertEquals(HttpURLConnection.HTTP_OK, second.status);
+    assertNotEquals(first.etag, second.etag);
+    assertNotEquals(first.body, second.body);
+
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, query(CLUSTER_QUERY, second.etag).status);
+  }
+
+  @Test
+  public void testClusterAndLocalRequestsAreCachedApart() throws Exception {
+    Response cluster = query(CLUSTER_QUERY, null);
+    Response local = query(LOCAL_QUERY, null);
+    assertEquals(HttpURLConnection.HTTP_OK, cluster.status);
+    assertEquals(HttpURLConnection.HTTP_OK, local.status);
+    // The local response was built on its own rather than served from the cluster entry.
+    assertNotEquals(cluster.etag, local.etag);
+    Mockito.verify(persistable, Mockito.times(2)).read(RCA);
+
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, query(CLUSTER_QUERY, cluster.etag).status);
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, query(LOCAL_QUERY, local.etag).status);
+    assertEquals(HttpURLConnection.HTTP_OK, query(LOCAL_QUERY, cluster.etag).status);
+  }
+
+  private Response query(String query, String ifNoneMatch) throws Exception {
+    HttpExchange exchange = Mockito.mock(HttpExchange.class);
+    Headers requestHeaders = new Headers();
+    if (ifNoneMatch != null) {
+      requestHeaders.set("If-None-Match", ifNoneMatch);
+    }
+    Headers responseHeaders = new Headers();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    Mockito.when(exchange.getRequestMethod()).thenReturn("GET");
+    Mockito.when(exchange.getRequestURI())
+        .thenReturn(new URI("/_opendistro/_performanceanalyzer/rca?" + query));
+    Mockito.when(exchange.getRequestHeaders()).thenReturn(requestHeaders);
+    Mockito.when(exchange.getResponseHeaders()).thenReturn(responseHeaders);
+    Mockito.when(exchange.getResponseBody()).thenReturn(body);
+
+    handler.handle(exchange);
+
+    ArgumentCaptor<Integer> status = ArgumentCaptor.forClass(Integer.class);
+    Mockito.verify(exchange).sendResponseHeaders(status.capture(), Mockito.anyLong());
+    Response response = new Response();
+    response.status = status.getValue();
+    response.etag = responseHeaders.getFirst("ETag");
+    response.body = body.toString();
+    return response;
+  }
+
+  private static class Response {
+    int status;
+    String etag;
+    String body;
+  }
+}